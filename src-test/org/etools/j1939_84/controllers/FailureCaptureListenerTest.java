@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939_84.controllers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.etools.j1939_84.model.Outcome;
+import org.etools.j1939tools.bus.CaptureReader;
+import org.etools.j1939tools.bus.FrameHistory;
+import org.etools.j1939tools.bus.Packet;
+import org.etools.testdoc.TestDoc;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@TestDoc(description = "Verifies capturing the recent bus traffic when a step fails.")
+public class FailureCaptureListenerTest {
+
+    private Path directory;
+
+    private FrameHistory history;
+
+    private FailureCaptureListener instance;
+
+    private List<Packet> packets;
+
+    /** The time of the first frame. Frames follow a ms apart. */
+    private LocalDateTime start;
+
+    private ScheduledExecutorService scheduler;
+
+    /** Waits for the captures scheduled so far to be written. */
+    private void awaitCaptures() throws InterruptedException {
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    private void addFrames(int from, int to) {
+        for (int i = from; i < to; i++) {
+            Packet packet = new Packet(start.plusNanos(i * 1_000_000L), 3, 0xF004, 0, false, i, 2, 3, 4, 5, 6, 7, 8);
+            packets.add(packet);
+            history.accept(packet);
+        }
+    }
+
+    private List<Path> captures() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("captures");
+        history = new FrameHistory(Duration.ofSeconds(10), Long.MAX_VALUE, Duration.ofMillis(100));
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        instance = new FailureCaptureListener(history, directory, scheduler);
+        packets = new ArrayList<>();
+        start = LocalDateTime.now().minusSeconds(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        scheduler.shutdownNow();
+        for (Path file : captures()) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    @TestDoc(description = "Verify that a FAIL captures the frames before and after it.")
+    public void testFail() throws Exception {
+        addFrames(0, 100);
+        instance.addOutcome(1, 3, Outcome.FAIL, "Failed");
+        // the same step shares the capture
+        instance.addOutcome(1, 3, Outcome.FAIL, "Failed again");
+        // within the post-trigger window
+        addFrames(100, 120);
+        awaitCaptures();
+
+        List<Path> captures = captures();
+        assertEquals(1, captures.size());
+        assertTrue(captures.get(0).getFileName().toString(),
+                   captures.get(0).getFileName().toString().startsWith("J1939-84-Part1-Step3-FAIL-"));
+        try (CaptureReader reader = new CaptureReader(captures.get(0))) {
+            assertEquals(packets, reader.read().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that a capture with a post-trigger window longer than the pre-trigger window holds the frames of both windows around the FAIL.")
+    public void testLongPostTrigger() throws Exception {
+        history = new FrameHistory(Duration.ofMillis(50), Long.MAX_VALUE, Duration.ofMillis(100));
+        instance = new FailureCaptureListener(history, directory, scheduler);
+        addFrames(0, 100);
+        instance.addOutcome(1, 4, Outcome.FAIL, "Failed");
+        // to the end of the post-trigger window
+        addFrames(100, 200);
+        awaitCaptures();
+
+        List<Path> captures = captures();
+        assertEquals(1, captures.size());
+        try (CaptureReader reader = new CaptureReader(captures.get(0))) {
+            // 50 ms before the frame at 99 ms to 100 ms after it
+            assertEquals(packets.subList(49, 200), reader.read().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that each step with a WARN has a capture, and other outcomes do not.")
+    public void testWarn() throws Exception {
+        addFrames(0, 10);
+        instance.addOutcome(2, 1, Outcome.PASS, "");
+        instance.addOutcome(2, 1, Outcome.INFO, "");
+        instance.addOutcome(2, 1, Outcome.WARN, "Warning");
+        instance.addOutcome(2, 2, Outcome.WARN, "Warning");
+        awaitCaptures();
+
+        List<Path> captures = captures();
+        assertEquals(2, captures.size());
+        assertTrue(captures.get(0).getFileName().toString().startsWith("J1939-84-Part2-Step1-WARN-"));
+        assertTrue(captures.get(1).getFileName().toString().startsWith("J1939-84-Part2-Step2-WARN-"));
+    }
+}
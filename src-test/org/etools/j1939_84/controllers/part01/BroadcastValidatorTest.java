@@ -70,7 +70,7 @@ public class BroadcastValidatorTest {
         Packet packet = mock(Packet.class);
         when(packet.getPgn()).thenReturn(pgn);
         if (timestamp != null) {
-            when(packet.getTimestamp()).thenReturn(timestamp);
+            when(packet.getTimestampNanos()).thenReturn(Packet.toNanos(timestamp));
             when(packet.toTimeString()).thenReturn(format(timestamp) + " - " + pgn);
         }
 
@@ -17,12 +17,14 @@ import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Flow;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import org.etools.j1939_84.controllers.DataRepository;
 import org.etools.j1939tools.bus.Bus;
 import org.etools.j1939tools.bus.BusException;
+import org.etools.j1939tools.bus.FrameFilter;
 import org.etools.j1939tools.bus.MultiQueue;
 import org.etools.j1939tools.bus.Packet;
 import org.etools.j1939tools.j1939.J1939;
@@ -183,6 +185,11 @@ public class FileBus implements Bus {
         return queue.stream(timeout, unit);
     }
 
+    @Override
+    public Flow.Publisher<Packet> publisher(FrameFilter filter) {
+        return queue.publisher(filter);
+    }
+
     @Override
     public void resetTimeout(Stream<Packet> stream, int time, TimeUnit unit) {
         queue.resetTimeout(stream, time, unit);
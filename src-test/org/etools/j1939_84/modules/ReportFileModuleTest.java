@@ -5,16 +5,26 @@ package org.etools.j1939_84.modules;
 
 import static org.etools.j1939_84.J1939_84.NL;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.etools.j1939_84.controllers.TestResultsListener;
+import org.etools.j1939tools.bus.CanLogger;
+import org.etools.j1939tools.bus.EchoBus;
+import org.etools.j1939tools.bus.Packet;
+import org.etools.j1939tools.j1939.J1939;
 import org.etools.j1939tools.modules.DateTimeModule;
 import org.junit.After;
 import org.junit.Before;
@@ -67,6 +77,52 @@ public class ReportFileModuleTest {
         // Nothing (bad) happens;
     }
 
+    @Test
+    public void testFinalReport() throws Exception {
+        when(summaryModule.generateSummary()).thenReturn("Summary" + NL);
+        instance.setReportFile(file);
+        instance.onResult("Line 1");
+
+        String name = file.getName();
+        Path zip = file.toPath().resolveSibling(name.substring(0, name.lastIndexOf('.')) + "-J1939-84-CAN.zip");
+        try (EchoBus bus = new EchoBus(0xF9)) {
+            J1939 j1939 = new J1939(bus);
+            instance.setJ1939(j1939);
+            CanLogger canLogger = j1939.startLogger("test-CAN-");
+            bus.send(Packet.create(0xEA00, 0xF9, true, 0xEC, 0xFE, 0x00));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (canLogger.getFrameCount() < 1 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            instance.onComplete(true);
+            j1939.closeLogger();
+            Files.deleteIfExists(Path.of(j1939.getLogFilePath().orElseThrow()));
+        }
+
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertEquals("Summary of J1939-84 Tool Execution", lines.get(0));
+        int log = lines.indexOf("TEST LOG REPORT");
+        assertEquals("Line 1", lines.get(log + 2));
+        assertEquals("END TEST LOG REPORT", lines.get(log + 3));
+
+        // the results after the final report are still written to the report
+        instance.onResult("Line 2");
+        lines = Files.readAllLines(file.toPath());
+        assertEquals("Line 2", lines.get(lines.size() - 1));
+
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            ZipEntry entry = zipFile.entries().nextElement();
+            assertTrue(entry.getName(), entry.getName().startsWith("test-CAN-"));
+            List<String> frames = new String(zipFile.getInputStream(entry).readAllBytes(), StandardCharsets.UTF_8).lines()
+                                                                                                                .toList();
+            assertEquals(2, frames.size());
+            assertTrue(frames.get(1), frames.get(1).endsWith(" 1  18EA00F9x Tx d 3 EC FE 00"));
+        } finally {
+            Files.deleteIfExists(zip);
+        }
+    }
+
     @Test
     public void testOnProgramExit() throws Exception {
         instance.setReportFile(file);
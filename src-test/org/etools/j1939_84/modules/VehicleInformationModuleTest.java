@@ -23,6 +23,7 @@ import java.util.stream.Stream;
 import org.etools.j1939_84.controllers.TestResultsListener;
 import org.etools.j1939tools.bus.Bus;
 import org.etools.j1939tools.bus.BusException;
+import org.etools.j1939tools.bus.FrameFilter;
 import org.etools.j1939tools.bus.Packet;
 import org.etools.j1939tools.bus.RequestResult;
 import org.etools.j1939tools.j1939.J1939;
@@ -358,7 +359,7 @@ public class VehicleInformationModuleTest {
                            packet11.getPacket(),
                            packet2.getPacket(),
                            packet22.getPacket(),
-                           packet3.getPacket())).when(j1939).read(anyLong(), any());
+                           packet3.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         List<Integer> results = instance.getOBDModules(NOOP);
         assertEquals(3, results.size());
@@ -366,6 +367,6 @@ public class VehicleInformationModuleTest {
         assertTrue(results.contains(0x21));
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.analyzer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.etools.j1939tools.analyzer.LogStatistics.DtcStatistics;
+import org.etools.j1939tools.analyzer.LogStatistics.StreamStatistics;
+import org.etools.j1939tools.bus.Packet;
+import org.etools.j1939tools.j1939.packets.DM1ActiveDTCsPacket;
+import org.etools.j1939tools.j1939.packets.DiagnosticTroubleCode;
+import org.etools.j1939tools.j1939.packets.LampStatus;
+import org.etools.testdoc.TestDoc;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@TestDoc(description = "Verifies analyzing .asc logs in parallel.")
+public class LogAnalyzerTest {
+
+    private static final Instant START = Instant.parse("2021-04-23T12:22:43Z");
+
+    private static final LocalDateTime START_TIME = LocalDateTime.ofInstant(START, ZoneId.systemDefault());
+
+    private static final long MS = 1_000_000L;
+
+    private Path directory;
+
+    /** A frame at a time since the start of the log. */
+    private static Packet frame(long nanos, int priority, int id, int source, int... data) {
+        return new Packet(START_TIME.plusNanos(nanos), priority, id, source, false, data);
+    }
+
+    /**
+     * Writes a log of EEC1 every 10 ms from 0x00, a single frame DM1 with the
+     * MIL on from 0x00 and a BAM DM1 with two DTCs from 0x3D every second.
+     */
+    private Path writeLog(String name, int seconds, int jitterMicros, long seed) throws IOException {
+        Random random = new Random(seed);
+        List<Packet> frames = new ArrayList<>();
+        for (int t = 0; t < seconds * 100; t++) {
+            long jitter = jitterMicros == 0 ? 0 : random.nextInt(jitterMicros) * 1000L;
+            frames.add(frame(t * 10 * MS + jitter, 3, 0xF004, 0x00, t, 0x7D, 3, 4, 5, 6, 7, 0xFF));
+        }
+        int[] dm1 = DM1ActiveDTCsPacket.create(0x00,
+                                               LampStatus.ON,
+                                               LampStatus.OFF,
+                                               LampStatus.OFF,
+                                               LampStatus.OFF,
+                                               DiagnosticTroubleCode.create(100, 1, 0, 5))
+                                       .getPacket()
+                                       .getData(0, 8);
+        int[] bam = DM1ActiveDTCsPacket.create(0x3D,
+                                               LampStatus.OFF,
+                                               LampStatus.OFF,
+                                               LampStatus.OFF,
+                                               LampStatus.OFF,
+                                               DiagnosticTroubleCode.create(200, 2, 0, 1),
+                                               DiagnosticTroubleCode.create(300, 3, 0, 2))
+                                       .getPacket()
+                                       .getData(0, 10);
+        for (int s = 0; s < seconds; s++) {
+            long second = s * 1000 * MS;
+            frames.add(frame(second + 5 * MS, 6, 0xFECA, 0x00, dm1));
+            frames.add(frame(second + 505 * MS, 7, 0xECFF, 0x3D, 0x20, 10, 0, 2, 0xFF, 0xCA, 0xFE, 0x00));
+            frames.add(frame(second + 555 * MS, 7, 0xEBFF, 0x3D, 1, bam[0], bam[1], bam[2], bam[3], bam[4], bam[5], bam[6]));
+            frames.add(frame(second + 605 * MS, 7, 0xEBFF, 0x3D, 2, bam[7], bam[8], bam[9], 0xFF, 0xFF, 0xFF, 0xFF));
+        }
+        frames.sort(Comparator.comparingLong(Packet::getTimestampNanos));
+
+        List<String> lines = new ArrayList<>();
+        lines.add("base hex timestamps absolute");
+        frames.forEach(p -> lines.add(p.toVectorString(START)));
+        Path file = directory.resolve(name);
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static StreamStatistics stream(LogStatistics statistics, int pgn, int source) {
+        return statistics.getStreams()
+                         .stream()
+                         .filter(s -> s.getPgn() == pgn && s.getSource() == source)
+                         .findFirst()
+                         .orElseThrow();
+    }
+
+    private static DtcStatistics dtc(LogStatistics statistics, int source, int spn) {
+        return statistics.getDtcs()
+                         .stream()
+                         .filter(d -> d.getSource() == source && d.getSpn() == spn)
+                         .findFirst()
+                         .orElseThrow();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("analyzer");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    @TestDoc(description = "Verify the message counts, periods, lamps and DTCs of a log, including BAM messages.")
+    public void testAnalyze() throws Exception {
+        Path log = writeLog("a.asc", 10, 0, 0);
+        LogStatistics statistics = new LogAnalyzer(2).analyze(List.of(log)).get(log);
+
+        StreamStatistics eec1 = stream(statistics, 0xF004, 0x00);
+        assertEquals(1000, eec1.getCount());
+        assertEquals(10 * MS, eec1.getMinPeriodNanos());
+        assertEquals(10 * MS, eec1.getMaxPeriodNanos());
+        assertEquals(10 * MS, eec1.getMeanPeriodNanos());
+        assertArrayEquals(new long[] { 0, 0, 0, 0, 999, 0, 0, 0, 0, 0, 0, 0, 0 }, eec1.getHistogram());
+
+        assertEquals(10, stream(statistics, 0xFECA, 0x00).getCount());
+        assertEquals(10, stream(statistics, 0xFECA, 0x00).getLampOnCount());
+        // the BAM frames and the message they carry
+        assertEquals(10, stream(statistics, 0xEC00, 0x3D).getCount());
+        assertEquals(20, stream(statistics, 0xEB00, 0x3D).getCount());
+        assertEquals(10, stream(statistics, 0xFECA, 0x3D).getCount());
+        assertEquals(0, stream(statistics, 0xFECA, 0x3D).getLampOnCount());
+        assertEquals(1000 * MS, stream(statistics, 0xFECA, 0x3D).getMeanPeriodNanos());
+
+        assertEquals(3, statistics.getDtcs().size());
+        DtcStatistics mil = dtc(statistics, 0x00, 100);
+        assertEquals(1, mil.getFmi());
+        assertEquals(10, mil.getCount());
+        assertEquals(10, mil.getMilOnCount());
+        assertEquals(5, mil.getMaxOccurrenceCount());
+        assertEquals(3, dtc(statistics, 0x3D, 300).getFmi());
+        assertEquals(0, dtc(statistics, 0x3D, 300).getMilOnCount());
+        assertEquals(605 * MS, dtc(statistics, 0x3D, 200).getFirstNanos());
+    }
+
+    @Test
+    @TestDoc(description = "Verify that logs analyzed in parallel, in parts, give the same results as one at a time.")
+    public void testParallel() throws Exception {
+        List<Path> logs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            logs.add(writeLog("log" + i + ".asc", 30, 3000, i));
+        }
+        Path serial = Files.createDirectory(directory.resolve("serial"));
+        Path parallel = Files.createDirectory(directory.resolve("parallel"));
+        try {
+            Map<Path, LogStatistics> expected = new LogAnalyzer(1).analyze(logs);
+            // parts much smaller than a log, so many BAMs span two parts
+            Map<Path, LogStatistics> actual = new LogAnalyzer(4, 10_000).analyze(logs);
+            assertEquals(3000, stream(actual.get(logs.get(0)), 0xF004, 0x00).getCount());
+            assertEquals(30, stream(actual.get(logs.get(0)), 0xFECA, 0x3D).getCount());
+
+            LogAnalyzer.writeCsv(expected, serial);
+            LogAnalyzer.writeCsv(actual, parallel);
+            for (String name : List.of("streams.csv", "dtcs.csv")) {
+                assertEquals(Files.readAllLines(serial.resolve(name)), Files.readAllLines(parallel.resolve(name)));
+            }
+        } finally {
+            for (Path dir : List.of(serial, parallel)) {
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path file : files.collect(Collectors.toList())) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(dir);
+            }
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that the statistics are written as CSV and JSON, with the statistics of all logs.")
+    public void testWrite() throws Exception {
+        List<Path> logs = List.of(writeLog("a.asc", 2, 0, 0), writeLog("b.asc", 3, 0, 0));
+        Map<Path, LogStatistics> results = new LogAnalyzer(2).analyze(logs);
+        Path json = directory.resolve("analysis.json");
+        LogAnalyzer.writeCsv(results, directory);
+        LogAnalyzer.writeJson(results, json);
+
+        List<String> streams = Files.readAllLines(directory.resolve("streams.csv"));
+        assertTrue(streams.get(0), streams.get(0).startsWith("\"File\",\"PGN\",\"Acronym\",\"Source\",\"Messages\""));
+        assertTrue(streams.stream()
+                          .anyMatch(l -> l.startsWith("\"ALL\",\"61444\",\"EEC1\",\"0\",\"500\",")));
+        List<String> dtcs = Files.readAllLines(directory.resolve("dtcs.csv"));
+        assertTrue(dtcs.stream()
+                       .anyMatch(l -> l.startsWith("\"ALL\",\"65226\",\"DM1\",\"0\",\"100\",\"1\",\"5\",\"5\",\"5\"")));
+
+        String text = Files.readString(json);
+        assertTrue(text, text.startsWith("{\n  \"streams\": [\n    {\"File\": "));
+        assertTrue(text, text.contains("\"PGN\": 61444, \"Acronym\": \"EEC1\", \"Source\": 0, \"Messages\": 200,"));
+        assertTrue(text, text.endsWith("]\n}\n"));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.analyzer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.stream.IntStream;
+
+import org.etools.j1939tools.bus.Packet;
+import org.etools.testdoc.TestDoc;
+import org.junit.Test;
+
+@TestDoc(description = "Verifies reassembling transport protocol messages from the frames of a log.")
+public class TpReassemblerTest {
+
+    private final TpReassembler instance = new TpReassembler();
+
+    private static Packet frame(long millis, int id, int source, int... data) {
+        Packet packet = Packet.create(7, id, source, false, toBytes(data));
+        packet.setTimestampNanos(millis * 1_000_000L);
+        return packet;
+    }
+
+    private static byte[] toBytes(int... data) {
+        byte[] bytes = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            bytes[i] = (byte) data[i];
+        }
+        return bytes;
+    }
+
+    private static int[] data(int size) {
+        return IntStream.range(0, size).map(i -> i * 3).toArray();
+    }
+
+    /** @return the DT frame of a sequence number of the data */
+    private static Packet dt(long millis, int destination, int source, int[] data, int sequence) {
+        int[] frame = new int[8];
+        frame[0] = sequence;
+        for (int i = 1; i < 8; i++) {
+            int index = (sequence - 1) * 7 + i - 1;
+            frame[i] = index < data.length ? data[index] : 0xFF;
+        }
+        return frame(millis, 0xEB00 | destination, source, frame);
+    }
+
+    @Test
+    @TestDoc(description = "Verify that a BAM message is completed by its last DT frame.")
+    public void testBam() {
+        int[] data = data(20);
+        assertNull(instance.accept(frame(0, 0xECFF, 0x3D, 0x20, 20, 0, 3, 0xFF, 0xCA, 0xFE, 0x00), true));
+        assertNull(instance.accept(dt(50, 0xFF, 0x3D, data, 1), true));
+        // DTs of other sources are not part of the message
+        assertNull(instance.accept(dt(60, 0xFF, 0x17, data, 2), true));
+        assertNull(instance.accept(dt(100, 0xFF, 0x3D, data, 2), true));
+        Packet message = instance.accept(dt(150, 0xFF, 0x3D, data, 3), false);
+
+        assertEquals(0xFECA, message.getPgn());
+        assertEquals(0x3D, message.getSource());
+        assertEquals(7, message.getPriority());
+        assertEquals(150_000_000L, message.getTimestampNanos());
+        assertArrayEquals(data, message.getData(0, message.getLength()));
+        assertTrue(instance.isEmpty());
+    }
+
+    @Test
+    @TestDoc(description = "Verify that a destination specific message is reassembled from its RTS and DT frames.")
+    public void testRts() {
+        int[] data = data(9);
+        assertNull(instance.accept(frame(0, 0xECF9, 0x00, 0x10, 9, 0, 2, 0xFF, 0x00, 0xD3, 0x00), true));
+        // the CTS of the receiver
+        assertNull(instance.accept(frame(10, 0xEC00, 0xF9, 0x11, 2, 1, 0xFF, 0xFF, 0x00, 0xD3, 0x00), true));
+        assertNull(instance.accept(dt(20, 0xF9, 0x00, data, 1), true));
+        Packet message = instance.accept(dt(30, 0xF9, 0x00, data, 2), true);
+
+        assertEquals(0xD300, message.getPgn());
+        assertEquals(0xF9, message.getDestination());
+        assertArrayEquals(data, message.getData(0, message.getLength()));
+    }
+
+    @Test
+    @TestDoc(description = "Verify that aborted sessions and sessions that are not opened are dropped.")
+    public void testAbort() {
+        int[] data = data(9);
+        assertNull(instance.accept(frame(0, 0xECF9, 0x00, 0x10, 9, 0, 2, 0xFF, 0x00, 0xD3, 0x00), true));
+        assertNull(instance.accept(frame(10, 0xEC00, 0xF9, 0xFF, 1, 0xFF, 0xFF, 0xFF, 0x00, 0xD3, 0x00), true));
+        assertTrue(instance.isEmpty());
+        assertNull(instance.accept(dt(20, 0xF9, 0x00, data, 1), true));
+        assertNull(instance.accept(dt(30, 0xF9, 0x00, data, 2), true));
+
+        assertNull(instance.accept(frame(40, 0xECFF, 0x3D, 0x20, 9, 0, 2, 0xFF, 0xCA, 0xFE, 0x00), false));
+        assertTrue(instance.isEmpty());
+    }
+}
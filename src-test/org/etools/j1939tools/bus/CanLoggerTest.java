@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.etools.testdoc.TestDoc;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@TestDoc(description = "Verifies logging CAN frames to Vector .asc logs.")
+public class CanLoggerTest {
+
+    private final Instant start = Instant.parse("2021-04-23T12:22:43.128Z");
+
+    private final LocalDateTime startTime = LocalDateTime.ofInstant(start, ZoneId.systemDefault());
+
+    private Path file;
+
+    private static Packet packet(LocalDateTime time, int i) {
+        if (i % 10 == 3) {
+            return new Packet(time, 6, 0xEA00, 0xF9, true, 0xEC, 0xFE, 0x00);
+        } else if (i % 10 == 7) {
+            return new Packet(time, 3, 0xFECA, i & 0xFF, false, 1);
+        } else if (i % 10 == 8) {
+            return new Packet(time, 7, 0x1FFFF, 0x00, false, 0xAB, 0x0C);
+        }
+        return new Packet(time, 3, 0xF004, 0, false, i, i >> 8, 3, 4, 5, 6, 7, 0xFF);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("test", ".asc");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    @TestDoc(description = "Verify that frames are logged like Packet.toVectorString() formats them.")
+    public void testFormat() throws IOException {
+        List<String> expected = new ArrayList<>();
+        expected.add("base hex timestamps absolute");
+        try (CanLogger logger = new CanLogger(file, start).start()) {
+            for (int i = 0; i < 1000; i++) {
+                // some times round up to the next microsecond
+                Packet packet = packet(startTime.plusNanos(i * 1_234_567_891L), i);
+                logger.accept(packet);
+                expected.add(packet.toVectorString(start));
+            }
+        }
+        assertEquals(expected, Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @TestDoc(description = "Verify that frames the writer cannot keep up with are dropped and counted.")
+    public void testDropped() throws IOException {
+        int count = 100_000;
+        CanLogger logger = new CanLogger(file, start, 4).start();
+        try (logger) {
+            for (int i = 0; i < count; i++) {
+                logger.accept(packet(startTime, i));
+            }
+        }
+        assertEquals(count, logger.getFrameCount() + logger.getDroppedFrames());
+        assertEquals(logger.getFrameCount() + 1, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    @TestDoc(description = "Verify that frames on a bus are logged from a subscription.")
+    public void testBus() throws Exception {
+        CanLogger logger = new CanLogger(file, start).start();
+        try (EchoBus bus = new EchoBus(0xF9); logger) {
+            AutoCloseable subscription = bus.subscribe(FrameFilter.all(), logger::accept);
+            for (int i = 0; i < 100; i++) {
+                bus.send(Packet.create(0xEA00, 0xF9, true, 0xEC, 0xFE, 0x00));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (logger.getFrameCount() < 100 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            subscription.close();
+        }
+        assertEquals(0, logger.getDroppedFrames());
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(101, lines.size());
+        assertTrue(lines.get(1), lines.get(1).endsWith(" 1  18EA00F9x Tx d 3 EC FE 00"));
+    }
+
+    @Test
+    @TestDoc(description = "Verify that frames accepted before the writer is started are written when the log is closed.")
+    public void testNotStarted() throws IOException {
+        try (CanLogger logger = new CanLogger(file, start)) {
+            for (int i = 0; i < 10; i++) {
+                logger.accept(packet(startTime, i));
+            }
+        }
+        assertEquals(11, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    }
+
+    /** @return the lines of the first entry of a zip, as far as it can be read */
+    private static List<String> readZipEntry(byte[] zip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            if (in.getNextEntry() != null) {
+                byte[] buffer = new byte[4096];
+                int length;
+                while ((length = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, length);
+                }
+            }
+        } catch (EOFException e) {
+            // the zip was not closed
+        }
+        return out.toString(StandardCharsets.UTF_8).lines().toList();
+    }
+
+    @Test
+    @TestDoc(description = "Verify that a compressed log is written as a zip entry.")
+    public void testZip() throws IOException {
+        Path zip = Files.createTempFile("test", ".zip");
+        try {
+            List<String> expected = new ArrayList<>();
+            expected.add("base hex timestamps absolute");
+            try (CanLogger logger = new CanLogger(zip, "test.asc", start).start()) {
+                for (int i = 0; i < 10_000; i++) {
+                    Packet packet = packet(startTime.plusNanos(i * 1_234_567L), i);
+                    logger.accept(packet);
+                    expected.add(packet.toVectorString(start));
+                }
+            }
+            try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+                ZipEntry entry = zipFile.getEntry("test.asc");
+                assertTrue(entry.getCompressedSize() * 5 < entry.getSize());
+                assertEquals(expected,
+                             new String(zipFile.getInputStream(entry).readAllBytes(), StandardCharsets.UTF_8).lines()
+                                                                                                           .toList());
+            }
+        } finally {
+            Files.deleteIfExists(zip);
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that the frames of a compressed log that was not closed can be read.")
+    public void testZipNotClosed() throws Exception {
+        Path zip = Files.createTempFile("test", ".zip");
+        CanLogger logger = new CanLogger(zip, "test.asc", start).start();
+        try (logger) {
+            List<String> expected = new ArrayList<>();
+            expected.add("base hex timestamps absolute");
+            for (int i = 0; i < 1000; i++) {
+                Packet packet = packet(startTime.plusNanos(i * 1_234_567L), i);
+                logger.accept(packet);
+                expected.add(packet.toVectorString(start));
+            }
+            // the log is flushed soon after the frames stop
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            List<String> lines = readZipEntry(Files.readAllBytes(zip));
+            while (lines.size() < expected.size() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+                lines = readZipEntry(Files.readAllBytes(zip));
+            }
+            assertEquals(expected, lines);
+            try {
+                new ZipFile(zip.toFile()).close();
+                fail("The zip is not closed.");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            Files.deleteIfExists(zip);
+        }
+    }
+}
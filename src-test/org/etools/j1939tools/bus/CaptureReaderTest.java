@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.etools.testdoc.TestDoc;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@TestDoc(description = "Verifies writing and reading binary captures.")
+public class CaptureReaderTest {
+
+    private static final int COUNT = 10_000;
+
+    private final LocalDateTime start = LocalDateTime.of(2021, 4, 23, 12, 22, 43, 128_000_000);
+
+    private Path file;
+
+    private List<Packet> packets;
+
+    private void writeCapture() throws IOException {
+        packets = new ArrayList<>();
+        try (CaptureWriter writer = new CaptureWriter(file, start)) {
+            for (int i = 0; i < COUNT; i++) {
+                LocalDateTime time = start.plusNanos(i * 1_000_123L);
+                Packet packet;
+                if (i % 100 == 3) {
+                    packet = new Packet(time, 6, 0xEA00, 0xF9, true, 0xEC, 0xFE, 0x00);
+                } else if (i % 100 == 7) {
+                    // a short frame
+                    packet = new Packet(time, 3, 0xFECA, 0x17, false, 1);
+                } else {
+                    // each source is only in some of the blocks
+                    packet = new Packet(time, 3, 0xF004, i / 3000, false, i, i >> 8, 3, 4, 5, 6, 7, 0xFF);
+                }
+                packets.add(packet);
+                writer.write(packet);
+            }
+            assertEquals(COUNT, writer.getFrameCount());
+        }
+    }
+
+    private void assertSamePackets(List<Packet> expected, List<Packet> actual) {
+        assertEquals(expected, actual);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTimestampNanos(), actual.get(i).getTimestampNanos());
+            assertEquals(expected.get(i).isTransmitted(), actual.get(i).isTransmitted());
+            assertEquals(expected.get(i).getPriority(), actual.get(i).getPriority());
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("test", ".j1939cap");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    @TestDoc(description = "Verify that every frame is read back as written.")
+    public void testReadAll() throws IOException {
+        writeCapture();
+        try (CaptureReader reader = new CaptureReader(file)) {
+            assertEquals(COUNT, reader.getFrameCount());
+            assertEquals(start, reader.getStart());
+            assertSamePackets(packets, reader.read().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that frames are read by time window, PGN and source address.")
+    public void testReadFiltered() throws IOException {
+        writeCapture();
+        LocalDateTime from = start.plusSeconds(2);
+        LocalDateTime to = start.plusSeconds(7);
+        try (CaptureReader reader = new CaptureReader(file)) {
+            assertSamePackets(packets.stream()
+                                     .filter(p -> !p.getTimestamp().isBefore(from) && !p.getTimestamp().isAfter(to))
+                                     .filter(p -> p.getSource() == 2)
+                                     .collect(Collectors.toList()),
+                              reader.read(from, to, CaptureReader.ANY, 2).collect(Collectors.toList()));
+            assertSamePackets(packets.stream().filter(p -> p.getPgn() == 0xEA00).collect(Collectors.toList()),
+                              reader.read(start, start.plusHours(1), 0xEA00, CaptureReader.ANY)
+                                    .collect(Collectors.toList()));
+            assertEquals(0, reader.read(start, start.plusHours(1), 0xEA00, 0x17).count());
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that the index is rebuilt for a capture that was not closed.")
+    public void testNotClosed() throws IOException {
+        writeCapture();
+        // drop the index and part of the last record
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(CaptureWriter.HEADER_SIZE + 9_000L * CaptureWriter.RECORD_SIZE + 5);
+        }
+        try (CaptureReader reader = new CaptureReader(file)) {
+            assertEquals(9_000, reader.getFrameCount());
+            assertSamePackets(packets.subList(0, 9_000), reader.read().collect(Collectors.toList()));
+            assertSamePackets(packets.stream().filter(p -> p.getSource() == 2).collect(Collectors.toList()),
+                              reader.read(start, start.plusHours(1), CaptureReader.ANY, 2)
+                                    .collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that the capture is exported as a .asc log.")
+    public void testExportAsc() throws IOException {
+        writeCapture();
+        Path asc = Files.createTempFile("test", ".asc");
+        try (CaptureReader reader = new CaptureReader(file)) {
+            reader.exportAsc(asc);
+            List<String> lines = Files.readAllLines(asc, StandardCharsets.UTF_8);
+            assertEquals("base hex timestamps absolute", lines.get(0));
+            assertEquals("0.007001 1  0CFECA17x Rx d 1 01", lines.get(8));
+            List<Packet> exported = lines.stream()
+                                         .map(l -> parseVector(start, l))
+                                         .filter(Objects::nonNull)
+                                         .collect(Collectors.toList());
+            assertEquals(packets, exported);
+        } finally {
+            Files.deleteIfExists(asc);
+        }
+    }
+
+    /**
+     * @return  periodic broadcasts of more streams than fit in a tag, with
+     *          jitter and data that changes now and then
+     */
+    private List<Packet> broadcasts(long unit) {
+        Random random = new Random(17);
+        List<Packet> result = new ArrayList<>();
+        int[] periods = { 10, 20, 50, 100, 1000 };
+        for (int s = 0; s < 80; s++) {
+            long period = periods[s % periods.length] * 1_000_000L;
+            int value = s;
+            for (long t = s * 1_000_000L; t < 20_000_000_000L; t += period) {
+                if (random.nextInt(10) == 0) {
+                    value = random.nextInt(256);
+                }
+                long jitter = random.nextInt(200) * unit;
+                result.add(new Packet(start.plusNanos(t + jitter),
+                                      s % 2 == 0 ? 3 : 6,
+                                      0xF000 + s % 40,
+                                      s / 40,
+                                      s == 79,
+                                      value, 0xFF, s, 0xFF, 0x00, value, 0x7D, 0xFF));
+            }
+        }
+        result.sort(Comparator.comparingLong(Packet::getTimestampNanos));
+        return result;
+    }
+
+    private long write(List<Packet> frames, CaptureWriter.Mode mode) throws IOException {
+        try (CaptureWriter writer = new CaptureWriter(file, start, mode)) {
+            for (int i = 0; i < frames.size(); i++) {
+                writer.write(frames.get(i), i % 500 == 0 ? 2 : 1);
+            }
+        }
+        return Files.size(file);
+    }
+
+    @Test
+    @TestDoc(description = "Verify that a delta capture of periodic broadcasts is read back as written, and is much smaller.")
+    public void testDelta() throws IOException {
+        List<Packet> frames = broadcasts(1000);
+        long recordsSize = write(frames, CaptureWriter.Mode.RECORDS);
+        long deltaSize = write(frames, CaptureWriter.Mode.DELTA);
+        assertTrue(deltaSize + " " + recordsSize, deltaSize * 6 < recordsSize);
+
+        try (CaptureReader reader = new CaptureReader(file)) {
+            assertEquals(frames.size(), reader.getFrameCount());
+            assertSamePackets(frames, reader.read().collect(Collectors.toList()));
+            LocalDateTime from = start.plusSeconds(3);
+            LocalDateTime to = start.plusSeconds(4);
+            assertSamePackets(frames.stream()
+                                    .filter(p -> !p.getTimestamp().isBefore(from) && !p.getTimestamp().isAfter(to))
+                                    .filter(p -> p.getPgn() == 0xF005)
+                                    .collect(Collectors.toList()),
+                              reader.read(from, to, 0xF005, CaptureReader.ANY).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that a delta capture keeps times that are not whole microseconds, and channels.")
+    public void testDeltaLossless() throws IOException {
+        List<Packet> frames = broadcasts(1);
+        write(frames, CaptureWriter.Mode.RECORDS);
+        Path asc = Files.createTempFile("test", ".asc");
+        try {
+            List<String> expected;
+            try (CaptureReader reader = new CaptureReader(file)) {
+                reader.exportAsc(asc);
+                expected = Files.readAllLines(asc, StandardCharsets.UTF_8);
+            }
+            write(frames, CaptureWriter.Mode.DELTA);
+            try (CaptureReader reader = new CaptureReader(file)) {
+                assertSamePackets(frames, reader.read().collect(Collectors.toList()));
+                reader.exportAsc(asc);
+                assertEquals(expected, Files.readAllLines(asc, StandardCharsets.UTF_8));
+            }
+        } finally {
+            Files.deleteIfExists(asc);
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that the index of a delta capture that was not closed is rebuilt from its whole blocks.")
+    public void testDeltaNotClosed() throws IOException {
+        List<Packet> frames = broadcasts(1000);
+        write(frames, CaptureWriter.Mode.DELTA);
+        long size;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            size = channel.size();
+            // drop the index and part of the last block
+            channel.truncate(size - (frames.size() / CaptureWriter.BLOCK_RECORDS + 1) * CaptureWriter.DELTA_ENTRY_SIZE
+                    - CaptureWriter.TRAILER_SIZE - 10);
+        }
+        int whole = frames.size() / CaptureWriter.BLOCK_RECORDS * CaptureWriter.BLOCK_RECORDS;
+        try (CaptureReader reader = new CaptureReader(file)) {
+            assertEquals(whole, reader.getFrameCount());
+            assertSamePackets(frames.subList(0, whole), reader.read().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that other files are not read as captures.")
+    public void testNotCapture() throws IOException {
+        Files.write(file, List.of("base hex timestamps absolute"), StandardCharsets.UTF_8);
+        try {
+            new CaptureReader(file).close();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals(file + " is not a capture.", e.getMessage());
+        }
+    }
+
+    /** Reads the frames, transmitted ones included, as the bus does. */
+    private static Packet parseVector(LocalDateTime start, String line) {
+        PacketParser parser = new PacketParser();
+        return parser.parseVector(line) ? parser.toPacket(start) : null;
+    }
+}
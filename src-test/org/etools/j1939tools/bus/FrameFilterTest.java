@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.etools.testdoc.TestDoc;
+import org.junit.Test;
+
+@TestDoc(description = "Verifies that frame filters match packets and are applied by the bus.")
+public class FrameFilterTest {
+
+    @Test
+    @TestDoc(description = "Verify that the PGN, source, destination, id and channel fields are all matched.")
+    public void testMatch() {
+        // DS DM30 from 0x00 to 0xF9
+        Packet dm30 = Packet.create(0xA4F9, 0x00, 1, 2, 3, 4, 5, 6, 7, 8);
+        // global engine speed from 0x00
+        Packet eec1 = Packet.create(0xF004, 0x00, 1, 2, 3, 4, 5, 6, 7, 8);
+
+        assertTrue(FrameFilter.all().test(dm30));
+        assertTrue(FrameFilter.pgn(0xA400).test(dm30));
+        assertFalse(FrameFilter.pgn(0xA400).test(eec1));
+        assertTrue(FrameFilter.pgn(0xF004).withSource(0x00).test(eec1));
+        assertFalse(FrameFilter.pgn(0xF004).withSource(0x01).test(eec1));
+        assertTrue(FrameFilter.pgn(0xA400).withDestination(0xF9).test(dm30));
+        assertFalse(FrameFilter.pgn(0xA400).withDestination(0xF8).test(dm30));
+        assertTrue(FrameFilter.id(0xA4F9, 0xFFFF).test(dm30));
+        assertFalse(FrameFilter.id(0xA4F8, 0xFFFF).test(dm30));
+        assertTrue(FrameFilter.all().withChannel(1).test(dm30));
+        eec1 = eec1.withChannel(2);
+        assertTrue(FrameFilter.pgn(0xF004).withChannel(2).test(eec1));
+        assertFalse(FrameFilter.pgn(0xF004).withChannel(1).test(eec1));
+        assertEquals("FrameFilter[pgn=F004 ch=2]", FrameFilter.pgn(0xF004).withChannel(2).toString());
+    }
+
+    @Test
+    @TestDoc(description = "Verify that alternatives are combined and that withSource() applies to each alternative.")
+    public void testOr() {
+        FrameFilter filter = FrameFilter.pgn(0xA400).or(FrameFilter.pgn(0xE800)).withSource(0x17);
+
+        assertTrue(filter.test(Packet.create(0xA4F9, 0x17, 1, 2, 3, 4, 5, 6, 7, 8)));
+        assertTrue(filter.test(Packet.create(0xE8FF, 0x17, 1, 2, 3, 4, 5, 6, 7, 8)));
+        assertFalse(filter.test(Packet.create(0xE8FF, 0x00, 1, 2, 3, 4, 5, 6, 7, 8)));
+        assertFalse(filter.test(Packet.create(0xF004, 0x17, 1, 2, 3, 4, 5, 6, 7, 8)));
+        assertEquals("FrameFilter[pgn=A400 sa=17 | pgn=E800 sa=17]", filter.toString());
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that a filtered read on an EchoBus only returns matching packets, and can be duplicated.")
+    public void testEchoBusRead() throws Exception {
+        try (EchoBus bus = new EchoBus(0xF9)) {
+            Stream<Packet> stream = bus.read(FrameFilter.source(0x17), 100, TimeUnit.MILLISECONDS);
+            bus.send(Packet.create(0xF004, 0x00, 1, 2, 3, 4, 5, 6, 7, 8));
+            bus.send(Packet.create(0xF004, 0x17, 1, 2, 3, 4, 5, 6, 7, 8));
+            Stream<Packet> duplicate = bus.duplicate(stream, 100, TimeUnit.MILLISECONDS);
+            bus.send(Packet.create(0xFEEC, 0x17, 1, 2, 3, 4, 5, 6, 7, 8));
+
+            assertEquals(List.of(0xF004, 0xFEEC), stream.map(Packet::getPgn).collect(Collectors.toList()));
+            assertEquals(List.of(0xF004, 0xFEEC), duplicate.map(Packet::getPgn).collect(Collectors.toList()));
+        }
+    }
+}
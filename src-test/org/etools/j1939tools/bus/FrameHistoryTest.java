@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.etools.testdoc.TestDoc;
+import org.junit.Test;
+
+@TestDoc(description = "Verifies keeping the recent frames of a bus in memory.")
+public class FrameHistoryTest {
+
+    private final LocalDateTime start = LocalDateTime.of(2021, 4, 23, 12, 22, 43);
+
+    @Test
+    @TestDoc(description = "Verify that frames older than the pre-trigger window are dropped.")
+    public void testWindow() {
+        FrameHistory history = new FrameHistory(Duration.ofSeconds(1), Long.MAX_VALUE, Duration.ZERO);
+        List<Packet> packets = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Packet packet = new Packet(start.plusNanos(i * 10_000_000L), 3, 0xF004, 0, false, i, 2, 3);
+            packets.add(packet);
+            history.accept(packet);
+        }
+        // 1.99 to 2.99 seconds, as a frame exactly a window old is kept
+        assertEquals(packets.subList(199, 300), history.snapshot());
+    }
+
+    @Test
+    @TestDoc(description = "Verify that the frames of both windows are kept, and that a snapshot holds only the frames around the trigger.")
+    public void testTrigger() {
+        FrameHistory history = new FrameHistory(Duration.ofMillis(500), Long.MAX_VALUE, Duration.ofSeconds(1));
+        assertEquals(Long.MIN_VALUE, history.getTrigger());
+        List<Packet> packets = new ArrayList<>();
+        long trigger = 0;
+        for (int i = 0; i < 300; i++) {
+            Packet packet = new Packet(start.plusNanos(i * 10_000_000L), 3, 0xF004, 0, false, i, 2, 3);
+            packets.add(packet);
+            history.accept(packet);
+            if (i == 100) {
+                trigger = history.getTrigger();
+            }
+        }
+        assertEquals(packets.get(100).getTimestampNanos(), trigger);
+        // 1.49 to 2.99 seconds
+        assertEquals(packets.subList(149, 300), history.snapshot());
+        // 0.5 seconds before the trigger to 1 second after it, of those held
+        assertEquals(packets.subList(149, 201), history.snapshot(trigger));
+    }
+
+    @Test
+    @TestDoc(description = "Verify that the oldest frames are dropped to stay within the size limit.")
+    public void testSize() {
+        FrameHistory history = new FrameHistory(Duration.ofHours(1),
+                                                10 * FrameHistory.FRAME_BYTES,
+                                                Duration.ZERO);
+        List<Packet> packets = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            Packet packet = new Packet(start, 3, 0xF004, 0, false, i, 2, 3);
+            packets.add(packet);
+            history.accept(packet);
+        }
+        assertEquals(packets.subList(15, 25), history.snapshot());
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.etools.testdoc.TestDoc;
+import org.junit.Test;
+
+@TestDoc(description = "Verifies the ring that passes raw frames from the adapter to the decoder.")
+public class FrameRingTest {
+
+    private static void write(FrameRing ring, int value) {
+        ring.next().put(0, (byte) value);
+        ring.commit(1);
+    }
+
+    @Test
+    @TestDoc(description = "Verify that only published frames are drained, in order, with their lengths.")
+    public void testPublishAndDrain() {
+        FrameRing ring = new FrameRing(4, 8);
+        List<Integer> read = new ArrayList<>();
+        write(ring, 1);
+        write(ring, 2);
+        assertEquals(0, ring.drain((frame, length) -> read.add((int) frame.get(0))));
+
+        assertTrue(ring.publish());
+        assertFalse(ring.publish());
+        write(ring, 3);
+        assertEquals(2, ring.drain((frame, length) -> read.add(frame.get(0) * 10 + length)));
+        assertEquals(List.of(11, 21), read);
+    }
+
+    @Test
+    @TestDoc(description = "Verify that the writer has no capacity until the reader drains the ring.")
+    public void testCapacity() {
+        FrameRing ring = new FrameRing(4, 8);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.hasCapacity());
+            write(ring, i);
+        }
+        assertFalse(ring.hasCapacity());
+        ring.publish();
+        assertEquals(4, ring.drain((frame, length) -> {
+        }));
+        assertTrue(ring.hasCapacity());
+        // the slots are reused
+        write(ring, 9);
+        ring.publish();
+        List<Integer> read = new ArrayList<>();
+        ring.drain((frame, length) -> read.add((int) frame.get(0)));
+        assertEquals(List.of(9), read);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.etools.testdoc.TestDoc;
+import org.junit.Test;
+
+@TestDoc(description = "Verifies merging several buses into one stream in timestamp order.")
+public class MergeBusTest {
+
+    private static final long MS = 1_000_000L;
+
+    private static Packet frame(long millis, int source) {
+        Packet packet = Packet.create(0xF004, source, 1, 2, 3, 4, 5, 6, 7, 8);
+        packet.setTimestampNanos(millis * MS);
+        return packet;
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that the packets of the channels are merged in timestamp order and tagged with their channel.")
+    public void testMerge() throws Exception {
+        EchoBus powertrain = new EchoBus(0xF9);
+        EchoBus chassis = new EchoBus(0xF9);
+        // a window longer than the test, so the order only depends on the timestamps
+        try (MergeBus bus = new MergeBus(0xF9, List.of(powertrain, chassis), 1, 1, TimeUnit.MINUTES)) {
+            Stream<Packet> stream = bus.read(1, TimeUnit.MINUTES);
+            for (int i = 0; i < 100; i++) {
+                powertrain.send(frame(i * 10, 0x00));
+            }
+            for (int i = 0; i < 100; i++) {
+                chassis.send(frame(i * 10 + 5, 0x17));
+            }
+            // closed channels no longer hold up the others
+            powertrain.close();
+            chassis.close();
+
+            List<Packet> packets = stream.limit(200).collect(Collectors.toList());
+            assertEquals(200, packets.size());
+            for (int i = 0; i < packets.size(); i++) {
+                Packet p = packets.get(i);
+                assertEquals(i * 5 * MS, p.getTimestampNanos());
+                assertEquals(i % 2 == 0 ? 1 : 2, p.getChannel());
+                assertEquals(i % 2 == 0 ? 0x00 : 0x17, p.getSource());
+            }
+        }
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that packets are published after the reorder window while another channel is quiet.")
+    public void testWindow() throws Exception {
+        EchoBus powertrain = new EchoBus(0xF9);
+        EchoBus chassis = new EchoBus(0xF9);
+        try (MergeBus bus = new MergeBus(0xF9, List.of(powertrain, chassis), 1, 20, TimeUnit.MILLISECONDS)) {
+            Stream<Packet> stream = bus.read(FrameFilter.all().withChannel(2), 4, TimeUnit.SECONDS);
+            chassis.send(frame(10, 0x17));
+
+            Packet packet = stream.findFirst().orElseThrow();
+            assertEquals(0x17, packet.getSource());
+            assertEquals(2, packet.getChannel());
+        }
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that packets sent to the bus are sent on the send channel and read back tagged with it.")
+    public void testSend() throws Exception {
+        EchoBus powertrain = new EchoBus(0xF9);
+        EchoBus chassis = new EchoBus(0xF9);
+        try (MergeBus bus = new MergeBus(0xF9, List.of(powertrain, chassis), 2, 20, TimeUnit.MILLISECONDS)) {
+            Stream<Packet> merged = bus.read(4, TimeUnit.SECONDS);
+            Stream<Packet> powertrainStream = powertrain.read(100, TimeUnit.MILLISECONDS);
+            Stream<Packet> chassisStream = chassis.read(100, TimeUnit.MILLISECONDS);
+            Packet sent = bus.send(Packet.create(0xEA00, 0xF9, 0xEC, 0xFE, 0x00));
+
+            assertEquals(2, bus.getSendChannel());
+            assertEquals(2, sent.getChannel());
+            assertEquals(0xEA00, merged.findFirst().orElseThrow().getId(0xFFFF));
+            assertEquals(1, chassisStream.count());
+            assertEquals(0, powertrainStream.count());
+        }
+    }
+
+    @Test(timeout = 10000)
+    @TestDoc(description = "Verify that captures replayed at full speed are merged in timestamp order and logged on their channels.")
+    public void testReplay() throws Exception {
+        Instant start = Instant.parse("2021-04-23T12:22:43Z");
+        LocalDateTime startTime = LocalDateTime.ofInstant(start, ZoneId.systemDefault());
+        List<Path> files = new ArrayList<>();
+        try {
+            for (int channel = 0; channel < 3; channel++) {
+                List<String> lines = new ArrayList<>();
+                lines.add("base hex timestamps absolute");
+                for (int i = 0; i < 2000; i++) {
+                    LocalDateTime time = startTime.plusNanos((i * 3 + channel) * MS);
+                    lines.add(new Packet(time, 3, 0xF004, channel, false, i & 0xFF, 2, 3, 4, 5, 6, 7, 8).toVectorString(start));
+                }
+                Path file = Files.createTempFile("merge", ".asc");
+                Files.write(file, lines, StandardCharsets.UTF_8);
+                files.add(file);
+            }
+
+            try (MergeBus bus = MergeBus.replay(0xF9, startTime, files)) {
+                Stream<Packet> stream = bus.read(5, TimeUnit.SECONDS);
+                assertEquals(6000L, (long) bus.start().get(5, TimeUnit.SECONDS));
+
+                List<Packet> packets = stream.limit(6000).collect(Collectors.toList());
+                assertEquals(6000, packets.size());
+                for (int i = 0; i < packets.size(); i++) {
+                    Packet p = packets.get(i);
+                    assertEquals(i / 3 & 0xFF, p.get(0));
+                    assertEquals(i % 3, p.getSource());
+                    assertEquals(i % 3 + 1, p.getChannel());
+                }
+                String line = packets.get(4).toVectorString(start);
+                assertTrue(line, line.startsWith("0.004000 2  0CF00401x Rx d 8 01 "));
+            }
+        } finally {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    @TestDoc(description = "Verify that merged packets logged by a CanLogger are replayed on their channels.")
+    public void testLogRoundTrip() throws Exception {
+        Instant start = Instant.parse("2021-04-23T12:22:43Z");
+        LocalDateTime startTime = LocalDateTime.ofInstant(start, ZoneId.systemDefault());
+        Path file = Files.createTempFile("merge", ".asc");
+        try {
+            EchoBus powertrain = new EchoBus(0xF9);
+            EchoBus chassis = new EchoBus(0xF9);
+            List<Packet> merged;
+            try (MergeBus bus = new MergeBus(0xF9, List.of(powertrain, chassis), 1, 1, TimeUnit.MINUTES);
+                 CanLogger logger = new CanLogger(file, start)) {
+                logger.start();
+                Stream<Packet> stream = bus.read(5, TimeUnit.SECONDS);
+                try (AutoCloseable subscription = bus.subscribe(FrameFilter.all(), logger::accept)) {
+                    for (int i = 0; i < 100; i++) {
+                        powertrain.send(new Packet(startTime.plusNanos(i * 10 * MS), 3, 0xF004, 0x00, false, i, 2, 3));
+                        chassis.send(new Packet(startTime.plusNanos((i * 10 + 5) * MS), 3, 0xFEF1, 0x17, true, i, 2));
+                    }
+                    powertrain.close();
+                    chassis.close();
+                    merged = stream.limit(200).collect(Collectors.toList());
+                    // the subscriber is called after the stream is published to
+                    while (logger.getFrameCount() + logger.getDroppedFrames() < 200) {
+                        Thread.sleep(10);
+                    }
+                }
+            }
+            assertEquals(200, merged.size());
+
+            try (ReplayBus replay = new ReplayBus(file, startTime, 0xF9)) {
+                replay.setSpeed(ReplayBus.MAX_SPEED);
+                Stream<Packet> stream = replay.read(5, TimeUnit.SECONDS);
+                assertEquals(200L, (long) replay.start().get(5, TimeUnit.SECONDS));
+                List<Packet> replayed = stream.limit(200).collect(Collectors.toList());
+                assertEquals(merged.size(), replayed.size());
+                for (int i = 0; i < merged.size(); i++) {
+                    Packet expected = merged.get(i);
+                    Packet actual = replayed.get(i);
+                    assertEquals(i % 2 + 1, actual.getChannel());
+                    assertEquals(expected.getChannel(), actual.getChannel());
+                    assertEquals(expected.getTimestampNanos(), actual.getTimestampNanos());
+                    assertEquals(expected.toString(), actual.toString());
+                    assertEquals(expected.isTransmitted(), actual.isTransmitted());
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -5,10 +5,24 @@ package org.etools.j1939tools.bus;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.etools.testdoc.TestDoc;
@@ -151,4 +165,377 @@ public class MultiQueueTest {
             exe.awaitTermination(1, TimeUnit.MINUTES);
         }
     }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that a stream reads every item in order when the producer wraps around a small ring many times.")
+    public void testWrapAround() throws Exception {
+        try (MultiQueue<Integer> queue = new MultiQueue<>(8)) {
+            Stream<Integer> stream = queue.stream(2, TimeUnit.SECONDS).limit(1000);
+            ExecutorService exe = Executors.newSingleThreadExecutor();
+            exe.submit(() -> IntStream.range(0, 1000).forEach(queue::add));
+            assertEquals(IntStream.range(0, 1000).boxed().collect(Collectors.toList()),
+                         stream.collect(Collectors.toList()));
+            exe.shutdown();
+        }
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that items added as a batch larger than the ring are read in order by plain and filtered streams.")
+    public void testAddAll() throws Exception {
+        try (MultiQueue<Integer> queue = new MultiQueue<>(8)) {
+            Stream<Integer> stream = queue.stream(2, TimeUnit.SECONDS).limit(100);
+            Stream<Integer> even = queue.stream(i -> i % 2 == 0, 2, TimeUnit.SECONDS).limit(50);
+            ExecutorService exe = Executors.newSingleThreadExecutor();
+            exe.submit(() -> queue.addAll(IntStream.range(0, 100).boxed().collect(Collectors.toList())));
+            assertEquals(IntStream.range(0, 100).boxed().collect(Collectors.toList()),
+                         stream.collect(Collectors.toList()));
+            assertEquals(IntStream.range(0, 50).map(i -> i * 2).boxed().collect(Collectors.toList()),
+                         even.collect(Collectors.toList()));
+            exe.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    @TestDoc(description = "Verify that a stream that stops reading only delays the producer, and then skips to the oldest item in the ring.")
+    public void testStalledStream() throws Exception {
+        try (MultiQueue<Integer> queue = new MultiQueue<>(4)) {
+            Stream<Integer> stalled = queue.stream(5, TimeUnit.SECONDS);
+            Stream<Integer> reader = queue.stream(5, TimeUnit.SECONDS);
+            ExecutorService exe = Executors.newSingleThreadExecutor();
+            exe.submit(() -> IntStream.range(0, 10).forEach(queue::add));
+            assertEquals(IntStream.range(0, 10).boxed().collect(Collectors.toList()),
+                         reader.limit(10).collect(Collectors.toList()));
+            exe.shutdown();
+            exe.awaitTermination(1, TimeUnit.SECONDS);
+
+            List<Integer> rest = stalled.limit(3).collect(Collectors.toList());
+            assertEquals(List.of(7, 8, 9), rest);
+            assertEquals(7, queue.getDropped(stalled));
+            assertEquals(7, queue.getDropped());
+        }
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that a stream that blocks the producer reads every item, and that the producer waits for it.")
+    public void testLagBlock() throws Exception {
+        try (MultiQueue<Integer> queue = new MultiQueue<>(16)) {
+            Stream<Integer> stream = queue.stream(2, TimeUnit.SECONDS, 2, LagPolicy.BLOCK);
+            ExecutorService exe = Executors.newSingleThreadExecutor();
+            Future<?> producer = exe.submit(() -> IntStream.range(0, 10).forEach(queue::add));
+            try {
+                producer.get(100, TimeUnit.MILLISECONDS);
+                fail("The producer did not wait for the stream.");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            assertEquals(IntStream.range(0, 10).boxed().collect(Collectors.toList()),
+                         stream.limit(10).collect(Collectors.toList()));
+            producer.get(1, TimeUnit.SECONDS);
+            exe.shutdown();
+            assertEquals(0, queue.getDropped());
+        }
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that streams are opened, duplicated and closed while the producer waits for a slow stream.")
+    public void testStreamWhileProducerWaits() throws Exception {
+        try (MultiQueue<Integer> queue = new MultiQueue<>(16)) {
+            Stream<Integer> blocking = queue.stream(2, TimeUnit.SECONDS, 2, LagPolicy.BLOCK);
+            ExecutorService exe = Executors.newSingleThreadExecutor();
+            Future<?> producer = exe.submit(() -> IntStream.range(0, 10).forEach(queue::add));
+            try {
+                producer.get(100, TimeUnit.MILLISECONDS);
+                fail("The producer did not wait for the stream.");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            Future<?> reader = Executors.newSingleThreadExecutor().submit(() -> {
+                Stream<Integer> stream = queue.stream(1, TimeUnit.SECONDS);
+                queue.resetTimeout(stream, 2, TimeUnit.SECONDS);
+                queue.duplicate(stream, 1, TimeUnit.SECONDS).close();
+                stream.close();
+            });
+            // without waiting for the producer
+            reader.get(100, TimeUnit.MILLISECONDS);
+            assertFalse(producer.isDone());
+
+            assertEquals(10, blocking.limit(10).count());
+            producer.get(1, TimeUnit.SECONDS);
+            exe.shutdown();
+        }
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that a stream that drops the oldest items does not delay the producer, and counts the items it skipped.")
+    public void testLagDropOldest() {
+        try (MultiQueue<Integer> queue = new MultiQueue<>(16)) {
+            Stream<Integer> stream = queue.stream(2, TimeUnit.SECONDS, 4, LagPolicy.DROP_OLDEST);
+            Stream<Integer> even = queue.stream(i -> i % 2 == 0, 2, TimeUnit.SECONDS, 2, LagPolicy.DROP_OLDEST);
+            // more than the ring holds, so the producer would wait for a stream that blocks
+            IntStream.range(0, 40).forEach(queue::add);
+            assertEquals(List.of(36, 37, 38, 39), stream.limit(4).collect(Collectors.toList()));
+            assertEquals(36, queue.getDropped(stream));
+            assertEquals(List.of(36, 38), even.limit(2).collect(Collectors.toList()));
+            assertEquals(18, queue.getDropped(even));
+            assertEquals(54, queue.getDropped());
+        }
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that the lag of a stream is reported as it falls behind, along with where a stream that crossed the threshold was opened.")
+    public void testLagMetrics() {
+        try (MultiQueue<Integer> queue = new MultiQueue<>()) {
+            Stream<Integer> first = queue.stream(2, TimeUnit.SECONDS);
+            int count = (int) MultiQueue.LAG_THRESHOLD * 2;
+            IntStream.range(0, count).forEach(queue::add);
+            assertEquals(count, queue.getLag(first));
+            // no stream had lagged when it was opened
+            List<String> lagging = queue.getLaggingStreams();
+            assertEquals(1, lagging.size());
+            assertFalse(lagging.get(0), lagging.get(0).contains("MultiQueueTest"));
+
+            // streams opened since record where
+            Stream<Integer> stalled = queue.stream(2, TimeUnit.SECONDS);
+            IntStream.range(0, count).forEach(queue::add);
+            assertEquals(count, queue.getLag(stalled));
+            assertEquals(2 * count, queue.getLag(first));
+            assertEquals(2 * count, first.limit(2 * count).count());
+            assertEquals(0, queue.getLag(first));
+            assertEquals(2 * count, queue.getMaxLag());
+
+            lagging = queue.getLaggingStreams();
+            assertEquals(2, lagging.size());
+            assertTrue(lagging.get(1), lagging.get(1).contains("MultiQueueTest.testLagMetrics"));
+        }
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that a small queue reports streams half its capacity behind, with where the stream is read.")
+    public void testLagThresholdScaled() {
+        try (MultiQueue<Integer> queue = new MultiQueue<>(1024)) {
+            Stream<Integer> stream = queue.stream(2, TimeUnit.SECONDS);
+            IntStream.range(0, 600).forEach(queue::add);
+            assertEquals(600, stream.limit(600).count());
+
+            List<String> lagging = queue.getLaggingStreams();
+            assertEquals(1, lagging.size());
+            assertTrue(lagging.get(0), lagging.get(0).contains("read at " + getClass().getName() + ".testLagThresholdScaled"));
+        }
+    }
+
+    @Test(timeout = 5000, expected = MultiQueue.LagException.class)
+    @TestDoc(description = "Verify that a stream that closes on lag ends with an error when it falls too far behind.")
+    public void testLagClose() {
+        try (MultiQueue<Integer> queue = new MultiQueue<>(16)) {
+            Stream<Integer> stream = queue.stream(2, TimeUnit.SECONDS, 2, LagPolicy.CLOSE);
+            IntStream.range(0, 5).forEach(queue::add);
+            stream.count();
+        }
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that a filtered stream only reads the matching items, and that duplicate and resetTimeout work on filtered streams.")
+    public void testFilteredStream() throws Exception {
+        try (MultiQueue<Integer> queue = new MultiQueue<>()) {
+            Stream<Integer> all = queue.stream(100, TimeUnit.MILLISECONDS);
+            Stream<Integer> even = queue.stream(i -> i % 2 == 0, 100, TimeUnit.MILLISECONDS);
+            queue.add(1);
+            queue.add(2);
+            Stream<Integer> duplicate = queue.duplicate(even, 100, TimeUnit.MILLISECONDS);
+            queue.resetTimeout(even, 200, TimeUnit.MILLISECONDS);
+            queue.add(3);
+            queue.add(4);
+            assertEquals(List.of(1, 2, 3, 4), all.collect(Collectors.toList()));
+            assertEquals(List.of(2, 4), even.collect(Collectors.toList()));
+            assertEquals(List.of(2, 4), duplicate.collect(Collectors.toList()));
+        }
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that a filtered stream that stops reading does not delay the producer, and then skips to the newest matching items.")
+    public void testFilteredStalled() throws Exception {
+        try (MultiQueue<Integer> queue = new MultiQueue<>()) {
+            int count = MultiQueue.FILTERED_CAPACITY * 4;
+            int kept = MultiQueue.FILTERED_CAPACITY - 1;
+            Stream<Integer> stream = queue.stream(i -> i % 3 == 0, 2, TimeUnit.SECONDS);
+            long start = System.currentTimeMillis();
+            IntStream.range(0, count * 3).forEach(queue::add);
+            assertTrue("The producer waited for the filtered stream.",
+                       System.currentTimeMillis() - start < MultiQueue.STALL_TIMEOUT_MS);
+
+            assertEquals(IntStream.range(count - kept, count).map(i -> i * 3).boxed().collect(Collectors.toList()),
+                         stream.limit(kept).collect(Collectors.toList()));
+            assertEquals(count - kept, queue.getDropped(stream));
+            assertEquals(count - kept, queue.getDropped());
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that closing the queue ends filtered streams.")
+    public void testFilteredClose() {
+        try (MultiQueue<Integer> queue = new MultiQueue<>()) {
+            Stream<Integer> stream = queue.stream(i -> i > 1, 10, TimeUnit.SECONDS);
+            queue.add(1);
+            queue.add(2);
+            queue.close();
+            assertEquals(0, stream.count());
+        }
+    }
+
+    /** Records what a subscriber is called with. */
+    private static class TestSubscriber implements Flow.Subscriber<Integer> {
+        private final BlockingQueue<Integer> items = new LinkedBlockingQueue<>();
+        private final CountDownLatch complete = new CountDownLatch(1);
+        private final CountDownLatch failed = new CountDownLatch(1);
+        private final long initialRequest;
+        private volatile Throwable error;
+        private volatile Thread errorThread;
+        private Flow.Subscription subscription;
+
+        TestSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            errorThread = Thread.currentThread();
+            failed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            complete.countDown();
+        }
+
+        List<Integer> take(int count) throws InterruptedException {
+            List<Integer> list = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                list.add(items.poll(1, TimeUnit.SECONDS));
+            }
+            return list;
+        }
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that a subscriber only receives as many items as it requested.")
+    public void testPublisherDemand() throws Exception {
+        try (MultiQueue<Integer> queue = new MultiQueue<>()) {
+            TestSubscriber subscriber = new TestSubscriber(2);
+            queue.publisher(null).subscribe(subscriber);
+            IntStream.range(0, 5).forEach(queue::add);
+
+            assertEquals(List.of(0, 1), subscriber.take(2));
+            assertNull(subscriber.items.poll(100, TimeUnit.MILLISECONDS));
+
+            subscriber.subscription.request(3);
+            assertEquals(List.of(2, 3, 4), subscriber.take(3));
+            assertNull(subscriber.error);
+        }
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that a filtered subscriber receives the matching items and then completes when the queue is closed.")
+    public void testPublisherComplete() throws Exception {
+        MultiQueue<Integer> queue = new MultiQueue<>();
+        TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+        queue.publisher(i -> i % 2 == 1).subscribe(subscriber);
+        IntStream.range(0, 6).forEach(queue::add);
+        queue.close();
+
+        assertTrue(subscriber.complete.await(1, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 3, 5), new ArrayList<>(subscriber.items));
+        assertNull(subscriber.error);
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that a slow subscriber to all frames is not filtered, and so receives more frames than a filtered queue holds.")
+    public void testPublisherAllFrames() throws Exception {
+        int count = MultiQueue.FILTERED_CAPACITY * 2;
+        try (MultiQueue<Packet> queue = new MultiQueue<>()) {
+            CountDownLatch added = new CountDownLatch(1);
+            BlockingQueue<Packet> received = new LinkedBlockingQueue<>();
+            queue.publisher(FrameFilter.all()).subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(Packet item) {
+                    try {
+                        // too slow until every frame has been added
+                        added.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    received.add(item);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+            for (int i = 0; i < count; i++) {
+                queue.add(Packet.create(0xFECA, 0, i, i >> 8));
+            }
+            added.countDown();
+
+            for (int i = 0; i < count; i++) {
+                Packet p = received.poll(1, TimeUnit.SECONDS);
+                assertEquals(i, p.get16(0));
+            }
+            assertEquals(0, queue.getDropped());
+        }
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that a cancelled subscriber receives no more items.")
+    public void testPublisherCancel() throws Exception {
+        try (MultiQueue<Integer> queue = new MultiQueue<>()) {
+            TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+            queue.publisher(null).subscribe(subscriber);
+            queue.add(1);
+            assertEquals(List.of(1), subscriber.take(1));
+
+            subscriber.subscription.cancel();
+            queue.add(2);
+            assertNull(subscriber.items.poll(100, TimeUnit.MILLISECONDS));
+            assertNull(subscriber.error);
+        }
+    }
+
+    @Test(timeout = 5000)
+    @TestDoc(description = "Verify that a request for no items is reported to the subscriber as an error on the delivery thread.")
+    public void testPublisherInvalidRequest() throws Exception {
+        try (MultiQueue<Integer> queue = new MultiQueue<>()) {
+            TestSubscriber subscriber = new TestSubscriber(1);
+            queue.publisher(null).subscribe(subscriber);
+            queue.add(1);
+            assertEquals(List.of(1), subscriber.take(1));
+
+            subscriber.subscription.request(0);
+            assertTrue(subscriber.failed.await(1, TimeUnit.SECONDS));
+            assertTrue(subscriber.error instanceof IllegalArgumentException);
+            assertNotSame(Thread.currentThread(), subscriber.errorThread);
+
+            queue.add(2);
+            assertNull(subscriber.items.poll(100, TimeUnit.MILLISECONDS));
+        }
+    }
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.etools.j1939tools.modules.DateTimeModule;
+import org.etools.j1939tools.modules.TestDateTimeModule;
+import org.etools.testdoc.TestDoc;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@TestDoc(description = "Verifies parsing packets from text without intermediate Strings.")
+public class PacketParserTest {
+
+    private final Instant start = Instant.parse("2021-04-23T12:22:43.128Z");
+
+    private final LocalDateTime startTime = LocalDateTime.ofInstant(start, ZoneId.systemDefault());
+
+    private final PacketParser parser = new PacketParser();
+
+    /** The String.split() implementation of Packet.parse() that was replaced. */
+    private static Packet splitParse(String string) {
+        try {
+            boolean tx = string.contains(Packet.TX);
+            if (tx) {
+                string = string.replace(Packet.TX, "");
+            }
+            String[] parts = string.split(" ");
+            int header = Integer.parseInt(parts[0].trim(), 16);
+            int offset = parts[1].startsWith("[") ? 2 : 1;
+            byte[] bytes = new byte[parts.length - offset];
+            for (int i = offset; i < parts.length; i++) {
+                bytes[i - offset] = (byte) (Integer.parseInt(parts[i].trim(), 16) & 0xFF);
+            }
+            return Packet.create((header & 0xFF000000) >> 26, (header & 0xFFFF00) >> 8, header & 0xFF, tx, bytes);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** The String.split() implementation of Packet.parsePacket() that was replaced. */
+    private static Packet splitParsePacket(String p) {
+        String[] a = p.split("[,\\s]+");
+        int id = Integer.parseInt(a[0], 16);
+        return Packet.create(0xFFFFFF & (id >> 8),
+                             0xFF & id,
+                             Stream.of(Arrays.copyOfRange(a, 1, a.length, String[].class))
+                                   .mapToInt(s -> Integer.parseInt(s, 16))
+                                   .toArray());
+    }
+
+    /** The String.split() implementation of Packet.parseVector(), which only reads received frames. */
+    private static Packet splitParseReceivedVector(LocalDateTime start, String line) {
+        String[] a = line.trim().split("\\s+");
+        if (a.length > 5 && a[1].equals("1") && a[3].equals("Rx")) {
+            int id = Integer.parseInt(a[2].substring(0, a[2].length() - 1), 16);
+
+            return new Packet(start.plusNanos((long) (Double.parseDouble(a[0]) * 1000000000)),
+                              6,
+                              0xFFFFFF & (id >> 8),
+                              0xFF & id,
+                              false,
+                              Stream.of(Arrays.copyOfRange(a, 6, 6 + Integer.parseInt(a[5]), String[].class))
+                                    .mapToInt(s -> Integer.parseInt(s, 16))
+                                    .toArray());
+        }
+        return null;
+    }
+
+    /** A String.split() parser of every frame of a Vector line, as replay reads them. */
+    private static Packet splitParseVector(LocalDateTime start, String line) {
+        String[] a = line.trim().split("\\s+");
+        if (a.length > 5 && a[1].equals("1") && (a[3].equals("Rx") || a[3].equals("Tx"))) {
+            int header = Integer.parseInt(a[2].substring(0, a[2].length() - 1), 16);
+            return new Packet(start.plusNanos((long) (Double.parseDouble(a[0]) * 1000000000)),
+                              (header >> 26) & 0x07,
+                              (header >> 8) & 0x3FFFF,
+                              0xFF & header,
+                              a[3].equals("Tx"),
+                              Stream.of(Arrays.copyOfRange(a, 6, 6 + Integer.parseInt(a[5]), String[].class))
+                                    .mapToInt(s -> Integer.parseInt(s, 16))
+                                    .toArray());
+        }
+        return null;
+    }
+
+    private static List<String> corpus() throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(PacketParserTest.class.getResourceAsStream("/org/etools/j1939_84/resources/j1939_840.log"),
+                                                                          StandardCharsets.UTF_8))) {
+            return in.lines().collect(Collectors.toList());
+        }
+    }
+
+    private static void assertSamePacket(Packet expected, Packet actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getPriority(), actual.getPriority());
+        assertEquals(expected.isTransmitted(), actual.isTransmitted());
+    }
+
+    @Before
+    public void setUp() {
+        DateTimeModule.setInstance(new TestDateTimeModule());
+    }
+
+    @After
+    public void tearDown() {
+        DateTimeModule.setInstance(null);
+    }
+
+    @Test
+    @TestDoc(description = "Verify that every packet of a j1939_84 log is parsed like Packet.parse() did, with the time it was logged.")
+    public void testLogCorpus() throws IOException {
+        List<String> lines = corpus();
+        assertEquals(2645, lines.size());
+        for (String line : lines) {
+            assertTrue(line, parser.parseLog(line));
+            String[] fields = line.split(" +", 7);
+            assertSamePacket(splitParse(fields[6]), parser.toPacket());
+            assertEquals(LocalDateTime.parse(fields[0] + "T" + fields[5]), parser.toPacket().getTimestamp());
+
+            assertTrue(line, parser.parse(fields[6]));
+            assertSamePacket(splitParse(fields[6]), parser.toPacket());
+            assertSamePacket(splitParse(fields[6]), Packet.parse(fields[6]));
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that the packets of the corpus are parsed from every text form like the replaced String.split() parsers did.")
+    public void testFormsCorpus() throws IOException {
+        StringBuilder asc = new StringBuilder();
+        int i = 0;
+        for (String line : corpus()) {
+            assertTrue(parser.parseLog(line));
+            Packet packet = parser.toPacket();
+            // alternate transmitted packets, which only have a priority in Vector logs
+            if (i++ % 3 == 0) {
+                packet = Packet.create(packet.getTimestamp(),
+                                       packet.getPriority(),
+                                       packet.getId(0x3FFFF),
+                                       packet.getSource(),
+                                       true,
+                                       packet.getBytes());
+            }
+
+            String string = packet.toString();
+            assertSamePacket(splitParse(string), Packet.parse(string));
+
+            Packet p = packet;
+            String list = String.format("%08X, %s",
+                                        p.getId(0xFFFF) << 8 | p.getSource(),
+                                        IntStream.range(0, p.getLength())
+                                                 .mapToObj(b -> Integer.toHexString(p.get(b)))
+                                                 .collect(Collectors.joining(",")));
+            assertSamePacket(splitParsePacket(list), Packet.parsePacket(list));
+
+            String vector = packet.toVectorString(start);
+            Packet expected = splitParseReceivedVector(startTime, vector);
+            Packet actual = Packet.parseVector(startTime, vector);
+            if (packet.isTransmitted()) {
+                assertNull(actual);
+            } else {
+                assertSamePacket(expected, actual);
+                assertEquals(expected.getTimestampNanos(), actual.getTimestampNanos());
+            }
+            asc.append(vector).append('\n');
+        }
+
+        // and from the bytes of a log
+        ByteBuffer buffer = ByteBuffer.wrap(asc.toString().getBytes(StandardCharsets.US_ASCII));
+        List<String> vectors = asc.toString().lines().collect(Collectors.toList());
+        int from = 0;
+        for (String vector : vectors) {
+            int to = from + vector.length();
+            assertTrue(vector, parser.parseVector(buffer, from, to));
+            Packet expected = splitParseVector(startTime, vector);
+            Packet actual = parser.toPacket(startTime);
+            assertSamePacket(expected, actual);
+            assertEquals(expected.getTimestampNanos(), actual.getTimestampNanos());
+            from = to + 1;
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that the frame is described without creating a Packet.")
+    public void testGetters() {
+        assertTrue(parser.parseVector("  12.000123 1  18EA00F9x Tx d 3 EC FE 00"));
+        assertEquals(6, parser.getPriority());
+        assertEquals(0xEA00, parser.getId());
+        assertEquals(0xF9, parser.getSource());
+        assertTrue(parser.isTransmitted());
+        assertEquals(3, parser.getLength());
+        assertEquals(0xFE, parser.get(1));
+        assertEquals(12_000_123_000L, parser.getTimestampNanos());
+        assertEquals(1, parser.getChannel());
+    }
+
+    @Test
+    @TestDoc(description = "Verify that frames of other channels are parsed and their packets tagged with the channel, except by Packet.parseVector().")
+    public void testChannel() {
+        LocalDateTime start = LocalDateTime.of(2021, 4, 23, 12, 0);
+        String line = "  12.000123 2  18EA00F9x Rx d 3 EC FE 00";
+        assertTrue(parser.parseVector(line));
+        assertEquals(2, parser.getChannel());
+        assertEquals(2, parser.toPacket(start).getChannel());
+        assertEquals(2, parser.toPacket(0).getChannel());
+        assertEquals(0xEA00, parser.toPacket(start).getId(0xFFFF));
+        assertNull(Packet.parseVector(start, line));
+
+        assertTrue(parser.parse("18FEEC00 [3] 01 02 03"));
+        assertEquals(1, parser.getChannel());
+    }
+
+    @Test
+    @TestDoc(description = "Verify that Packet.parseVector() only reads received frames and leaves the priority in the id.")
+    public void testPacketParseVector() {
+        LocalDateTime start = LocalDateTime.of(2021, 4, 23, 12, 0);
+        assertNull(Packet.parseVector(start, "  12.000123 1  0CEA00F9x Tx d 3 EC FE 00"));
+        Packet packet = Packet.parseVector(start, "  12.000123 1  0CEA00F9x Rx d 3 EC FE 00");
+        assertEquals(6, packet.getPriority());
+        assertEquals(0x0CEA00, packet.getId(0xFFFFFF));
+        assertEquals(0xF9, packet.getSource());
+        assertFalse(packet.isTransmitted());
+        assertEquals(start.plusNanos(12_000_123_000L), packet.getTimestamp());
+    }
+
+    @Test
+    @TestDoc(description = "Verify that text in other forms is rejected.")
+    public void testRejected() {
+        assertFalse(parser.parse("18FEEC00"));
+        assertFalse(parser.parse("18FEEC00 [3] 01 XY 03"));
+        assertFalse(parser.parse("FFFFFFFF 01 02 03"));
+        assertNull(Packet.parse("This is not a parseable packet, but it was never meant to be."));
+        assertFalse(parser.parseVector("base hex timestamps absolute"));
+        assertFalse(parser.parseVector("0.100000 0  18EA00F9x Rx d 3 EC FE 00"));
+        assertFalse(parser.parseVector("0.100000 X  18EA00F9x Rx d 3 EC FE 00"));
+        assertFalse(parser.parseVector("0.100000 1  18EA00F9x Rx d 3 EC FE"));
+        assertFalse(parser.parseLog("2021-04-23 12:22:43.128 INFO   org.etools.j1939_84.J1939_84 main Started"));
+        assertFalse(parser.parsePacket("18FEEC00, 01, 0Z"));
+    }
+}
@@ -6,7 +6,23 @@ package org.etools.j1939tools.bus;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.etools.j1939tools.modules.DateTimeModule;
 import org.etools.j1939tools.modules.TestDateTimeModule;
@@ -95,6 +111,25 @@ public class PacketTest {
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void testGetBytesInto() {
+        byte[] actual = new byte[] { -1, -1, -1, -1 };
+        Packet.create(1234, 56, 11, 22, 33).getBytes(1, actual, 1, 2);
+        assertArrayEquals(new byte[] { -1, 22, 33, -1 }, actual);
+
+        byte[] large = new byte[20];
+        Arrays.fill(large, (byte) 7);
+        large[12] = 12;
+        Packet.create(1234, 56, large).getBytes(12, actual, 0, 4);
+        assertArrayEquals(new byte[] { 12, 7, 7, 7 }, actual);
+        try {
+            Packet.create(1234, 56, 11, 22, 33).getBytes(2, actual, 0, 2);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testGettersAndToString() {
         byte[] bytes = new byte[] { 0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77, (byte) 0x88 };
@@ -177,6 +212,209 @@ public class PacketTest {
         assertFalse(instance2.equals(instance1));
     }
 
+    @Test
+    public void testGettersLongPacket() {
+        byte[] bytes = new byte[] { 0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77, (byte) 0x88, (byte) 0x99, (byte) 0xAA };
+        Packet instance = Packet.create(6, 0xFEEC, 0, false, bytes);
+        assertEquals(10, instance.getLength());
+        assertArrayEquals(bytes, instance.getBytes());
+        assertEquals(0xAA99, instance.get16(8));
+        assertEquals(0x99AA, instance.get16Big(8));
+        assertEquals(0xAA998877L, instance.get32(6));
+        assertEquals(0x778899AAL, instance.get32Big(6));
+        assertArrayEquals(new int[] { 0x99, 0xAA, 0 }, instance.getData(8, 11));
+        assertEquals("18FEEC00 [10] 11 22 33 44 55 66 77 88 99 AA", instance.toString());
+    }
+
+    @Test
+    public void testGetOutOfBounds() {
+        Packet instance = Packet.create(0x1234, 56, 11, 22, 33);
+        try {
+            instance.get16(2);
+            fail("Expected ArrayIndexOutOfBoundsException");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            instance.get(-1);
+            fail("Expected ArrayIndexOutOfBoundsException");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testHashCodeMatchesData() {
+        for (int length : new int[] { 3, 8, 9, 20 }) {
+            int[] data = new int[length];
+            for (int i = 0; i < length; i++) {
+                data[i] = 0xE0 + i;
+            }
+            LocalDateTime time = LocalDateTime.now();
+            Packet fromInts = new Packet(time, 6, 0xFEEC, 0, false, data);
+            ByteBuffer buffer = ByteBuffer.allocate(length + 2);
+            for (int i = 0; i < length; i++) {
+                buffer.put(i + 2, (byte) data[i]);
+            }
+            Packet fromBuffer = Packet.create(Packet.toNanos(time), 6, 0xFEEC, 0, false, buffer, 2, length);
+
+            assertEquals(fromInts, fromBuffer);
+            assertEquals(Arrays.hashCode(new Object[] { 0xFEEC, 6, 0, false, Arrays.hashCode(data) }),
+                         fromBuffer.hashCode());
+            assertEquals(fromInts.hashCode(), fromBuffer.hashCode());
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test
+    public void testSetData() throws Exception {
+        Packet instance = new Packet(LocalDateTime.now(), 7, 0xFEEC, 0, false, (int[]) null);
+        assertFalse(instance.isComplete());
+        try {
+            new Packet(instance);
+            fail("Expected PacketException");
+        } catch (Packet.PacketException e) {
+            // a pending packet is not copied
+        }
+        Thread thread = new Thread(() -> instance.setData(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 }));
+        thread.start();
+        // blocks until the data is set
+        assertEquals(9, instance.getLength());
+        thread.join();
+        assertTrue(instance.isComplete());
+        assertTrue(instance.isValid());
+        assertEquals(0x0908, instance.get16(7));
+        assertEquals(9, new Packet(instance).getLength());
+        try {
+            instance.setData(new byte[] { 1, 2, 3 });
+            fail("Expected PacketException");
+        } catch (Packet.PacketException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWithChannel() {
+        Packet instance = new Packet(LocalDateTime.now(), 7, 0xFEEC, 0, false, (int[]) null);
+        Packet copy = instance.withChannel(2);
+        assertFalse(copy.isComplete());
+        instance.setData(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+
+        assertTrue(copy.isComplete());
+        assertEquals(instance, copy);
+        assertEquals(instance.getTimestampNanos(), copy.getTimestampNanos());
+        assertEquals(2, copy.getChannel());
+        // the packet itself stays on its channel
+        assertEquals(1, instance.getChannel());
+        assertEquals(2, Packet.create(0xF004, 0x00, 1, 2, 3).withChannel(2).getChannel());
+    }
+
+    @Test
+    public void testAdoptData() {
+        Packet instance = new Packet(LocalDateTime.now(), 7, 0xFEEC, 0, false, (int[]) null);
+        byte[] data = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+        instance.adoptData(data);
+        assertTrue(instance.isValid());
+        assertArrayEquals(data, instance.getBytes());
+        try {
+            instance.adoptData(data);
+            fail("Expected PacketException");
+        } catch (Packet.PacketException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFail() {
+        Packet instance = new Packet(LocalDateTime.now(), 7, 0xFEEC, 0, false, (int[]) null);
+        instance.fail();
+        assertTrue(instance.isComplete());
+        assertFalse(instance.isValid());
+        try {
+            instance.get(0);
+            fail("Expected PacketException");
+        } catch (Packet.PacketException e) {
+            // expected
+        } catch (StackOverflowError e) {
+            fail("Failed packet message is recursive");
+        }
+    }
+
+    @Test
+    public void testWhenComplete() throws Exception {
+        Packet instance = new Packet(LocalDateTime.now(), 7, 0xFEEC, 0, false, (int[]) null);
+        CompletableFuture<Packet> future = instance.whenComplete(1, TimeUnit.MINUTES);
+        assertFalse(future.isDone());
+        instance.setData(new byte[] { 1, 2, 3 });
+        assertSame(instance, future.get(0, TimeUnit.SECONDS));
+        // failing a complete packet does nothing
+        instance.fail();
+        assertTrue(instance.isValid());
+
+        Packet complete = Packet.create(0x1234, 56, 11, 22, 33);
+        assertTrue(complete.whenComplete(0, TimeUnit.SECONDS).isDone());
+    }
+
+    @Test
+    public void testWhenCompleteTimeout() throws Exception {
+        Packet instance = new Packet(LocalDateTime.now(), 7, 0xFEEC, 0, false, (int[]) null);
+        try {
+            instance.whenComplete(10, TimeUnit.MILLISECONDS).get();
+            fail("Expected TimeoutException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        // the packet itself is still pending
+        assertFalse(instance.isComplete());
+        instance.fail();
+        instance.fail();
+        assertFalse(instance.whenComplete(0, TimeUnit.SECONDS).get().isValid());
+    }
+
+    @Test
+    public void testTimestampNanos() {
+        LocalDateTime time = LocalDateTime.of(2021, 3, 14, 15, 9, 26, 535_897_932);
+        Packet first = Packet.create(time, 6, 0xFEEC, 0, false, new byte[8]);
+        assertSame(time, first.getTimestamp());
+        assertEquals(Packet.toNanos(time), first.getTimestampNanos());
+
+        long nanos = Packet.toNanos(time) + 1_999_999;
+        Packet second = Packet.create(nanos, 6, 0xFEEC, 0, false, ByteBuffer.allocate(8), 0, 8);
+        assertEquals(time.plusNanos(1_999_999), second.getTimestamp());
+        assertEquals(1_999_999, second.nanosSince(first));
+        assertEquals(1, second.millisSince(first));
+        assertEquals(-1, first.millisSince(second));
+
+        second.setTimestampNanos(nanos + 1_000);
+        assertEquals(time.plusNanos(2_000_999), second.getTimestamp());
+        second.setTimestamp(time);
+        assertEquals(0, second.nanosSince(first));
+
+        // before 1970
+        LocalDateTime old = LocalDateTime.of(1969, 12, 31, 23, 59, 59, 1);
+        Packet oldPacket = Packet.create(Packet.toNanos(old), 6, 0xFEEC, 0, false, ByteBuffer.allocate(8), 0, 8);
+        assertEquals(old, oldPacket.getTimestamp());
+    }
+
+    @Test
+    public void testTimestampUpdatedWhileRead() throws Exception {
+        LocalDateTime time = LocalDateTime.of(2021, 3, 14, 15, 9, 26);
+        long nanos = Packet.toNanos(time);
+        Packet packet = Packet.create(nanos, 6, 0xFEEC, 0, false, ByteBuffer.allocate(8), 0, 8);
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= 100_000; i++) {
+                packet.setTimestampNanos(nanos + i);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            packet.getTimestamp();
+        }
+        writer.join();
+        // a LocalDateTime built from an older value is never returned
+        assertEquals(time.plusNanos(100_000), packet.getTimestamp());
+    }
+
     @Test
     public void testNotEqualsTransmitted() {
         Packet instance1 = Packet.create(6, 1234, 56, true, new byte[8]);
@@ -230,4 +468,51 @@ public class PacketTest {
         assertEquals(expected, actual);
     }
 
+    /** The String.format() implementation the append methods replaced. */
+    private static String formatVector(Packet p, Instant start, int channel) {
+        long nanos = p.getTimestampNanos() - OffsetDateTime.now().getOffset().getTotalSeconds() * 1_000_000_000L
+                - (start.getEpochSecond() * 1_000_000_000L + start.getNano());
+        return String.format("%4.6f %d  %06X%02Xx %s d %d %s",
+                             nanos / 1000000000.0,
+                             channel,
+                             p.getPriority() << 18 | p.getId(0x3FFFF),
+                             p.getSource(),
+                             p.isTransmitted() ? "Tx" : "Rx",
+                             p.getLength(),
+                             formatData(p));
+    }
+
+    private static String formatData(Packet p) {
+        return IntStream.range(0, p.getLength())
+                        .mapToObj(i -> String.format("%02X", p.get(i)))
+                        .collect(Collectors.joining(" "));
+    }
+
+    @Test
+    public void testAppendMatchesFormat() {
+        Instant start = Instant.parse("2021-04-23T12:22:43.128Z");
+        LocalDateTime startTime = LocalDateTime.ofInstant(start, ZoneId.systemDefault());
+        Random random = new Random(84);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            int[] data = random.ints(1 + random.nextInt(20), 0, 256).toArray();
+            // some before the start and some that round up to the next microsecond
+            LocalDateTime time = startTime.plusNanos(random.nextInt(2_000_000_000) - 1_000_000_000L);
+            Packet p = new Packet(time, random.nextInt(8), random.nextInt(0x40000), random.nextInt(256), i % 3 == 0, data);
+
+            assertEquals(String.format("%06X%02X [%s] %s",
+                                       p.getPriority() << 18 | p.getId(0x3FFFF),
+                                       p.getSource(),
+                                       p.getLength(),
+                                       formatData(p) + (p.isTransmitted() ? Packet.TX : Packet.RX)),
+                         p.toString());
+            assertEquals(formatVector(p, start, 1 + i % 4), p.toVectorString(start, 1 + i % 4));
+
+            sb.setLength(0);
+            assertEquals(p.toString(), p.appendTo(sb.append(">")).substring(1));
+            sb.setLength(0);
+            assertEquals(p.toTimeString(), p.appendTimeTo(sb).toString());
+        }
+    }
+
 }
@@ -7,6 +7,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.ArgumentMatchers.any;
@@ -22,6 +23,9 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
@@ -33,6 +37,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 
+import org.etools.j1939tools.bus.RP1210Bus.ReceiveMode;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -83,6 +88,10 @@ public class RP1210BusTest {
     private RP1210Library rp1210Library;
 
     private void createInstance() throws BusException {
+        createInstance(ReceiveMode.POLLING);
+    }
+
+    private void createInstance(ReceiveMode receiveMode) throws BusException {
         instance = new RP1210Bus(rp1210Library,
                 decodingExecutor,
                 rp1210Executor,
@@ -91,6 +100,7 @@ public class RP1210BusTest {
                 "J1939:Baud=Auto",
                 ADDRESS,
                 true,
+                receiveMode,
                 logger,
                 (type, msg) -> {
                 });
@@ -107,6 +117,16 @@ public class RP1210BusTest {
     }
 
     private void startInstance() throws Exception {
+        startInstance(ReceiveMode.POLLING, (short) 0);
+    }
+
+    private void startInstance(ReceiveMode receiveMode, short blockTimeoutRtn) throws Exception {
+        if (receiveMode == ReceiveMode.BLOCKING) {
+            when(rp1210Library.RP1210_SendCommand(eq((short) 215),
+                    eq((short) 1),
+                    aryEq(new byte[] { 10, 1 }),
+                    eq((short) 2))).thenReturn(blockTimeoutRtn);
+        }
         when(rp1210Library.RP1210_ClientConnect(0, (short) 42, "J1939:Baud=Auto", 0, 0, (short) 1))
                 .thenReturn((short) 1);
         when(rp1210Library.RP1210_SendCommand(eq((short) 19),
@@ -125,7 +145,7 @@ public class RP1210BusTest {
         when(decodingExecutor.submit(decodingCaptor.capture())).thenReturn(null);
         when(rp1210Executor.submit(rp1210Captor.capture())).thenReturn(CompletableFuture.completedFuture(null));
 
-        createInstance();
+        createInstance(receiveMode);
 
         verify(rp1210Library).RP1210_ClientConnect(0, adapter.getDeviceId(), "J1939:Baud=Auto", 0, 0, (short) 1);
         verify(rp1210Library).RP1210_SendCommand(eq((short) 19),
@@ -140,6 +160,12 @@ public class RP1210BusTest {
                 eq((short) 1),
                 aryEq(new byte[] {}),
                 eq((short) 0));
+        if (receiveMode == ReceiveMode.BLOCKING) {
+            verify(rp1210Library).RP1210_SendCommand(eq((short) 215),
+                    eq((short) 1),
+                    aryEq(new byte[] { 10, 1 }),
+                    eq((short) 2));
+        }
         verify(rp1210Executor).submit(any(Callable.class));
     }
 
@@ -420,7 +446,7 @@ public class RP1210BusTest {
                 eq((short) 14),
                 eq((short) 0),
                 eq((short) 0));
-        verify(queue).stream(anyLong(), any());
+        verify(queue).stream(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -452,11 +478,10 @@ public class RP1210BusTest {
         });
         decodingCaptor.getAllValues().forEach(Runnable::run);
 
-        ArgumentCaptor<Packet> packetCaptor = ArgumentCaptor.forClass(Packet.class);
-        verify(queue).add(packetCaptor.capture());
+        ArgumentCaptor<Collection<Packet>> packetCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(queue).addAll(packetCaptor.capture());
 
-        Packet actual = packetCaptor.getValue();
-        assertEquals(packet, actual);
+        assertEquals(List.of(packet), packetCaptor.getValue());
 
         verify(logger).log(eq(Level.INFO), anyString());
         verify(rp1210Library, atLeast(2)).RP1210_ReadMessage(eq((short) 1),
@@ -525,11 +550,10 @@ public class RP1210BusTest {
 
         decodingCaptor.getValue().run();
 
-        ArgumentCaptor<Packet> packetCaptor = ArgumentCaptor.forClass(Packet.class);
-        verify(queue).add(packetCaptor.capture());
-        Packet actual = packetCaptor.getValue();
+        ArgumentCaptor<Collection<Packet>> packetCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(queue).addAll(packetCaptor.capture());
 
-        assertEquals(packet, actual);
+        assertEquals(List.of(packet), packetCaptor.getValue());
         verify(logger).log(eq(Level.INFO), anyString());
         verify(rp1210Library, atLeast(2)).RP1210_ReadMessage(eq((short) 1),
                 any(byte[].class),
@@ -539,6 +563,69 @@ public class RP1210BusTest {
         verify(decodingExecutor).submit(any(Runnable.class));
     }
 
+    @Test
+    public void testReceiveBlocking() throws Exception {
+        Packet packet1 = Packet.create(0x1234, 0x56, 0x77, 0x88, 0x99, 0xAA, 0xBB, 0xCC, 0xDD, 0xEE);
+        Packet packet2 = Packet.create(0x1234, 0x57, 0x11, 0x22, 0x33);
+        byte[] encodedPacket1 = new byte[] { 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0x34, (byte) 0x12, (byte) 0x00,
+                (byte) 0x06, (byte) 0x56, (byte) 0x34, (byte) 0x77, (byte) 0x88, (byte) 0x99, (byte) 0xAA, (byte) 0xBB,
+                (byte) 0xCC, (byte) 0xDD, (byte) 0xEE };
+        byte[] encodedPacket2 = new byte[] { 0x00, 0x00, 0x00, 0x01, 0x00, (byte) 0x34, (byte) 0x12, (byte) 0x00,
+                (byte) 0x06, (byte) 0x57, (byte) 0x34, (byte) 0x11, (byte) 0x22, (byte) 0x33 };
+        when(rp1210Library.RP1210_ReadMessage(eq((short) 1), any(ByteBuffer.class), eq((short) 32), eq((short) 1)))
+                .thenAnswer(arg0 -> {
+                    arg0.getArgument(1, ByteBuffer.class).put(0, encodedPacket1);
+                    return (short) encodedPacket1.length;
+                });
+        when(rp1210Library.RP1210_ReadMessage(eq((short) 1), any(ByteBuffer.class), eq((short) 32), eq((short) 0)))
+                .thenAnswer(arg0 -> {
+                    arg0.getArgument(1, ByteBuffer.class).put(0, encodedPacket2);
+                    return (short) encodedPacket2.length;
+                })
+                .thenReturn((short) 0);
+
+        startInstance(ReceiveMode.BLOCKING, (short) 0);
+        assertEquals(ReceiveMode.BLOCKING, instance.getReceiveMode());
+        // only the first read, the others are scheduled after it
+        rp1210Captor.getValue().call();
+        // both packets are queued in one task
+        decodingCaptor.getValue().run();
+
+        ArgumentCaptor<Collection<Packet>> packetCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(queue).addAll(packetCaptor.capture());
+        assertEquals(List.of(packet1, packet2), packetCaptor.getValue());
+        assertTrue(instance.getReceiveCpuNanosPer1000Frames() >= 0);
+
+        verify(logger).log(eq(Level.INFO), anyString());
+        verify(rp1210Library).RP1210_ReadMessage(eq((short) 1),
+                any(ByteBuffer.class),
+                eq((short) 32),
+                eq((short) 1));
+        verify(rp1210Library, times(2)).RP1210_ReadMessage(eq((short) 1),
+                any(ByteBuffer.class),
+                eq((short) 32),
+                eq((short) 0));
+        verify(decodingExecutor).submit(any(Runnable.class));
+        verify(rp1210Executor, times(2)).submit(any(Callable.class));
+    }
+
+    @Test
+    public void testReceiveBlockingNotSupported() throws Exception {
+        when(rp1210Library.RP1210_GetErrorMsg(eq((short) 143), any())).thenAnswer(arg0 -> {
+            byte[] dest = arg0.getArgument(1);
+            byte[] src = "Command Not Supported".getBytes(UTF_8);
+            System.arraycopy(src, 0, dest, 0, src.length);
+            return (short) 0;
+        });
+
+        startInstance(ReceiveMode.BLOCKING, (short) -143);
+
+        assertEquals(ReceiveMode.POLLING, instance.getReceiveMode());
+        verify(logger).log(Level.WARNING,
+                           "RP1210 blocking read not supported, polling instead: Error (143): Command Not Supported");
+        verify(rp1210Library).RP1210_GetErrorMsg(eq((short) 143), any());
+    }
+
     @Test
     public void testRead() throws Exception {
         startInstance();
@@ -572,7 +659,8 @@ public class RP1210BusTest {
         when(future.get()).thenReturn(Optional.empty());
         when(instance.schedule(submitCaptor.capture())).thenReturn(future);
         // implement echo
-        when(queue.stream(ArgumentMatchers.anyLong(), ArgumentMatchers.any())).thenReturn(Stream.of(packet));
+        when(queue.stream(ArgumentMatchers.any(FrameFilter.class), ArgumentMatchers.anyLong(), ArgumentMatchers.any()))
+                .thenReturn(Stream.of(packet));
 
         instance.send(packet);
 
@@ -585,7 +673,7 @@ public class RP1210BusTest {
                 eq((short) 14),
                 eq((short) 0),
                 eq((short) 0));
-        verify(queue).stream(anyLong(), any());
+        verify(queue).stream(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -633,7 +721,7 @@ public class RP1210BusTest {
                 eq((short) 0),
                 eq((short) 0));
         verify(rp1210Library).RP1210_GetErrorMsg(eq((short) 99), any());
-        verify(queue).stream(anyLong(), any());
+        verify(queue).stream(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.etools.testdoc.TestDoc;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@TestDoc(description = "Verifies replaying Vector .asc captures.")
+public class ReplayBusTest {
+
+    private final Instant start = Instant.parse("2021-04-23T12:22:43.128Z");
+
+    private final LocalDateTime startTime = LocalDateTime.ofInstant(start, ZoneId.systemDefault());
+
+    private Path file;
+
+    private List<String> lines;
+
+    /** Writes a capture of count frames, period ms apart, like J1939.startLogger(). */
+    private void writeCapture(int count, int period) throws IOException {
+        lines = new ArrayList<>();
+        lines.add("base hex timestamps absolute");
+        for (int i = 0; i < count; i++) {
+            LocalDateTime time = startTime.plusNanos(TimeUnit.MILLISECONDS.toNanos((long) i * period) + 1000);
+            Packet packet;
+            if (i % 10 == 3) {
+                packet = new Packet(time, 6, 0xEA00, 0xF9, true, 0xEC, 0xFE, 0x00);
+            } else if (i % 10 == 7) {
+                // a short frame
+                packet = new Packet(time, 3, 0xFECA, i & 0xFF, false, 1);
+            } else {
+                packet = new Packet(time, 3, 0xF004, 0, false, i, i >> 8, 3, 4, 5, 6, 7, 0xFF);
+            }
+            lines.add(packet.toVectorString(start));
+            if (i == count / 2) {
+                // lines that are not frames are skipped
+                lines.add("Failed Packet: 18EA00F9");
+            }
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    private List<Packet> expected() {
+        return lines.stream()
+                    .map(l -> parseVector(startTime, l))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("test", ".asc");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    @TestDoc(description = "Verify that every frame is replayed, in order, like Packet.parseVector() reads it, even when lines cross mappings of the file.")
+    public void testMaxSpeed() throws Exception {
+        writeCapture(1000, 10);
+        try (ReplayBus bus = new ReplayBus(file, startTime, 0xF9, 8)) {
+            bus.setSpeed(ReplayBus.MAX_SPEED);
+            Stream<Packet> stream = bus.read(5, TimeUnit.SECONDS);
+            assertEquals(1000L, (long) bus.start().get(5, TimeUnit.SECONDS));
+
+            List<Packet> expected = expected();
+            List<Packet> actual = stream.limit(expected.size()).collect(Collectors.toList());
+            assertEquals(expected, actual);
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getTimestampNanos(), actual.get(i).getTimestampNanos(), 1000);
+                assertEquals(expected.get(i).isTransmitted(), actual.get(i).isTransmitted());
+                assertEquals(expected.get(i).getPriority(), actual.get(i).getPriority());
+            }
+            assertEquals("18EA00F9 [3] EC FE 00 (TX)", actual.get(3).toString());
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that replay continues from the first frame at or after the time sought.")
+    public void testSeek() throws Exception {
+        writeCapture(5000, 10);
+        List<Packet> expected = expected();
+        try (ReplayBus bus = new ReplayBus(file, startTime, 0xF9)) {
+            assertFalse(bus.seek(startTime.plusHours(1)));
+            assertTrue(bus.seek(startTime.plusSeconds(30)));
+            bus.setSpeed(ReplayBus.MAX_SPEED);
+            Stream<Packet> stream = bus.read(5, TimeUnit.SECONDS);
+            assertEquals(2000L, (long) bus.start().get(5, TimeUnit.SECONDS));
+            List<Packet> actual = stream.limit(2000).collect(Collectors.toList());
+            assertEquals(expected.subList(3000, 5000), actual);
+        }
+    }
+
+    @Test
+    @TestDoc(description = "Verify that frames are published at the recorded pace, or faster.")
+    public void testPace() throws Exception {
+        writeCapture(5, 100);
+        try (ReplayBus bus = new ReplayBus(file, startTime, 0xF9)) {
+            long begin = System.nanoTime();
+            assertEquals(5L, (long) bus.start().get(5, TimeUnit.SECONDS));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            assertTrue("replayed in " + elapsed + " ms", elapsed >= 390);
+        }
+        try (ReplayBus bus = new ReplayBus(file, startTime, 0xF9)) {
+            bus.setSpeed(10);
+            long begin = System.nanoTime();
+            assertEquals(5L, (long) bus.start().get(5, TimeUnit.SECONDS));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            assertTrue("replayed in " + elapsed + " ms", elapsed >= 39 && elapsed < 390);
+        }
+    }
+
+    /** Reads the frames, transmitted ones included, as the bus does. */
+    private static Packet parseVector(LocalDateTime start, String line) {
+        PacketParser parser = new PacketParser();
+        return parser.parseVector(line) ? parser.toPacket(start) : null;
+    }
+}
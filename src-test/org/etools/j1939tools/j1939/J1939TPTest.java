@@ -1,22 +1,29 @@
 package org.etools.j1939tools.j1939;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.lang.management.ManagementFactory;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import org.etools.j1939tools.bus.Bus;
@@ -24,6 +31,8 @@ import org.etools.j1939tools.bus.BusException;
 import org.etools.j1939tools.bus.EchoBus;
 import org.etools.j1939tools.bus.Packet;
 import org.etools.j1939tools.j1939.J1939TP.CtsBusException;
+import org.etools.j1939tools.j1939.J1939TP.EomBusException;
+import org.etools.j1939tols.engine.simulated.Sim;
 import org.etools.testdoc.TestDoc;
 import org.etools.testdoc.TestItem;
 import org.junit.Assert;
@@ -103,15 +112,16 @@ public class J1939TPTest {
             {
                 Stream<Packet> stream = tpIn.read(2 * J1939TP.T1, TimeUnit.MILLISECONDS);
 
+                // wait for up to 120% o T1 for CTS. Open the stream before the RTS, so the CTS is not missed.
+                Stream<Packet> ctsStream = bus.read((long) (1.2 * J1939TP.T1), TimeUnit.MILLISECONDS);
+
                 // send RTS
                 bus.send(Packet.parse("1CECF900 10 15 00 03 FF 00 EA 00"));
 
-                // wait for up to 120% o T1 for CTS
                 assertPacketsEquals(Packet.parse("1CEC00F9 11 03 01 FF FF 00 EA 00"),
-                                    bus.read((long) (1.2 * J1939TP.T1), TimeUnit.MILLISECONDS)
-                                       .filter(p -> p.getSource() == 0xF9)
-                                       .findFirst()
-                                       .orElse(null));
+                                    ctsStream.filter(p -> p.getSource() == 0xF9)
+                                             .findFirst()
+                                             .orElse(null));
 
                 // send 3 packets
                 Packet.parseCollection(
@@ -136,15 +146,16 @@ public class J1939TPTest {
             {
                 Stream<Packet> stream = tpIn.read(2 * J1939TP.T1, TimeUnit.MILLISECONDS);
 
+                // wait for up to 120% o T1 for CTS. Open the stream before the RTS, so the CTS is not missed.
+                Stream<Packet> ctsStream = bus.read((long) (1.2 * J1939TP.T1), TimeUnit.MILLISECONDS);
+
                 // send RTS
                 bus.send(Packet.parse("1CECF900 10 15 00 03 FF 00 EA 00"));
 
-                // wait for up to 120% o T1 for CTS
                 assertPacketsEquals(Packet.parse("1CEC00F9 11 03 01 FF FF 00 EA 00"),
-                                    bus.read((long) (1.2 * J1939TP.T1), TimeUnit.MILLISECONDS)
-                                       .filter(p -> p.getSource() == 0xF9)
-                                       .findFirst()
-                                       .orElse(null));
+                                    ctsStream.filter(p -> p.getSource() == 0xF9)
+                                             .findFirst()
+                                             .orElse(null));
 
                 // send 2 packets, abort, then 3rd packet
                 Packet.parseCollection("1CEBF900 01 01 02 03 04 05 06 07\n"
@@ -616,6 +627,178 @@ public class J1939TPTest {
         }
     }
 
+    private static long countThreads(String name) {
+        return Thread.getAllStackTraces().keySet().stream().filter(t -> t.getName().equals(name)).count();
+    }
+
+    /** Verify that concurrent sessions are received without a thread each. */
+    @Test
+    @TestDoc(description = "Verify that many concurrent destination specific sessions are received without adding threads.")
+    public void testConcurrentSessions() throws BusException {
+        int sessions = 40;
+        try (EchoBus bus = new EchoBus(0);
+             Bus tp = new J1939TP(bus, 0xF9)) {
+            long threads = countThreads("J1939TP");
+            Stream<Packet> tpStream = tp.read(5, TimeUnit.SECONDS).filter(VALID_FILTER).limit(sessions);
+            Stream<Packet> ctsStream = bus.read(5, TimeUnit.SECONDS).filter(p -> p.getSource() == 0xF9).limit(sessions);
+            for (int sa = 0; sa < sessions; sa++) {
+                bus.send(Packet.create(7, 0xECF9, sa, false, new byte[] { 0x10, 9, 0, 2, (byte) 0xFF, 0, (byte) 0xEA, 0 }));
+            }
+            // every session is open at once
+            assertEquals(sessions, ctsStream.filter(p -> p.get(0) == J1939TP.CM_CTS).count());
+            assertTrue(countThreads("J1939TP") <= threads);
+
+            for (int sa = 0; sa < sessions; sa++) {
+                bus.send(Packet.create(7, 0xEBF9, sa, false, new byte[] { 1, (byte) sa, 2, 3, 4, 5, 6, 7 }));
+            }
+            for (int sa = 0; sa < sessions; sa++) {
+                bus.send(Packet.create(7, 0xEBF9, sa, false, new byte[] { 2, 8, 9, 0, 0, 0, 0, 0 }));
+            }
+            List<Packet> packets = tpStream.collect(Collectors.toList());
+            assertEquals(sessions, packets.size());
+            for (Packet p : packets) {
+                assertEquals(0xEAF9, p.getId(0xFFFF));
+                assertEquals(p.getSource(), p.get(0));
+                assertEquals(9, p.getLength());
+            }
+        }
+    }
+
+    /** Verify that simultaneous BAMs from many senders are all received. */
+    @Test
+    @TestDoc(description = "Verify that 30 simultaneous BAMs from simulated modules are each received intact and in parallel.")
+    public void testSimultaneousBam() throws Exception {
+        int senders = 30;
+        int length = 100;
+        List<J1939TP> tps = new ArrayList<>();
+        List<Sim> sims = new ArrayList<>();
+        try (EchoBus bus = new EchoBus(0);
+             Bus tp = new J1939TP(bus, 0xF9)) {
+            for (int sa = 0; sa < senders; sa++) {
+                J1939TP tpOut = new J1939TP(bus, 0x10 + sa);
+                tps.add(tpOut);
+                sims.add(new Sim(tpOut));
+            }
+            Stream<Packet> tpStream = tp.read(10, TimeUnit.SECONDS).filter(VALID_FILTER).limit(senders);
+            long begin = System.currentTimeMillis();
+            for (int sa = 0; sa < senders; sa++) {
+                int[] data = new int[length];
+                for (int i = 0; i < length; i++) {
+                    data[i] = sa + i;
+                }
+                sims.get(sa).sendNow(Packet.create(0xFECA, 0x10 + sa, data));
+            }
+
+            List<Packet> packets = tpStream.collect(Collectors.toList());
+            long elapsed = System.currentTimeMillis() - begin;
+            assertEquals(senders, packets.size());
+            for (Packet p : packets) {
+                int sa = p.getSource() - 0x10;
+                assertEquals(0xFECA, p.getPgn());
+                assertEquals(length, p.getLength());
+                for (int i = 0; i < length; i++) {
+                    assertEquals(p.toString(), (sa + i) & 0xFF, p.get(i));
+                }
+            }
+            // 15 DTs each, 50 ms apart; one after another would take over 20 s
+            assertTrue("BAMs were not received in parallel: " + elapsed + " ms", elapsed < 5000);
+        } finally {
+            sims.forEach(Sim::close);
+            tps.forEach(J1939TP::close);
+        }
+    }
+
+    @Test(timeout = 10000)
+    @TestDoc(@TestItem(verifies = "J1939-21 5.10.3.5", description = "Verify that sending a BAM does not wait for the DTs, that the DTs of two senders interleave at the configured gap and that the gap is limited to 50 to 200 ms."))
+    public void testBamPacing() throws Exception {
+        Packet p1 = Packet.parse("1CFECA10 01 02 03 04 05 06 07 08 09 0A 0B 0C 0D 0E 0F 10 11 12 13 14 15");
+        Packet p2 = Packet.parse("1CFECA20 21 22 23 24 25 26 27 28 29 2A 2B 2C 2D 2E 2F 30 31 32 33 34 35");
+        try (EchoBus bus = new EchoBus(0);
+             Bus tp = new J1939TP(bus, 0xF9);
+             J1939TP tp1 = new J1939TP(bus, 0x10);
+             J1939TP tp2 = new J1939TP(bus, 0x20)) {
+            try {
+                tp1.setBamGap(J1939TP.MAX_BAM_GAP + 1);
+                fail("gap not checked");
+            } catch (IllegalArgumentException e) {
+                assertEquals(J1939TP.MIN_BAM_GAP, tp1.getBamGap());
+            }
+            tp1.setBamGap(100);
+            tp2.setBamGap(100);
+            Stream<Packet> tpStream = tp.read(2, TimeUnit.SECONDS).filter(VALID_FILTER).limit(2);
+            Stream<Packet> dtStream = bus.read(2, TimeUnit.SECONDS).filter(p -> p.getPgn() == 0xEB00).limit(6);
+
+            CompletableFuture<Packet> sent1 = tp1.sendBam(p1);
+            CompletableFuture<Packet> sent2 = tp2.sendBam(p2);
+            assertFalse(sent1.isDone());
+
+            assertEquals(p1, sent1.get(2, TimeUnit.SECONDS));
+            assertEquals(p2, sent2.get(2, TimeUnit.SECONDS));
+
+            List<Packet> dts = dtStream.collect(Collectors.toList());
+            // three DTs of each sender, at least 100 ms apart
+            for (int source : List.of(0x10, 0x20)) {
+                long[] times = dts.stream()
+                                  .filter(p -> p.getSource() == source)
+                                  .mapToLong(Packet::getTimestampNanos)
+                                  .toArray();
+                assertEquals(3, times.length);
+                for (int i = 1; i < times.length; i++) {
+                    long gap = TimeUnit.NANOSECONDS.toMillis(times[i] - times[i - 1]);
+                    assertTrue("DT gap " + gap + " ms", gap >= 95);
+                }
+            }
+
+            List<Integer> sources = dts.stream().map(Packet::getSource).collect(Collectors.toList());
+            // each gap has a DT of each sender
+            for (int i = 0; i < sources.size(); i += 2) {
+                assertEquals(sources.toString(), Set.of(0x10, 0x20), Set.of(sources.get(i), sources.get(i + 1)));
+            }
+
+            List<Packet> received = tpStream.sorted((a, b) -> a.getSource() - b.getSource())
+                                            .collect(Collectors.toList());
+            assertPacketsEquals(List.of(p1, p2), received);
+        }
+    }
+
+    @Test(timeout = 10000)
+    @TestDoc(description = "Verify that a bus slow to echo the frames being sent does not hold up the sessions being received.")
+    public void testSlowSend() throws Exception {
+        Packet broadcast = Packet.parse("1CFECA10 01 02 03 04 05 06 07 08 09 0A 0B 0C 0D 0E 0F 10 11 12 13 14 15");
+        Packet received = Packet.parsePacket("1CFFEE00 00 01 02 03 04 05 06 07 08 09 00 01 02 03 04 05 06 07 08 09");
+        CountDownLatch echo = new CountDownLatch(1);
+        try (EchoBus bus = new EchoBus(0xF9) {
+            @Override
+            public Packet send(Packet p) {
+                if (p.getSource() == 0xF9) {
+                    // like an adapter waiting for the echo of the frames of the tool
+                    try {
+                        echo.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.send(p);
+            }
+        };
+             J1939TP tp = new J1939TP(bus, 0xF9)) {
+            Stream<Packet> tpStream = tp.read(5, TimeUnit.SECONDS).filter(p -> p.getSource() == 0x00).limit(1);
+            CompletableFuture<Packet> sent = tp.sendBam(broadcast);
+
+            for (Packet p : Packet.parseCollection("1CECFF00 20 14 00 03 FF EE FF 00\n" +
+                    "1CEBFF00 01 00 01 02 03 04 05 06\n" +
+                    "1CEBFF00 02 07 08 09 00 01 02 03\n" +
+                    "1CEBFF00 03 04 05 06 07 08 09 FF")) {
+                bus.send(p);
+            }
+            assertPacketsEquals(received, tpStream.filter(VALID_FILTER).findFirst().orElseThrow());
+            assertFalse(sent.isDone());
+
+            echo.countDown();
+            assertEquals(broadcast, sent.get(2, TimeUnit.SECONDS));
+        }
+    }
+
     /** Verify that non-TP packets are passed through TP layer. */
     @Test
     @TestDoc(value = @TestItem(verifies = "", description = "Verify that non-TP packets are passed through TP layer."))
@@ -796,6 +979,143 @@ public class J1939TPTest {
         }
     }
 
+    @Test(timeout = 20000)
+    @TestDoc(@TestItem(verifies = "J1939-21 5.10.3", description = "Verify that the largest message, 1785 bytes, is sent and received without copying the message for each DT frame."))
+    public void testLargestTransferAllocation() throws Exception {
+        int length = 1785;
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        Packet message = Packet.create(0xEF00, 0xF9, data);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        // the threads left by other tests are not part of the transfer
+        Set<Long> others = Thread.getAllStackTraces()
+                                 .keySet()
+                                 .stream()
+                                 .filter(t -> t != Thread.currentThread())
+                                 .map(Thread::threadId)
+                                 .collect(Collectors.toSet());
+        try (EchoBus bus = new EchoBus(0xF9);
+             J1939TP tpIn = new J1939TP(bus, 0);
+             J1939TP tpOut = new J1939TP(bus, 0xF9)) {
+            // warm up
+            for (int i = 0; i < 3; i++) {
+                Stream<Packet> tpStream = tpIn.read(5, TimeUnit.SECONDS).filter(VALID_FILTER).limit(1);
+                tpOut.send(message);
+                assertEquals(1, tpStream.count());
+            }
+
+            Stream<Packet> tpStream = tpIn.read(5, TimeUnit.SECONDS).filter(VALID_FILTER).limit(1);
+            long[] ids = Thread.getAllStackTraces()
+                               .keySet()
+                               .stream()
+                               .mapToLong(Thread::threadId)
+                               .filter(id -> !others.contains(id))
+                               .toArray();
+            long before = LongStream.of(threads.getThreadAllocatedBytes(ids)).filter(b -> b > 0).sum();
+            long beforeSend = threads.getCurrentThreadAllocatedBytes();
+            tpOut.send(message);
+            long sending = threads.getCurrentThreadAllocatedBytes() - beforeSend;
+            Packet received = tpStream.findFirst().orElseThrow();
+            long total = LongStream.of(threads.getThreadAllocatedBytes(ids)).filter(b -> b > 0).sum() - before;
+
+            assertEquals(length, received.getLength());
+            assertArrayEquals(data, received.getBytes());
+            // a copy of the message for each of the 255 DTs would be 455 kB
+            long copies = (long) length * 255;
+            assertTrue(String.format("%d byte transfer allocated %,d bytes sending", length, sending), sending < copies);
+            assertTrue(String.format("%d byte transfer allocated %,d bytes in all", length, total), total < copies);
+        }
+    }
+
+    @Test(timeout = 20000)
+    @TestDoc(@TestItem(verifies = "J1939-21 5.10.3", description = "Verify that RTS/CTS sessions to different destinations run at the same time, while those to the same destination run one after another."))
+    public void testConcurrentRtsSends() throws Exception {
+        int destinations = 8;
+        int length = 1785;
+        List<J1939TP> tps = new ArrayList<>();
+        // the destinations answer once every destination was sent an RTS
+        CountDownLatch rtsSent = new CountDownLatch(destinations);
+        try (EchoBus bus = new EchoBus(0xF9) {
+            @Override
+            public Packet send(Packet p) {
+                if (p.getPgn() == J1939TP.CM && p.get(0) == J1939TP.CM_RTS) {
+                    rtsSent.countDown();
+                } else if (p.getPgn() == J1939TP.CM && p.get(0) == J1939TP.CM_CTS) {
+                    try {
+                        // the sessions run one after another if this times out
+                        rtsSent.await(J1939TP.T3 / 2, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.send(p);
+            }
+        };
+             J1939TP tpOut = new J1939TP(bus, 0xF9)) {
+            List<Stream<Packet>> streams = new ArrayList<>();
+            for (int d = 0; d < destinations; d++) {
+                J1939TP tp = new J1939TP(bus, 0x10 + d);
+                tps.add(tp);
+                streams.add(tp.read(10, TimeUnit.SECONDS).filter(p -> p.getPgn() == 0xEF00).limit(2));
+            }
+            // the RTSs and EOMs, in the order they were sent
+            Stream<Packet> sessionStream = bus.read(10, TimeUnit.SECONDS)
+                                              .filter(p -> p.getPgn() == J1939TP.CM)
+                                              .filter(p -> p.get(0) == J1939TP.CM_RTS
+                                                      || p.get(0) == J1939TP.CM_EndOfMessageACK)
+                                              .limit(4 * destinations);
+
+            List<CompletableFuture<Packet>> sent = new ArrayList<>();
+            for (int round = 0; round < 2; round++) {
+                for (int d = 0; d < destinations; d++) {
+                    byte[] data = new byte[length];
+                    Arrays.fill(data, (byte) (round << 4 | d));
+                    sent.add(tpOut.sendDestinationSpecificAsync(0x10 + d, Packet.create(0xEF10 + d, 0xF9, data)));
+                }
+            }
+            CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[0])).get(15, TimeUnit.SECONDS);
+
+            for (int d = 0; d < destinations; d++) {
+                List<Packet> received = streams.get(d).collect(Collectors.toList());
+                assertEquals(2, received.size());
+                for (int round = 0; round < 2; round++) {
+                    byte[] expected = new byte[length];
+                    Arrays.fill(expected, (byte) (round << 4 | d));
+                    assertArrayEquals(expected, received.get(round).getBytes());
+                }
+            }
+
+            List<Packet> sessions = sessionStream.collect(Collectors.toList());
+            assertEquals(4 * destinations, sessions.size());
+            int firstEom = -1;
+            for (int i = 0; i < sessions.size() && firstEom < 0; i++) {
+                if (sessions.get(i).get(0) == J1939TP.CM_EndOfMessageACK) {
+                    firstEom = i;
+                }
+            }
+            // every destination was sent an RTS before any session ended
+            assertTrue(sessions.toString(), firstEom >= destinations);
+            for (int d = 0; d < destinations; d++) {
+                int destination = 0x10 + d;
+                List<Integer> order = sessions.stream()
+                                              .filter(p -> p.getSource() == destination
+                                                      || p.getDestination() == destination)
+                                              .map(p -> p.get(0))
+                                              .collect(Collectors.toList());
+                // only one session at a time between two addresses
+                assertEquals(List.of(J1939TP.CM_RTS,
+                                     J1939TP.CM_EndOfMessageACK,
+                                     J1939TP.CM_RTS,
+                                     J1939TP.CM_EndOfMessageACK),
+                             order);
+            }
+        } finally {
+            tps.forEach(J1939TP::close);
+        }
+    }
+
     /** Verify that T1 and T2 timeouts are respected. */
     @Test()
     @TestDoc(value = @TestItem(verifies = "J1939-21 C1", description = "Verify that T1 and T2 timeouts are respected."))
@@ -847,6 +1167,30 @@ public class J1939TPTest {
         }
     }
 
+    /** Verify that a missing EOM is told apart from a missing CTS. */
+    @Test
+    @TestDoc(value = @TestItem(verifies = "J1939-21 C1", description = "Verify that a T3 timeout after the last DT fails the send for the missing EOM."))
+    public void testT3Eom() throws Exception {
+        try (EchoBus bus = new EchoBus(0xF9);
+             J1939TP tp = new J1939TP(bus, 0)) {
+            Stream<Packet> waitForRts = bus.read(5, TimeUnit.SECONDS).limit(1);
+            CompletableFuture<Packet> sent = tp.sendDestinationSpecificAsync(0xF9,
+                                                                             Packet.parse("1812F900 01 02 03 04 05 06 07 08 09 10"));
+            assertTrue(waitForRts.findFirst().isPresent());
+
+            // a CTS for both DTs, then no EOM
+            long begin = System.currentTimeMillis();
+            bus.send(Packet.parse("1CEC00F9 11 02 01 FF FF 00 12 00"));
+            try {
+                sent.get(5, TimeUnit.SECONDS);
+                fail("Expected EomBusException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().toString(), e.getCause() instanceof EomBusException);
+            }
+            assertEquals("T3 not honored", J1939TP.T3, System.currentTimeMillis() - begin, 200);
+        }
+    }
+
     /** Verify that T4 timeout is respected. */
     @Test
     @TestDoc(value = @TestItem(verifies = "J1939-21 C1", description = "Verify that T4 timeout is respected."))
@@ -29,6 +29,7 @@ import org.etools.j1939tools.bus.BusException;
 import org.etools.j1939tools.bus.BusResult;
 import org.etools.j1939tools.bus.EchoBus;
 import org.etools.j1939tools.bus.Either;
+import org.etools.j1939tools.bus.FrameFilter;
 import org.etools.j1939tools.bus.Packet;
 import org.etools.j1939tools.bus.RequestResult;
 import org.etools.j1939tools.bus.TestResultsListener;
@@ -932,7 +933,17 @@ public class J1939Test {
     public void testReadByClass() throws Exception {
         Packet packet1 = Packet.create(EngineSpeedPacket.PGN, 0x00, 1, 2, 3, 4, 5, 6, 7, 8);
         Packet packet2 = Packet.create(VehicleIdentificationPacket.PGN, 0x00, 1, 2, 3, 4, 5, 6, 7, 8);
-        when(bus.read(5000, TimeUnit.DAYS)).thenReturn(Stream.of(packet1, packet2, packet1, packet2, packet1, packet2));
+        // the bus applies the filter
+        when(bus.read(ArgumentMatchers.any(FrameFilter.class),
+                      ArgumentMatchers.eq(5000L),
+                      ArgumentMatchers.eq(TimeUnit.DAYS)))
+                                                          .thenAnswer(a -> Stream.of(packet1,
+                                                                                     packet2,
+                                                                                     packet1,
+                                                                                     packet2,
+                                                                                     packet1,
+                                                                                     packet2)
+                                                                                 .filter(a.<FrameFilter>getArgument(0)));
 
         Stream<?> response = instance.read(EngineSpeedPacket.class, 5000, TimeUnit.DAYS);
         List<?> packets = response.collect(Collectors.toList());
@@ -960,9 +971,12 @@ public class J1939Test {
     public void testRequestDM7WillTryThreeTimes() throws Exception {
         Packet packet1 = Packet.create(DM30ScaledTestResultsPacket.PGN
                 | BUS_ADDR, 0x00, 1, 2, 3, 4, 5, 6, 7, 8, 9, 0x0A, 0x0B, 0x0C, 0x0D);
-        when(bus.read(TIMEOUT, MILLISECONDS)).thenReturn(Stream.of())
-                                             .thenReturn(Stream.of())
-                                             .thenReturn(Stream.of(packet1));
+        when(bus.read(ArgumentMatchers.any(FrameFilter.class),
+                      ArgumentMatchers.eq((long) TIMEOUT),
+                      ArgumentMatchers.eq(MILLISECONDS)))
+                                                         .thenReturn(Stream.of())
+                                                         .thenReturn(Stream.of())
+                                                         .thenReturn(Stream.of(packet1));
 
         Object packet = instance.requestTestResults(247, 1024, 31, 0, NOOP).getPacket().orElse(null);
         assertNotNull(packet);
@@ -986,7 +1000,9 @@ public class J1939Test {
         Packet packet1 = Packet.create(VehicleIdentificationPacket.PGN, 0x00, "EngineVIN*".getBytes(UTF8));
         Packet packet2 = Packet.create(VehicleIdentificationPacket.PGN, 0x17, "ClusterVIN*".getBytes(UTF8));
         Packet packet3 = Packet.create(VehicleIdentificationPacket.PGN, 0x21, "BodyControllerVIN*".getBytes(UTF8));
-        when(bus.read(ArgumentMatchers.anyLong(), ArgumentMatchers.any(TimeUnit.class)))
+        when(bus.read(ArgumentMatchers.any(FrameFilter.class),
+                      ArgumentMatchers.anyLong(),
+                      ArgumentMatchers.any(TimeUnit.class)))
                                                                                         .thenReturn(Stream.of(packet1,
                                                                                                               packet2,
                                                                                                               packet3));
@@ -1015,7 +1031,9 @@ public class J1939Test {
         Packet packet2 = Packet.create(AcknowledgmentPacket.PGN
                 | 0xFF, 0x17, 01, 0xff, 0xff, 0xff, BUS_ADDR, 0xec, 0xfe, 0);
         Packet packet3 = Packet.create(VehicleIdentificationPacket.PGN, 0x21, "BodyControllerVIN*".getBytes(UTF8));
-        when(bus.read(ArgumentMatchers.anyLong(), ArgumentMatchers.any(TimeUnit.class)))
+        when(bus.read(ArgumentMatchers.any(FrameFilter.class),
+                      ArgumentMatchers.anyLong(),
+                      ArgumentMatchers.any(TimeUnit.class)))
                                                                                         .thenReturn(Stream.of(packet1,
                                                                                                               packet2,
                                                                                                               packet3));
@@ -1035,7 +1053,9 @@ public class J1939Test {
 
     @Test
     public void testRequestMultipleHandlesBusException() throws Exception {
-        when(bus.read(ArgumentMatchers.anyLong(), ArgumentMatchers.any(TimeUnit.class)))
+        when(bus.read(ArgumentMatchers.any(FrameFilter.class),
+                      ArgumentMatchers.anyLong(),
+                      ArgumentMatchers.any(TimeUnit.class)))
                                                                                         .thenThrow(new BusException("Testing"));
         Stream<DM5DiagnosticReadinessPacket> response = instance.requestGlobal(null,
                                                                                DM5DiagnosticReadinessPacket.class,
@@ -1050,7 +1070,9 @@ public class J1939Test {
     @Test
     public void testRequestMultipleHandlesDSRequests() throws Exception {
         Packet packet = Packet.create(EngineHoursPacket.PGN, ENGINE_ADDR, 1, 2, 3, 4, 5, 6, 7, 8);
-        when(bus.read(ArgumentMatchers.anyLong(), ArgumentMatchers.any(TimeUnit.class)))
+        when(bus.read(ArgumentMatchers.any(FrameFilter.class),
+                      ArgumentMatchers.anyLong(),
+                      ArgumentMatchers.any(TimeUnit.class)))
                                                                                         .thenReturn(Stream.of(packet))
                                                                                         .thenReturn(Stream.of(packet))
                                                                                         .thenReturn(Stream.of(packet));
@@ -1076,7 +1098,9 @@ public class J1939Test {
 
     @Test
     public void testRequestMultipleHandlesTimeout() throws Exception {
-        when(bus.read(ArgumentMatchers.anyLong(), ArgumentMatchers.any(TimeUnit.class))).thenReturn(Stream.empty())
+        when(bus.read(ArgumentMatchers.any(FrameFilter.class),
+                      ArgumentMatchers.anyLong(),
+                      ArgumentMatchers.any(TimeUnit.class))).thenReturn(Stream.empty())
                                                                                         .thenReturn(Stream.empty())
                                                                                         .thenReturn(Stream.empty());
         Packet request = instance.createRequestPacket(VehicleIdentificationPacket.PGN, 0xFF);
@@ -1104,7 +1128,9 @@ public class J1939Test {
                                .create(VehicleIdentificationPacket.PGN + 2,
                                        0x17,
                                        ("alksdfjlasdjflkajsdf*").getBytes(UTF8));
-        when(bus.read(ArgumentMatchers.anyLong(), ArgumentMatchers.any(TimeUnit.class)))
+        when(bus.read(ArgumentMatchers.any(FrameFilter.class),
+                      ArgumentMatchers.anyLong(),
+                      ArgumentMatchers.any(TimeUnit.class)))
                                                                                         .thenReturn(Stream.of(packet1,
                                                                                                               packet2,
                                                                                                               packet3));
@@ -1132,7 +1158,9 @@ public class J1939Test {
         Packet packet2 = Packet.create(0xE8FF, 0x17, 0x00, 0xFF, 0xFF, 0xFF, 0x44, 0xD3, 0xFE, 0x00);
         Packet packet3 = Packet.create(0xEAFF, 0x44, 0x00, 0xFF, 0xFF, 0xFF);
         Packet packet4 = Packet.create(0xE8FF, 0x17, 0x00, 0xFF, 0xFF, 0xFF, BUS_ADDR, 0xD3, 0xFE, 0x00);
-        when(bus.read(ArgumentMatchers.anyLong(), ArgumentMatchers.any(TimeUnit.class)))
+        when(bus.read(ArgumentMatchers.any(FrameFilter.class),
+                      ArgumentMatchers.anyLong(),
+                      ArgumentMatchers.any(TimeUnit.class)))
                                                                                         .thenReturn(Stream.of(packet1,
                                                                                                               packet2,
                                                                                                               packet3,
@@ -1169,7 +1197,9 @@ public class J1939Test {
         Packet packet1 = Packet.create(VehicleIdentificationPacket.PGN, 0x00, "EngineVIN*".getBytes(UTF8));
         Packet packet2 = Packet.create(VehicleIdentificationPacket.PGN, 0x17, "ClusterVIN*".getBytes(UTF8));
         Packet packet3 = Packet.create(VehicleIdentificationPacket.PGN, 0x21, "BodyControllerVIN*".getBytes(UTF8));
-        when(bus.read(ArgumentMatchers.anyLong(), ArgumentMatchers.any(TimeUnit.class)))
+        when(bus.read(ArgumentMatchers.any(FrameFilter.class),
+                      ArgumentMatchers.anyLong(),
+                      ArgumentMatchers.any(TimeUnit.class)))
                                                                                         .thenReturn(Stream.of(packet1,
                                                                                                               packet2,
                                                                                                               packet3));
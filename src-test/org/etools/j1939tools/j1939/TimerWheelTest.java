@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.j1939;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.etools.j1939tools.j1939.TimerWheel.Timeout;
+import org.etools.testdoc.TestDoc;
+import org.junit.Test;
+
+@TestDoc(description = "Verifies the timer wheel that runs the timeouts of the transport protocol sessions.")
+public class TimerWheelTest {
+
+    private long now;
+
+    private final TimerWheel instance = new TimerWheel(5, TimeUnit.MILLISECONDS, 8, () -> now);
+
+    private final List<String> ran = new ArrayList<>();
+
+    private void advanceTo(long millis) {
+        now = TimeUnit.MILLISECONDS.toNanos(millis);
+        instance.advance();
+    }
+
+    @Test
+    @TestDoc(description = "Verify that timeouts run in order, never early and at most a tick late, including timeouts more than a turn of the wheel away.")
+    public void testSchedule() {
+        instance.schedule(() -> ran.add("a"), 12, TimeUnit.MILLISECONDS);
+        instance.schedule(() -> ran.add("b"), 100, TimeUnit.MILLISECONDS);
+        instance.schedule(() -> ran.add("c"), 3, TimeUnit.MILLISECONDS);
+        assertEquals(3, instance.size());
+
+        advanceTo(4);
+        assertEquals(List.of(), ran);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), instance.nanosToNextTick());
+        advanceTo(5);
+        assertEquals(List.of("c"), ran);
+        advanceTo(14);
+        assertEquals(List.of("c"), ran);
+        advanceTo(15);
+        assertEquals(List.of("c", "a"), ran);
+        // the wheel turns twice before b is due
+        advanceTo(60);
+        assertEquals(List.of("c", "a"), ran);
+        advanceTo(100);
+        assertEquals(List.of("c", "a", "b"), ran);
+        assertEquals(0, instance.size());
+        assertEquals(Long.MAX_VALUE, instance.nanosToNextTick());
+    }
+
+    @Test
+    @TestDoc(description = "Verify that cancelled timeouts do not run and that a timeout can reschedule itself.")
+    public void testCancel() {
+        Timeout a = instance.schedule(() -> ran.add("a"), 10, TimeUnit.MILLISECONDS);
+        Timeout b = instance.schedule(() -> ran.add("b"), 10, TimeUnit.MILLISECONDS);
+        instance.schedule(() -> {
+            ran.add("c");
+            instance.schedule(() -> ran.add("d"), 0, TimeUnit.MILLISECONDS);
+        }, 10, TimeUnit.MILLISECONDS);
+        a.cancel();
+        assertFalse(a.isPending());
+        assertTrue(b.isPending());
+
+        advanceTo(10);
+        assertEquals(List.of("c", "b"), ran);
+        assertFalse(b.isPending());
+        advanceTo(15);
+        assertEquals(List.of("c", "b", "d"), ran);
+        assertEquals(0, instance.size());
+    }
+}
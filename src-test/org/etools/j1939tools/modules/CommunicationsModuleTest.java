@@ -38,6 +38,7 @@ import java.util.stream.Stream;
 import org.etools.j1939tools.CommunicationsListener;
 import org.etools.j1939tools.bus.BusException;
 import org.etools.j1939tools.bus.BusResult;
+import org.etools.j1939tools.bus.FrameFilter;
 import org.etools.j1939tools.bus.Packet;
 import org.etools.j1939tools.bus.RequestResult;
 import org.etools.j1939tools.bus.TestResultsListener;
@@ -140,14 +141,15 @@ public class CommunicationsModuleTest {
         doReturn(Stream.of(null, packet1.getPacket(), packet2.getPacket(), packet3.getPacket()),
                  Stream.of(null, packet1.getPacket(), packet2.getPacket(), packet3.getPacket()),
                  Stream.of(null, packet1.getPacket(), packet2.getPacket(), packet3.getPacket())).when(j1939)
-                                                                                                .read(eq(TIMEOUT),
+                                                                                                .read(any(FrameFilter.class),
+                                                                                                      eq(TIMEOUT),
                                                                                                       eq(MILLISECONDS));
 
         RequestResult<DM19CalibrationInformationPacket> expected = RequestResult.of(packet1, packet2, packet3);
         RequestResult<DM19CalibrationInformationPacket> actual = instance.requestDM19(NOOP);
         assertEquals(expected, actual);
 
-        verify(j1939).read(eq(TIMEOUT), eq(MILLISECONDS));
+        verify(j1939).read(any(FrameFilter.class), eq(TIMEOUT), eq(MILLISECONDS));
     }
 
     @Test
@@ -171,7 +173,7 @@ public class CommunicationsModuleTest {
                                                                            0x00));
 
         doReturn(Stream.of(packet.getPacket(), packet.getPacket(), packet.getPacket())).when(j1939)
-                                                                                       .read(anyLong(), any());
+                                                                                       .read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
 
@@ -189,12 +191,12 @@ public class CommunicationsModuleTest {
 
         assertEquals(expected, listener.getResults());
         verify(j1939).read(DM1ActiveDTCsPacket.PGN, 3, TimeUnit.SECONDS);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
     public void testReadDM1WithEmptyResponse() throws BusException {
-        doReturn(Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
 
@@ -204,7 +206,7 @@ public class CommunicationsModuleTest {
 
         assertEquals(expected, listener.getResults());
         verify(j1939).read(DM1ActiveDTCsPacket.PGN, 3, TimeUnit.SECONDS);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -251,7 +253,7 @@ public class CommunicationsModuleTest {
                            packet2.getPacket(),
                            packet1.getPacket(),
                            packet2.getPacket())).when(j1939)
-                                                .read(anyLong(), any());
+                                                .read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
 
@@ -276,7 +278,7 @@ public class CommunicationsModuleTest {
                 + NL + NL;
         assertEquals(expected, listener.getResults());
         verify(j1939).read(DM1ActiveDTCsPacket.PGN, 3, TimeUnit.SECONDS);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -293,13 +295,13 @@ public class CommunicationsModuleTest {
                  Stream.of(null,
                            packet1.getPacket(),
                            Stream.of(packet1.getPacket()))).when(j1939)
-                                                           .read(eq(TIMEOUT), eq(MILLISECONDS));
+                                                           .read(any(FrameFilter.class), eq(TIMEOUT), eq(MILLISECONDS));
 
         BusResult<DM19CalibrationInformationPacket> expected = new BusResult<>(false, packet1);
         BusResult<DM19CalibrationInformationPacket> actual = instance.requestDM19(NOOP, 0x00);
         assertEquals(expected, actual);
 
-        verify(j1939).read(eq(TIMEOUT), eq(MILLISECONDS));
+        verify(j1939).read(any(FrameFilter.class), eq(TIMEOUT), eq(MILLISECONDS));
     }
 
     @Test
@@ -307,13 +309,14 @@ public class CommunicationsModuleTest {
         doReturn(Stream.empty(),
                  Stream.empty(),
                  Stream.empty()).when(j1939)
-                                .read(eq(TIMEOUT), eq(MILLISECONDS));
+                                .read(any(FrameFilter.class), eq(TIMEOUT), eq(MILLISECONDS));
 
         BusResult<DM19CalibrationInformationPacket> expected = new BusResult<>(false);
         BusResult<DM19CalibrationInformationPacket> actual = instance.requestDM19(NOOP, 0x00);
         assertEquals(expected, actual);
 
-        verify(j1939).read(eq(TIMEOUT),
+        verify(j1939).read(any(FrameFilter.class),
+                           eq(TIMEOUT),
                            eq(MILLISECONDS));
     }
 
@@ -322,13 +325,14 @@ public class CommunicationsModuleTest {
         doReturn(Stream.empty(),
                  Stream.empty(),
                  Stream.empty()).when(j1939)
-                                .read(eq(TIMEOUT), eq(MILLISECONDS));
+                                .read(any(FrameFilter.class), eq(TIMEOUT), eq(MILLISECONDS));
 
         RequestResult<DM19CalibrationInformationPacket> expected = new RequestResult<>(false);
         RequestResult<DM19CalibrationInformationPacket> actual = instance.requestDM19(NOOP);
         assertEquals(expected, actual);
 
-        verify(j1939).read(eq(TIMEOUT),
+        verify(j1939).read(any(FrameFilter.class),
+                           eq(TIMEOUT),
                            eq(MILLISECONDS));
     }
 
@@ -391,14 +395,14 @@ public class CommunicationsModuleTest {
 
     @Test
     public void testReportComponentIdentificationWithNoResponse() throws BusException {
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(eq(TIMEOUT), eq(MILLISECONDS));
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), eq(TIMEOUT), eq(MILLISECONDS));
 
         List<ComponentIdentificationPacket> expected = Collections.emptyList();
         List<? extends ComponentIdentificationPacket> actual = instance.request(ComponentIdentificationPacket.class,
                                                                                 NOOP);
         assertEquals(expected, actual);
 
-        verify(j1939).read(eq(TIMEOUT), eq(MILLISECONDS));
+        verify(j1939).read(any(FrameFilter.class), eq(TIMEOUT), eq(MILLISECONDS));
     }
 
     @Test
@@ -408,7 +412,7 @@ public class CommunicationsModuleTest {
         Packet requestPacket = Packet.create(0xEA00 | 0xFF, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, 0xFF);
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "10:15:30.0000 Global Vehicle Identification Request" + NL;
         expected += "10:15:30.0000 18EAFFA5 [3] EC FE 00 (TX)" + NL;
@@ -426,7 +430,7 @@ public class CommunicationsModuleTest {
         assertEquals(0, packets.size());
         assertEquals(expected, listener.getResults());
         verify(j1939).createRequestPacket(pgn, 0xFF);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -448,7 +452,7 @@ public class CommunicationsModuleTest {
                                                                               0xFE,
                                                                               0x00));
 
-        doReturn(Stream.of(requestPacket1, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket1, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = NL;
         expected += "10:15:30.0000 Global DM11 Request" + NL;
@@ -463,7 +467,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -485,7 +489,7 @@ public class CommunicationsModuleTest {
                                                                               0xFE,
                                                                               0x00));
 
-        doReturn(Stream.of(requestPacket1, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket1, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = NL;
         expected += "10:15:30.0000 Destination Specific DM11 Request to Engine #1 (0)" + NL;
@@ -499,7 +503,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -520,7 +524,7 @@ public class CommunicationsModuleTest {
                                                                                           0x00,
                                                                                           0x00,
                                                                                           0x00));
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM12 Request to Engine #1 (0)" + NL;
@@ -535,7 +539,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -561,7 +565,7 @@ public class CommunicationsModuleTest {
                                                                                           0x10,
                                                                                           0x04,
                                                                                           0x00));
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM12 Request to Engine #1 (0)" + NL;
@@ -580,7 +584,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -590,7 +594,7 @@ public class CommunicationsModuleTest {
         Packet requestPacket = Packet.create(REQUEST_PGN | 0x17, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, 0x17);
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM12 Request to Instrument Cluster #1 (23)" + NL;
@@ -603,7 +607,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0x17);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -645,7 +649,8 @@ public class CommunicationsModuleTest {
                                                                                           0x00));
         TestResultsListener listener = new TestResultsListener();
         doReturn(Stream.of(null, packet1.getPacket(), packet2.getPacket(), packet3.getPacket())).when(j1939)
-                                                                                                .read(anyLong(),
+                                                                                                .read(any(FrameFilter.class),
+                                                                                                      anyLong(),
                                                                                                       any());
 
         String expected = "";
@@ -666,7 +671,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -693,7 +698,7 @@ public class CommunicationsModuleTest {
                                                                                           0x04,
                                                                                           0x00));
         TestResultsListener listener = new TestResultsListener();
-        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM12 Request" + NL;
@@ -713,7 +718,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -721,7 +726,7 @@ public class CommunicationsModuleTest {
         final int pgn = DM12MILOnEmissionDTCPacket.PGN;
 
         TestResultsListener listener = new TestResultsListener();
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM12 Request" + NL;
@@ -732,7 +737,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -741,7 +746,7 @@ public class CommunicationsModuleTest {
         Packet requestPacket = Packet.create(REQUEST_PGN, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, 0x00);
 
-        doReturn(Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM21 Request to Engine #1 (0)" + NL;
@@ -756,7 +761,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -768,7 +773,7 @@ public class CommunicationsModuleTest {
         Packet packet = Packet.create(pgn | BUS_ADDR, 0, 0x10, 0x27, 0x20, 0x4E, 0x30, 0x75, 0x40, 0x9C);
         DM21DiagnosticReadinessPacket packet1 = new DM21DiagnosticReadinessPacket(packet);
 
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
         BusResult<DM21DiagnosticReadinessPacket> result = new BusResult<>(false, packet1);
@@ -788,7 +793,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -798,7 +803,7 @@ public class CommunicationsModuleTest {
         Packet packet = Packet.create(pgn | BUS_ADDR, 0, 0x10, 0x27, 0x20, 0x4E, 0x30, 0x75, 0x40, 0x9C);
         DM21DiagnosticReadinessPacket packet1 = new DM21DiagnosticReadinessPacket(packet);
 
-        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
         RequestResult<DM21DiagnosticReadinessPacket> result = new RequestResult<>(false,
@@ -820,7 +825,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -832,7 +837,7 @@ public class CommunicationsModuleTest {
         Packet packet = Packet.create(pgn | BUS_ADDR, 0, 0x10, 0x27, 0x20, 0x4E, 0x30, 0x75, 0x40, 0x9C);
         DM21DiagnosticReadinessPacket packet1 = new DM21DiagnosticReadinessPacket(packet);
 
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
         RequestResult<DM21DiagnosticReadinessPacket> result = new RequestResult<>(false,
@@ -855,7 +860,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -876,7 +881,7 @@ public class CommunicationsModuleTest {
                                                                                                               0x00,
                                                                                                               0x00,
                                                                                                               0x00));
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM23 Request to Body Controller (33)" + NL;
@@ -891,7 +896,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0x21);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -917,7 +922,7 @@ public class CommunicationsModuleTest {
                                                                                                               0x10,
                                                                                                               0x04,
                                                                                                               0x00));
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM23 Request to Engine #1 (0)" + NL;
@@ -935,7 +940,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -944,7 +949,7 @@ public class CommunicationsModuleTest {
 
         Packet requestPacket = Packet.create(REQUEST_PGN | 0x17, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, 0x17);
-        doReturn(Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM23 Request to Instrument Cluster #1 (23)" + NL;
@@ -957,7 +962,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0x17);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1001,7 +1006,8 @@ public class CommunicationsModuleTest {
                                                                                                               0x00,
                                                                                                               0x00));
         doReturn(Stream.of(null, packet1.getPacket(), packet2.getPacket(), packet3.getPacket())).when(j1939)
-                                                                                                .read(anyLong(),
+                                                                                                .read(any(FrameFilter.class),
+                                                                                                      anyLong(),
                                                                                                       any());
 
         String expected = "";
@@ -1024,7 +1030,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1047,7 +1053,7 @@ public class CommunicationsModuleTest {
                                                                                                               0x10,
                                                                                                               0x04,
                                                                                                               0x00));
-        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM23 Request" + NL;
@@ -1067,7 +1073,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1077,7 +1083,7 @@ public class CommunicationsModuleTest {
         Packet requestPacket = Packet.create(REQUEST_PGN | GLOBAL_ADDR, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM23 Request" + NL;
@@ -1090,7 +1096,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1111,7 +1117,7 @@ public class CommunicationsModuleTest {
                                                                               0xFD,
                                                                               0x00));
 
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM25 Request to Engine #1 (0)" + NL;
@@ -1127,7 +1133,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1136,7 +1142,7 @@ public class CommunicationsModuleTest {
         Packet requestPacket = Packet.create(REQUEST_PGN, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, 0x00);
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM25 Request to Engine #1 (0)" + NL;
         expected += "10:15:30.0000 18EA00A5 [3] B7 FD 00 (TX)" + NL;
@@ -1149,7 +1155,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1172,7 +1178,7 @@ public class CommunicationsModuleTest {
                 0xD0, 0x07, 0x00, 0x7D, 0x04, 0xFF, 0xFA };
 
         DM25ExpandedFreezeFrame packet = new DM25ExpandedFreezeFrame(Packet.create(pgn, 0x00, realData));
-        doReturn(Stream.of(requestPacket, packet.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM25 Request to Engine #1 (0)" + NL;
@@ -1199,7 +1205,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1220,7 +1226,7 @@ public class CommunicationsModuleTest {
                                                                                                         0,
                                                                                                         0,
                                                                                                         0));
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM26 Request to Body Controller (33)" + NL;
@@ -1254,7 +1260,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0x21);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1281,7 +1287,7 @@ public class CommunicationsModuleTest {
                                                                                                         0x04,
                                                                                                         0x00));
 
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM26 Request to Engine #1 (0)" + NL;
@@ -1317,7 +1323,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1327,7 +1333,7 @@ public class CommunicationsModuleTest {
         Packet requestPacket = Packet.create(REQUEST_PGN | 0x17, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, 0x17);
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM26 Request to Instrument Cluster #1 (23)" + NL;
@@ -1343,7 +1349,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x17);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1387,7 +1393,8 @@ public class CommunicationsModuleTest {
                                                                                                         0,
                                                                                                         0));
         doReturn(Stream.of(null, packet1.getPacket(), packet2.getPacket(), packet3.getPacket())).when(j1939)
-                                                                                                .read(anyLong(),
+                                                                                                .read(any(FrameFilter.class),
+                                                                                                      anyLong(),
                                                                                                       any());
 
         String expected = "";
@@ -1468,7 +1475,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1493,7 +1500,8 @@ public class CommunicationsModuleTest {
                  Stream.of(packet1.getPacket()),
                  Stream.of(packet1.getPacket())).when(
                                                       j1939)
-                                                .read(anyLong(),
+                                                .read(any(FrameFilter.class),
+                                                      anyLong(),
                                                       any());
 
         String expected = "";
@@ -1527,7 +1535,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1536,7 +1544,7 @@ public class CommunicationsModuleTest {
 
         Packet requestPacket = Packet.create(REQUEST_PGN | GLOBAL_ADDR, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, 0xFF);
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
         String expected = "";
         expected += "10:15:30.0000 Global DM26 Request" + NL;
         expected += "10:15:30.0000 18EAFFA5 [3] B8 FD 00 (TX)" + NL;
@@ -1548,7 +1556,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0xFF);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1569,7 +1577,7 @@ public class CommunicationsModuleTest {
                                                                                       0x00,
                                                                                       0x00,
                                                                                       0x00));
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM27 Request to Engine #1 (0)" + NL;
@@ -1585,7 +1593,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1611,7 +1619,7 @@ public class CommunicationsModuleTest {
                                                                                       0x10,
                                                                                       0x04,
                                                                                       0x00));
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM27 Request to Engine #1 (0)" + NL;
@@ -1631,7 +1639,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1641,7 +1649,7 @@ public class CommunicationsModuleTest {
         Packet requestPacket = Packet.create(REQUEST_PGN | 0x17, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, 0x17);
 
-        doReturn(Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM27 Request to Instrument Cluster #1 (23)" + NL;
@@ -1655,7 +1663,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x17);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1696,7 +1704,8 @@ public class CommunicationsModuleTest {
                                                                                       0x00,
                                                                                       0x00));
         doReturn(Stream.of(null, packet1.getPacket(), packet2.getPacket(), packet3.getPacket())).when(j1939)
-                                                                                                .read(anyLong(),
+                                                                                                .read(any(FrameFilter.class),
+                                                                                                      anyLong(),
                                                                                                       any());
 
         String expected = "";
@@ -1727,7 +1736,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1753,7 +1762,7 @@ public class CommunicationsModuleTest {
                                                                                       0x10,
                                                                                       0x04,
                                                                                       0x00));
-        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM27 Request" + NL;
@@ -1775,7 +1784,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1785,7 +1794,7 @@ public class CommunicationsModuleTest {
         Packet requestPacket = Packet.create(REQUEST_PGN | GLOBAL_ADDR, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM27 Request" + NL;
@@ -1797,7 +1806,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1824,7 +1833,7 @@ public class CommunicationsModuleTest {
                                                                                                   0x04,
                                                                                                   0x00));
 
-        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM28 Request" + NL;
@@ -1845,7 +1854,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1860,7 +1869,7 @@ public class CommunicationsModuleTest {
         expected += "10:15:30.0000 Timeout - No Response"
                 + NL;
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
         assertEquals(BusResult.empty(), instance.requestDM29(listener, 0x00));
@@ -1868,7 +1877,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1899,7 +1908,7 @@ public class CommunicationsModuleTest {
                                                                 0xFF,
                                                                 0xFF,
                                                                 0xFF));
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
         BusResult<DM29DtcCounts> expectedResult = new BusResult<>(false, packet1);
@@ -1908,7 +1917,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1920,7 +1929,7 @@ public class CommunicationsModuleTest {
         expected += "10:15:30.0000 18EAFFA5 [3] 00 9E 00 (TX)" + NL;
         expected += "10:15:30.0000 Timeout - No Response" + NL;
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
         assertEquals(RequestResult.empty(false), instance.requestDM29(listener));
@@ -1928,7 +1937,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1958,7 +1967,7 @@ public class CommunicationsModuleTest {
                                                                 0xFF,
                                                                 0xFF,
                                                                 0xFF));
-        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
         RequestResult<DM29DtcCounts> expectedResult = new RequestResult<>(false,
@@ -1969,7 +1978,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -1979,7 +1988,7 @@ public class CommunicationsModuleTest {
         Packet requestPacket = Packet.create(REQUEST_PGN | 0x17, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, 0x17);
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM2 Request to Instrument Cluster #1 (23)" + NL;
@@ -1992,7 +2001,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x17);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @SuppressWarnings("OptionalGetWithoutIsPresent")
@@ -2014,7 +2023,7 @@ public class CommunicationsModuleTest {
                                                                                   0x66,
                                                                                   0x77,
                                                                                   0x88));
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM2 Request to Engine #2 (1)" + NL;
@@ -2032,7 +2041,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x01);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2076,7 +2085,8 @@ public class CommunicationsModuleTest {
                                                                                   0x70,
                                                                                   0x80));
         doReturn(Stream.of(requestPacket, packet1.getPacket(), packet2.getPacket(), packet3.getPacket())).when(j1939)
-                                                                                                         .read(anyLong(),
+                                                                                                         .read(any(FrameFilter.class),
+                                                                                                               anyLong(),
                                                                                                                any());
 
         String expected = "";
@@ -2102,7 +2112,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2128,7 +2138,7 @@ public class CommunicationsModuleTest {
                                                                                   0x10,
                                                                                   0x04,
                                                                                   0x00));
-        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM2 Request" + NL;
@@ -2151,7 +2161,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0xFF);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2160,7 +2170,7 @@ public class CommunicationsModuleTest {
 
         Packet requestPacket = Packet.create(REQUEST_PGN | GLOBAL_ADDR, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM2 Request" + NL;
@@ -2173,7 +2183,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2187,7 +2197,7 @@ public class CommunicationsModuleTest {
         expected += "10:15:30.0000 18EA00A5 [3] 00 A3 00 (TX)" + NL;
         expected += "10:15:30.0000 Timeout - No Response" + NL;
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
         RequestResult<DM31DtcToLampAssociation> expectedResult = new RequestResult<>(false,
@@ -2198,7 +2208,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2248,7 +2258,7 @@ public class CommunicationsModuleTest {
                                                                                       // Count
                                                                                       0xAA, // Lamp Status/Support
                                                                                       0x55));// Lamp Status/State
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
         RequestResult<DM31DtcToLampAssociation> expectedResult = new RequestResult<>(false,
@@ -2259,7 +2269,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x21);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2271,7 +2281,7 @@ public class CommunicationsModuleTest {
         expected += "10:15:30.0000 18EAFFA5 [3] 00 A3 00 (TX)" + NL;
         expected += "10:15:30.0000 Timeout - No Response" + NL;
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
         assertEquals(RequestResult.empty(false), instance.requestDM31(listener));
@@ -2279,7 +2289,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2325,7 +2335,7 @@ public class CommunicationsModuleTest {
                                                                                       0x00,
                                                                                       0xAA,
                                                                                       0x55));
-        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
         RequestResult<DM31DtcToLampAssociation> expectedResult = new RequestResult<>(false,
@@ -2336,7 +2346,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2354,7 +2364,7 @@ public class CommunicationsModuleTest {
                 (byte) 0xFF };
         var packet1 = new DM33EmissionIncreasingAECDActiveTime(Packet.create(pgn, 0x00, data));
 
-        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         TestResultsListener listener = new TestResultsListener();
         assertEquals(new RequestResult<>(false, packet1), instance.requestDM33(listener));
@@ -2377,7 +2387,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2387,7 +2397,7 @@ public class CommunicationsModuleTest {
         Packet requestPacket = Packet.create(REQUEST_PGN, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, 0x00);
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM33 Request to Engine #1 (0)" + NL;
@@ -2401,7 +2411,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2417,7 +2427,7 @@ public class CommunicationsModuleTest {
                 0x04, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFE, (byte) 0xFE, (byte) 0xFE, (byte) 0xFE,
                 (byte) 0xFF };
         var packet1 = new DM33EmissionIncreasingAECDActiveTime(Packet.create(pgn, 0, data));
-        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM33 Request" + NL;
@@ -2440,14 +2450,14 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
     public void testRequestDM33GlobalNoResponse() throws BusException {
         final int pgn = DM33EmissionIncreasingAECDActiveTime.PGN;
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM33 Request" + NL;
@@ -2460,7 +2470,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2481,7 +2491,7 @@ public class CommunicationsModuleTest {
                                                                                             0x00,
                                                                                             0x00,
                                                                                             0x00));
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM6 Request to Engine #1 (0)" + NL;
@@ -2497,7 +2507,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2523,7 +2533,7 @@ public class CommunicationsModuleTest {
                                                                                             0x10,
                                                                                             0x04,
                                                                                             0x00));
-        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM6 Request to Engine #1 (0)" + NL;
@@ -2544,7 +2554,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x00);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2553,7 +2563,7 @@ public class CommunicationsModuleTest {
         Packet requestPacket = Packet.create(REQUEST_PGN | 0x21, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, 0x21);
 
-        doReturn(Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM6 Request to Body Controller (33)" + NL;
@@ -2569,7 +2579,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, 0x21);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2605,7 +2615,8 @@ public class CommunicationsModuleTest {
                                                                                             0x00,
                                                                                             0x00));
         doReturn(Stream.of(null, packet1.getPacket(), packet2.getPacket(), packet3.getPacket())).when(j1939)
-                                                                                                .read(anyLong(),
+                                                                                                .read(any(FrameFilter.class),
+                                                                                                      anyLong(),
                                                                                                       any());
 
         String expected = "";
@@ -2627,7 +2638,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2650,7 +2661,7 @@ public class CommunicationsModuleTest {
                                                                                             0x10,
                                                                                             0x04,
                                                                                             0x00));
-        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(null, packet1.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM6 Request" + NL;
@@ -2671,14 +2682,14 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
     public void testRequestDM6GlobalWithNoResponses() throws BusException {
         final int pgn = DM6PendingEmissionDTCPacket.PGN;
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM6 Request" + NL;
@@ -2691,7 +2702,7 @@ public class CommunicationsModuleTest {
         assertEquals("", listener.getMessages());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2707,7 +2718,8 @@ public class CommunicationsModuleTest {
         doReturn(Stream.of(null, packet1.getPacket(), packet2.getPacket(), packet3.getPacket()),
                  Stream.of(null, packet1.getPacket(), packet2.getPacket(), packet3.getPacket()),
                  Stream.of(null, packet1.getPacket(), packet2.getPacket(), packet3.getPacket())).when(j1939)
-                                                                                                .read(eq(TIMEOUT),
+                                                                                                .read(any(FrameFilter.class),
+                                                                                                      eq(TIMEOUT),
                                                                                                       eq(MILLISECONDS));
 
         List<DM56EngineFamilyPacket> packets = instance.requestDM56(listener);
@@ -2741,7 +2753,7 @@ public class CommunicationsModuleTest {
         String actualResults = listener.getResults();
         assertEquals(expectedResults, actualResults);
 
-        verify(j1939).read(eq(TIMEOUT), eq(MILLISECONDS));
+        verify(j1939).read(any(FrameFilter.class), eq(TIMEOUT), eq(MILLISECONDS));
     }
 
     @Test
@@ -2769,7 +2781,8 @@ public class CommunicationsModuleTest {
         doReturn(Stream.of(null, packet.getPacket()),
                  Stream.of(null, packet.getPacket()),
                  Stream.of(null, packet.getPacket())).when(j1939)
-                                                     .read(anyLong(),
+                                                     .read(any(FrameFilter.class),
+                                                           anyLong(),
                                                            any());
 
         BusResult<DM58RationalityFaultSpData> expected = new BusResult<>(false, packet);
@@ -2795,7 +2808,8 @@ public class CommunicationsModuleTest {
 
         doReturn(Stream.empty(), Stream.empty(), Stream.empty())
                                                                 .when(j1939)
-                                                                .read(eq(TIMEOUT),
+                                                                .read(any(FrameFilter.class),
+                                                                      eq(TIMEOUT),
                                                                       eq(MILLISECONDS));
 
         TestResultsListener listener = new TestResultsListener();
@@ -2809,7 +2823,7 @@ public class CommunicationsModuleTest {
         String actualResults = listener.getResults();
         assertEquals(expectedResults, actualResults);
 
-        verify(j1939).read(eq(TIMEOUT), eq(MILLISECONDS));
+        verify(j1939).read(any(FrameFilter.class), eq(TIMEOUT), eq(MILLISECONDS));
     }
 
     @Test
@@ -2873,7 +2887,7 @@ public class CommunicationsModuleTest {
         Packet requestPacket = Packet.create(0xEA00 | GLOBAL_ADDR, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM20 Request" + NL;
@@ -2883,7 +2897,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -2928,7 +2942,8 @@ public class CommunicationsModuleTest {
                                                                                                         0x70,
                                                                                                         0x80));
         doReturn(Stream.of(requestPacket, packet1.getPacket(), packet2.getPacket(), packet3.getPacket())).when(j1939)
-                                                                                                         .read(anyLong(),
+                                                                                                         .read(any(FrameFilter.class),
+                                                                                                               anyLong(),
                                                                                                                any());
 
         String expected = "";
@@ -2960,7 +2975,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0xFF);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -3005,7 +3020,8 @@ public class CommunicationsModuleTest {
                                                                                                         0x70,
                                                                                                         0x80));
         doReturn(Stream.of(requestPacket, packet1.getPacket(), packet2.getPacket(), packet3.getPacket())).when(j1939)
-                                                                                                         .read(anyLong(),
+                                                                                                         .read(any(FrameFilter.class),
+                                                                                                               anyLong(),
                                                                                                                any());
 
         String expected = "";
@@ -3036,7 +3052,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -3047,7 +3063,7 @@ public class CommunicationsModuleTest {
         Packet requestPacket = Packet.create(0xEA00 | 0x17, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, 0x17);
 
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM21 Request to Instrument Cluster #1 (23)" + NL;
@@ -3058,7 +3074,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0x17);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -3080,7 +3096,7 @@ public class CommunicationsModuleTest {
                                                                                                 0x60,
                                                                                                 0x70,
                                                                                                 0x80));
-        doReturn(Stream.of(requestPacket, packet3.getPacket())).when(j1939).read(anyLong(), any());
+        doReturn(Stream.of(requestPacket, packet3.getPacket())).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Destination Specific DM21 Request to Body Controller (33)" + NL;
@@ -3097,7 +3113,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0x21);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -3110,7 +3126,7 @@ public class CommunicationsModuleTest {
 
         doReturn(Stream.empty(), Stream.empty(), Stream.empty(), Stream.empty())
                                                                                 .when(j1939)
-                                                                                .read(anyLong(), any());
+                                                                                .read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM21 Request" + NL;
@@ -3120,7 +3136,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0xFF);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -3165,7 +3181,8 @@ public class CommunicationsModuleTest {
                                                                                                 0x70,
                                                                                                 0x80));
         doReturn(Stream.of(requestPacket, packet1.getPacket(), packet2.getPacket(), packet3.getPacket())).when(j1939)
-                                                                                                         .read(anyLong(),
+                                                                                                         .read(any(FrameFilter.class),
+                                                                                                               anyLong(),
                                                                                                                any());
 
         String expected = "";
@@ -3197,7 +3214,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0xFF);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -3242,7 +3259,8 @@ public class CommunicationsModuleTest {
                                                                                                 0x70,
                                                                                                 0x80));
         doReturn(Stream.of(requestPacket, packet1.getPacket(), packet2.getPacket(), packet3.getPacket())).when(j1939)
-                                                                                                         .read(anyLong(),
+                                                                                                         .read(any(FrameFilter.class),
+                                                                                                               anyLong(),
                                                                                                                any());
 
         String expected = "";
@@ -3277,7 +3295,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0xFF);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -3322,7 +3340,8 @@ public class CommunicationsModuleTest {
                                                                                               0x80));
         doReturn(Stream.of(requestPacket, packet1.getPacket(), packet2.getPacket(), packet3.getPacket()))
                                                                                                          .when(j1939)
-                                                                                                         .read(anyLong(),
+                                                                                                         .read(any(FrameFilter.class),
+                                                                                                               anyLong(),
                                                                                                                any());
 
         String expected = "";
@@ -3401,7 +3420,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -3411,7 +3430,7 @@ public class CommunicationsModuleTest {
 
         Packet requestPacket = Packet.create(0xEA00 | 0xFF, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
         doReturn(requestPacket).when(j1939).createRequestPacket(pgn, GLOBAL_ADDR);
-        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(anyLong(), any());
+        doReturn(Stream.empty(), Stream.empty(), Stream.empty()).when(j1939).read(any(FrameFilter.class), anyLong(), any());
 
         String expected = "";
         expected += "10:15:30.0000 Global DM5 Request" + NL;
@@ -3421,7 +3440,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939).createRequestPacket(pgn, 0xFF);
-        verify(j1939).read(anyLong(), any());
+        verify(j1939).read(any(FrameFilter.class), anyLong(), any());
     }
 
     @Test
@@ -3452,7 +3471,8 @@ public class CommunicationsModuleTest {
                  Stream.of(packet.getPacket()),
                  Stream.of(packet.getPacket()))
                                                .when(j1939)
-                                               .read(anyLong(),
+                                               .read(any(FrameFilter.class),
+                                                     anyLong(),
                                                      any());
 
         BusResult<? extends GenericPacket> actual = instance.requestDM57(listener, moduleAddress);
@@ -3470,7 +3490,7 @@ public class CommunicationsModuleTest {
         assertEquals(expected, listener.getResults());
 
         verify(j1939, times(2)).createRequestPacket(pgn, moduleAddress);
-        verify(j1939).read(anyLong(), eq(MILLISECONDS));
+        verify(j1939).read(any(FrameFilter.class), anyLong(), eq(MILLISECONDS));
     }
 
 }
@@ -42,6 +42,24 @@ public class J1939_84 {
      */
     public static final String DEV_PROPERTY_NAME = "DEV";
 
+    /**
+     * The name of the property with the seconds of bus traffic to capture when
+     * a step records a FAIL or WARN. Nothing is captured if it is not set.
+     */
+    public static final String PRE_TRIGGER_PROPERTY_NAME = "PRE_TRIGGER";
+
+    /**
+     * The name of the property with the seconds of bus traffic to capture
+     * after a step records a FAIL or WARN
+     */
+    public static final String POST_TRIGGER_PROPERTY_NAME = "POST_TRIGGER";
+
+    /**
+     * The name of the property with the MB of memory the bus traffic kept for
+     * captures may take. 64 if it is not set.
+     */
+    public static final String FRAME_HISTORY_MB_PROPERTY_NAME = "FRAME_HISTORY_MB";
+
     private static final Logger logger = Logger.getGlobal();
 
     static {
@@ -10,8 +10,6 @@ import static org.etools.j1939_84.model.Outcome.WARN;
 import static org.etools.j1939tools.j1939.Lookup.getAddressName;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -19,6 +17,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -186,12 +185,12 @@ public class BroadcastValidator {
                         listener.onResult(packet1.toTimeString());
                         listener.onResult(packet2.toTimeString());
 
-                        LocalDateTime t0 = packet0.getTimestamp();
-                        LocalDateTime t1 = packet1.getTimestamp();
-                        long diff1 = ChronoUnit.MILLIS.between(t0, t1);
+                        long t0 = packet0.getTimestampNanos();
+                        long t1 = packet1.getTimestampNanos();
+                        long diff1 = TimeUnit.NANOSECONDS.toMillis(t1 - t0);
 
-                        LocalDateTime t2 = packet2.getTimestamp();
-                        long diff2 = ChronoUnit.MILLIS.between(t1, t2);
+                        long t2 = packet2.getTimestampNanos();
+                        long diff2 = TimeUnit.NANOSECONDS.toMillis(t2 - t1);
 
                         long broadcastPeriod = pgnDefinition.getBroadcastPeriod();
                         double maxBroadcastPeriod = broadcastPeriod * 1.1;
@@ -10,7 +10,11 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -25,6 +29,16 @@ import org.etools.j1939tools.modules.DateTimeModule;
 
 public class BusService {
 
+    /**
+     * Reports the progress of the bus reads, once a second. Shared, rather
+     * than a thread per read.
+     */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Bus Read Progress");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final J1939DaRepository j1939DaRepository;
     private final DateTimeModule dateTimeModule;
     private J1939 j1939;
@@ -162,23 +176,39 @@ public class BusService {
         String message = NL + "Step " + step + " - Reading bus for %1$d seconds" + NL;
         listener.onResult(String.format(message, seconds));
         long stopTime = dateTimeModule.getTimeAsLong() + seconds * 1000L;
-        new Thread(() -> {
-            long secondsToGo = seconds;
-            while (secondsToGo > 0) {
-                try {
-                    secondsToGo = (stopTime - dateTimeModule.getTimeAsLong()) / 1000;
-                    Controller.checkEnding();
-                    listener.onProgress(String.format(message, secondsToGo));
-                    dateTimeModule.pauseFor(1000);
-                } catch (InterruptedException e) {
-                    secondsToGo = 0;
-                }
+        // stops after the given seconds of real time too, in case the module's
+        // clock does not advance
+        long endNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        AtomicReference<ScheduledFuture<?>> progress = new AtomicReference<>();
+        progress.set(TIMER.scheduleWithFixedDelay(() -> {
+            long secondsToGo = Math.max(0, (stopTime - dateTimeModule.getTimeAsLong()) / 1000);
+            if (System.nanoTime() - endNanos >= 0) {
+                secondsToGo = 0;
+            }
+            try {
+                Controller.checkEnding();
+                listener.onProgress(String.format(message, secondsToGo));
+            } catch (InterruptedException e) {
+                secondsToGo = 0;
             }
-        }).start();
+            if (secondsToGo == 0) {
+                cancel(progress);
+            }
+        }, 0, 1, TimeUnit.SECONDS));
 
         return j1939.read(GenericPacket.class, seconds, TimeUnit.SECONDS)
                     .flatMap(e -> e.left.stream())
-                    .filter(filter);
+                    .filter(filter)
+                    .onClose(() -> cancel(progress));
+    }
+
+    private static void cancel(AtomicReference<ScheduledFuture<?>> progress) {
+        // null if the first update ends it before it is set, in which case the
+        // next update does
+        ScheduledFuture<?> future = progress.get();
+        if (future != null) {
+            future.cancel(false);
+        }
     }
 
     /**
@@ -5,6 +5,8 @@ package org.etools.j1939_84.controllers;
 
 import static org.etools.j1939_84.model.Outcome.ABORT;
 
+import java.io.File;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Executor;
@@ -23,6 +25,7 @@ import org.etools.j1939_84.modules.EngineSpeedModule;
 import org.etools.j1939_84.modules.ReportFileModule;
 import org.etools.j1939_84.modules.VehicleInformationModule;
 import org.etools.j1939tools.bus.BusResult;
+import org.etools.j1939tools.bus.FrameHistory;
 import org.etools.j1939tools.bus.RequestResult;
 import org.etools.j1939tools.j1939.J1939;
 import org.etools.j1939tools.j1939.packets.GenericPacket;
@@ -390,11 +393,32 @@ public abstract class Controller {
         if (listener instanceof CompositeResultsListener) {
             compositeListener = (CompositeResultsListener) listener;
         } else {
-            compositeListener = new CompositeResultsListener(listener, reportFileModule, partResultRepository);
+            FrameHistory history = j1939 == null ? null : FailureCaptureListener.startHistory(j1939);
+            if (history == null) {
+                compositeListener = new CompositeResultsListener(listener, reportFileModule, partResultRepository);
+            } else {
+                compositeListener = new CompositeResultsListener(listener,
+                                                                 reportFileModule,
+                                                                 partResultRepository,
+                                                                 new FailureCaptureListener(history,
+                                                                                            captureDirectory(reportFileModule)));
+            }
         }
         ending = null;
     }
 
+    /**
+     * @return the directory of the report, where the failures are captured.
+     *         The temporary directory if there is no report.
+     */
+    private static Path captureDirectory(ReportFileModule reportFileModule) {
+        File reportFile = reportFileModule == null ? null : reportFileModule.getReportFile();
+        if (reportFile == null || reportFile.getAbsoluteFile().getParentFile() == null) {
+            return Path.of(System.getProperty("java.io.tmpdir"));
+        }
+        return reportFile.getAbsoluteFile().getParentFile().toPath();
+    }
+
     /**
      * Interrupts and ends the execution of the controller
      */
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939_84.controllers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.etools.j1939_84.J1939_84;
+import org.etools.j1939_84.model.Outcome;
+import org.etools.j1939tools.bus.CaptureWriter;
+import org.etools.j1939tools.bus.FrameHistory;
+import org.etools.j1939tools.bus.Packet;
+import org.etools.j1939tools.j1939.J1939;
+
+/**
+ * The {@link ResultsListener} that captures the recent bus traffic when a step
+ * records a FAIL or WARN.
+ *
+ * After the post-trigger window of the {@link FrameHistory}, its frames from
+ * the pre-trigger window before the outcome to the post-trigger window after
+ * it are written to a capture named after the part, step and outcome. Further
+ * outcomes of a step while its capture is pending share that capture.
+ *
+ * Every {@link Controller} run captures its failures when the
+ * {@link J1939_84#PRE_TRIGGER_PROPERTY_NAME} property is set, with or without
+ * the user interface.
+ */
+public class FailureCaptureListener implements ResultsListener {
+
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /** The MB of frames kept in memory when it is not set by a property. */
+    private static final int DEFAULT_HISTORY_MB = 64;
+
+    /** The seconds of frames captured after an outcome by default. */
+    private static final int DEFAULT_POST_TRIGGER = 5;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Failure Capture");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FrameHistory history;
+
+    private final Path directory;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param history
+     *                      the recent frames
+     * @param directory
+     *                      the directory for the captures
+     */
+    public FailureCaptureListener(FrameHistory history, Path directory) {
+        this(history, directory, SCHEDULER);
+    }
+
+    /**
+     * @param history
+     *                      the recent frames
+     * @param directory
+     *                      the directory for the captures
+     * @param scheduler
+     *                      writes the captures after the post-trigger window
+     */
+    public FailureCaptureListener(FrameHistory history, Path directory, ScheduledExecutorService scheduler) {
+        this.history = history;
+        this.directory = directory;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Starts keeping the recent frames of the bus, if the
+     * {@link J1939_84#PRE_TRIGGER_PROPERTY_NAME} property is set and they are
+     * not kept already. The most memory they take is set in MB by the
+     * {@link J1939_84#FRAME_HISTORY_MB_PROPERTY_NAME} property.
+     *
+     * @return the history, or null if failures are not captured
+     */
+    public static synchronized FrameHistory startHistory(J1939 j1939) {
+        Integer preTrigger = Integer.getInteger(J1939_84.PRE_TRIGGER_PROPERTY_NAME);
+        if (preTrigger == null) {
+            return null;
+        }
+        FrameHistory history = j1939.getFrameHistory();
+        if (history == null) {
+            long maxBytes = Integer.getInteger(J1939_84.FRAME_HISTORY_MB_PROPERTY_NAME, DEFAULT_HISTORY_MB) * 1024L * 1024;
+            int postTrigger = Integer.getInteger(J1939_84.POST_TRIGGER_PROPERTY_NAME, DEFAULT_POST_TRIGGER);
+            history = j1939.startFrameHistory(Duration.ofSeconds(preTrigger), maxBytes, Duration.ofSeconds(postTrigger));
+        }
+        return history;
+    }
+
+    @Override
+    public void addOutcome(int partNumber, int stepNumber, Outcome outcome, String message) {
+        if (outcome != Outcome.FAIL && outcome != Outcome.WARN) {
+            return;
+        }
+        String name = "Part" + partNumber + "-Step" + stepNumber + "-" + outcome;
+        if (pending.add(name)) {
+            long trigger = history.getTrigger();
+            scheduler.schedule(() -> capture(name, trigger),
+                               history.getPostTrigger().toMillis(),
+                               TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void capture(String name, long trigger) {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            Path file = directory.resolve("J1939-84-" + name + "-" + FILE_TIME.format(now) + ".j1939cap");
+            List<Packet> frames = history.snapshot(trigger);
+            try (CaptureWriter writer = new CaptureWriter(file,
+                                                          frames.isEmpty() ? now : frames.get(0).getTimestamp(),
+                                                          CaptureWriter.Mode.DELTA)) {
+                for (Packet frame : frames) {
+                    // only CAN frames are captured
+                    if (frame.getLength() <= 8) {
+                        writer.write(frame);
+                    }
+                }
+            }
+            J1939_84.getLogger().log(Level.INFO, "Captured " + frames.size() + " frames to " + file);
+        } catch (IOException e) {
+            J1939_84.getLogger().log(Level.SEVERE, "Unable to capture frames for " + name, e);
+        } finally {
+            pending.remove(name);
+        }
+    }
+}
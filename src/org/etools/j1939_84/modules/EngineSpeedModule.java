@@ -3,14 +3,12 @@
  */
 package org.etools.j1939_84.modules;
 
-import static java.time.temporal.ChronoUnit.MILLIS;
 import static org.etools.j1939tools.j1939.J1939.ENGINE_ADDR;
 import static org.etools.j1939tools.j1939.model.KeyState.KEY_OFF;
 import static org.etools.j1939tools.j1939.model.KeyState.KEY_ON_ENGINE_OFF;
 import static org.etools.j1939tools.j1939.model.KeyState.KEY_ON_ENGINE_RUNNING;
 import static org.etools.j1939tools.j1939.model.KeyState.UNKNOWN;
 
-import java.time.LocalDateTime;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -19,6 +17,7 @@ import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 import org.etools.j1939tools.bus.Either;
+import org.etools.j1939tools.bus.Packet;
 import org.etools.j1939tools.j1939.model.KeyState;
 import org.etools.j1939tools.j1939.packets.AcknowledgmentPacket;
 import org.etools.j1939tools.j1939.packets.EngineSpeedPacket;
@@ -40,7 +39,7 @@ public class EngineSpeedModule extends FunctionalModule {
     private final AtomicReference<Double> idleEngineSpeed = new AtomicReference<>(600.0);
     private final AtomicReference<Double> pedalPosition = new AtomicReference<>(0.0);
 
-    private LocalDateTime lastTimestamp = null;
+    private Packet lastPacket = null;
 
     private final AtomicReference<Double> averagedEngineSpeed = new AtomicReference<>(0.0);
     private final AtomicReference<Double> currentEngineSpeed = new AtomicReference<>(0.0);
@@ -111,7 +110,7 @@ public class EngineSpeedModule extends FunctionalModule {
 
     public void startMonitoringEngineSpeed(ExecutorService executor,
                                            Predicate<Either<GenericPacket, AcknowledgmentPacket>> stopPredicate) {
-        lastTimestamp = null;
+        lastPacket = null;
         timeAtSpeed.set(0);
         timeAtIdle.set(0);
         idleEngineSpeed.set(600.0);
@@ -177,12 +176,12 @@ public class EngineSpeedModule extends FunctionalModule {
     }
 
     private long calculateMillisBetweenPackets(GenericPacket packet) {
-        LocalDateTime currentTimestamp = packet.getPacket().getTimestamp();
+        Packet currentPacket = packet.getPacket();
         long diffTime = 0;
-        if (lastTimestamp != null) {
-            diffTime = lastTimestamp.until(currentTimestamp, MILLIS);
+        if (lastPacket != null) {
+            diffTime = currentPacket.millisSince(lastPacket);
         }
-        lastTimestamp = currentTimestamp;
+        lastPacket = currentPacket;
         return diffTime;
     }
 
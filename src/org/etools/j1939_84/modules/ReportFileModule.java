@@ -9,7 +9,6 @@ import static java.util.logging.Level.WARNING;
 import static org.etools.j1939_84.J1939_84.NL;
 import static org.etools.j1939_84.J1939_84.PAGE_BREAK;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
@@ -25,8 +24,6 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 import org.etools.j1939_84.J1939_84;
 import org.etools.j1939_84.controllers.ResultsListener;
 import org.etools.j1939_84.model.ActionOutcome;
@@ -145,6 +142,13 @@ public class ReportFileModule extends FunctionalModule implements ResultsListene
         listener.onResult(getTime() + " File: " + reportFile.getAbsolutePath());
     }
 
+    /**
+     * @return the File results are logged to, or null if none is set
+     */
+    public File getReportFile() {
+        return reportFile;
+    }
+
     /**
      * Sets the File that will be used to log results to
      *
@@ -202,7 +206,9 @@ public class ReportFileModule extends FunctionalModule implements ResultsListene
                     + "Adapter Selection: " + getAdapterString() + NL
                     + "Log File Name: " + reportFile;
 
-            Path tempFilePath = Files.createTempFile("report", "J1939-84");
+            // written beside the report, so it replaces the report without a copy
+            Path reportPath = reportFile.getAbsoluteFile().toPath();
+            Path tempFilePath = Files.createTempFile(reportPath.getParent(), "report", ".tmp");
             Writer tempWriter = Files.newBufferedWriter(tempFilePath);
 
             tempWriter.write("Summary of " + BannerModule.TOOL_NAME + " Execution" + NL);
@@ -218,6 +224,7 @@ public class ReportFileModule extends FunctionalModule implements ResultsListene
             tempWriter.write("Information: " + summaryModule.getOutcomeCount(Outcome.INFO) + NL);
             tempWriter.write("Incomplete:  " + summaryModule.getOutcomeCount(Outcome.INCOMPLETE) + NL);
             tempWriter.write("Timing:      " + getJ1939().getWarnings() + NL);
+            tempWriter.write("Lost Frames: " + getJ1939().getDroppedFrames() + NL);
             tempWriter.write("Passes:      " + summaryModule.getOutcomeCount(Outcome.PASS) + NL);
             tempWriter.write(NL);
 
@@ -245,40 +252,30 @@ public class ReportFileModule extends FunctionalModule implements ResultsListene
             tempWriter.flush();
 
             tempWriter.write("TEST LOG REPORT" + NL + NL);
-            try (Reader reportFileReader = Files.newBufferedReader(reportFile.toPath())) {
+            if (writer != null) {
+                writer.flush();
+            }
+            try (Reader reportFileReader = Files.newBufferedReader(reportPath)) {
                 reportFileReader.transferTo(tempWriter);
             }
-            tempWriter.write("END TEST LOG REPORT");
+            tempWriter.write("END TEST LOG REPORT" + NL);
 
             tempWriter.flush();
             tempWriter.close();
 
-            File raw = new File(reportFile + ".raw");
-            boolean reNameSuccess = reportFile.renameTo(raw);
-            if (!reNameSuccess) {
-                logger.log(SEVERE, "Unable to rename file");
-            }
-            Files.copy(tempFilePath, reportFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            boolean copySuccess = raw.delete();
-            if (!copySuccess) {
-                logger.log(SEVERE, "Unable to delete file");
+            // the writer must not hold the report open while it is replaced
+            if (writer != null) {
+                writer.close();
+                writer = null;
             }
-
-            getJ1939().getLogFilePath().ifPresentOrElse(s -> {
-                File busLogFile = new File(s);
-
-                String zipFileName = reportFile.toPath().toString();
-                zipFileName = zipFileName.substring(0, zipFileName.lastIndexOf(".")) + ZIP_FILE_END;
-                File zipFile = new File(zipFileName);
-
-                try(ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile))){
-                    zos.putNextEntry(new ZipEntry(busLogFile.getName().toString()));
-                    Files.copy(busLogFile.toPath(), zos);
-                    zos.closeEntry();
-                }catch(IOException e){
-                    logger.log(WARNING, "Failed to add .asc CAN log to zip file.");
-                }
-
+            Files.move(tempFilePath, reportPath, StandardCopyOption.REPLACE_EXISTING);
+            setReportFile(reportFile);
+
+            // the CAN log is compressed while it is written, so it is only moved
+            String zipFileName = reportPath.toString();
+            zipFileName = zipFileName.substring(0, zipFileName.lastIndexOf(".")) + ZIP_FILE_END;
+            File zipFile = new File(zipFileName);
+            if (getJ1939().finishLog(zipFile.toPath())) {
                 //same file management logic as in J1939 class
                 Stream.of(zipFile.getParentFile()
                                   .listFiles((dir, name) -> name.endsWith(ZIP_FILE_END)))
@@ -289,7 +286,9 @@ public class ReportFileModule extends FunctionalModule implements ResultsListene
                                 J1939_84.getLogger().log(Level.INFO, "Failed to delete file " + f.getAbsolutePath());
                             }
                         });
-            }, () -> logger.log(INFO, "No .asc CAN log found."));
+            } else {
+                logger.log(INFO, "No .asc CAN log found.");
+            }
         } catch (Exception e) {
             logger.log(WARNING, "Failure while creating final report or zipped CAN log", e);
         }
@@ -17,11 +17,11 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Stream;
 
 import javax.swing.JOptionPane;
 
 import org.etools.j1939_84.J1939_84;
+import org.etools.j1939_84.controllers.FailureCaptureListener;
 import org.etools.j1939_84.controllers.OverallController;
 import org.etools.j1939_84.controllers.QuestionListener;
 import org.etools.j1939_84.controllers.ResultsListener;
@@ -557,8 +557,6 @@ public class UserInterfacePresenter implements UserInterfaceContract.Presenter {
 
     private boolean imposterReported;
 
-    private Stream<Packet> loggerStream = Stream.of();
-
     private UserInterfaceContract.View getView() {
         return view;
     }
@@ -582,12 +580,13 @@ public class UserInterfacePresenter implements UserInterfaceContract.Presenter {
             this.j1939 = null;
             vehicleInformationModule.setJ1939(null);
         }
-        loggerStream.close();
         // set new values
         if (bus != null) {
             this.bus = bus;
             this.j1939 = new J1939(bus);
-            this.loggerStream = this.j1939.startLogger("J1939-84-CAN-");
+            this.j1939.startLogger("J1939-84-CAN-");
+            // keep the traffic from before the run starts, for the captures of its failures
+            FailureCaptureListener.startHistory(this.j1939);
             vehicleInformationModule.setJ1939(getJ1939());
         }
     }
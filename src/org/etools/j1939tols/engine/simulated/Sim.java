@@ -13,11 +13,11 @@ import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.logging.Level;
-import java.util.stream.Stream;
 
 import org.etools.j1939_84.J1939_84;
 import org.etools.j1939tools.bus.Bus;
 import org.etools.j1939tools.bus.BusException;
+import org.etools.j1939tools.bus.FrameFilter;
 import org.etools.j1939tools.bus.Packet;
 
 /**
@@ -39,6 +39,11 @@ public class Sim implements AutoCloseable {
      */
     private final Bus bus;
 
+    /**
+     * The subscription to the packets read from the bus
+     */
+    private final AutoCloseable subscription;
+
     /**
      * The executor
      */
@@ -58,28 +63,35 @@ public class Sim implements AutoCloseable {
     @SuppressFBWarnings(value = "CT_CONSTRUCTOR_THROW", justification = "Not a concern in desktop app.")
     public Sim(Bus bus, boolean logPackets) throws BusException {
         this.bus = bus;
-        // stream is collected in the current thread to avoid missing any
-        // packets during the Thread startup.
-        Stream<Packet> stream = bus.read(365, TimeUnit.DAYS)
-                                   .peek(p -> {
-                                       if (logPackets) {
-                                           J1939_84.getLogger().log(Level.FINE, p.toTimeString());
-                                       }
-                                   });
-        exec.submit(() -> stream.parallel().forEach(packet -> {
-            for (var r : responses) {
-                if (r.apply(packet)) {
-                    return;
-                }
+        // subscribed in the current thread to avoid missing any packets. The
+        // responses run on exec, so that a slow response doesn't hold up the
+        // other subscribers.
+        subscription = bus.subscribe(FrameFilter.all(), packet -> {
+            if (logPackets) {
+                J1939_84.getLogger().log(Level.FINE, packet.toTimeString());
             }
-        }));
+            exec.execute(() -> respond(packet));
+        });
     }
 
     @Override
     public void close() {
+        try {
+            subscription.close();
+        } catch (Exception e) {
+            J1939_84.getLogger().log(Level.WARNING, "Error closing subscription", e);
+        }
         exec.shutdown();
     }
 
+    private void respond(Packet packet) {
+        for (var r : responses) {
+            if (r.apply(packet)) {
+                return;
+            }
+        }
+    }
+
     /**
      * Sends a response every time
      *
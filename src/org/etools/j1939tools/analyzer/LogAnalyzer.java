@@ -0,0 +1,484 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.analyzer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.etools.j1939_84.J1939_84;
+import org.etools.j1939tools.analyzer.LogStatistics.DtcStatistics;
+import org.etools.j1939tools.analyzer.LogStatistics.StreamStatistics;
+import org.etools.j1939tools.bus.Packet;
+import org.etools.j1939tools.bus.PacketParser;
+import org.etools.j1939tools.j1939.J1939;
+import org.etools.j1939tools.j1939.J1939DaRepository;
+import org.etools.j1939tools.j1939.J1939TP;
+import org.etools.j1939tools.j1939.model.PgnDefinition;
+import org.etools.j1939tools.j1939.packets.DiagnosticTroubleCodePacket;
+import org.etools.j1939tools.j1939.packets.ParsedPacket;
+
+import com.opencsv.CSVWriter;
+
+/**
+ * Analyzes Vector .asc logs, like those written by J1939.startLogger(),
+ * without a bus or a user interface.
+ *
+ * The logs are analyzed in parallel, one per worker. Logs larger than
+ * {@link #SPLIT_SIZE} are split at frame boundaries and their parts are
+ * analyzed in parallel too. A part reads past its end only to complete the
+ * transport protocol messages that started in it. Messages are decoded with
+ * {@link J1939#processRaw(int, Packet)} and described with the
+ * {@link J1939DaRepository}.
+ *
+ * <pre>
+ * java -cp J1939-84.jar org.etools.j1939tools.analyzer.LogAnalyzer [-threads n] [-out directory] log|directory...
+ * </pre>
+ *
+ * writes streams.csv, dtcs.csv and analysis.json to the output directory.
+ */
+public class LogAnalyzer {
+    /** Logs larger than this are split into parts of this size. */
+    public static final long SPLIT_SIZE = 64L << 20;
+
+    /** How far past its end a part is read to complete its messages. */
+    private static final int LOOKAHEAD = 4 << 20;
+
+    /** Times of the parsed packets are relative to the start of the log. */
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private static final double NANOS_PER_MS = 1e6;
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /** The file column of the statistics of all logs. */
+    public static final String ALL = "ALL";
+
+    private static final String[] STREAM_COLUMNS;
+    static {
+        List<String> columns = new ArrayList<>(List.of("File",
+                                                       "PGN",
+                                                       "Acronym",
+                                                       "Source",
+                                                       "Messages",
+                                                       "First (s)",
+                                                       "Last (s)",
+                                                       "Min Period (ms)",
+                                                       "Mean Period (ms)",
+                                                       "Max Period (ms)",
+                                                       "Nominal Period (ms)",
+                                                       "Max Jitter (ms)",
+                                                       "Lamp On"));
+        for (long bound : LogStatistics.PERIOD_BINS_MS) {
+            columns.add("< " + bound + " ms");
+        }
+        columns.add(">= " + LogStatistics.PERIOD_BINS_MS[LogStatistics.PERIOD_BINS_MS.length - 1] + " ms");
+        STREAM_COLUMNS = columns.toArray(new String[0]);
+    }
+
+    private static final String[] DTC_COLUMNS = { "File", "PGN", "Acronym", "Source", "SPN", "FMI", "Messages",
+            "MIL On", "Max OC", "First (s)", "Last (s)" };
+
+    /** Whether the messages of each PGN are decoded as DTC packets. */
+    private static final Map<Integer, Boolean> DTC_PGNS = new ConcurrentHashMap<>();
+
+    private final int threads;
+
+    private final long splitSize;
+
+    /**
+     * @param threads
+     *                    the number of logs, or parts of logs, analyzed at
+     *                    once
+     */
+    public LogAnalyzer(int threads) {
+        this(threads, SPLIT_SIZE);
+    }
+
+    /** Constructor exposed for testing */
+    LogAnalyzer(int threads, long splitSize) {
+        this.threads = threads;
+        this.splitSize = splitSize;
+    }
+
+    /**
+     * Analyzes logs in parallel.
+     *
+     * @param  files
+     *                         the .asc logs
+     * @return             the statistics of each log, in the order given
+     * @throws IOException
+     *                                  if a log cannot be read
+     * @throws InterruptedException
+     *                                  if interrupted while waiting for the
+     *                                  workers
+     */
+    public Map<Path, LogStatistics> analyze(List<Path> files) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "Log Analyzer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Map<Path, List<Future<LogStatistics>>> parts = new LinkedHashMap<>();
+            for (Path file : files) {
+                long size = Files.size(file);
+                List<Future<LogStatistics>> futures = new ArrayList<>();
+                long from = 0;
+                do {
+                    long start = from;
+                    long end = Math.min(size, from + splitSize);
+                    futures.add(executor.submit(() -> analyze(file, start, end)));
+                    from = end;
+                } while (from < size);
+                parts.put(file, futures);
+            }
+
+            Map<Path, LogStatistics> result = new LinkedHashMap<>();
+            for (Map.Entry<Path, List<Future<LogStatistics>>> e : parts.entrySet()) {
+                LogStatistics statistics = new LogStatistics();
+                for (Future<LogStatistics> part : e.getValue()) {
+                    try {
+                        statistics.append(part.get());
+                    } catch (ExecutionException ex) {
+                        if (ex.getCause() instanceof IOException) {
+                            throw (IOException) ex.getCause();
+                        }
+                        throw new IOException("Unable to analyze " + e.getKey(), ex.getCause());
+                    }
+                }
+                result.put(e.getKey(), statistics);
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Analyzes the frames of a log that start in [from, to).
+     */
+    private static LogStatistics analyze(Path file, long from, long to) throws IOException {
+        LogStatistics statistics = new LogStatistics();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            // include the byte before the part, to know if a line starts at from
+            long mapStart = Math.max(0, from - 1);
+            long mapEnd = Math.min(size, to + LOOKAHEAD);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+            int limit = (int) (to - mapStart);
+            int end = buffer.limit();
+            int pos = 0;
+            if (from > 0) {
+                // the line that started in the previous part belongs to it
+                while (pos < end && buffer.get(pos) != '\n') {
+                    pos++;
+                }
+                pos++;
+            }
+
+            PacketParser parser = new PacketParser();
+            TpReassembler tp = new TpReassembler();
+            while (pos < end) {
+                boolean inPart = pos < limit;
+                if (!inPart && tp.isEmpty()) {
+                    break;
+                }
+                int eol = pos;
+                while (eol < end && buffer.get(eol) != '\n') {
+                    eol++;
+                }
+                if (eol == end && mapEnd < size) {
+                    // the line was cut by the end of the look ahead
+                    break;
+                }
+                int lineEnd = eol > pos && buffer.get(eol - 1) == '\r' ? eol - 1 : eol;
+                if (parser.parseVector(buffer, pos, lineEnd)) {
+                    int id = parser.getId();
+                    int pgn = id < 0xF000 ? id & 0xFF00 : id;
+                    // .asc times are in microseconds; undo the rounding of parsing them as a double
+                    long nanos = (parser.getTimestampNanos() + 500) / 1000 * 1000;
+                    if (inPart) {
+                        statistics.add(pgn, parser.getSource(), nanos);
+                        if (parser.getLength() >= 3 && isDtcPgn(pgn)) {
+                            addDtcs(statistics, toPacket(parser, nanos));
+                        }
+                    }
+                    if (pgn == J1939TP.CM || pgn == J1939TP.DT) {
+                        Packet message = tp.accept(toPacket(parser, nanos), inPart);
+                        if (message != null) {
+                            statistics.add(message.getPgn(), message.getSource(), message.getTimestampNanos());
+                            if (isDtcPgn(message.getPgn())) {
+                                addDtcs(statistics, message);
+                            }
+                        }
+                    }
+                }
+                pos = eol + 1;
+            }
+        }
+        return statistics;
+    }
+
+    private static Packet toPacket(PacketParser parser, long nanos) {
+        Packet packet = parser.toPacket(EPOCH);
+        packet.setTimestampNanos(nanos);
+        return packet;
+    }
+
+    private static boolean isDtcPgn(int pgn) {
+        return DTC_PGNS.computeIfAbsent(pgn, p -> {
+            try {
+                return J1939.processRaw(p, Packet.create(p, 0, new byte[8])) instanceof DiagnosticTroubleCodePacket;
+            } catch (RuntimeException e) {
+                return false;
+            }
+        });
+    }
+
+    private static void addDtcs(LogStatistics statistics, Packet packet) {
+        try {
+            ParsedPacket parsed = J1939.processRaw(packet.getPgn(), packet);
+            if (parsed instanceof DiagnosticTroubleCodePacket) {
+                statistics.addDtcs((DiagnosticTroubleCodePacket) parsed, packet.getTimestampNanos());
+            }
+        } catch (RuntimeException e) {
+            // a malformed message is only counted
+        }
+    }
+
+    /** @return the statistics of all the logs together */
+    public static LogStatistics combine(Map<Path, LogStatistics> results) {
+        LogStatistics all = new LogStatistics();
+        results.values().forEach(all::combine);
+        return all;
+    }
+
+    private static List<Object[]> streamRows(Map<Path, LogStatistics> results) {
+        List<Object[]> rows = new ArrayList<>();
+        results.forEach((file, statistics) -> statistics.getStreams()
+                                                        .forEach(s -> rows.add(streamRow(file.toString(), s))));
+        combine(results).getStreams().forEach(s -> rows.add(streamRow(ALL, s)));
+        return rows;
+    }
+
+    private static Object[] streamRow(String file, StreamStatistics s) {
+        PgnDefinition definition = J1939DaRepository.getInstance().findPgnDefinition(s.getPgn());
+        Integer nominal = definition == null || definition.isOnRequest() || definition.getBroadcastPeriod() <= 0
+                ? null
+                : definition.getBroadcastPeriod();
+        boolean periodic = s.getCount() > 1;
+        Double jitter = nominal == null || !periodic
+                ? null
+                : Math.max(s.getMaxPeriodNanos() - nominal * NANOS_PER_MS,
+                           nominal * NANOS_PER_MS - s.getMinPeriodNanos())
+                        / NANOS_PER_MS;
+        List<Object> row = new ArrayList<>(Arrays.asList(file,
+                                                         s.getPgn(),
+                                                         definition == null ? null : definition.getAcronym(),
+                                                         s.getSource(),
+                                                         s.getCount(),
+                                                         s.getFirstNanos() / NANOS_PER_SECOND,
+                                                         s.getLastNanos() / NANOS_PER_SECOND,
+                                                         periodic ? s.getMinPeriodNanos() / NANOS_PER_MS : null,
+                                                         periodic ? s.getMeanPeriodNanos() / NANOS_PER_MS : null,
+                                                         periodic ? s.getMaxPeriodNanos() / NANOS_PER_MS : null,
+                                                         nominal,
+                                                         jitter,
+                                                         s.getLampOnCount()));
+        for (long count : s.getHistogram()) {
+            row.add(count);
+        }
+        return row.toArray();
+    }
+
+    private static List<Object[]> dtcRows(Map<Path, LogStatistics> results) {
+        List<Object[]> rows = new ArrayList<>();
+        results.forEach((file, statistics) -> statistics.getDtcs().forEach(d -> rows.add(dtcRow(file.toString(), d))));
+        combine(results).getDtcs().forEach(d -> rows.add(dtcRow(ALL, d)));
+        return rows;
+    }
+
+    private static Object[] dtcRow(String file, DtcStatistics d) {
+        PgnDefinition definition = J1939DaRepository.getInstance().findPgnDefinition(d.getPgn());
+        return new Object[] { file,
+                d.getPgn(),
+                definition == null ? null : definition.getAcronym(),
+                d.getSource(),
+                d.getSpn(),
+                d.getFmi(),
+                d.getCount(),
+                d.getMilOnCount(),
+                d.getMaxOccurrenceCount(),
+                d.getFirstNanos() / NANOS_PER_SECOND,
+                d.getLastNanos() / NANOS_PER_SECOND };
+    }
+
+    /**
+     * Writes the statistics of each PGN and source address to streams.csv and
+     * of the DTCs to dtcs.csv. The rows of the file {@link #ALL} are the
+     * statistics of all the logs together.
+     *
+     * @param  results
+     *                         the statistics of each log
+     * @param  directory
+     *                         the directory for the files
+     * @throws IOException
+     *                         if a file cannot be written
+     */
+    public static void writeCsv(Map<Path, LogStatistics> results, Path directory) throws IOException {
+        writeCsv(directory.resolve("streams.csv"), STREAM_COLUMNS, streamRows(results));
+        writeCsv(directory.resolve("dtcs.csv"), DTC_COLUMNS, dtcRows(results));
+    }
+
+    private static void writeCsv(Path file, String[] columns, List<Object[]> rows) throws IOException {
+        try (CSVWriter writer = new CSVWriter(Files.newBufferedWriter(file, UTF_8))) {
+            writer.writeNext(columns);
+            for (Object[] row : rows) {
+                writer.writeNext(Stream.of(row).map(v -> v == null ? "" : v.toString()).toArray(String[]::new));
+            }
+        }
+    }
+
+    /**
+     * Writes the rows of {@link #writeCsv(Map, Path)} as a JSON object with a
+     * "streams" and a "dtcs" array of objects.
+     *
+     * @param  results
+     *                         the statistics of each log
+     * @param  file
+     *                         the file to write
+     * @throws IOException
+     *                         if the file cannot be written
+     */
+    public static void writeJson(Map<Path, LogStatistics> results, Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, UTF_8)) {
+            writer.write("{\n  \"streams\": [");
+            writeJson(writer, STREAM_COLUMNS, streamRows(results));
+            writer.write("],\n  \"dtcs\": [");
+            writeJson(writer, DTC_COLUMNS, dtcRows(results));
+            writer.write("]\n}\n");
+        }
+    }
+
+    private static void writeJson(Writer writer, String[] columns, List<Object[]> rows) throws IOException {
+        for (int r = 0; r < rows.size(); r++) {
+            Object[] row = rows.get(r);
+            writer.write(r == 0 ? "\n    {" : ",\n    {");
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    writer.write(", ");
+                }
+                writer.write(jsonString(columns[i]));
+                writer.write(": ");
+                Object value = row[i];
+                writer.write(value == null ? "null"
+                        : value instanceof String ? jsonString((String) value) : value.toString());
+            }
+            writer.write("}");
+        }
+        if (!rows.isEmpty()) {
+            writer.write("\n  ");
+        }
+    }
+
+    private static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /** @return the .asc logs in the files and directories */
+    private static List<Path> findLogs(List<Path> paths) throws IOException {
+        List<Path> logs = new ArrayList<>();
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    logs.addAll(files.filter(f -> f.getFileName().toString().toLowerCase().endsWith(".asc"))
+                                     .sorted()
+                                     .collect(Collectors.toList()));
+                }
+            } else {
+                logs.add(path);
+            }
+        }
+        return logs;
+    }
+
+    /**
+     * Analyzes logs from the command line.
+     *
+     * @param args
+     *                 [-threads n] [-out directory] followed by the logs and
+     *                 directories of logs
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path out = Path.of(".");
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-out") && i + 1 < args.length) {
+                out = Path.of(args[++i]);
+            } else {
+                paths.add(Path.of(args[i]));
+            }
+        }
+        if (paths.isEmpty()) {
+            System.err.println("Usage: LogAnalyzer [-threads n] [-out directory] log|directory...");
+            System.exit(1);
+        }
+
+        List<Path> logs = findLogs(paths);
+        long bytes = 0;
+        for (Path log : logs) {
+            bytes += Files.size(log);
+        }
+        long start = System.nanoTime();
+        Map<Path, LogStatistics> results = new LogAnalyzer(threads).analyze(logs);
+        double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+
+        Files.createDirectories(out);
+        writeCsv(results, out);
+        writeJson(results, out.resolve("analysis.json"));
+        J1939_84.getLogger()
+                .log(Level.INFO,
+                     String.format("Analyzed %d logs, %.1f MB in %.1f s (%.1f MB/s) with %d threads",
+                                   logs.size(),
+                                   bytes / 1e6,
+                                   seconds,
+                                   bytes / 1e6 / seconds,
+                                   threads));
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.analyzer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.etools.j1939tools.j1939.packets.DiagnosticTroubleCode;
+import org.etools.j1939tools.j1939.packets.DiagnosticTroubleCodePacket;
+
+/**
+ * The statistics of the messages in a log: for each PGN and source address,
+ * the number of messages and a histogram of the periods between them, and the
+ * DTCs reported.
+ *
+ * Statistics of consecutive parts of a log are joined with
+ * {@link #append(LogStatistics)}; statistics of different logs are added
+ * together with {@link #combine(LogStatistics)}.
+ */
+public class LogStatistics {
+    /** The upper bounds of the period histogram bins, in milliseconds. */
+    public static final long[] PERIOD_BINS_MS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+    private static final long NANOS_PER_MS = 1_000_000L;
+
+    /** The messages of a PGN from a source address. */
+    public static class StreamStatistics {
+        private final int pgn;
+        private final int source;
+        private long count;
+        private long firstNanos;
+        private long lastNanos;
+        private long periods;
+        private long periodSumNanos;
+        private long minPeriodNanos = Long.MAX_VALUE;
+        private long maxPeriodNanos;
+        private final long[] histogram = new long[PERIOD_BINS_MS.length + 1];
+        private long lampOnCount;
+
+        StreamStatistics(int pgn, int source) {
+            this.pgn = pgn;
+            this.source = source;
+        }
+
+        void add(long nanos) {
+            if (count == 0) {
+                firstNanos = nanos;
+            } else {
+                addPeriod(nanos - lastNanos);
+            }
+            lastNanos = nanos;
+            count++;
+        }
+
+        private void addPeriod(long nanos) {
+            periods++;
+            periodSumNanos += nanos;
+            minPeriodNanos = Math.min(minPeriodNanos, nanos);
+            maxPeriodNanos = Math.max(maxPeriodNanos, nanos);
+            int bin = 0;
+            while (bin < PERIOD_BINS_MS.length && nanos >= PERIOD_BINS_MS[bin] * NANOS_PER_MS) {
+                bin++;
+            }
+            histogram[bin]++;
+        }
+
+        /**
+         * Adds the messages of another part of the log or of another log.
+         *
+         * @param next
+         *                     the statistics to add
+         * @param adjacent
+         *                     true if the messages of next directly follow
+         *                     these, so the period between them is added
+         */
+        void add(StreamStatistics next, boolean adjacent) {
+            if (next.count == 0) {
+                return;
+            }
+            if (count == 0) {
+                firstNanos = next.firstNanos;
+                lastNanos = next.lastNanos;
+            } else {
+                if (adjacent) {
+                    addPeriod(next.firstNanos - lastNanos);
+                }
+                firstNanos = Math.min(firstNanos, next.firstNanos);
+                lastNanos = Math.max(lastNanos, next.lastNanos);
+            }
+            count += next.count;
+            periods += next.periods;
+            periodSumNanos += next.periodSumNanos;
+            minPeriodNanos = Math.min(minPeriodNanos, next.minPeriodNanos);
+            maxPeriodNanos = Math.max(maxPeriodNanos, next.maxPeriodNanos);
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += next.histogram[i];
+            }
+            lampOnCount += next.lampOnCount;
+        }
+
+        public int getPgn() {
+            return pgn;
+        }
+
+        public int getSource() {
+            return source;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /** @return the time of the first message, in nanoseconds since the start of the log */
+        public long getFirstNanos() {
+            return firstNanos;
+        }
+
+        /** @return the time of the last message, in nanoseconds since the start of the log */
+        public long getLastNanos() {
+            return lastNanos;
+        }
+
+        /** @return the shortest period, or 0 if there was only one message */
+        public long getMinPeriodNanos() {
+            return periods == 0 ? 0 : minPeriodNanos;
+        }
+
+        public long getMaxPeriodNanos() {
+            return maxPeriodNanos;
+        }
+
+        public long getMeanPeriodNanos() {
+            return periods == 0 ? 0 : periodSumNanos / periods;
+        }
+
+        /**
+         * @return the number of periods shorter than each bound of
+         *         {@link #PERIOD_BINS_MS}, and longer than the last bound
+         */
+        public long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        /** @return the number of DTC messages with an active lamp */
+        public long getLampOnCount() {
+            return lampOnCount;
+        }
+    }
+
+    /** A DTC reported in a PGN by a source address. */
+    public static class DtcStatistics {
+        private final int pgn;
+        private final int source;
+        private final int spn;
+        private final int fmi;
+        private long count;
+        private long firstNanos = Long.MAX_VALUE;
+        private long lastNanos = Long.MIN_VALUE;
+        private int maxOccurrenceCount;
+        private long milOnCount;
+
+        DtcStatistics(int pgn, int source, int spn, int fmi) {
+            this.pgn = pgn;
+            this.source = source;
+            this.spn = spn;
+            this.fmi = fmi;
+        }
+
+        void add(long nanos, int occurrenceCount, boolean milOn) {
+            count++;
+            firstNanos = Math.min(firstNanos, nanos);
+            lastNanos = Math.max(lastNanos, nanos);
+            maxOccurrenceCount = Math.max(maxOccurrenceCount, occurrenceCount);
+            if (milOn) {
+                milOnCount++;
+            }
+        }
+
+        void add(DtcStatistics other) {
+            count += other.count;
+            firstNanos = Math.min(firstNanos, other.firstNanos);
+            lastNanos = Math.max(lastNanos, other.lastNanos);
+            maxOccurrenceCount = Math.max(maxOccurrenceCount, other.maxOccurrenceCount);
+            milOnCount += other.milOnCount;
+        }
+
+        public int getPgn() {
+            return pgn;
+        }
+
+        public int getSource() {
+            return source;
+        }
+
+        public int getSpn() {
+            return spn;
+        }
+
+        public int getFmi() {
+            return fmi;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getFirstNanos() {
+            return firstNanos;
+        }
+
+        public long getLastNanos() {
+            return lastNanos;
+        }
+
+        public int getMaxOccurrenceCount() {
+            return maxOccurrenceCount;
+        }
+
+        /** @return the number of messages with the DTC and the MIL active */
+        public long getMilOnCount() {
+            return milOnCount;
+        }
+    }
+
+    private final Map<Integer, StreamStatistics> streams = new HashMap<>();
+
+    private final Map<Long, DtcStatistics> dtcs = new HashMap<>();
+
+    private StreamStatistics stream(int pgn, int source) {
+        return streams.computeIfAbsent(pgn << 8 | source, k -> new StreamStatistics(pgn, source));
+    }
+
+    private DtcStatistics dtc(int pgn, int source, int spn, int fmi) {
+        long key = (long) pgn << 40 | (long) source << 32 | (long) spn << 8 | fmi;
+        return dtcs.computeIfAbsent(key, k -> new DtcStatistics(pgn, source, spn, fmi));
+    }
+
+    /** Adds a message, at a time since the start of the log. */
+    public void add(int pgn, int source, long nanos) {
+        stream(pgn, source).add(nanos);
+    }
+
+    /** Adds the lamps and DTCs of a message added with {@link #add(int, int, long)}. */
+    public void addDtcs(DiagnosticTroubleCodePacket packet, long nanos) {
+        int pgn = packet.getPacket().getPgn();
+        int source = packet.getSourceAddress();
+        boolean milOn = packet.getMalfunctionIndicatorLampStatus().isActive();
+        if (milOn || packet.getRedStopLampStatus().isActive() || packet.getAmberWarningLampStatus().isActive()
+                || packet.getProtectLampStatus().isActive()) {
+            stream(pgn, source).lampOnCount++;
+        }
+        for (DiagnosticTroubleCode d : packet.getDtcs()) {
+            DtcStatistics statistics = dtc(pgn, source, d.getSuspectParameterNumber(), d.getFailureModeIndicator());
+            statistics.add(nanos, d.getOccurrenceCount(), milOn);
+        }
+    }
+
+    /** Adds the statistics of the part of the log that directly follows this one. */
+    public void append(LogStatistics next) {
+        add(next, true);
+    }
+
+    /** Adds the statistics of another log. */
+    public void combine(LogStatistics other) {
+        add(other, false);
+    }
+
+    private void add(LogStatistics other, boolean adjacent) {
+        for (StreamStatistics s : other.streams.values()) {
+            stream(s.pgn, s.source).add(s, adjacent);
+        }
+        for (DtcStatistics d : other.dtcs.values()) {
+            dtc(d.pgn, d.source, d.spn, d.fmi).add(d);
+        }
+    }
+
+    /** @return the statistics of each PGN and source address, in that order */
+    public List<StreamStatistics> getStreams() {
+        List<StreamStatistics> result = new ArrayList<>(streams.values());
+        result.sort(Comparator.comparingInt(StreamStatistics::getPgn).thenComparingInt(StreamStatistics::getSource));
+        return result;
+    }
+
+    /** @return the DTCs, by PGN, source address, SPN and FMI */
+    public List<DtcStatistics> getDtcs() {
+        List<DtcStatistics> result = new ArrayList<>(dtcs.values());
+        result.sort(Comparator.comparingInt(DtcStatistics::getPgn)
+                              .thenComparingInt(DtcStatistics::getSource)
+                              .thenComparingInt(DtcStatistics::getSpn)
+                              .thenComparingInt(DtcStatistics::getFmi));
+        return result;
+    }
+}
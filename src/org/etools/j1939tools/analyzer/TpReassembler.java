@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.analyzer;
+
+import static org.etools.j1939tools.j1939.J1939TP.CM;
+import static org.etools.j1939tools.j1939.J1939TP.CM_BAM;
+import static org.etools.j1939tools.j1939.J1939TP.CM_ConnAbort;
+import static org.etools.j1939tools.j1939.J1939TP.CM_RTS;
+import static org.etools.j1939tools.j1939.J1939TP.DT;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.etools.j1939tools.bus.Packet;
+
+/**
+ * Reassembles transport protocol messages from the frames of a log, as a
+ * passive listener sees them. Unlike {@link org.etools.j1939tools.j1939.J1939TP}
+ * it does not take part in the connections.
+ *
+ * BAM and RTS/CTS sessions are tracked by source and destination address. A
+ * session completes when all of its DT frames were seen. It is dropped when it
+ * is aborted or replaced by a new session between the same addresses.
+ */
+public class TpReassembler {
+    /** The largest transport protocol message. */
+    private static final int MAX_SIZE = 1785;
+
+    private static final class Session {
+        int priority;
+        int id;
+        int packets;
+        byte[] data;
+        final BitSet received = new BitSet();
+    }
+
+    private final Map<Integer, Session> sessions = new HashMap<>();
+
+    private static int key(int source, int destination) {
+        return source << 8 | destination;
+    }
+
+    /**
+     * Adds a frame of the log.
+     *
+     * @param  frame
+     *                   the frame
+     * @param  open
+     *                   false if the frame may only complete sessions already
+     *                   open
+     * @return       the message completed by the frame, or null
+     */
+    public Packet accept(Packet frame, boolean open) {
+        int id = frame.getId(0xFF00);
+        if ((id != CM && id != DT) || frame.getLength() != 8) {
+            return null;
+        }
+        int source = frame.getSource();
+        int destination = frame.getId(0xFF);
+        if (id == DT) {
+            Session session = sessions.get(key(source, destination));
+            int sequence = frame.get(0);
+            if (session == null || sequence < 1 || sequence > session.packets) {
+                return null;
+            }
+            int offset = (sequence - 1) * 7;
+            for (int i = 0; i < 7 && offset + i < session.data.length; i++) {
+                session.data[offset + i] = (byte) frame.get(i + 1);
+            }
+            session.received.set(sequence);
+            if (session.received.cardinality() < session.packets) {
+                return null;
+            }
+            sessions.remove(key(source, destination));
+            return Packet.create(frame.getTimestampNanos(),
+                                 session.priority,
+                                 session.id,
+                                 source,
+                                 frame.isTransmitted(),
+                                 ByteBuffer.wrap(session.data),
+                                 0,
+                                 session.data.length);
+        }
+
+        switch (frame.get(0)) {
+            case CM_BAM:
+            case CM_RTS: {
+                if (!open) {
+                    return null;
+                }
+                int size = frame.get16(1);
+                int packets = frame.get(3);
+                if (size <= 8 || size > MAX_SIZE || packets != (size + 6) / 7) {
+                    return null;
+                }
+                int pgn = frame.get24(5);
+                Session session = new Session();
+                session.priority = frame.getPriority();
+                session.id = pgn < 0xF000 ? (pgn & 0x3FF00) | destination : pgn;
+                session.packets = packets;
+                session.data = new byte[size];
+                sessions.put(key(source, destination), session);
+                return null;
+            }
+            case CM_ConnAbort:
+                sessions.remove(key(source, destination));
+                sessions.remove(key(destination, source));
+                return null;
+            default:
+                // CTS and EOM acknowledgments do not change the data
+                return null;
+        }
+    }
+
+    /** @return true if no session is waiting for more frames */
+    public boolean isEmpty() {
+        return sessions.isEmpty();
+    }
+}
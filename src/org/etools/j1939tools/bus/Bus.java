@@ -3,11 +3,16 @@
  */
 package org.etools.j1939tools.bus;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.stream.Stream;
 
+import org.etools.j1939_84.J1939_84;
+
 /**
  * The Interface for a vehicle communications bus
  *
@@ -41,13 +46,71 @@ public interface Bus extends AutoCloseable {
      */
     int getConnectionSpeed() throws BusException;
 
-    @SuppressFBWarnings(value = { "UW_UNCOND_WAIT", "WA_NOT_IN_LOOP" }, justification = "Wait for stream open.")
+    /**
+     * @return the number of {@link Packet}s that streams of this bus skipped
+     *         because they were not read fast enough
+     */
+    default long getDroppedFrames() {
+        return 0;
+    }
+
     default AutoCloseable log(Function<Packet, String> prefix) throws BusException {
-        Stream<Packet> stream = read(999, TimeUnit.DAYS);
-        new Thread(() -> stream.forEach(p -> {
-            System.err.println(prefix.apply(p));
-        })).start();
-        return () -> stream.close();
+        return subscribe(FrameFilter.all(), p -> System.err.println(prefix.apply(p)));
+    }
+
+    /**
+     * Publishes the {@link Packet}s that match the filter to subscribers. The
+     * packets are delivered on a shared dispatcher, as the subscriber requests
+     * them. Each subscriber receives the packets that arrive after it
+     * subscribes.
+     *
+     * A filtered subscriber that does not request packets never holds up the
+     * bus. Once it falls too far behind, it skips the oldest packets, which are
+     * counted in {@link #getDroppedFrames()}. A subscriber to
+     * {@link FrameFilter#all()} is not filtered: it reads every packet, like
+     * {@link #read(long, TimeUnit)}, and the bus waits for it as it waits for
+     * a stream.
+     *
+     * @param  filter
+     *                    the packets of interest
+     * @return        the publisher
+     */
+    Flow.Publisher<Packet> publisher(FrameFilter filter);
+
+    /**
+     * Calls the consumer with every {@link Packet} that matches the filter, on
+     * a shared dispatcher, until the result is closed.
+     *
+     * @param  filter
+     *                      the packets of interest
+     * @param  consumer
+     *                      called with each packet, one at a time
+     * @return          closing stops the subscription
+     */
+    default AutoCloseable subscribe(FrameFilter filter, Consumer<Packet> consumer) {
+        CompletableFuture<Flow.Subscription> subscription = new CompletableFuture<>();
+        publisher(filter).subscribe(new Flow.Subscriber<Packet>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription.complete(s);
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Packet p) {
+                consumer.accept(p);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                J1939_84.getLogger().log(Level.WARNING, "Subscription failed", t);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        return () -> subscription.join().cancel();
     }
 
     /**
@@ -66,6 +129,66 @@ public interface Bus extends AutoCloseable {
      */
     Stream<Packet> read(long timeout, TimeUnit unit) throws BusException;
 
+    /**
+     * Reads the {@link Packet}s that match the filter from the bus. The filter
+     * is evaluated once as packets are queued, so the stream is not woken for
+     * packets that do not match. The bus does not wait for a filtered stream
+     * that falls behind; the stream skips the oldest packets instead.
+     * {@link FrameFilter#all()} reads every packet, like
+     * {@link #read(long, TimeUnit)}.
+     *
+     * The default implementation filters a stream from
+     * {@link #read(long, TimeUnit)}, so the result cannot be used with
+     * {@link #duplicate(Stream, int, TimeUnit)} or
+     * {@link #resetTimeout(Stream, int, TimeUnit)}.
+     *
+     * @param  filter
+     *                          the packets of interest
+     *
+     * @param  timeout
+     *                          the amount of time to read packets
+     *
+     * @param  unit
+     *                          the {@link TimeUnit} for the amount of time
+     *
+     * @return              a {@link Stream} of {@link Packet}
+     *
+     * @throws BusException
+     *                          if there is a problem reading packets
+     */
+    default Stream<Packet> read(FrameFilter filter, long timeout, TimeUnit unit) throws BusException {
+        return read(timeout, unit).filter(filter);
+    }
+
+    /**
+     * Reads {@link Packet}s from the bus with a stream that falls at most
+     * maxLag packets behind the bus. The policy decides whether the bus waits
+     * for a slower stream, or the stream drops packets or ends. Dropped packets
+     * are counted in {@link #getDroppedFrames()}.
+     *
+     * The default implementation ignores maxLag and policy.
+     *
+     * @param  timeout
+     *                          the amount of time to read packets
+     *
+     * @param  unit
+     *                          the {@link TimeUnit} for the amount of time
+     *
+     * @param  maxLag
+     *                          the number of packets the stream may fall behind
+     *
+     * @param  policy
+     *                          what to do when the stream falls further behind
+     *
+     * @return              a {@link Stream} of {@link Packet}
+     *
+     * @throws BusException
+     *                          if there is a problem reading packets
+     */
+    default Stream<Packet> read(long timeout, TimeUnit unit, int maxLag, LagPolicy policy) throws BusException {
+        return read(timeout, unit);
+    }
+
     /**
      * Reset stream timeout for stream created with bus.read(). To be used in a
      * stream call like peek, map or forEach.
@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.etools.j1939_84.J1939_84;
+
+/**
+ * Writes CAN frames to a Vector .asc log, in the format of
+ * {@link Packet#toVectorString(java.time.temporal.Temporal)}.
+ *
+ * Frames are passed to {@link #accept(Packet)}, which never blocks. They are
+ * held in a bounded ring until the writer thread formats them, in batches,
+ * into one reused buffer that is written to the file in large sequential
+ * writes. The writer thread is started by {@link #start()}, and sleeps while
+ * there are no frames. When the ring is full, because the disk cannot keep up, new frames
+ * are dropped and counted instead of holding up the bus.
+ *
+ * A log may instead be compressed as it is written, as the only entry of a zip
+ * file. Each write ends with a sync flush of the compressor, so the frames
+ * written before a crash can still be read from the entry with a streaming
+ * reader, even though the zip has no central directory.
+ */
+public class CanLogger implements AutoCloseable {
+    /** The number of frames held for the writer by default. */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int BUFFER_SIZE = 1 << 18;
+
+    /** How long a partial buffer may wait to be written. */
+    private static final long FLUSH_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final byte[] HEADER = "base hex timestamps absolute\n".getBytes(US_ASCII);
+
+    private final WritableByteChannel channel;
+
+    /** The zip of a compressed log, or null. */
+    private final SyncFlushZipOutputStream zip;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private final Packet[] ring;
+
+    private final int mask;
+
+    /** The time of the start of the log, in the local time of the frames. */
+    private final long startNanos;
+
+    private final long created = System.nanoTime();
+
+    private final Thread thread;
+
+    /** A line, formatted by Packet before it is copied to the buffer. */
+    private final StringBuilder line = new StringBuilder(PacketParser.MAX_LINE);
+
+    /** The writer is parked, waiting for a frame. */
+    private volatile boolean idle;
+
+    /** Sequence after the last frame accepted. Only written by the producer. */
+    private volatile long written;
+
+    /** Sequence of the next frame to format. Only written by the writer. */
+    private volatile long consumed;
+
+    /** Only written by the producer. */
+    private volatile long dropped;
+
+    private volatile boolean closed;
+
+    private long bytes;
+
+    /** Time spent writing to the file. */
+    private long writeNanos;
+
+    private IOException failure;
+
+    /**
+     * Creates the log with room for {@link #DEFAULT_CAPACITY} frames,
+     * replacing any existing file.
+     *
+     * @param  file
+     *                         the file to write
+     * @param  start
+     *                         the time the log started
+     * @throws IOException
+     *                         if the file cannot be written
+     */
+    public CanLogger(Path file, Instant start) throws IOException {
+        this(file, start, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates the log, replacing any existing file.
+     *
+     * @param  file
+     *                         the file to write
+     * @param  start
+     *                         the time the log started
+     * @param  capacity
+     *                         the number of frames held for the writer, rounded
+     *                         up to a power of two
+     * @throws IOException
+     *                         if the file cannot be written
+     */
+    public CanLogger(Path file, Instant start, int capacity) throws IOException {
+        this(FileChannel.open(file,
+                              StandardOpenOption.CREATE,
+                              StandardOpenOption.TRUNCATE_EXISTING,
+                              StandardOpenOption.WRITE),
+             null,
+             start,
+             capacity);
+    }
+
+    /**
+     * Creates a log compressed as it is written, with room for
+     * {@link #DEFAULT_CAPACITY} frames, replacing any existing file.
+     *
+     * @param  zipFile
+     *                         the zip file to write
+     * @param  entry
+     *                         the name of the .asc log in the zip
+     * @param  start
+     *                         the time the log started
+     * @throws IOException
+     *                         if the file cannot be written
+     */
+    public CanLogger(Path zipFile, String entry, Instant start) throws IOException {
+        this(SyncFlushZipOutputStream.open(zipFile, entry), start);
+    }
+
+    private CanLogger(SyncFlushZipOutputStream zip, Instant start) {
+        this(Channels.newChannel(zip), zip, start, DEFAULT_CAPACITY);
+    }
+
+    private CanLogger(WritableByteChannel channel, SyncFlushZipOutputStream zip, Instant start, int capacity) {
+        this.channel = channel;
+        this.zip = zip;
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        ring = new Packet[size];
+        mask = size - 1;
+        startNanos = Packet.vectorStart(start);
+        buffer.put(HEADER);
+        thread = new Thread(this::run, "CAN Logger");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the writer thread.
+     *
+     * @return this
+     */
+    public synchronized CanLogger start() {
+        if (thread.getState() == Thread.State.NEW) {
+            thread.start();
+        }
+        return this;
+    }
+
+    /**
+     * A zip that compresses with a sync flush on every flush, so the entry
+     * written so far can be decompressed before the zip is closed.
+     */
+    private static class SyncFlushZipOutputStream extends ZipOutputStream {
+        private boolean inEntry;
+
+        SyncFlushZipOutputStream(OutputStream out) {
+            super(new BufferedOutputStream(out, BUFFER_SIZE));
+        }
+
+        static SyncFlushZipOutputStream open(Path file, String entry) throws IOException {
+            SyncFlushZipOutputStream zip = new SyncFlushZipOutputStream(Files.newOutputStream(file));
+            try {
+                zip.putNextEntry(new ZipEntry(entry));
+            } catch (IOException e) {
+                zip.close();
+                throw e;
+            }
+            return zip;
+        }
+
+        @Override
+        public void putNextEntry(ZipEntry e) throws IOException {
+            super.putNextEntry(e);
+            inEntry = true;
+        }
+
+        @Override
+        public void closeEntry() throws IOException {
+            inEntry = false;
+            super.closeEntry();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // a flush outside of an entry would corrupt the zip
+            if (inEntry) {
+                int length;
+                while ((length = def.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH)) > 0) {
+                    out.write(buf, 0, length);
+                }
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Queues a frame to be logged, or drops it if the writer is too far
+     * behind. Must not be called by more than one thread at a time.
+     */
+    public void accept(Packet packet) {
+        long seq = written;
+        if (closed || seq - consumed > mask) {
+            dropped++;
+            return;
+        }
+        ring[(int) seq & mask] = packet;
+        written = seq + 1;
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /** @return the number of frames written to the file */
+    public long getFrameCount() {
+        return consumed;
+    }
+
+    /** @return the number of frames dropped because the writer was behind */
+    public long getDroppedFrames() {
+        return dropped;
+    }
+
+    private void run() {
+        long lastFlush = System.nanoTime();
+        try {
+            while (true) {
+                // read closed first, so every frame accepted before close is written
+                boolean closing = closed;
+                long end = written;
+                long seq = consumed;
+                if (seq == end) {
+                    if (closing) {
+                        flush();
+                        break;
+                    }
+                    long sinceFlush = System.nanoTime() - lastFlush;
+                    if (buffer.position() > 0 && sinceFlush >= FLUSH_INTERVAL_NS) {
+                        flush();
+                        lastFlush = System.nanoTime();
+                    }
+                    // accept() unparks the writer once idle is set, so check
+                    // for frames again before parking
+                    idle = true;
+                    if (written == end && !closed) {
+                        if (buffer.position() > 0) {
+                            LockSupport.parkNanos(this, FLUSH_INTERVAL_NS - sinceFlush);
+                        } else {
+                            LockSupport.park(this);
+                        }
+                    }
+                    idle = false;
+                    continue;
+                }
+                for (; seq < end; seq++) {
+                    int i = (int) seq & mask;
+                    Packet packet = ring[i];
+                    ring[i] = null;
+                    if (buffer.remaining() < PacketParser.MAX_LINE) {
+                        flush();
+                        lastFlush = System.nanoTime();
+                    }
+                    int position = buffer.position();
+                    try {
+                        format(packet);
+                    } catch (RuntimeException e) {
+                        buffer.position(position);
+                        J1939_84.getLogger().log(Level.WARNING, "Packet Failure", e);
+                    }
+                    consumed = seq + 1;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            closed = true;
+            J1939_84.getLogger().log(Level.SEVERE, "Unable to log packets.", e);
+        }
+    }
+
+    private void flush() throws IOException {
+        long begin = System.nanoTime();
+        buffer.flip();
+        bytes += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (zip != null) {
+            zip.flush();
+        }
+        buffer.clear();
+        writeNanos += System.nanoTime() - begin;
+    }
+
+    /** Formats like Packet.toVectorString(), on the channel of the packet. */
+    private void format(Packet packet) {
+        line.setLength(0);
+        packet.appendVectorTo(line, startNanos, packet.getChannel()).append('\n');
+        for (int i = 0, length = line.length(); i < length; i++) {
+            buffer.put((byte) line.charAt(i));
+        }
+    }
+
+    /**
+     * @return the frames logged and dropped, and the sustained rate of frames
+     *         and of the writes to the file
+     */
+    public String getStatistics() {
+        double seconds = Math.max(1, System.nanoTime() - created) / 1e9;
+        double writeSeconds = Math.max(1, writeNanos) / 1e9;
+        return String.format("%d frames logged, %d dropped, %.0f frames/s, %.2f MB/s written at %.2f MB/s",
+                             getFrameCount(),
+                             getDroppedFrames(),
+                             getFrameCount() / seconds,
+                             bytes / seconds / 1e6,
+                             bytes / writeSeconds / 1e6);
+    }
+
+    /**
+     * Writes the frames already accepted and closes the file.
+     *
+     * @throws IOException
+     *                         if the log could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (!thread.isAlive() && !channel.isOpen()) {
+            return;
+        }
+        // write the frames already accepted, even if the writer was never started
+        start();
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.close();
+        }
+        J1939_84.getLogger().log(Level.INFO, "CAN log: " + getStatistics());
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import static org.etools.j1939tools.bus.CaptureWriter.BLOCK_RECORDS;
+import static org.etools.j1939tools.bus.CaptureWriter.HEADER_SIZE;
+import static org.etools.j1939tools.bus.CaptureWriter.RECORD_SIZE;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.etools.j1939tools.bus.CaptureWriter.Block;
+
+/**
+ * Reads a binary capture written by {@link CaptureWriter}.
+ *
+ * The file is memory mapped. The index is used to read only the blocks that
+ * may hold frames in a time window, of a PGN or from a source address. The
+ * blocks of a {@link CaptureWriter.Mode#DELTA} capture are read from the file
+ * and decoded when needed, so the file is open until the reader is closed.
+ */
+public class CaptureReader implements AutoCloseable {
+    /** Matches any PGN or source address. */
+    public static final int ANY = -1;
+
+    /** Each mapping of the file covers this many blocks, about 800 MB. */
+    private static final int MAPPED_BLOCKS = 8192;
+
+    private static final long GIGA = 1_000_000_000L;
+
+    private final MappedByteBuffer[] mappings;
+
+    /** The file of a delta capture, or null. */
+    private final FileChannel deltaChannel;
+
+    /** The file offsets of the blocks of a delta capture. */
+    private final List<Long> offsets = new ArrayList<>();
+
+    private final List<Block> blocks;
+
+    private final long records;
+
+    private final long startNanos;
+
+    /**
+     * @param  file
+     *                         the capture to read
+     * @throws IOException
+     *                         if the file cannot be read or is not a capture
+     */
+    public CaptureReader(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            if (size < HEADER_SIZE || header.getLong(0) != CaptureWriter.MAGIC) {
+                throw new IOException(file + " is not a capture.");
+            }
+            int version = header.getInt(8);
+            if ((version != CaptureWriter.VERSION && version != CaptureWriter.DELTA_VERSION)
+                    || header.getInt(12) != RECORD_SIZE || header.getInt(16) != BLOCK_RECORDS) {
+                throw new IOException(file + " is an unsupported capture version.");
+            }
+            startNanos = header.getLong(24);
+            if (version == CaptureWriter.DELTA_VERSION) {
+                mappings = new MappedByteBuffer[0];
+                deltaChannel = channel;
+                blocks = new ArrayList<>();
+                records = readDeltaIndex(size);
+                return;
+            }
+            deltaChannel = null;
+
+            // the trailer is missing if the capture was not closed
+            ByteBuffer trailer = readTrailer(channel, size);
+            List<Block> index;
+            long recordsEnd;
+            if (trailer != null && trailer.getLong(24) == CaptureWriter.INDEX_MAGIC) {
+                recordsEnd = trailer.getLong(0);
+                records = trailer.getLong(8);
+                int count = trailer.getInt(16);
+                ByteBuffer buffer = read(channel, recordsEnd, count * Block.SIZE);
+                index = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    index.add(Block.read(buffer, i * Block.SIZE));
+                }
+            } else {
+                records = (size - HEADER_SIZE) / RECORD_SIZE;
+                recordsEnd = HEADER_SIZE + records * RECORD_SIZE;
+                index = null;
+            }
+
+            long mappingSize = (long) MAPPED_BLOCKS * BLOCK_RECORDS * RECORD_SIZE;
+            mappings = new MappedByteBuffer[(int) ((recordsEnd - HEADER_SIZE + mappingSize - 1) / mappingSize)];
+            for (int i = 0; i < mappings.length; i++) {
+                long offset = HEADER_SIZE + i * mappingSize;
+                mappings[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                          offset,
+                                          Math.min(mappingSize, recordsEnd - offset));
+                mappings[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            channel.close();
+            blocks = index == null ? rebuildIndex() : index;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static ByteBuffer readTrailer(FileChannel channel, long size) throws IOException {
+        return size >= HEADER_SIZE + CaptureWriter.TRAILER_SIZE
+                ? read(channel, size - CaptureWriter.TRAILER_SIZE, CaptureWriter.TRAILER_SIZE)
+                : null;
+    }
+
+    /** Reads the index of a delta capture, or rebuilds it from the blocks. */
+    private long readDeltaIndex(long size) throws IOException {
+        ByteBuffer trailer = readTrailer(deltaChannel, size);
+        if (trailer != null && trailer.getLong(24) == CaptureWriter.INDEX_MAGIC) {
+            int count = trailer.getInt(16);
+            ByteBuffer buffer = read(deltaChannel, trailer.getLong(0), count * CaptureWriter.DELTA_ENTRY_SIZE);
+            for (int i = 0; i < count; i++) {
+                int entry = i * CaptureWriter.DELTA_ENTRY_SIZE;
+                offsets.add(buffer.getLong(entry));
+                blocks.add(Block.read(buffer, entry + 8));
+            }
+            return trailer.getLong(8);
+        }
+        // the last block may be incomplete if the capture was not closed
+        long total = 0;
+        long position = HEADER_SIZE;
+        while (position + CaptureWriter.BLOCK_HEADER_SIZE <= size) {
+            int length = read(deltaChannel, position, 4).getInt(0);
+            if (length < 0 || position + CaptureWriter.BLOCK_HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer r;
+            try {
+                r = decode(position);
+            } catch (IllegalArgumentException e) {
+                break;
+            }
+            Block block = new Block();
+            for (int offset = 0; offset < r.limit(); offset += RECORD_SIZE) {
+                int header = r.getInt(offset + 8);
+                block.add(r.getLong(offset), CaptureWriter.pgn(header), header & 0xFF);
+            }
+            offsets.add(position);
+            blocks.add(block);
+            total += r.limit() / RECORD_SIZE;
+            position += CaptureWriter.BLOCK_HEADER_SIZE + length;
+        }
+        return total;
+    }
+
+    /** @return the records of a delta block at a file offset */
+    private ByteBuffer decode(long position) throws IOException {
+        int length = read(deltaChannel, position, 4).getInt(0);
+        ByteBuffer in = read(deltaChannel, position, CaptureWriter.BLOCK_HEADER_SIZE + length);
+        ByteBuffer out = ByteBuffer.allocate(in.getInt(4) * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        in.clear();
+        CaptureWriter.decode(in, out);
+        return out.flip();
+    }
+
+    /** @return the records of a block, from position 0 to the limit */
+    private ByteBuffer records(int b) {
+        if (deltaChannel != null) {
+            try {
+                return decode(offsets.get(b));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        long first = (long) b * BLOCK_RECORDS;
+        long end = Math.min(first + BLOCK_RECORDS, records);
+        return mapping(first).slice(offset(first), (int) (end - first) * RECORD_SIZE)
+                             .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+            // keep reading
+        }
+        return buffer;
+    }
+
+    private List<Block> rebuildIndex() {
+        List<Block> index = new ArrayList<>();
+        for (long r = 0; r < records; r++) {
+            if (r % BLOCK_RECORDS == 0) {
+                index.add(new Block());
+            }
+            ByteBuffer m = mapping(r);
+            int offset = offset(r);
+            int header = m.getInt(offset + 8);
+            index.get(index.size() - 1).add(m.getLong(offset), CaptureWriter.pgn(header), header & 0xFF);
+        }
+        return index;
+    }
+
+    private ByteBuffer mapping(long record) {
+        return mappings[(int) (record / ((long) MAPPED_BLOCKS * BLOCK_RECORDS))];
+    }
+
+    private static int offset(long record) {
+        return (int) (record % ((long) MAPPED_BLOCKS * BLOCK_RECORDS)) * RECORD_SIZE;
+    }
+
+    /** @return the number of frames in the capture */
+    public long getFrameCount() {
+        return records;
+    }
+
+    /** @return the time the capture started */
+    public LocalDateTime getStart() {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(startNanos, GIGA),
+                                           (int) Math.floorMod(startNanos, GIGA),
+                                           ZoneOffset.UTC);
+    }
+
+    /**
+     * @return every frame, in the order written
+     */
+    public Stream<Packet> read() {
+        return read(Long.MIN_VALUE, Long.MAX_VALUE, ANY, ANY);
+    }
+
+    /**
+     * Reads the frames received in a time window, of a PGN and from a source
+     * address. Only the blocks that may hold such frames are read.
+     *
+     * @param  from
+     *                    the earliest time, inclusive
+     * @param  to
+     *                    the latest time, inclusive
+     * @param  pgn
+     *                    the PGN, or {@link #ANY}
+     * @param  source
+     *                    the source address, or {@link #ANY}
+     * @return        the frames, in the order written
+     */
+    public Stream<Packet> read(LocalDateTime from, LocalDateTime to, int pgn, int source) {
+        return read(Packet.toNanos(from), Packet.toNanos(to), pgn, source);
+    }
+
+    private Stream<Packet> read(long from, long to, int pgn, int source) {
+        return IntStream.range(0, blocks.size())
+                        .filter(b -> blocks.get(b).mayContain(from, to, pgn, source))
+                        .boxed()
+                        .flatMap(b -> {
+                            ByteBuffer m = records(b);
+                            return IntStream.range(0, m.limit() / RECORD_SIZE)
+                                            .map(r -> r * RECORD_SIZE)
+                                            .filter(offset -> matches(m, offset, from, to, pgn, source))
+                                            .mapToObj(offset -> toPacket(m, offset));
+                        });
+    }
+
+    private static boolean matches(ByteBuffer m, int offset, long from, long to, int pgn, int source) {
+        long nanos = m.getLong(offset);
+        int header = m.getInt(offset + 8);
+        return nanos >= from && nanos <= to
+                && (source == ANY || (header & 0xFF) == source)
+                && (pgn == ANY || CaptureWriter.pgn(header) == pgn);
+    }
+
+    private static Packet toPacket(ByteBuffer m, int offset) {
+        return Packet.fromFrame(m.getLong(offset),
+                                m.getInt(offset + 8),
+                                (m.get(offset + 13) & CaptureWriter.TRANSMITTED) != 0,
+                                m.get(offset + 14) & 0xFF,
+                                m,
+                                offset + 16,
+                                Math.min(m.get(offset + 12) & 0xFF, CaptureWriter.MAX_DATA));
+    }
+
+    /**
+     * Writes the capture as a Vector .asc log, like J1939.startLogger() does.
+     *
+     * @param  file
+     *                         the .asc file to write
+     * @throws IOException
+     *                         if the file cannot be written
+     */
+    public void exportAsc(Path file) throws IOException {
+        // .asc times are relative to the start of the capture
+        long start = Packet.vectorStart(getStart().toInstant(OffsetDateTime.now().getOffset()));
+        StringBuilder line = new StringBuilder(PacketParser.MAX_LINE);
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("base hex timestamps absolute");
+            out.newLine();
+            for (int b = 0; b < blocks.size(); b++) {
+                ByteBuffer m = records(b);
+                for (int o = 0; o < m.limit(); o += RECORD_SIZE) {
+                    line.setLength(0);
+                    out.append(toPacket(m, o).appendVectorTo(line, start, m.get(o + 14) & 0xFF));
+                    out.newLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the file of a delta capture. The mappings of the file cannot be
+     * released explicitly, so they stay mapped until the reader is garbage
+     * collected. On Windows, the file cannot be deleted or replaced until then.
+     */
+    @Override
+    public void close() throws IOException {
+        if (deltaChannel != null) {
+            deltaChannel.close();
+        }
+    }
+}
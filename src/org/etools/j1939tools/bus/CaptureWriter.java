@@ -0,0 +1,486 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes CAN frames to a compact binary capture, to be read with
+ * {@link CaptureReader}.
+ *
+ * The file is a header, fixed size frame records and an index. Records are
+ * grouped in blocks of {@link #BLOCK_RECORDS}. The index holds the time range
+ * of each block and bitmaps of the PGNs and source addresses in it, so a reader
+ * can skip the blocks outside a time window or without a given ECU. The index
+ * is written by {@link #close()}; a reader rebuilds it from the records of a
+ * capture that was not closed.
+ *
+ * <pre>
+ * header: magic "J1939CAP", version, record size, block records, reserved, start nanos
+ * record: nanos (8), priority/id/source (4), length (1), flags (1), channel (1), reserved (1), data (8)
+ * index:  per block: min nanos, max nanos, source bitmap (4 longs), PGN bitmap (16 longs)
+ * trailer: index offset, record count, block count, reserved, magic "J1939IDX"
+ * </pre>
+ *
+ * All values are little-endian.
+ *
+ * In {@link Mode#DELTA} captures (version 2), each block is stored as the
+ * changes of its (header, channel) streams instead of as records. The first
+ * frame of a stream in a block is a keyframe with the header and data; later
+ * frames only mark that the data is unchanged, or carry the new data. Times
+ * are stored as the difference from the time predicted by the stream's last
+ * period. Periodic broadcasts with unchanged data take two or three bytes
+ * instead of a record. Blocks are decoded independently, so the index still
+ * applies; its entries start with the file offset of their block.
+ *
+ * <pre>
+ * block: encoded length (4), records (4), time unit (4), base nanos (8), frames
+ * frame: tag, [stream], [header (4), channel, flags], zigzag time delta, [length, data]
+ * tag:   0x80 new stream, 0x40 unchanged data, low 6 bits the stream or 63 if it follows
+ * </pre>
+ */
+public class CaptureWriter implements AutoCloseable {
+    /** How the frames of a capture are stored. */
+    public enum Mode {
+        /** A fixed size record for every frame. */
+        RECORDS,
+        /** Only the changes of each stream of frames. */
+        DELTA
+    }
+
+    static final long MAGIC = 0x504143393339314AL; // "J1939CAP" as little-endian bytes
+    static final long INDEX_MAGIC = 0x584449393339314AL; // "J1939IDX"
+    static final int VERSION = 1;
+    static final int DELTA_VERSION = 2;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 24;
+    static final int MAX_DATA = 8;
+    static final int BLOCK_RECORDS = 4096;
+    static final int TRAILER_SIZE = 32;
+    static final int BLOCK_HEADER_SIZE = 20;
+    /** The size of an index entry of a delta capture. */
+    static final int DELTA_ENTRY_SIZE = 8 + Block.SIZE;
+
+    static final int NEW_STREAM = 0x80;
+    static final int UNCHANGED = 0x40;
+    static final int STREAM_FOLLOWS = 0x3F;
+
+    /** Record flag of frames sent by the application. */
+    static final int TRANSMITTED = 1;
+
+    /** The time range and the PGNs and sources of a block of records. */
+    static final class Block {
+        static final int SIZE = 8 + 8 + 4 * 8 + 16 * 8;
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        final long[] sources = new long[4];
+        final long[] pgns = new long[16];
+
+        /** A PGN hashed to one of 1024 bits. */
+        static int pgnBit(int pgn) {
+            return (pgn * 0x9E3779B1) >>> 22;
+        }
+
+        void add(long nanos, int pgn, int source) {
+            min = Math.min(min, nanos);
+            max = Math.max(max, nanos);
+            sources[source >>> 6] |= 1L << source;
+            int bit = pgnBit(pgn);
+            pgns[bit >>> 6] |= 1L << bit;
+        }
+
+        /**
+         * @return false if the block has no frames in the time range with the
+         *         PGN and source, where -1 matches any
+         */
+        boolean mayContain(long from, long to, int pgn, int source) {
+            if (max < from || min > to) {
+                return false;
+            }
+            if (source >= 0 && (sources[source >>> 6] & (1L << source)) == 0) {
+                return false;
+            }
+            if (pgn >= 0) {
+                int bit = pgnBit(pgn);
+                return (pgns[bit >>> 6] & (1L << bit)) != 0;
+            }
+            return true;
+        }
+
+        void write(ByteBuffer buffer) {
+            buffer.putLong(min).putLong(max);
+            for (long l : sources) {
+                buffer.putLong(l);
+            }
+            for (long l : pgns) {
+                buffer.putLong(l);
+            }
+        }
+
+        static Block read(ByteBuffer buffer, int offset) {
+            Block block = new Block();
+            block.min = buffer.getLong(offset);
+            block.max = buffer.getLong(offset + 8);
+            for (int i = 0; i < block.sources.length; i++) {
+                block.sources[i] = buffer.getLong(offset + 16 + i * 8);
+            }
+            for (int i = 0; i < block.pgns.length; i++) {
+                block.pgns[i] = buffer.getLong(offset + 48 + i * 8);
+            }
+            return block;
+        }
+    }
+
+    /** The state of one stream while a block is encoded or decoded. */
+    private static final class Stream {
+        long nanos;
+        long period;
+        long data;
+        int length;
+    }
+
+    /**
+     * Encodes a block of records as deltas.
+     *
+     * @param  records
+     *                     the records, from position 0 to the limit
+     * @param  out
+     *                     receives the encoded block
+     */
+    static void encode(ByteBuffer records, ByteBuffer out) {
+        int count = records.limit() / RECORD_SIZE;
+        long base = count == 0 ? 0 : records.getLong(0);
+        int unit = 1000;
+        for (int r = 0; r < count && unit > 1; r++) {
+            if (records.getLong(r * RECORD_SIZE) % unit != 0) {
+                unit = 1;
+            }
+        }
+        int start = out.position();
+        out.putInt(0).putInt(count).putInt(unit).putLong(base);
+        Map<Long, Integer> keys = new HashMap<>();
+        List<Stream> streams = new ArrayList<>();
+        long last = base;
+        for (int r = 0; r < count; r++) {
+            int offset = r * RECORD_SIZE;
+            long nanos = records.getLong(offset);
+            int header = records.getInt(offset + 8);
+            int length = records.get(offset + 12) & 0xFF;
+            int flags = records.get(offset + 13) & 0xFF;
+            int channel = records.get(offset + 14) & 0xFF;
+            long data = records.getLong(offset + 16);
+            long key = (header & 0xFFFFFFFFL) | (long) channel << 32 | (long) flags << 40;
+            Integer index = keys.get(key);
+            Stream stream;
+            long predicted;
+            int tag;
+            if (index == null) {
+                index = streams.size();
+                keys.put(key, index);
+                stream = new Stream();
+                streams.add(stream);
+                tag = NEW_STREAM;
+                predicted = last;
+            } else {
+                stream = streams.get(index);
+                tag = stream.length == length && stream.data == data ? UNCHANGED : 0;
+                predicted = stream.nanos + stream.period;
+            }
+            out.put((byte) (tag | Math.min(index, STREAM_FOLLOWS)));
+            if (tag == NEW_STREAM) {
+                out.putInt(header).put((byte) channel).put((byte) flags);
+            } else if (index >= STREAM_FOLLOWS) {
+                putVarLong(out, index - STREAM_FOLLOWS);
+            }
+            long delta = (nanos - predicted) / unit;
+            putVarLong(out, delta << 1 ^ delta >> 63);
+            if (tag != UNCHANGED) {
+                out.put((byte) length);
+                for (int i = 0; i < length; i++) {
+                    out.put((byte) (data >>> (8 * i)));
+                }
+            }
+            stream.period = tag == NEW_STREAM ? 0 : nanos - stream.nanos;
+            stream.nanos = nanos;
+            stream.data = data;
+            stream.length = length;
+            last = nanos;
+        }
+        out.putInt(start, out.position() - start - BLOCK_HEADER_SIZE);
+    }
+
+    /**
+     * Decodes a block encoded by {@link #encode(ByteBuffer, ByteBuffer)} into
+     * records.
+     *
+     * @param  in
+     *                     the block, from its header
+     * @param  records
+     *                     receives the records
+     * @throws IllegalArgumentException
+     *                                      if the block is malformed
+     */
+    static void decode(ByteBuffer in, ByteBuffer records) {
+        try {
+            int count = in.getInt(in.position() + 4);
+            int unit = in.getInt(in.position() + 8);
+            long last = in.getLong(in.position() + 12);
+            in.position(in.position() + BLOCK_HEADER_SIZE);
+            List<Stream> streams = new ArrayList<>();
+            List<long[]> keys = new ArrayList<>();
+            for (int r = 0; r < count; r++) {
+                int tag = in.get() & 0xFF;
+                int index = tag & STREAM_FOLLOWS;
+                Stream stream;
+                long[] key;
+                long predicted;
+                if ((tag & NEW_STREAM) != 0) {
+                    stream = new Stream();
+                    key = new long[] { in.getInt(), in.get() & 0xFF, in.get() & 0xFF };
+                    streams.add(stream);
+                    keys.add(key);
+                    predicted = last;
+                } else {
+                    if (index == STREAM_FOLLOWS) {
+                        index += (int) getVarLong(in);
+                    }
+                    stream = streams.get(index);
+                    key = keys.get(index);
+                    predicted = stream.nanos + stream.period;
+                }
+                long zigzag = getVarLong(in);
+                long nanos = predicted + (zigzag >>> 1 ^ -(zigzag & 1)) * unit;
+                if ((tag & UNCHANGED) == 0) {
+                    int length = in.get() & 0xFF;
+                    long data = 0;
+                    for (int i = 0; i < length; i++) {
+                        data |= (in.get() & 0xFFL) << (8 * i);
+                    }
+                    stream.length = length;
+                    stream.data = data;
+                }
+                stream.period = (tag & NEW_STREAM) != 0 ? 0 : nanos - stream.nanos;
+                stream.nanos = nanos;
+                last = nanos;
+                records.putLong(nanos)
+                       .putInt((int) key[0])
+                       .put((byte) stream.length)
+                       .put((byte) key[2])
+                       .put((byte) key[1])
+                       .put((byte) 0)
+                       .putLong(stream.data);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed block", e);
+        }
+    }
+
+    private static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) (value | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7FL) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed number");
+    }
+
+    /** The PGN of a header, like {@link Packet#getPgn()}. */
+    static int pgn(int header) {
+        int id = (header >> 8) & 0x3FFFF;
+        return id < 0xF000 ? id & 0xFF00 : id;
+    }
+
+    private final FileChannel channel;
+
+    /** The records of the current block. */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_RECORDS * RECORD_SIZE)
+                                                .order(ByteOrder.LITTLE_ENDIAN);
+
+    private final List<Block> blocks = new ArrayList<>();
+
+    private final Mode mode;
+
+    /** The encoded block of a delta capture. */
+    private final ByteBuffer encoded;
+
+    /** The file offsets of the blocks of a delta capture. */
+    private final List<Long> offsets = new ArrayList<>();
+
+    private Block block = new Block();
+
+    private long records;
+
+    private boolean closed;
+
+    /**
+     * Creates a capture of records, replacing any existing file.
+     *
+     * @param  file
+     *                         the file to write
+     * @param  start
+     *                         the time the capture started
+     * @throws IOException
+     *                         if the file cannot be written
+     */
+    public CaptureWriter(Path file, LocalDateTime start) throws IOException {
+        this(file, start, Mode.RECORDS);
+    }
+
+    /**
+     * Creates the capture, replacing any existing file.
+     *
+     * @param  file
+     *                         the file to write
+     * @param  start
+     *                         the time the capture started
+     * @param  mode
+     *                         how the frames are stored
+     * @throws IOException
+     *                         if the file cannot be written
+     */
+    public CaptureWriter(Path file, LocalDateTime start, Mode mode) throws IOException {
+        this.mode = mode;
+        // a frame is at most 10 bytes of stream, 10 of time and 9 of data
+        encoded = mode == Mode.DELTA
+                ? ByteBuffer.allocate(BLOCK_HEADER_SIZE + BLOCK_RECORDS * 30).order(ByteOrder.LITTLE_ENDIAN)
+                : null;
+        channel = FileChannel.open(file,
+                                   StandardOpenOption.CREATE,
+                                   StandardOpenOption.TRUNCATE_EXISTING,
+                                   StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC)
+              .putInt(mode == Mode.DELTA ? DELTA_VERSION : VERSION)
+              .putInt(RECORD_SIZE)
+              .putInt(BLOCK_RECORDS)
+              .putInt(0)
+              .putLong(Packet.toNanos(start))
+              .flip();
+        writeFully(header);
+    }
+
+    /**
+     * Writes a frame received on the channel of the packet.
+     */
+    public void write(Packet packet) throws IOException {
+        write(packet, packet.getChannel());
+    }
+
+    /**
+     * Writes a frame.
+     *
+     * @param  packet
+     *                         a CAN frame of up to 8 data bytes
+     * @param  channel
+     *                         the channel the frame was received on
+     * @throws IOException
+     *                         if the file cannot be written
+     */
+    public synchronized void write(Packet packet, int channel) throws IOException {
+        if (closed) {
+            throw new IOException("Capture is closed.");
+        }
+        int length = packet.getLength();
+        if (length > MAX_DATA) {
+            throw new IllegalArgumentException("Only CAN frames can be captured: " + packet);
+        }
+        int header = packet.getHeader();
+        long nanos = packet.getTimestampNanos();
+        int position = buffer.position();
+        buffer.putLong(nanos)
+              .putInt(header)
+              .put((byte) length)
+              .put((byte) (packet.isTransmitted() ? TRANSMITTED : 0))
+              .put((byte) channel)
+              .put((byte) 0);
+        for (int i = 0; i < MAX_DATA; i++) {
+            buffer.put((byte) (i < length ? packet.get(i) : 0));
+        }
+        block.add(nanos, pgn(header), header & 0xFF);
+        records++;
+        if (position + RECORD_SIZE == buffer.capacity()) {
+            flushBlock();
+        }
+    }
+
+    /** @return the number of frames written */
+    public synchronized long getFrameCount() {
+        return records;
+    }
+
+    private void flushBlock() throws IOException {
+        buffer.flip();
+        if (mode == Mode.DELTA) {
+            offsets.add(channel.position());
+            encoded.clear();
+            encode(buffer, encoded);
+            encoded.flip();
+            writeFully(encoded);
+        } else {
+            writeFully(buffer);
+        }
+        buffer.clear();
+        blocks.add(block);
+        block = new Block();
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            channel.write(b);
+        }
+    }
+
+    /**
+     * Writes the last records and the index.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (buffer.position() > 0) {
+                flushBlock();
+            }
+            long indexOffset = channel.position();
+            int entrySize = mode == Mode.DELTA ? DELTA_ENTRY_SIZE : Block.SIZE;
+            ByteBuffer index = ByteBuffer.allocate(blocks.size() * entrySize + TRAILER_SIZE)
+                                         .order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < blocks.size(); i++) {
+                if (mode == Mode.DELTA) {
+                    index.putLong(offsets.get(i));
+                }
+                blocks.get(i).write(index);
+            }
+            index.putLong(indexOffset).putLong(records).putInt(blocks.size()).putInt(0).putLong(INDEX_MAGIC).flip();
+            writeFully(index);
+        } finally {
+            channel.close();
+        }
+    }
+}
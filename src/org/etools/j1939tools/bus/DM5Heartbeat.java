@@ -1,6 +1,9 @@
 package org.etools.j1939tools.bus;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.etools.j1939_84.controllers.ResultsListener;
 import org.etools.j1939tools.j1939.J1939;
@@ -9,26 +12,20 @@ import org.etools.j1939tools.j1939.packets.DM5DiagnosticReadinessPacket;
 /**
  * Helper to ping for DM5 to alert other tools that service tool is still connected.
  *
+ * The pings share one timer thread, instead of each heartbeat holding a thread
+ * of its own while it sleeps.
  */
 public class DM5Heartbeat {
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "DM5Ping");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     static public AutoCloseable run(J1939 j1939, ResultsListener listener) {
-        AtomicBoolean running = new AtomicBoolean(true);
-        Thread thread = new Thread(() -> {
-            try {
-                Thread.sleep(10_000);
-                while (running.get()) {
-                    j1939.requestGlobalNoDecode("DM5 Heartbeat", DM5DiagnosticReadinessPacket.class, listener);
-                    Thread.sleep(10_000);
-                }
-            } catch (InterruptedException e) {
-               // System.err.println("DM5 Heartbeat interrupted.");
-            }
-        }, "DM5Ping");
-        thread.start();
-        return () -> {
-            running.set(false);
-            thread.interrupt();
-            thread.join();
-        };
+        ScheduledFuture<?> future = TIMER.scheduleWithFixedDelay(() -> {
+            j1939.requestGlobalNoDecode("DM5 Heartbeat", DM5DiagnosticReadinessPacket.class, listener);
+        }, 10, 10, TimeUnit.SECONDS);
+        return () -> future.cancel(true);
     }
 }
@@ -4,6 +4,7 @@
 package org.etools.j1939tools.bus;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.concurrent.Flow;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
@@ -68,6 +69,26 @@ public class EchoBus implements Bus {
         return queue.stream(timeout, unit);
     }
 
+    @Override
+    public Stream<Packet> read(long timeout, TimeUnit unit, int maxLag, LagPolicy policy) {
+        return queue.stream(timeout, unit, maxLag, policy);
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return queue.getDropped();
+    }
+
+    @Override
+    public Stream<Packet> read(FrameFilter filter, long timeout, TimeUnit unit) {
+        return queue.stream(filter, timeout, unit);
+    }
+
+    @Override
+    public Flow.Publisher<Packet> publisher(FrameFilter filter) {
+        return queue.publisher(filter);
+    }
+
     /**
      * Reset stream timeout for stream created with bus.read(). To be used in a
      * stream call like peek, map or forEach.
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * A declarative match on the id, source, PGN and destination of a
+ * {@link Packet}. A bus evaluates the filter once when a packet is queued, so
+ * that a stream opened with {@link Bus#read(FrameFilter, long, TimeUnit)} is
+ * only woken for the packets that match.
+ *
+ * A filter matches a packet when all of the fields that are set match.
+ * Alternatives are combined with {@link #or(FrameFilter)}. Filters are
+ * immutable.
+ *
+ * <pre>
+ * FrameFilter.pgn(DM30ScaledTestResultsPacket.PGN).or(FrameFilter.pgn(0xE800)).withSource(0x00)
+ * </pre>
+ */
+public final class FrameFilter implements Predicate<Packet> {
+
+    private static final int ANY = -1;
+
+    private static final FrameFilter ALL = new FrameFilter(0, 0, ANY, ANY, ANY, ANY, null);
+
+    /**
+     * @return a filter that matches every packet
+     */
+    public static FrameFilter all() {
+        return ALL;
+    }
+
+    /**
+     * @param  id
+     *                  the id to match, from {@link Packet#getId(int)}
+     * @param  mask
+     *                  the bits of the id to compare
+     * @return      a filter that matches packets with the id
+     */
+    public static FrameFilter id(int id, int mask) {
+        return ALL.withId(id, mask);
+    }
+
+    /**
+     * @param  pgn
+     *                 the PGN to match, from {@link Packet#getPgn()}
+     * @return     a filter that matches packets with the PGN
+     */
+    public static FrameFilter pgn(int pgn) {
+        return ALL.withPgn(pgn);
+    }
+
+    /**
+     * @param  source
+     *                    the source address to match
+     * @return        a filter that matches packets from the source
+     */
+    public static FrameFilter source(int source) {
+        return ALL.withSource(source);
+    }
+
+    private final int id;
+
+    private final int idMask;
+
+    private final int source;
+
+    private final int pgn;
+
+    private final int destination;
+
+    private final int channel;
+
+    /** The next alternative, or null. */
+    private final FrameFilter or;
+
+    private FrameFilter(int id, int idMask, int source, int pgn, int destination, int channel, FrameFilter or) {
+        this.id = id & idMask;
+        this.idMask = idMask;
+        this.source = source;
+        this.pgn = pgn;
+        this.destination = destination;
+        this.channel = channel;
+        this.or = or;
+    }
+
+    /**
+     * @return a filter that matches packets that match this filter or that
+     */
+    public FrameFilter or(FrameFilter that) {
+        return new FrameFilter(id, idMask, source, pgn, destination, channel, or == null ? that : or.or(that));
+    }
+
+    @Override
+    public boolean test(Packet p) {
+        for (FrameFilter f = this; f != null; f = f.or) {
+            if (f.matches(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(Packet p) {
+        return p.getId(idMask) == id
+                && (source == ANY || p.getSource() == source)
+                && (pgn == ANY || p.getPgn() == pgn)
+                && (destination == ANY || p.getDestination() == destination)
+                && (channel == ANY || p.getChannel() == channel);
+    }
+
+    /**
+     * Sets the destination of every alternative of this filter.
+     */
+    public FrameFilter withDestination(int destination) {
+        return new FrameFilter(id, idMask, source, pgn, destination, channel,
+                               or == null ? null : or.withDestination(destination));
+    }
+
+    /**
+     * Sets the id and mask of every alternative of this filter.
+     */
+    public FrameFilter withId(int id, int mask) {
+        return new FrameFilter(id, mask, source, pgn, destination, channel,
+                               or == null ? null : or.withId(id, mask));
+    }
+
+    /**
+     * Sets the PGN of every alternative of this filter.
+     */
+    public FrameFilter withPgn(int pgn) {
+        return new FrameFilter(id, idMask, source, pgn, destination, channel,
+                               or == null ? null : or.withPgn(pgn));
+    }
+
+    /**
+     * Sets the source of every alternative of this filter.
+     */
+    public FrameFilter withSource(int source) {
+        return new FrameFilter(id, idMask, source, pgn, destination, channel,
+                               or == null ? null : or.withSource(source));
+    }
+
+    /**
+     * Sets the channel of every alternative of this filter, for packets read
+     * from a {@link MergeBus}.
+     */
+    public FrameFilter withChannel(int channel) {
+        return new FrameFilter(id, idMask, source, pgn, destination, channel,
+                               or == null ? null : or.withChannel(channel));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("FrameFilter[");
+        for (FrameFilter f = this; f != null; f = f.or) {
+            if (f != this) {
+                sb.append(" | ");
+            }
+            int start = sb.length();
+            if (f.idMask != 0) {
+                sb.append(String.format("id=%06X/%06X ", f.id, f.idMask));
+            }
+            if (f.pgn != ANY) {
+                sb.append(String.format("pgn=%04X ", f.pgn));
+            }
+            if (f.source != ANY) {
+                sb.append(String.format("sa=%02X ", f.source));
+            }
+            if (f.destination != ANY) {
+                sb.append(String.format("da=%02X ", f.destination));
+            }
+            if (f.channel != ANY) {
+                sb.append("ch=").append(f.channel).append(' ');
+            }
+            if (sb.length() == start) {
+                sb.append("all");
+            } else {
+                sb.setLength(sb.length() - 1);
+            }
+        }
+        return sb.append("]").toString();
+    }
+}
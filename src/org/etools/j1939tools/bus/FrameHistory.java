@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An in-memory ring of the most recent frames on a bus, so the traffic that
+ * led up to an event can be captured without logging the whole run.
+ *
+ * The ring holds the frames received within the pre-trigger plus the
+ * post-trigger window of the newest frame, up to a size limit, so that the
+ * frames before an event are still held once its post-trigger window has
+ * passed. {@link #snapshot(long)} picks the frames around the event.
+ *
+ * The size of a frame is an estimate of the heap its Packet takes, which is
+ * several times the size of its record in a {@link CaptureWriter} capture.
+ */
+public class FrameHistory {
+    /**
+     * The heap estimated for a Packet of up to 8 data bytes and its slot in the
+     * ring. A Packet takes about 80 bytes, and about 180 once its timestamp is
+     * cached as a LocalDateTime.
+     */
+    static final int FRAME_BYTES = 128;
+
+    private final ArrayDeque<Packet> frames = new ArrayDeque<>();
+
+    private final long preTriggerNanos;
+
+    private final long windowNanos;
+
+    private final long maxBytes;
+
+    private final Duration postTrigger;
+
+    private long bytes;
+
+    /**
+     * @param preTrigger
+     *                        how long before an event frames are captured
+     * @param maxBytes
+     *                        the most heap taken by the frames kept
+     * @param postTrigger
+     *                        how long after an event frames are captured, and
+     *                        so how long to wait before capturing them
+     */
+    public FrameHistory(Duration preTrigger, long maxBytes, Duration postTrigger) {
+        preTriggerNanos = preTrigger.toNanos();
+        windowNanos = preTriggerNanos + postTrigger.toNanos();
+        this.maxBytes = maxBytes;
+        this.postTrigger = postTrigger;
+    }
+
+    /** Adds a frame, dropping the frames that are too old to keep. */
+    public synchronized void accept(Packet packet) {
+        frames.addLast(packet);
+        bytes += heapSize(packet);
+        long oldest = packet.getTimestampNanos() - windowNanos;
+        while (!frames.isEmpty() && (bytes > maxBytes || frames.peekFirst().getTimestampNanos() < oldest)) {
+            bytes -= heapSize(frames.removeFirst());
+        }
+    }
+
+    /** @return the estimated heap taken by the frame while it is held */
+    static long heapSize(Packet packet) {
+        int length = packet.getLength();
+        // longer data is kept in an array of its own
+        return length <= 8 ? FRAME_BYTES : FRAME_BYTES + 16 + ((length + 7) & ~7);
+    }
+
+    /** @return the frames held, oldest first */
+    public synchronized List<Packet> snapshot() {
+        return new ArrayList<>(frames);
+    }
+
+    /**
+     * @return the time of the newest frame, on the clock of
+     *         {@link Packet#getTimestampNanos()}, to trigger on for an event
+     *         now. {@link Long#MIN_VALUE} if no frame is held.
+     */
+    public synchronized long getTrigger() {
+        return frames.isEmpty() ? Long.MIN_VALUE : frames.peekLast().getTimestampNanos();
+    }
+
+    /**
+     * @param  trigger
+     *                     from {@link #getTrigger()}
+     * @return         the frames held within the pre-trigger and post-trigger
+     *                 windows of the trigger, oldest first. All of the frames
+     *                 held, if there was no frame to trigger on.
+     */
+    public synchronized List<Packet> snapshot(long trigger) {
+        if (trigger == Long.MIN_VALUE) {
+            return snapshot();
+        }
+        long first = trigger - preTriggerNanos;
+        long last = trigger + postTrigger.toNanos();
+        List<Packet> result = new ArrayList<>();
+        for (Packet packet : frames) {
+            long nanos = packet.getTimestampNanos();
+            if (nanos > last) {
+                break;
+            }
+            if (nanos >= first) {
+                result.add(packet);
+            }
+        }
+        return result;
+    }
+
+    /** @return how long to wait after an event before capturing the history */
+    public Duration getPostTrigger() {
+        return postTrigger;
+    }
+}
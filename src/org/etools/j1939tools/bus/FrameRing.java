@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A preallocated ring of raw frames, passed from the thread that reads the
+ * adapter to the thread that decodes them. There is one writer and one reader.
+ *
+ * The writer fills the slot returned by {@link #next()}, commits it with its
+ * length and publishes the committed frames in chunks. The reader drains every
+ * published frame at once. Slots are slices of one direct buffer, so an adapter
+ * can read into them without copying.
+ */
+final class FrameRing {
+    /** How long the writer naps while the ring is full. */
+    private static final long FULL_BACKOFF_NS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final ByteBuffer[] slots;
+
+    private final short[] lengths;
+
+    private final int mask;
+
+    /** Sequence of the next slot to write. Only used by the writer. */
+    private long written;
+
+    /** Sequence after the last frame the reader may read. */
+    private volatile long published;
+
+    /** Sequence of the next frame to read. */
+    private volatile long consumed;
+
+    /**
+     * @param capacity  the number of frames, rounded up to a power of two
+     * @param frameSize the size of the slot for each frame
+     */
+    FrameRing(int capacity, int frameSize) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mask = size - 1;
+        slots = new ByteBuffer[size];
+        lengths = new short[size];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size * frameSize);
+        for (int i = 0; i < size; i++) {
+            slots[i] = buffer.slice(i * frameSize, frameSize);
+        }
+    }
+
+    /** Is there a free slot for the writer? */
+    boolean hasCapacity() {
+        return written - consumed <= mask;
+    }
+
+    /**
+     * Wait for the reader to free a slot. Returns early if the thread is
+     * interrupted.
+     */
+    void awaitCapacity() {
+        while (!hasCapacity() && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(this, FULL_BACKOFF_NS);
+        }
+    }
+
+    /**
+     * @return the slot for the next frame. Only valid if
+     *         {@link #hasCapacity()}.
+     */
+    ByteBuffer next() {
+        return slots[(int) written & mask];
+    }
+
+    /** Keep the frame written to {@link #next()}. */
+    void commit(int length) {
+        lengths[(int) written & mask] = (short) length;
+        written++;
+    }
+
+    /**
+     * Make the committed frames visible to the reader.
+     *
+     * @return true if there were frames to publish
+     */
+    boolean publish() {
+        if (published == written) {
+            return false;
+        }
+        published = written;
+        return true;
+    }
+
+    /**
+     * Pass every published frame to the consumer and free their slots.
+     *
+     * @return the number of frames read
+     */
+    int drain(ObjIntConsumer<ByteBuffer> consumer) {
+        long start = consumed;
+        long end = published;
+        for (long seq = start; seq < end; seq++) {
+            consumer.accept(slots[(int) seq & mask], lengths[(int) seq & mask]);
+        }
+        consumed = end;
+        return (int) (end - start);
+    }
+}
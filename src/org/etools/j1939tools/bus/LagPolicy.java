@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+/**
+ * What a {@link MultiQueue} does when a stream falls more than its maximum lag
+ * behind the items being added.
+ */
+public enum LagPolicy {
+    /**
+     * The producer waits for the stream to read, until the stream is closed or
+     * times out. Use for readers that must not lose items.
+     */
+    BLOCK,
+
+    /**
+     * The producer does not wait. The stream skips the oldest items it has not
+     * read and counts them as dropped.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The producer does not wait. The stream ends with a
+     * {@link MultiQueue.LagException}.
+     */
+    CLOSE
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+import org.etools.j1939_84.J1939_84;
+
+/**
+ * A {@link Bus} that reads several buses, like the adapters of the powertrain
+ * and chassis CANs or {@link ReplayBus}es of their captures, as one stream of
+ * {@link Packet}s in timestamp order. Each packet is tagged with the channel
+ * it was read on, numbered from 1 in the order of the buses, so it is logged
+ * on that channel and can be selected with {@link FrameFilter#withChannel(int)}.
+ * Packets sent to this bus are sent on the send channel.
+ *
+ * Each channel is subscribed to on the dispatcher of its bus and hands its
+ * packets to a single merge thread through a lock-free queue, waking the
+ * merge thread only when it is waiting. The packets are tagged on copies, as
+ * the packets of the bus are shared with its other readers. The merge thread
+ * keeps the packets in a heap by timestamp and publishes a packet once every
+ * open channel has delivered a packet at least as late, or once it has been
+ * held for the reorder window, so that a quiet channel does not hold up the
+ * others. Between packets it waits until it is woken or the oldest packet
+ * held reaches the end of the window.
+ * A channel is closed when its bus is closed, and then no longer holds up the
+ * others.
+ *
+ * The captures of a bus made by {@link #replay} are instead read by a thread
+ * per channel, with a stream the replay waits for. A reader waits while
+ * {@link #REPLAY_WINDOW} of its packets are queued, and the merge thread holds
+ * at most {@link #REPLAY_WINDOW} packets of a channel, so a capture that gets
+ * ahead of the others waits rather than filling memory.
+ */
+public class MergeBus implements Bus {
+    /** The most packets published at once. */
+    private static final int BATCH_SIZE = 256;
+
+    /** The most packets of a replayed channel read ahead of the merge. */
+    private static final int REPLAY_WINDOW = 4096;
+
+    /** A packet waiting in the heap. */
+    private static final class Entry {
+        final Channel channel;
+        final Packet packet;
+        /** The System.nanoTime() the packet arrived at. */
+        final long arrived;
+        /** The order the packet arrived in, so equal timestamps keep it. */
+        long sequence;
+
+        Entry(Channel channel, Packet packet, long arrived) {
+            this.channel = channel;
+            this.packet = packet;
+            this.arrived = arrived;
+        }
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator.<Entry>comparingLong(e -> e.packet.getTimestampNanos())
+                                                             .thenComparingLong(e -> e.sequence);
+
+    /** A bus being merged. */
+    private final class Channel implements Flow.Subscriber<Packet> {
+        final int number;
+        final Bus bus;
+        /**
+         * Written by the dispatcher of the bus or the reader of a replay,
+         * read by the merge thread.
+         */
+        final Queue<Entry> inbound = new ConcurrentLinkedQueue<>();
+        /** The packets in inbound of a replay, which its reader keeps below the window. */
+        final AtomicInteger queued = new AtomicInteger();
+        /** Set after the last packet is added to inbound. */
+        volatile boolean completed;
+        volatile Flow.Subscription subscription;
+        /** Reads a replay, null for other buses. */
+        Thread reader;
+        /** The latest timestamp read, for the merge thread only. */
+        long latest = Long.MIN_VALUE;
+        /** The packets in the heap, for the merge thread only. */
+        int held;
+        /** Completed and drained, for the merge thread only. */
+        boolean done;
+
+        Channel(int number, Bus bus) {
+            this.number = number;
+            this.bus = bus;
+        }
+
+        /** Reads a replay until its bus is closed, waiting for the merge. */
+        void read(Stream<Packet> stream) {
+            try (stream) {
+                Iterator<Packet> packets = stream.iterator();
+                while (packets.hasNext()) {
+                    Packet p = packets.next();
+                    while (queued.get() >= REPLAY_WINDOW) {
+                        // woken by the merge thread as it drains inbound
+                        LockSupport.park(this);
+                        if (Thread.interrupted()) {
+                            return;
+                        }
+                    }
+                    queued.incrementAndGet();
+                    offer(new Entry(this, p.withChannel(number), System.nanoTime()));
+                }
+            } catch (RuntimeException e) {
+                J1939_84.getLogger().log(Level.WARNING, "Channel " + number + " failed", e);
+            } finally {
+                complete();
+            }
+        }
+
+        /** Hands a packet to the merge thread. */
+        void offer(Entry e) {
+            inbound.add(e);
+            wake();
+        }
+
+        void complete() {
+            completed = true;
+            wake();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription = s;
+            s.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(Packet p) {
+            offer(new Entry(this, p.withChannel(number), System.nanoTime()));
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            J1939_84.getLogger().log(Level.WARNING, "Channel " + number + " failed", t);
+            complete();
+        }
+
+        @Override
+        public void onComplete() {
+            complete();
+        }
+    }
+
+    private final int address;
+
+    private final List<Channel> channels = new ArrayList<>();
+
+    private final Channel sendChannel;
+
+    private final long windowNanos;
+
+    private final MultiQueue<Packet> queue = new MultiQueue<>();
+
+    private final Thread thread;
+
+    /** Set while the merge thread waits, so that it is only woken then. */
+    private volatile boolean waiting;
+
+    /** The captures to start, for a bus made by {@link #replay}. */
+    private final List<ReplayBus> replays = new ArrayList<>();
+
+    private volatile boolean closed;
+
+    /**
+     * Constructor
+     *
+     * @param address
+     *                        the address for this connector on the bus
+     * @param buses
+     *                        the buses to merge, channel 1 first. They are
+     *                        closed with this bus.
+     * @param sendChannel
+     *                        the channel packets sent to this bus are sent on
+     * @param window
+     *                        the longest a packet is held for the packets of
+     *                        the other channels
+     * @param unit
+     *                        the {@link TimeUnit} of the window
+     */
+    public MergeBus(int address, List<? extends Bus> buses, int sendChannel, long window, TimeUnit unit) {
+        this(address, buses, sendChannel, window, unit, false);
+    }
+
+    private MergeBus(int address, List<? extends Bus> buses, int sendChannel, long window, TimeUnit unit,
+                     boolean replay) {
+        if (sendChannel < 1 || sendChannel > buses.size()) {
+            throw new IllegalArgumentException("No channel " + sendChannel + " of " + buses.size());
+        }
+        this.address = address;
+        windowNanos = unit.toNanos(window);
+        for (Bus bus : buses) {
+            Channel channel = new Channel(channels.size() + 1, bus);
+            channels.add(channel);
+            if (replay) {
+                // opened before the replay starts, so no packet is missed
+                Stream<Packet> stream;
+                try {
+                    stream = bus.read(9999, TimeUnit.DAYS, REPLAY_WINDOW, LagPolicy.BLOCK);
+                } catch (BusException e) {
+                    throw new IllegalStateException(e);
+                }
+                channel.reader = new Thread(() -> channel.read(stream), "Merge Bus Channel " + channel.number);
+                channel.reader.setDaemon(true);
+                channel.reader.start();
+            } else {
+                bus.publisher(FrameFilter.all()).subscribe(channel);
+            }
+        }
+        this.sendChannel = channels.get(sendChannel - 1);
+        thread = new Thread(this::merge, "Merge Bus");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Merges captures, as fast as the streams read the packets. Packets are
+     * only published in timestamp order, however far the replay of one file
+     * gets ahead of another. Open the streams of interest, then
+     * {@link #start()} the replay.
+     *
+     * @param  address
+     *                         the address for this connector on the bus
+     * @param  start
+     *                         the time the captures started
+     * @param  files
+     *                         the .asc files, channel 1 first
+     * @return             the bus
+     * @throws IOException
+     *                         if a file cannot be read
+     */
+    public static MergeBus replay(int address, LocalDateTime start, List<Path> files) throws IOException {
+        List<ReplayBus> buses = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                ReplayBus bus = new ReplayBus(file, start, address);
+                bus.setSpeed(ReplayBus.MAX_SPEED);
+                buses.add(bus);
+            }
+        } catch (IOException e) {
+            buses.forEach(ReplayBus::close);
+            throw e;
+        }
+        MergeBus merge = new MergeBus(address, buses, 1, Long.MAX_VALUE, TimeUnit.NANOSECONDS, true);
+        merge.replays.addAll(buses);
+        return merge;
+    }
+
+    /**
+     * Starts the replay of the captures of a bus made by {@link #replay}.
+     *
+     * @return completes with the number of packets replayed when the end of
+     *         every file is reached
+     */
+    public CompletableFuture<Long> start() {
+        CompletableFuture<Long> total = CompletableFuture.completedFuture(0L);
+        for (ReplayBus bus : replays) {
+            // closing a replay at the end of its file closes its channel
+            CompletableFuture<Long> done = bus.start().whenComplete((count, t) -> bus.close());
+            total = total.thenCombine(done, Long::sum);
+        }
+        return total;
+    }
+
+    /** Wakes the merge thread, if it is waiting. */
+    private void wake() {
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void merge() {
+        PriorityQueue<Entry> heap = new PriorityQueue<>(ORDER);
+        List<Packet> batch = new ArrayList<>(BATCH_SIZE);
+        long sequence = 0;
+        while (!closed) {
+            long watermark = Long.MAX_VALUE;
+            for (Channel channel : channels) {
+                if (channel.done) {
+                    continue;
+                }
+                // read before draining, so the last packets are not missed
+                boolean completed = channel.completed;
+                int drained = 0;
+                Entry e;
+                while (channel.held < REPLAY_WINDOW && (e = channel.inbound.poll()) != null) {
+                    e.sequence = sequence++;
+                    heap.add(e);
+                    channel.held++;
+                    channel.latest = Math.max(channel.latest, e.packet.getTimestampNanos());
+                    drained++;
+                }
+                if (drained > 0 && channel.reader != null) {
+                    channel.queued.addAndGet(-drained);
+                    LockSupport.unpark(channel.reader);
+                }
+                if (completed && channel.inbound.isEmpty()) {
+                    channel.done = true;
+                } else {
+                    watermark = Math.min(watermark, channel.latest);
+                }
+            }
+
+            long now = System.nanoTime();
+            Entry head;
+            while ((head = heap.peek()) != null
+                    && (head.packet.getTimestampNanos() <= watermark || now - head.arrived >= windowNanos)) {
+                Entry e = heap.poll();
+                e.channel.held--;
+                batch.add(e.packet);
+                if (batch.size() == BATCH_SIZE) {
+                    queue.addAll(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                queue.addAll(batch);
+                batch.clear();
+            } else {
+                await(heap.peek(), now);
+            }
+        }
+    }
+
+    /**
+     * Waits until a channel delivers a packet or completes, or until the head
+     * of the heap has been held for the window.
+     */
+    private void await(Entry head, long now) {
+        waiting = true;
+        // checked again after waiting is set, so a packet offered since is not missed
+        if (!closed && !hasInbound()) {
+            if (head == null || windowNanos == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else {
+                long remaining = windowNanos - (now - head.arrived);
+                if (remaining > 0) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+            }
+        }
+        waiting = false;
+    }
+
+    /** @return true if a channel has packets to merge or is ready to be done */
+    private boolean hasInbound() {
+        for (Channel channel : channels) {
+            if (!channel.done && (channel.inbound.isEmpty() ? channel.completed : channel.held < REPLAY_WINDOW)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the channel packets sent to this bus are sent on
+     */
+    public int getSendChannel() {
+        return sendChannel.number;
+    }
+
+    /**
+     * @return the bus of a channel
+     */
+    public Bus getChannel(int channel) {
+        return channels.get(channel - 1).bus;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        for (Channel channel : channels) {
+            Flow.Subscription subscription = channel.subscription;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            if (channel.reader != null) {
+                channel.reader.interrupt();
+            }
+            channel.bus.close();
+        }
+        queue.close();
+    }
+
+    @Override
+    public Stream<Packet> duplicate(Stream<Packet> stream, int time, TimeUnit unit) {
+        return queue.duplicate(stream, time, unit);
+    }
+
+    @Override
+    public int getAddress() {
+        return address;
+    }
+
+    @Override
+    public int getConnectionSpeed() throws BusException {
+        return sendChannel.bus.getConnectionSpeed();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        long dropped = queue.getDropped();
+        for (Channel channel : channels) {
+            dropped += channel.bus.getDroppedFrames();
+        }
+        return dropped;
+    }
+
+    @Override
+    public Stream<Packet> read(long timeout, TimeUnit unit) {
+        return queue.stream(timeout, unit);
+    }
+
+    @Override
+    public Stream<Packet> read(long timeout, TimeUnit unit, int maxLag, LagPolicy policy) {
+        return queue.stream(timeout, unit, maxLag, policy);
+    }
+
+    @Override
+    public Stream<Packet> read(FrameFilter filter, long timeout, TimeUnit unit) {
+        return queue.stream(filter, timeout, unit);
+    }
+
+    @Override
+    public Flow.Publisher<Packet> publisher(FrameFilter filter) {
+        return queue.publisher(filter);
+    }
+
+    @Override
+    public void resetTimeout(Stream<Packet> stream, int time, TimeUnit unit) {
+        queue.resetTimeout(stream, time, unit);
+    }
+
+    /**
+     * Sends the packet on the send channel. It is read back from this bus
+     * when the bus of the channel echoes it.
+     */
+    @Override
+    public Packet send(Packet p) throws BusException {
+        Packet sent = sendChannel.bus.send(p);
+        return sent == null ? null : sent.withChannel(sendChannel.number);
+    }
+
+    @Override
+    public boolean imposterDetected() {
+        for (Channel channel : channels) {
+            if (channel.bus.imposterDetected()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
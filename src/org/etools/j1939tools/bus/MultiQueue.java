@@ -4,74 +4,485 @@
 package org.etools.j1939tools.bus;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.Spliterator;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import org.etools.j1939_84.J1939_84;
+
 /**
- * The multiqueue is a linked list that multiple visitors can traverse
- * concurrently. Adding items only adds them to open streams. The MultiQueue is
- * at most 1 element long.
+ * The multiqueue is a preallocated ring buffer that multiple visitors can
+ * traverse concurrently. Adding items only makes them visible to open streams.
+ *
+ * Writers are serialized, so the ring has a single producer. They are
+ * serialized by a lock of their own, so a producer waiting for a slow stream
+ * does not hold up opening, duplicating or closing the other streams. Each
+ * stream owns a
+ * sequence number, the sequence of the next item it will read, and reads items
+ * by comparing its sequence to the published sequence of the ring. Readers do
+ * not take a lock to read an item. A reader that has drained the ring spins
+ * briefly and then parks until the producer publishes another item or the
+ * stream times out.
+ *
+ * The producer will not overwrite an item that an open stream has not read yet.
+ * If a stream stops reading for longer than {@link #STALL_TIMEOUT_MS}, the
+ * producer stops waiting for it. When that stream reads again, it skips to the
+ * oldest item still in the ring and logs how many items were lost.
+ *
+ * A stream can instead be opened with a maximum lag and a {@link LagPolicy}.
+ * With {@link LagPolicy#BLOCK} the producer waits for that stream without a
+ * stall timeout. With {@link LagPolicy#DROP_OLDEST} and {@link LagPolicy#CLOSE}
+ * the producer never waits for it, and the stream skips the items it is too
+ * slow to read or ends with a {@link LagException}. Every item a stream skips is
+ * counted in {@link #getDropped()}.
+ *
+ * The lag of a stream is the published sequence minus the sequence of the
+ * stream. Readers record their lag as they read, and the producer records the
+ * lag of streams that are not reading every {@link #LAG_CHECK_INTERVAL} items.
+ * A stream that falls {@link #LAG_THRESHOLD} items, or half the capacity of its
+ * queue, behind is logged once. Walking the stack for every stream is too
+ * costly on the send path, so where streams are opened is only recorded once a
+ * stream of the queue has lagged. Until then, a stream that is found lagging as
+ * it reads is logged with where it is read.
  *
- * The head item holds no value. It only points to the most recent value (which
- * is also pointed to by the second most recent item. Notice that once a second
- * value is added, nothing references the first value, except for any open
- * streams.
+ * A filtered stream reads from a smaller queue of its own. The producer tests
+ * each item against the filters as it is added and only adds the matching
+ * items to the filtered queues, so filtered streams are not woken for items
+ * they would discard. The producer never waits for a filtered stream: one that
+ * falls {@link #FILTERED_CAPACITY} items behind skips the oldest, like
+ * {@link LagPolicy#DROP_OLDEST}, unless it was opened with
+ * {@link LagPolicy#CLOSE}. A stream filtered with {@link FrameFilter#all()}
+ * is not filtered at all, and reads from the ring like any other stream.
+ *
+ * Items can also be pushed to a {@link Flow.Subscriber}. Subscribers are called
+ * on a shared dispatcher instead of owning a thread, and only receive as many
+ * items as they request. A subscriber that stops requesting items is treated
+ * like a stream that stops reading.
  *
  * @param <T> type of MultiQueue to be implemented
  */
 public class MultiQueue<T> implements AutoCloseable {
-    // list of weak references to all queues ever allocated to check for abondonded streams.
-    static List<MultiQueue<?>> queues = Collections.synchronizedList(new ArrayList<>());
-    {
-        queues.add(this);
-    }
+    /** Default number of items retained in the ring. */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /** Number of items retained for each filtered stream. */
+    static final int FILTERED_CAPACITY = 1 << 10;
+
+    /**
+     * A stream this many items behind is reported, once. Smaller queues report
+     * streams half their capacity behind.
+     */
+    static final long LAG_THRESHOLD = 10_000;
+
+    /** Number of items the producer adds between checks for lagging streams. */
+    private static final int LAG_CHECK_INTERVAL = 1 << 10;
+
+    /** Number of lagging stream creation sites kept. */
+    private static final int MAX_LAG_SITES = 100;
+
+    /** How long the producer waits on a stream that is not reading. */
+    static final long STALL_TIMEOUT_MS = 1000;
+
+    /**
+     * How many times a drained reader spins before it parks. Spinning on a
+     * single CPU only delays the producer.
+     */
+    private static final int SPIN_TRIES = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+
+    /** How long the producer naps while waiting for a slow stream. */
+    private static final long PRODUCER_BACKOFF_NS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /** Threads shared by all of the subscribers. */
+    private static final Executor DISPATCHER = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+        Thread thread = new Thread(r, "MultiQueue Dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicReferenceArray<T> ring;
+
+    private final int capacity;
+
+    private final int mask;
+
+    /** Lag at which a stream of this queue is reported. */
+    private final long lagThreshold;
+
+    /**
+     * Sequence of the next item to be added. The ring holds the items from
+     * published - capacity to published - 1.
+     */
+    private volatile long published;
+
+    /** Serializes the producers. Held while waiting for a slow stream. */
+    private final Object producer = new Object();
+
+    /**
+     * Lower bound of the sequences of the streams the producer must not
+     * overwrite. Written with the lock held.
+     */
+    private volatile long gatingSequence = Long.MAX_VALUE;
+
+    /** A released stream started reading again, so gatingSequence is stale. */
+    private volatile boolean gatingDirty;
+
+    /** All open streams. Guarded by this. */
     private final WeakHashMap<Stream<T>, SpliteratorImplementation<T>> spliterators = new WeakHashMap<>();
-    private Item<T> list = new Item<>(null);
 
-    static {
-        // monitor for stream leaks greater than 10,000 items.
-        new Thread(() -> {
-            try {
-                while (true) {
-                    // only check every 30 s
-                    Thread.sleep(30 * 1000);
-                    for (MultiQueue<?> q : queues) {
-                        List<SpliteratorImplementation<?>> list;
-                        synchronized (q.spliterators) {
-                            list = new ArrayList<>(q.spliterators.values());
+    /** Threads parked in a drained stream. */
+    private final Set<Thread> parked = ConcurrentHashMap.newKeySet();
+
+    /** Subscriptions to wake when an item is added or the queue is closed. */
+    private final Set<QueueSubscription<T>> subscriptions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Queues of the filtered streams that may still read. Changed with the lock
+     * held and read by the producer without it.
+     */
+    private final List<Filtered<T>> filtered = new CopyOnWriteArrayList<>();
+
+    /** The filtered queue of each filtered stream. Guarded by this. */
+    private final WeakHashMap<Stream<T>, Filtered<T>> filteredStreams = new WeakHashMap<>();
+
+    /** Shared with the filtered queues. */
+    private final Metrics metrics;
+
+    /** Sequence at which the producer next looks for lagging streams. Guarded by producer. */
+    private long nextLagCheck = LAG_CHECK_INTERVAL;
+
+    /** The producer stops waiting on streams once the queue is closed. */
+    private volatile boolean closed;
+
+    public MultiQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of items retained for slow streams. Rounded up
+     *                     to a power of two.
+     */
+    public MultiQueue(int capacity) {
+        this(capacity, new Metrics());
+    }
+
+    private MultiQueue(int capacity, Metrics metrics) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2.");
+        }
+        this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+        mask = this.capacity - 1;
+        lagThreshold = Math.min(LAG_THRESHOLD, this.capacity / 2);
+        ring = new AtomicReferenceArray<>(this.capacity);
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the number of items skipped by streams that were too slow, since
+     *         the queue was created
+     */
+    public long getDropped() {
+        return metrics.dropped.get();
+    }
+
+    /**
+     * @param  stream
+     *                    a stream of this queue
+     * @return        the number of items added that the stream has not read yet
+     */
+    synchronized public long getLag(Stream<T> stream) {
+        Filtered<T> f = filteredStreams.get(stream);
+        if (f != null) {
+            return f.queue.getLag(stream);
+        }
+        SpliteratorImplementation<T> spliterator = spliterators.get(stream);
+        if (spliterator == null) {
+            throw new IllegalArgumentException("Invalid stream.");
+        }
+        return spliterator.estimateSize();
+    }
+
+    /**
+     * @return the most items any stream of this queue has been seen behind,
+     *         since the queue was created
+     */
+    public long getMaxLag() {
+        return metrics.maxLag.get();
+    }
+
+    /**
+     * @return where the streams that fell too far behind were created, and how
+     *         far behind they were seen
+     */
+    public List<String> getLaggingStreams() {
+        synchronized (metrics.laggingStreams) {
+            return new ArrayList<>(metrics.laggingStreams);
+        }
+    }
+
+    /**
+     * @param  stream
+     *                    a stream of this queue
+     * @return        the number of items the stream skipped because it was too
+     *                slow
+     */
+    synchronized public long getDropped(Stream<T> stream) {
+        Filtered<T> f = filteredStreams.get(stream);
+        if (f != null) {
+            return f.queue.getDropped(stream);
+        }
+        SpliteratorImplementation<T> spliterator = spliterators.get(stream);
+        if (spliterator == null) {
+            throw new IllegalArgumentException("Invalid stream.");
+        }
+        return spliterator.dropped;
+    }
+
+    public void add(T v) {
+        synchronized (producer) {
+            append(v);
+        }
+    }
+
+    /** Add an item. Called with the producer lock held. */
+    private void append(T v) {
+        long seq = published;
+        if (gatingDirty || wraps(seq, gatingSequence)) {
+            awaitCapacity(seq);
+        }
+        ring.set((int) seq & mask, v);
+        published = seq + 1;
+        signal();
+        if (!filtered.isEmpty()) {
+            forward(v);
+        }
+        if (seq >= nextLagCheck) {
+            checkLag(seq);
+        }
+    }
+
+    /**
+     * Add the items in order, as one operation. Streams are woken once for the
+     * batch, instead of once per item.
+     */
+    public void addAll(Collection<? extends T> values) {
+        synchronized (producer) {
+            long seq = published;
+            for (T v : values) {
+                if (gatingDirty || wraps(seq, gatingSequence)) {
+                    // let the streams read what was added so far while waiting on them
+                    published = seq;
+                    signal();
+                    awaitCapacity(seq);
+                }
+                ring.set((int) seq & mask, v);
+                seq++;
+                if (!filtered.isEmpty()) {
+                    forward(v);
+                }
+            }
+            published = seq;
+            signal();
+            if (seq > nextLagCheck) {
+                checkLag(seq - 1);
+            }
+        }
+    }
+
+    /**
+     * Record the lag of streams that are not reading. Streams that are reading
+     * record their own lag. Called with the producer lock held, every
+     * {@link #LAG_CHECK_INTERVAL} items.
+     */
+    private void checkLag(long seq) {
+        nextLagCheck = seq + LAG_CHECK_INTERVAL;
+        synchronized (this) {
+            sweep(System.currentTimeMillis());
+            gatingSequence = computeGatingSequence();
+            if (seq - gatingSequence > lagThreshold) {
+                for (SpliteratorImplementation<T> sp : spliterators.values()) {
+                    if (sp.isGating()) {
+                        sp.recordLag(seq + 1 - sp.sequence, false);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the item to the filtered queues that match it. Called with the
+     * producer lock held, which also serializes the filtered queues. Their
+     * streams skip items instead of gating, so this never waits.
+     */
+    private void forward(T v) {
+        for (Filtered<T> f : filtered) {
+            if (f.filter.test(v)) {
+                f.queue.append(v);
+            }
+        }
+    }
+
+    /**
+     * Stop forwarding items to the filtered queues that no stream will read
+     * again. Called with the lock held, when streams are added and every
+     * {@link #LAG_CHECK_INTERVAL} items.
+     */
+    private void sweep(long now) {
+        if (!filtered.isEmpty()) {
+            filtered.removeIf(f -> f.queue.isIdle(now));
+        }
+    }
+
+    /**
+     * Are all of the streams closed, finished or timed out?
+     */
+    synchronized private boolean isIdle(long now) {
+        for (SpliteratorImplementation<T> sp : spliterators.values()) {
+            if (!sp.done && now < sp.end) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forward items to a filtered queue again, in case it was dropped while
+     * idle. Called with the lock held.
+     */
+    private void attach(Filtered<T> f) {
+        if (!filtered.contains(f)) {
+            filtered.add(f);
+        }
+    }
+
+    /** Wake any streams that are waiting on the next item. */
+    private void signal() {
+        if (!parked.isEmpty()) {
+            for (Thread t : parked) {
+                LockSupport.unpark(t);
+            }
+        }
+        if (!subscriptions.isEmpty()) {
+            for (QueueSubscription<T> s : subscriptions) {
+                s.schedule();
+            }
+        }
+    }
+
+    /**
+     * Would writing seq reuse a slot a stream at readerSequence may still read?
+     * One slot is kept free, so that a reader can tell a reused slot from the
+     * published sequence alone.
+     */
+    private boolean wraps(long seq, long readerSequence) {
+        return seq - capacity + 1 >= readerSequence;
+    }
+
+    /**
+     * Wait for the slowest open stream to move past the slot seq will be written
+     * to. Streams that block the producer are waited on until they read, close
+     * or time out. Called with the producer lock held. The lock of the queue
+     * is only held to look at the streams, not while waiting for them.
+     */
+    private void awaitCapacity(long seq) {
+        long deadline = System.currentTimeMillis() + STALL_TIMEOUT_MS;
+        while (!closed) {
+            gatingDirty = false;
+            long gating;
+            synchronized (this) {
+                gating = computeGatingSequence();
+                gatingSequence = gating;
+            }
+            if (!wraps(seq, gating)) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                synchronized (this) {
+                    for (SpliteratorImplementation<T> sp : spliterators.values()) {
+                        if (sp.policy == null && sp.isGating() && wraps(seq, sp.gate())) {
+                            sp.released = true;
+                            J1939_84.getLogger()
+                                    .log(Level.WARNING,
+                                         "Stream stopped reading, " + (seq - sp.sequence) + " items behind: " + sp);
                         }
-                        list.forEach(sp -> {
-                            long es = sp.estimateSize();
-                            if (es > 10_000) {
-                                System.err.println(sp + " size:" + es + " end:" + sp.end);
-                                // sp.stack.printStackTrace();
-                            }
-                        });
                     }
                 }
-            } catch (Throwable t) {
-                t.printStackTrace();
+                deadline = System.currentTimeMillis() + STALL_TIMEOUT_MS;
+                continue;
+            }
+            LockSupport.parkNanos(this, PRODUCER_BACKOFF_NS);
+        }
+    }
+
+    private long computeGatingSequence() {
+        long min = Long.MAX_VALUE;
+        for (SpliteratorImplementation<T> sp : spliterators.values()) {
+            if (sp.isGating()) {
+                min = Math.min(min, sp.gate());
             }
-        }, "MultiQueue Monitor").start();
+        }
+        return min;
     }
 
-    synchronized public void add(T v) {
-        list = list.add(v);
+    /** Register a new stream. Called with the lock held. */
+    private Stream<T> register(SpliteratorImplementation<T> spliterator) {
+        Stream<T> stream = StreamSupport.stream(spliterator, false);
+        spliterators.put(stream, spliterator);
+        if (spliterator.isGating()) {
+            gatingSequence = Math.min(gatingSequence, spliterator.gate());
+            // a producer waiting outside the lock may not have seen the stream
+            gatingDirty = true;
+        }
+        stream.onClose(spliterator::close);
+        return stream;
     }
 
+    /**
+     * A released stream started reading again. This does not take the lock,
+     * so that reading never waits for streams being opened.
+     */
+    private void rejoin(SpliteratorImplementation<T> spliterator) {
+        spliterator.released = false;
+        gatingDirty = true;
+    }
+
+    /**
+     * Close all of the streams. Streams that are being read end after the items
+     * that were already added. Streams that have not been read yet are empty.
+     */
     @Override
     public void close() {
-        // close all of the spliterators.
-        synchronized (spliterators) {
-            spliterators.values().forEach(SpliteratorImplementation<T>::close);
+        closed = true;
+        synchronized (this) {
+            for (SpliteratorImplementation<T> sp : spliterators.values()) {
+                sp.close(sp.started ? published : Long.MIN_VALUE);
+            }
         }
-        queues.remove(this);
+        parked.forEach(LockSupport::unpark);
+        subscriptions.forEach(QueueSubscription::schedule);
+        List<Filtered<T>> list;
+        synchronized (this) {
+            list = new ArrayList<>(filtered);
+            filtered.clear();
+        }
+        list.forEach(f -> f.queue.close());
     }
 
     /**
@@ -84,19 +495,21 @@ public class MultiQueue<T> implements AutoCloseable {
      * @return        The new stream, independent of the original, but starting at the same
      *                location the original is right now.
      */
-    public Stream<T> duplicate(Stream<T> stream, int time, TimeUnit unit) {
-        synchronized (spliterators) {
-            SpliteratorImplementation<T> oldSpliterator = spliterators.get(stream);
-            if (oldSpliterator.item == null) {
-                throw new IllegalStateException("stream has already been closed.");
-            }
-            SpliteratorImplementation<T> newSpliterator = new SpliteratorImplementation<>(oldSpliterator);
-            Stream<T> newStream = StreamSupport.stream(newSpliterator, false);
-            spliterators.put(newStream, newSpliterator);
-            newSpliterator.setTimeout(time, unit);
-            newStream.onClose(newSpliterator::close);
-            return newStream;
+    synchronized public Stream<T> duplicate(Stream<T> stream, int time, TimeUnit unit) {
+        Filtered<T> f = filteredStreams.get(stream);
+        if (f != null) {
+            Stream<T> duplicate = f.queue.duplicate(stream, time, unit);
+            filteredStreams.put(duplicate, f);
+            attach(f);
+            return duplicate;
+        }
+        SpliteratorImplementation<T> oldSpliterator = spliterators.get(stream);
+        if (oldSpliterator.done) {
+            throw new IllegalStateException("stream has already been closed.");
         }
+        SpliteratorImplementation<T> newSpliterator = new SpliteratorImplementation<>(oldSpliterator);
+        newSpliterator.setTimeout(time, unit);
+        return register(newSpliterator);
     }
 
     /**
@@ -108,14 +521,18 @@ public class MultiQueue<T> implements AutoCloseable {
      * @param time
      * @param unit
      */
-    public void resetTimeout(Stream<T> stream, int time, TimeUnit unit) {
-        synchronized (spliterators) {
-            SpliteratorImplementation<T> spliterator = spliterators.get(stream);
-            if (spliterator == null) {
-                throw new IllegalArgumentException("Invalid stream.");
-            }
-            spliterator.setTimeout(time, unit);
+    synchronized public void resetTimeout(Stream<T> stream, int time, TimeUnit unit) {
+        Filtered<T> f = filteredStreams.get(stream);
+        if (f != null) {
+            f.queue.resetTimeout(stream, time, unit);
+            attach(f);
+            return;
+        }
+        SpliteratorImplementation<T> spliterator = spliterators.get(stream);
+        if (spliterator == null) {
+            throw new IllegalArgumentException("Invalid stream.");
         }
+        spliterator.setTimeout(time, unit);
     }
 
     /**
@@ -128,94 +545,536 @@ public class MultiQueue<T> implements AutoCloseable {
      * @return         the stream
      */
     synchronized public Stream<T> stream(long timeout, TimeUnit unit) {
-        SpliteratorImplementation<T> spliterator = new SpliteratorImplementation<>(list, timeout, unit);
-        Stream<T> stream = StreamSupport.stream(spliterator, false);
-        synchronized (spliterators) {
-            spliterators.put(stream, spliterator);
+        return register(new SpliteratorImplementation<>(this, published, timeout, unit, capacity - 1, null));
+    }
+
+    /**
+     * A stream that falls at most maxLag items behind the items being added.
+     *
+     * @param  timeout
+     *                     The stream will be valid for a period of timeout. If the
+     *                     stream is not read prior to timeout, then it will be empty.
+     * @param  unit
+     *                     the TimeUnit for the timeout
+     * @param  maxLag
+     *                     the number of items the stream may fall behind. Limited
+     *                     to the capacity of the ring.
+     * @param  policy
+     *                     what to do when the stream falls further behind
+     * @return         the stream
+     */
+    synchronized public Stream<T> stream(long timeout, TimeUnit unit, int maxLag, LagPolicy policy) {
+        if (maxLag < 1) {
+            throw new IllegalArgumentException("Maximum lag must be at least 1.");
         }
-        stream.onClose(spliterator::close);
+        return register(new SpliteratorImplementation<>(this,
+                                                        published,
+                                                        timeout,
+                                                        unit,
+                                                        Math.min(maxLag, capacity - 1),
+                                                        Objects.requireNonNull(policy)));
+    }
+
+    /**
+     * A stream of the items that match the filter. The filter is tested once
+     * per item, as the item is added.
+     *
+     * @param  filter
+     *                     Items that do not match are not added to the stream.
+     *                     null or {@link FrameFilter#all()} for a stream of all
+     *                     items, that is not filtered.
+     * @param  timeout
+     *                     The stream will be valid for a period of timeout. If the
+     *                     stream is not read prior to timeout, then it will be empty.
+     * @param  unit
+     *                     the TimeUnit for the timeout
+     * @return         the stream
+     */
+    synchronized public Stream<T> stream(Predicate<? super T> filter, long timeout, TimeUnit unit) {
+        if (matchesAll(filter)) {
+            return stream(timeout, unit);
+        }
+        Filtered<T> f = filtered(filter);
+        return addFiltered(f, f.queue.stream(timeout, unit, FILTERED_CAPACITY - 1, LagPolicy.DROP_OLDEST));
+    }
+
+    /**
+     * A stream of the items that match the filter, that falls at most maxLag
+     * matching items behind.
+     *
+     * @param  filter
+     *                     Items that do not match are not added to the stream.
+     *                     null or {@link FrameFilter#all()} for a stream of all
+     *                     items, that is not filtered.
+     * @param  timeout
+     *                     The stream will be valid for a period of timeout. If the
+     *                     stream is not read prior to timeout, then it will be empty.
+     * @param  unit
+     *                     the TimeUnit for the timeout
+     * @param  maxLag
+     *                     the number of items the stream may fall behind. Limited
+     *                     to {@link #FILTERED_CAPACITY}.
+     * @param  policy
+     *                     what to do when the stream falls further behind.
+     *                     {@link LagPolicy#BLOCK} skips the oldest items
+     *                     instead, because the producer never waits for a
+     *                     filtered stream.
+     * @return         the stream
+     */
+    synchronized public Stream<T> stream(Predicate<? super T> filter,
+                                         long timeout,
+                                         TimeUnit unit,
+                                         int maxLag,
+                                         LagPolicy policy) {
+        if (matchesAll(filter)) {
+            return stream(timeout, unit, maxLag, policy);
+        }
+        Filtered<T> f = filtered(filter);
+        LagPolicy skip = policy == LagPolicy.CLOSE ? LagPolicy.CLOSE : LagPolicy.DROP_OLDEST;
+        return addFiltered(f, f.queue.stream(timeout, unit, maxLag, skip));
+    }
+
+    /**
+     * A filter that matches every item is not worth a queue of its own, which
+     * would hold a second copy of every item and skip items the stream is too
+     * slow for.
+     */
+    private static boolean matchesAll(Predicate<?> filter) {
+        return filter == null || filter == FrameFilter.all();
+    }
+
+    private Filtered<T> filtered(Predicate<? super T> filter) {
+        return new Filtered<>(filter, new MultiQueue<>(FILTERED_CAPACITY, metrics));
+    }
+
+    /** Start forwarding items to a new filtered stream. Called with the lock held. */
+    private Stream<T> addFiltered(Filtered<T> f, Stream<T> stream) {
+        sweep(System.currentTimeMillis());
+        filteredStreams.put(stream, f);
+        filtered.add(f);
         return stream;
     }
 
-    static private class Item<T> {
-        final T value;
-        Item<T> next;
+    /**
+     * A publisher of the items that match the filter, delivered on the shared
+     * dispatcher. Each subscriber receives the items added after it subscribed.
+     *
+     * @param  filter
+     *                    Items that do not match are not delivered. null or
+     *                    {@link FrameFilter#all()} for all items.
+     * @return        the publisher
+     */
+    public Flow.Publisher<T> publisher(Predicate<? super T> filter) {
+        return publisher(filter, DISPATCHER);
+    }
+
+    /**
+     * A publisher of the items that match the filter, delivered on the given
+     * executor. Each subscriber receives the items added after it subscribed.
+     *
+     * @param  filter
+     *                      Items that do not match are not delivered. null or
+     *                      {@link FrameFilter#all()} for all items.
+     * @param  executor
+     *                      the executor to deliver items on
+     * @return          the publisher
+     */
+    public Flow.Publisher<T> publisher(Predicate<? super T> filter, Executor executor) {
+        return subscriber -> {
+            Stream<T> stream;
+            SpliteratorImplementation<T> spliterator;
+            synchronized (this) {
+                if (matchesAll(filter)) {
+                    stream = stream(9999, TimeUnit.DAYS);
+                    spliterator = spliterators.get(stream);
+                } else {
+                    stream = stream(filter, 9999, TimeUnit.DAYS);
+                    MultiQueue<T> queue = filteredStreams.get(stream).queue;
+                    synchronized (queue) {
+                        spliterator = queue.spliterators.get(stream);
+                    }
+                }
+            }
+            QueueSubscription<T> subscription = new QueueSubscription<>(stream, spliterator, subscriber, executor);
+            subscriber.onSubscribe(subscription);
+            spliterator.queue.subscriptions.add(subscription);
+            // catch up on anything added or closed before the subscription was registered
+            subscription.schedule();
+        };
+    }
+
+    /**
+     * Delivers items from a stream to a subscriber. At most one drain runs at a
+     * time, so the subscriber is called serially.
+     */
+    private final static class QueueSubscription<T> implements Flow.Subscription {
+        // the spliterator is only registered while its stream is reachable
+        @SuppressWarnings("unused")
+        private final Stream<T> stream;
+        private final SpliteratorImplementation<T> spliterator;
+        private final Flow.Subscriber<? super T> subscriber;
+        private final Executor executor;
+        // items requested, but not delivered yet
+        private final AtomicLong demand = new AtomicLong();
+        // number of wakeups since the last drain started
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        // an invalid request, reported to the subscriber from drain()
+        private volatile Throwable error;
 
-        Item(T v) {
-            value = v;
+        private QueueSubscription(Stream<T> stream,
+                                  SpliteratorImplementation<T> spliterator,
+                                  Flow.Subscriber<? super T> subscriber,
+                                  Executor executor) {
+            this.stream = stream;
+            this.spliterator = spliterator;
+            this.subscriber = subscriber;
+            this.executor = executor;
+            // so that closing the queue still delivers the items already added
+            spliterator.started = true;
         }
 
-        synchronized Item<T> add(T v) {
-            next = new Item<>(v);
-            notifyAll();
-            return next;
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Request must be positive: " + n);
+                schedule();
+                return;
+            }
+            demand.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            schedule();
         }
 
-        synchronized Item<T> next(long delay) {
-            if (next == null) {
+        @Override
+        public void cancel() {
+            cancelled = true;
+            spliterator.queue.subscriptions.remove(this);
+            spliterator.close();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
                 try {
-                    wait(delay);
-                } catch (InterruptedException e) {
-                    // no problem
+                    Throwable e = error;
+                    if (e != null && !cancelled) {
+                        cancel();
+                        subscriber.onError(e);
+                    }
+                    while (!cancelled && demand.get() > 0 && spliterator.advance(this::deliver, false)) {
+                        demand.decrementAndGet();
+                    }
+                    if (!cancelled && spliterator.isExhausted()) {
+                        cancelled = true;
+                        spliterator.queue.subscriptions.remove(this);
+                        subscriber.onComplete();
+                    }
+                } catch (LagException e) {
+                    cancel();
+                    subscriber.onError(e);
+                } catch (Throwable t) {
+                    J1939_84.getLogger().log(Level.WARNING, "Subscriber failed: " + subscriber, t);
+                    cancel();
                 }
-            }
-            return next;
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
         }
 
-        synchronized public boolean isReady() {
-            return next != null;
+        private void deliver(T item) {
+            subscriber.onNext(item);
+        }
+    }
+
+    /**
+     * Ends a stream opened with {@link LagPolicy#CLOSE} that fell too far
+     * behind.
+     */
+    public static class LagException extends IllegalStateException {
+        private static final long serialVersionUID = -2911875046375541317L;
+
+        public LagException(String message) {
+            super(message);
+        }
+    }
+
+    /** Counters shared by a queue and its filtered queues. */
+    private final static class Metrics {
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong maxLag = new AtomicLong();
+        // a stream has lagged, so new streams record where they are opened
+        private volatile boolean sampling;
+        // guarded by itself
+        private final List<String> laggingStreams = new ArrayList<>();
+    }
+
+    private final static class Filtered<T> {
+        private final Predicate<? super T> filter;
+        private final MultiQueue<T> queue;
+
+        private Filtered(Predicate<? super T> filter, MultiQueue<T> queue) {
+            this.filter = filter;
+            this.queue = queue;
         }
     }
 
     private final static class SpliteratorImplementation<T> implements Spliterator<T> {
+        private final MultiQueue<T> queue;
         // end time of stream
-        private long end;
-        // reference to tail
-        private Item<T> item;
-        // final private Error stack;
+        private volatile long end;
+        // sequence of the next item to read
+        private volatile long sequence;
+        // items at or after limit are not read. Set when the stream is closed.
+        private volatile long limit = Long.MAX_VALUE;
+        // closed or finished
+        private volatile boolean done;
+        // tryAdvance has been called
+        private volatile boolean started;
+        // the producer stopped waiting for this stream
+        private volatile boolean released;
+        // thread parked in this stream
+        private volatile Thread waiter;
+        // number of unread items the stream may fall behind
+        private final int maxLag;
+        // what to do when the stream falls further behind. null to release it after a stall.
+        private final LagPolicy policy;
+        // items skipped by this stream. Only written by the reader.
+        private volatile long dropped;
+        // the caller that opened the stream. null if opened before any stream lagged.
+        private final StackTraceElement site;
+        // the lag of this stream has crossed the lag threshold
+        private volatile boolean lagging;
 
-        private SpliteratorImplementation(Item<T> list, long timeout, TimeUnit unit) {
-            item = list;
+        private SpliteratorImplementation(MultiQueue<T> queue,
+                                          long sequence,
+                                          long timeout,
+                                          TimeUnit unit,
+                                          int maxLag,
+                                          LagPolicy policy) {
+            this.queue = queue;
+            this.sequence = sequence;
+            this.maxLag = maxLag;
+            this.policy = policy;
+            site = queue.metrics.sampling ? caller() : null;
             setTimeout(timeout, unit);
-            // stack = new Error();
+        }
+
+        public SpliteratorImplementation(SpliteratorImplementation<T> that) {
+            queue = that.queue;
+            sequence = that.sequence;
+            end = that.end;
+            maxLag = that.maxLag;
+            policy = that.policy;
+            site = queue.metrics.sampling ? caller() : that.site;
+        }
+
+        /**
+         * The first frame on the stack outside of the JDK, the queue and the
+         * buses that delegate to it.
+         */
+        private static StackTraceElement caller() {
+            return StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE)
+                              .walk(frames -> frames.filter(f -> !f.getClassName().startsWith("java.")
+                                      && !isQueueOrBus(f.getDeclaringClass()))
+                                                    .findFirst()
+                                                    .map(StackWalker.StackFrame::toStackTraceElement)
+                                                    .orElse(null));
+        }
+
+        private static boolean isQueueOrBus(Class<?> cls) {
+            return cls.getNestHost() == MultiQueue.class || Bus.class.isAssignableFrom(cls);
+        }
+
+        /**
+         * Record how far behind the stream is. The first time the lag crosses
+         * the threshold of the queue, where the stream was created is logged
+         * and kept. If that is not known, where the stream is read is logged
+         * when called by the reader.
+         */
+        private void recordLag(long lag, boolean reading) {
+            Metrics metrics = queue.metrics;
+            if (lag > metrics.maxLag.get()) {
+                metrics.maxLag.accumulateAndGet(lag, Math::max);
+            }
+            if (lag > queue.lagThreshold && !lagging) {
+                lagging = true;
+                metrics.sampling = true;
+                String report = "Stream " + lag + " items behind: "
+                        + (site == null && reading ? "stream read at " + caller() : this);
+                J1939_84.getLogger().log(Level.WARNING, report);
+                synchronized (metrics.laggingStreams) {
+                    if (metrics.laggingStreams.size() < MAX_LAG_SITES) {
+                        metrics.laggingStreams.add(report);
+                    }
+                }
+            }
         }
 
         public void close() {
-            end = 0;
-            item = null;
+            close(Long.MIN_VALUE);
         }
 
-        public SpliteratorImplementation(SpliteratorImplementation<T> that) {
-            item = that.item;
-            end = that.end;
-            // stack = new Error();
+        /** Stop waiting for items and end the stream after the items before limit. */
+        private void close(long limit) {
+            this.limit = limit;
+            end = 0;
+            done = true;
+            Thread t = waiter;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
         }
 
         public void setTimeout(long timeout, TimeUnit unit) {
             end = System.currentTimeMillis() + unit.toMillis(timeout);
         }
 
+        /** Has this stream read every item it will ever read? */
+        private boolean isExhausted() {
+            return sequence >= Math.min(queue.published, limit)
+                    && (limit != Long.MAX_VALUE || System.currentTimeMillis() >= end);
+        }
+
+        /** Does the producer have to wait for this stream? */
+        private boolean isGating() {
+            return !done && !released && !isSkipping() && System.currentTimeMillis() < end;
+        }
+
+        /** Does the stream skip items when it falls behind, instead of the producer waiting? */
+        private boolean isSkipping() {
+            return policy == LagPolicy.DROP_OLDEST || policy == LagPolicy.CLOSE;
+        }
+
+        /**
+         * The reader sequence the producer gates on. A stream with a smaller
+         * maximum lag gates the producer as if it were further behind.
+         */
+        private long gate() {
+            return sequence - (queue.capacity - 1 - maxLag);
+        }
+
         @Override
         public boolean tryAdvance(Consumer<? super T> action) {
+            return advance(action, true);
+        }
+
+        /**
+         * Read the next item.
+         *
+         * @param  wait
+         *                  wait for the next item to be added, instead of
+         *                  returning false while the stream is still open
+         * @return      true if an item was read. If false and the stream is not
+         *              done, there is no item yet.
+         */
+        private boolean advance(Consumer<? super T> action, boolean wait) {
+            if (!started) {
+                started = true;
+            }
             /*
-             * While not timed out, wait next packet.
-             * 
-             * Include isReady, because this is based on wall clock and there is no indication when item.next was added,
-             * except that it is added now.
+             * While not timed out, wait next item.
+             *
+             * Items that are already published are read even after the timeout, because the timeout is based on
+             * wall clock and there is no indication when the item was added, except that it is added now.
              */
-            while (item != null && (item.isReady() || System.currentTimeMillis() < end)) {
-                Item<T> n = item.next(end - System.currentTimeMillis());
-                if (n != null) {
-                    item = n;
-                    action.accept(n.value);
-                    return true;
+            while (true) {
+                long seq = sequence;
+                long published = queue.published;
+                if (seq < Math.min(published, limit)) {
+                    if (published - seq > maxLag && isSkipping()) {
+                        overrun(published);
+                        continue;
+                    }
+                    T value = queue.ring.get((int) seq & queue.mask);
+                    // verify that the slot was not reused while it was being read
+                    if (seq + queue.capacity > queue.published) {
+                        sequence = seq + 1;
+                        recordLag(published - seq, true);
+                        action.accept(value);
+                        return true;
+                    }
+                    // a skipping stream is overrun on the next pass
+                    if (!isSkipping() && !lapped()) {
+                        break;
+                    }
+                } else if (limit == Long.MAX_VALUE && System.currentTimeMillis() < end) {
+                    if (!wait) {
+                        return false;
+                    }
+                    await();
+                } else {
+                    break;
                 }
             }
-            // lose reference to tail, to allow for faster cleanup
-            item = null;
+            done = true;
             return false;
         }
 
+        /**
+         * The producer reused the slot of the next item. Skip to the oldest item
+         * in the ring.
+         *
+         * @return false if the stream should end instead.
+         */
+        private boolean lapped() {
+            if (System.currentTimeMillis() >= end) {
+                return false;
+            }
+            long oldest = queue.published - queue.capacity + 1;
+            J1939_84.getLogger().log(Level.WARNING, "Stream lost " + (oldest - sequence) + " items: " + this);
+            drop(oldest - sequence);
+            sequence = oldest;
+            queue.rejoin(this);
+            return true;
+        }
+
+        /**
+         * The stream is more than maxLag items behind. Skip to the newest maxLag
+         * items, or end the stream.
+         */
+        private void overrun(long published) {
+            long lag = published - sequence;
+            if (policy == LagPolicy.CLOSE) {
+                done = true;
+                throw new LagException("Stream fell " + lag + " items behind, the limit is " + maxLag + ": " + this);
+            }
+            drop(lag - maxLag);
+            sequence = published - maxLag;
+        }
+
+        private void drop(long count) {
+            dropped += count;
+            queue.metrics.dropped.addAndGet(count);
+        }
+
+        /** Spin and then park until an item is added, the stream times out or is closed. */
+        private void await() {
+            for (int i = 0; i < SPIN_TRIES; i++) {
+                if (sequence < queue.published || done) {
+                    return;
+                }
+                Thread.onSpinWait();
+            }
+            Thread thread = Thread.currentThread();
+            waiter = thread;
+            queue.parked.add(thread);
+            try {
+                // check again after registering, so that a concurrent add is not missed
+                long delay = end - System.currentTimeMillis();
+                if (sequence >= queue.published && !done && delay > 0) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(delay));
+                }
+            } finally {
+                queue.parked.remove(thread);
+                waiter = null;
+            }
+        }
+
         @Override
         public Spliterator<T> trySplit() {
             // Do not split.
@@ -224,18 +1083,17 @@ public class MultiQueue<T> implements AutoCloseable {
 
         @Override
         public long estimateSize() {
-            int count = 0;
-            Item<T> item = this.item;
-            while (item != null) {
-                item = item.next;
-                count++;
-            }
-            return count;
+            return done ? 0 : queue.published - sequence;
         }
 
         @Override
         public int characteristics() {
             return IMMUTABLE | ORDERED;
         }
+
+        @Override
+        public String toString() {
+            return site == null ? "stream opened before any stream lagged" : "stream opened at " + site;
+        }
     }
 }
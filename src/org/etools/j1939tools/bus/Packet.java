@@ -3,7 +3,10 @@
  */
 package org.etools.j1939tools.bus;
 
-import java.time.Duration;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
@@ -14,6 +17,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -27,10 +34,32 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 /**
  * Sends a Packet containing an id with data from a source onto the bus
  *
+ * Single frames, which are almost all of the traffic, keep their up to 8 data
+ * bytes packed in a long. Only longer (transport protocol) packets allocate a
+ * byte array.
+ *
  * @author Joe Batt (joe@soliddesign.net)
  */
 public class Packet {
-    private static final int[] FAIL = new int[0];
+    /** The length of a packet whose data has not been received yet. */
+    private static final int PENDING = -1;
+    /** The length of a packet whose data is being stored. */
+    private static final int STORING = -2;
+    /** How long to wait for the data of a pending packet before failing it. */
+    private static final long DATA_TIMEOUT_MS = 30_000;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final VarHandle LENGTH;
+    static {
+        try {
+            LENGTH = MethodHandles.lookup().findVarHandle(Packet.class, "length", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    /** The most data bytes that are packed into {@link #small}. */
+    private static final int SMALL = 8;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final ThreadLocal<PacketParser> PARSER = ThreadLocal.withInitial(PacketParser::new);
     // FIXME, eventually change to (RX)
     public static final String RX = "";
     /**
@@ -41,9 +70,39 @@ public class Packet {
     private final int priority;
     private final int source;
     private final boolean transmitted;
-    private int[] data;
-    private List<Packet> fragments = Collections.singletonList(this);
-    private LocalDateTime timestamp;
+    /** Data of packets up to 8 bytes long, the first byte in the low bits. */
+    private long small;
+    /** Data of packets longer than 8 bytes. */
+    private byte[] large;
+    /**
+     * The number of data bytes; negative until the data is set and 0 if the
+     * packet failed. Written after the data, so a reader that sees a positive
+     * length also sees the data. Leaves {@link #PENDING} only once.
+     */
+    private volatile int length = PENDING;
+    /**
+     * Completed with this packet once its data is set or it fails. null for
+     * packets created with their data.
+     */
+    private CompletableFuture<Packet> completion;
+    /** null until set, meaning the packet is its own only fragment. */
+    private List<Packet> fragments;
+    /**
+     * Nanoseconds since 1970-01-01T00:00 on the local clock, the same clock as
+     * {@link #getTimestamp()}.
+     */
+    private volatile long timestampNanos;
+    /**
+     * {@link #timestampNanos} as a LocalDateTime, built when first needed. Only
+     * used while its nanos match, so a timestamp changed by another thread is
+     * never paired with a stale LocalDateTime.
+     */
+    private volatile Timestamp timestamp;
+    /**
+     * The channel the packet was received on. Only a copy made by
+     * {@link #withChannel(int)} is on another channel.
+     */
+    private int channel = 1;
 
     /**
      * Creates a Packet
@@ -57,24 +116,57 @@ public class Packet {
      * @param transmitted
      *                        indicates the packet was sent by the application
      * @param data
-     *                        the data of the packet
+     *                        the data of the packet, or null if it will be set
+     *                        later
      */
     public Packet(LocalDateTime timestamp, int priority, int id, int source, boolean transmitted, int... data) {
-        this.timestamp = timestamp;
-        this.priority = priority;
-        this.id = id;
-        this.source = source;
-        this.transmitted = transmitted;
-        this.data = data;
-        if (data != null) {
-            for (int i = 0; i < data.length; i++) {
-                data[i] &= 0xFF;
+        this(toNanos(timestamp), priority, id, source, transmitted);
+        this.timestamp = new Timestamp(timestampNanos, timestamp);
+        if (data == null) {
+            completion = new CompletableFuture<>();
+        } else {
+            int len = data.length;
+            if (len <= SMALL) {
+                long v = 0;
+                for (int i = len - 1; i >= 0; i--) {
+                    v = (v << 8) | (data[i] & 0xFF);
+                }
+                small = v;
+            } else {
+                large = new byte[len];
+                for (int i = 0; i < len; i++) {
+                    large[i] = (byte) data[i];
+                }
             }
+            length = len;
         }
     }
 
+    /**
+     * Copies a completed packet.
+     *
+     * @throws PacketException
+     *                             if the packet is still waiting for its data
+     */
+    @SuppressFBWarnings(value = "CT_CONSTRUCTOR_THROW", justification = "Not a concern in desktop app.")
     public Packet(Packet p) {
-        this(LocalDateTime.now(), p.priority, p.id, p.source, p.transmitted, p.data);
+        this(toNanos(LocalDateTime.now()), p.priority, p.id, p.source, p.transmitted);
+        // large is never modified once set, so it can be shared
+        int len = p.length;
+        if (len < 0) {
+            throw new PacketException("Packet is not complete.");
+        }
+        small = p.small;
+        large = p.large;
+        length = len;
+    }
+
+    private Packet(long timestampNanos, int priority, int id, int source, boolean transmitted) {
+        this.timestampNanos = timestampNanos;
+        this.priority = priority;
+        this.id = id;
+        this.source = source;
+        this.transmitted = transmitted;
     }
 
     public static Packet create(int id, int source, boolean transmitted, int... data) {
@@ -140,11 +232,77 @@ public class Packet {
             // a body of 0 length indicates that the packet was a failure.
             throw new IllegalArgumentException("Packets must have a body of at least 3 bytes.");
         }
-        int[] data = new int[bytes.length];
-        for (int i = 0; i < bytes.length; i++) {
-            data[i] = 0xFF & bytes[i];
+        Packet packet = new Packet(toNanos(time), priority, id, source, transmitted);
+        packet.timestamp = new Timestamp(packet.timestampNanos, time);
+        packet.store(bytes);
+        return packet;
+    }
+
+    /**
+     * Creates an instance of Packet with the data read from a buffer, without
+     * changing the buffer's position.
+     *
+     * @param  timestampNanos
+     *                            the time received, in nanoseconds since
+     *                            1970-01-01T00:00 on the local clock
+     * @param  buffer
+     *                    the buffer holding the data bytes
+     * @param  offset
+     *                    the index of the first data byte in the buffer
+     * @param  length
+     *                    the number of data bytes
+     * @return        Packet
+     */
+    public static Packet create(long timestampNanos,
+                                int priority,
+                                int id,
+                                int source,
+                                boolean transmitted,
+                                ByteBuffer buffer,
+                                int offset,
+                                int length) {
+        if (length < 3) {
+            // a body of 0 length indicates that the packet was a failure.
+            throw new IllegalArgumentException("Packets must have a body of at least 3 bytes.");
         }
-        return new Packet(time, priority, id, source, transmitted, data);
+        Packet packet = new Packet(timestampNanos, priority, id, source, transmitted);
+        packet.store(buffer, offset, length);
+        return packet;
+    }
+
+    /**
+     * Creates a Packet from a frame of a capture. Unlike the create() methods,
+     * frames with less than 3 data bytes are allowed.
+     *
+     * @param  header
+     *                    priority &lt;&lt; 26 | id &lt;&lt; 8 | source, as written
+     *                    in .asc logs
+     * @param  channel
+     *                    the channel the frame was read on
+     */
+    static Packet fromFrame(long timestampNanos,
+                            int header,
+                            boolean transmitted,
+                            int channel,
+                            ByteBuffer buffer,
+                            int offset,
+                            int length) {
+        Packet packet = new Packet(timestampNanos,
+                                   (header >> 26) & 0x07,
+                                   (header >> 8) & 0x3FFFF,
+                                   header & 0xFF,
+                                   transmitted);
+        packet.channel = channel;
+        packet.store(buffer, offset, length);
+        return packet;
+    }
+
+    /**
+     * @return priority &lt;&lt; 26 | id &lt;&lt; 8 | source, as written in
+     *         .asc logs
+     */
+    int getHeader() {
+        return (priority << 18 | id) << 8 | source;
     }
 
     public static Packet create(LocalDateTime time,
@@ -168,25 +326,12 @@ public class Packet {
      * @return        a Packet or null if the string could not be parsed
      */
     public static Packet parse(String string) {
+        PacketParser parser = PARSER.get();
         try {
-            boolean tx = string.contains(TX);
-            if (tx) {
-                string = string.replace(TX, "");
+            if (parser.parse(string)) {
+                return parser.toPacket();
             }
-            String[] parts = string.split(" ");
-            int header = Integer.parseInt(parts[0].trim(), 16);
-            int priority = (header & 0xFF000000) >> 26;
-            int id = (header & 0xFFFF00) >> 8;
-            int source = header & 0xFF;
-
-            // skip the length indication
-            int offset = parts[1].startsWith("[") ? 2 : 1;
-            byte[] bytes = new byte[parts.length - offset];
-            for (int i = offset; i < parts.length; i++) {
-                bytes[i - offset] = (byte) (Integer.parseInt(parts[i].trim(), 16) & 0xFF);
-            }
-
-            return Packet.create(priority, id, source, tx, bytes);
+            J1939_84.getLogger().log(Level.SEVERE, string + " could not be parsed into a Packet");
         } catch (Exception e) {
             J1939_84.getLogger().log(Level.SEVERE, string + " could not be parsed into a Packet", e);
         }
@@ -197,36 +342,60 @@ public class Packet {
         return Stream.of(string.split("\n")).map(Packet::parsePacket).collect(Collectors.toList());
     }
 
+    /**
+     * Converts a header and data bytes, separated by commas or white space,
+     * into a Packet of priority 6.
+     *
+     * @throws NumberFormatException
+     *                                   if the string could not be parsed
+     */
     public static Packet parsePacket(String p) {
-        String[] a = p.split("[,\\s]+");
-        int id = Integer.parseInt(a[0], 16);
-        return Packet.create(0xFFFFFF & (id >> 8),
-                             0xFF & id,
-                             Stream.of(Arrays.copyOfRange(a, 1, a.length, String[].class))
-                                   .mapToInt(s -> Integer.parseInt(s, 16))
-                                   .toArray());
+        PacketParser parser = PARSER.get();
+        if (!parser.parsePacket(p)) {
+            throw new NumberFormatException(p + " could not be parsed into a Packet");
+        }
+        return parser.toPacket();
     }
 
+    /**
+     * Converts a line of a Vector .asc log, as written by
+     * {@link #toVectorString(Temporal)}, back into a Packet
+     *
+     * @param  start
+     *                    the time the log started
+     * @param  line
+     *                    the line to parse
+     * @return        a Packet or null if the line is not a frame received on
+     *                channel 1. The priority is left in the id. Use
+     *                {@link PacketParser#toPacket(LocalDateTime)} to read
+     *                transmitted frames and other channels as well, with the
+     *                priority split out.
+     */
     public static Packet parseVector(LocalDateTime start, String line) {
-        String[] a = line.trim().split("\\s+");
-        if (a.length > 5 && a[1].equals("1") && a[3].equals("Rx")) {
-            int id = Integer.parseInt(a[2].substring(0, a[2].length() - 1), 16);
-
-            return new Packet(start.plusNanos((long) (Double.parseDouble(a[0]) * 1000000000)),
-                              6,
-                              0xFFFFFF & (id >> 8),
-                              0xFF & id,
-                              false,
-                              Stream.of(Arrays.copyOfRange(a, 6, 6 + Integer.parseInt(a[5]), String[].class))
-                                    .mapToInt(s -> Integer.parseInt(s, 16))
-                                    .toArray());
+        PacketParser parser = PARSER.get();
+        if (!parser.parseVector(line) || parser.isTransmitted() || parser.getChannel() != 1) {
+            return null;
         }
-        return null;
+        int[] data = new int[parser.getLength()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = parser.get(i);
+        }
+        return new Packet(start.plusNanos(parser.getTimestampNanos()),
+                          6,
+                          0xFFFFFF & (parser.getHeader() >> 8),
+                          parser.getSource(),
+                          false,
+                          data);
     }
 
-    synchronized public void fail() {
-        data = FAIL;
-        notifyAll();
+    /**
+     * Marks a pending packet as failed. Does nothing if its data was already
+     * set.
+     */
+    public void fail() {
+        if (LENGTH.compareAndSet(this, PENDING, 0)) {
+            completion.complete(this);
+        }
     }
 
     /**
@@ -237,7 +406,7 @@ public class Packet {
      * @return   int
      */
     public int get(int i) {
-        return getData()[i];
+        return (int) getLittle(i, 1);
     }
 
     /**
@@ -248,8 +417,7 @@ public class Packet {
      * @return   int
      */
     public int get16(int i) {
-        int[] d = getData();
-        return (d[i + 1] << 8) | d[i];
+        return (int) getLittle(i, 2);
     }
 
     /**
@@ -261,8 +429,7 @@ public class Packet {
      * @return   int
      */
     public int get16Big(int i) {
-        int[] d = getData();
-        return (d[i] << 8) | d[i + 1];
+        return (int) getBig(i, 2);
     }
 
     /**
@@ -274,8 +441,7 @@ public class Packet {
      * @return   int
      */
     public int get24(int i) {
-        int[] d = getData();
-        return (d[i + 2] << 16) | (d[i + 1] << 8) | d[i];
+        return (int) getLittle(i, 3);
     }
 
     /**
@@ -287,8 +453,7 @@ public class Packet {
      * @return   int
      */
     public int get24Big(int i) {
-        int[] d = getData();
-        return (d[i] << 16) | (d[i + 1] << 8) | d[i + 2];
+        return (int) getBig(i, 3);
     }
 
     /**
@@ -300,9 +465,7 @@ public class Packet {
      * @return   int
      */
     public long get32(int i) {
-        int[] d = getData();
-        return ((long) (d[i + 3] & 0xFF) << 24) | ((d[i + 2] & 0xFF) << 16)
-                | ((d[i + 1] & 0xFF) << 8) | (d[i] & 0xFF);
+        return getLittle(i, 4);
     }
 
     /**
@@ -314,67 +477,208 @@ public class Packet {
      * @return   int
      */
     public long get32Big(int i) {
-        int[] d = getData();
-        return ((long) d[i] << 24) | ((long) d[i + 1] << 16) | ((long) d[i + 2] << 8)
-                | d[i + 3];
+        return getBig(i, 4);
     }
 
     public long get64() {
         return ((get32(0)) << 32) | get32(4);
     }
 
+    /** Returns n bytes starting at index i, the first byte in the low bits. */
+    private long getLittle(int i, int n) {
+        int len = getValidLength();
+        if (i < 0 || i > len - n) {
+            throw new ArrayIndexOutOfBoundsException("Index " + (i < 0 ? i : len) + " out of bounds for length " + len);
+        }
+        if (len <= SMALL) {
+            return (small >>> (i << 3)) & (-1L >>> (64 - (n << 3)));
+        }
+        long v = 0;
+        for (int k = n - 1; k >= 0; k--) {
+            v = (v << 8) | (large[i + k] & 0xFF);
+        }
+        return v;
+    }
+
+    /** Returns n bytes starting at index i, the first byte in the high bits. */
+    private long getBig(int i, int n) {
+        return Long.reverseBytes(getLittle(i, n)) >>> (64 - (n << 3));
+    }
+
     /**
      * Returns the data as an array of bytes
      *
      * @return byte[]
      */
     public byte[] getBytes() {
-        int[] d = getData();
-        byte[] bytes = new byte[d.length];
-        for (int i = 0; i < bytes.length; i++) {
-            bytes[i] = (byte) d[i];
+        int len = getValidLength();
+        if (len > SMALL) {
+            return large.clone();
+        }
+        byte[] bytes = new byte[len];
+        long v = small;
+        for (int i = 0; i < len; i++, v >>>= 8) {
+            bytes[i] = (byte) v;
         }
         return bytes;
     }
 
-    synchronized private int[] getData() {
+    /**
+     * Copies data bytes into an array, without allocating.
+     *
+     * @param index
+     *                   the index of the first data byte to copy
+     * @param dst
+     *                   the array to copy to
+     * @param offset
+     *                   the index in dst of the first byte copied
+     * @param count
+     *                   the number of bytes to copy
+     */
+    public void getBytes(int index, byte[] dst, int offset, int count) {
+        int len = getValidLength();
+        Objects.checkFromIndexSize(index, count, len);
+        if (len > SMALL) {
+            System.arraycopy(large, index, dst, offset, count);
+        } else {
+            Objects.checkFromIndexSize(offset, count, dst.length);
+            long v = small >>> (index << 3);
+            for (int i = 0; i < count; i++, v >>>= 8) {
+                dst[offset + i] = (byte) v;
+            }
+        }
+    }
+
+    /**
+     * Waits for the data and returns its length.
+     *
+     * @throws PacketException
+     *                             if the packet failed
+     */
+    private int getValidLength() {
         if (!isValid()) {
             throw new PacketException(String.format("Failed Packet: %s %06X%02X [?]%n%s",
-                                                    DateTimeModule.getInstance().getTimeFormatter().format(timestamp),
+                                                    DateTimeModule.getInstance().getTimeFormatter().format(getTimestamp()),
                                                     priority << 18 | id,
                                                     source,
-                                                    getFragments().stream()
-                                                                  .map(p -> p.toString())
-                                                                  .collect(Collectors.joining(System.lineSeparator()))));
+                                                    // without fragments, there is nothing more to show
+                                                    fragments == null ? ""
+                                                            : fragments.stream()
+                                                                       .map(p -> p.toString())
+                                                                       .collect(Collectors.joining(System.lineSeparator()))));
+        }
+        return length;
+    }
+
+    /**
+     * Returns true if the packet has data, waiting up to 30 s for the data of a
+     * pending packet.
+     */
+    public boolean isValid() {
+        int len = length;
+        if (len < 0) {
+            len = awaitData();
         }
-        return data;
+        return len > 0;
     }
 
-    synchronized public boolean isValid() {
-        long start = System.currentTimeMillis();
-        while (data == null) {
+    private int awaitData() {
+        long deadline = System.currentTimeMillis() + DATA_TIMEOUT_MS;
+        while (length < 0) {
             try {
-                wait(1000);
+                completion.get(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
             } catch (InterruptedException e) {
                 // No worries
-            }
-            if (System.currentTimeMillis() - start > 30_000) {
+            } catch (TimeoutException e) {
                 fail();
-                break;
+            } catch (ExecutionException e) {
+                // never completed exceptionally
+                throw new IllegalStateException(e);
             }
         }
-        return data.length > 0;
+        return length;
+    }
+
+    /**
+     * Returns a future that completes with this packet once its data is set or
+     * it fails, without blocking the caller. Completes exceptionally with a
+     * {@link TimeoutException} if neither happens within the timeout. The
+     * packet is not failed by that timeout.
+     */
+    public CompletableFuture<Packet> whenComplete(long timeout, TimeUnit unit) {
+        if (completion == null) {
+            return CompletableFuture.completedFuture(this);
+        }
+        return completion.copy().orTimeout(timeout, unit);
+    }
+
+    /**
+     * Sets the data of a pending packet and wakes any readers waiting for it.
+     *
+     * @throws PacketException
+     *                             if the data was already set or the packet
+     *                             failed
+     */
+    public void setData(byte... data) {
+        if (!LENGTH.compareAndSet(this, PENDING, STORING)) {
+            throw new PacketException("Packet already initialized.");
+        }
+        store(data);
+        completion.complete(this);
     }
 
-    synchronized public void setData(byte... data) {
-        if (isComplete()) {
+    /**
+     * Sets the data of a pending packet to the array itself rather than a
+     * copy, so that a message can be assembled in place. The array must not be
+     * modified afterwards.
+     *
+     * @throws PacketException
+     *                             if the data was already set or the packet
+     *                             failed
+     */
+    @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The array is handed over, not shared.")
+    public void adoptData(byte[] data) {
+        if (!LENGTH.compareAndSet(this, PENDING, STORING)) {
             throw new PacketException("Packet already initialized.");
         }
-        this.data = new int[data.length];
-        for (int i = 0; i < data.length; i++) {
-            this.data[i] = (0xFF & data[i]);
+        if (data.length <= SMALL) {
+            store(data);
+        } else {
+            large = data;
+            length = data.length;
         }
-        notifyAll();
+        completion.complete(this);
+    }
+
+    /** Packs the data from a buffer, then publishes its length. */
+    private void store(ByteBuffer buffer, int offset, int len) {
+        if (len <= SMALL) {
+            long v = 0;
+            for (int i = len - 1; i >= 0; i--) {
+                v = (v << 8) | (buffer.get(offset + i) & 0xFF);
+            }
+            small = v;
+        } else {
+            byte[] bytes = new byte[len];
+            buffer.get(offset, bytes);
+            large = bytes;
+        }
+        length = len;
+    }
+
+    /** Packs the data, then publishes its length. */
+    private void store(byte[] data) {
+        int len = data.length;
+        if (len <= SMALL) {
+            long v = 0;
+            for (int i = len - 1; i >= 0; i--) {
+                v = (v << 8) | (data[i] & 0xFF);
+            }
+            small = v;
+        } else {
+            large = data.clone();
+        }
+        length = len;
     }
 
     /**
@@ -388,7 +692,19 @@ public class Packet {
      */
     @SuppressFBWarnings(value = "UG_SYNC_SET_UNSYNC_GET", justification = "This method is not a reciprocal of the setData method")
     public int[] getData(int beginIndex, int endIndex) {
-        return Arrays.copyOfRange(getData(), beginIndex, endIndex);
+        int len = getValidLength();
+        if (beginIndex > endIndex) {
+            throw new IllegalArgumentException(beginIndex + " > " + endIndex);
+        }
+        if (beginIndex < 0 || beginIndex > len) {
+            throw new ArrayIndexOutOfBoundsException("Index " + beginIndex + " out of bounds for length " + len);
+        }
+        // like Arrays.copyOfRange, pad past the end with zeros
+        int[] result = new int[endIndex - beginIndex];
+        for (int i = beginIndex; i < Math.min(endIndex, len); i++) {
+            result[i - beginIndex] = get(i);
+        }
+        return result;
     }
 
     public int getPgn() {
@@ -410,7 +726,8 @@ public class Packet {
 
     @SuppressFBWarnings(value = "EI_EXPOSE_REP", justification = "Not a concern in desktop app.")
     public List<Packet> getFragments() {
-        return fragments;
+        List<Packet> f = fragments;
+        return f == null ? Collections.singletonList(this) : f;
     }
 
     @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "Not a concern in desktop app.")
@@ -435,7 +752,7 @@ public class Packet {
      * @return int
      */
     public int getLength() {
-        return getData().length;
+        return getValidLength();
     }
 
     /**
@@ -462,16 +779,118 @@ public class Packet {
      * @return {@link LocalDateTime}
      */
     public LocalDateTime getTimestamp() {
-        return timestamp;
+        long nanos = timestampNanos;
+        Timestamp t = timestamp;
+        if (t == null || t.nanos != nanos) {
+            t = new Timestamp(nanos,
+                              LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, NANOS_PER_SECOND),
+                                                          (int) Math.floorMod(nanos, NANOS_PER_SECOND),
+                                                          ZoneOffset.UTC));
+            timestamp = t;
+        }
+        return t.time;
     }
 
     public void setTimestamp(LocalDateTime timestamp2) {
-        timestamp = timestamp2;
+        long nanos = toNanos(timestamp2);
+        timestamp = new Timestamp(nanos, timestamp2);
+        timestampNanos = nanos;
+    }
+
+    /**
+     * Returns the time the packet was received, in nanoseconds since
+     * 1970-01-01T00:00 on the local clock. Cheaper than
+     * {@link #getTimestamp()} and precise to the nanosecond.
+     *
+     * @return long
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    public void setTimestampNanos(long timestampNanos) {
+        this.timestampNanos = timestampNanos;
+    }
+
+    /**
+     * @return the channel the packet was received on, 1 unless the packet was
+     *         read from a {@link MergeBus}
+     */
+    public int getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns a copy of the packet on another channel, with the same
+     * timestamp, data and fragments, so that the packet itself can still be
+     * shared. The copy of a pending packet gets its data when the packet does.
+     */
+    Packet withChannel(int channel) {
+        Packet copy = new Packet(timestampNanos, priority, id, source, transmitted);
+        copy.timestamp = timestamp;
+        copy.fragments = fragments;
+        copy.channel = channel;
+        if (length < 0) {
+            copy.completion = new CompletableFuture<>();
+            // completed after the data is set or the packet fails
+            completion.thenRun(() -> copy.copyData(this));
+        } else {
+            copy.copyData(this);
+        }
+        return copy;
+    }
+
+    /** Shares the data of a completed packet, then publishes its length. */
+    private void copyData(Packet p) {
+        // large is never modified once set, so it can be shared
+        small = p.small;
+        large = p.large;
+        length = p.length;
+        if (completion != null) {
+            completion.complete(this);
+        }
+    }
+
+    /**
+     * Returns the time from an earlier packet to this one
+     *
+     * @param  earlier
+     *                     the earlier packet
+     * @return         nanoseconds, negative if this packet is older
+     */
+    public long nanosSince(Packet earlier) {
+        return timestampNanos - earlier.timestampNanos;
+    }
+
+    /**
+     * Returns the whole milliseconds from an earlier packet to this one,
+     * truncated like ChronoUnit.MILLIS.between()
+     *
+     * @param  earlier
+     *                     the earlier packet
+     * @return         milliseconds, negative if this packet is older
+     */
+    public long millisSince(Packet earlier) {
+        return nanosSince(earlier) / 1_000_000;
+    }
+
+    /**
+     * Converts a time to the nanoseconds used by
+     * {@link #getTimestampNanos()}
+     */
+    public static long toNanos(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * NANOS_PER_SECOND + time.getNano();
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, priority, source, transmitted, Arrays.hashCode(getData()));
+        int len = getValidLength();
+        // same as Arrays.hashCode() of the data as an int[]
+        int dataHash = 1;
+        for (int i = 0; i < len; i++) {
+            dataHash = 31 * dataHash + get(i);
+        }
+        return Objects.hash(id, priority, source, transmitted, dataHash);
     }
 
     @Override
@@ -485,26 +904,57 @@ public class Packet {
 
         Packet that = (Packet) obj;
         return id == that.id && priority == that.priority && source == that.source && transmitted == that.transmitted
-                && Objects.deepEquals(getData(), that.getData());
+                && dataEquals(that);
+    }
+
+    private boolean dataEquals(Packet that) {
+        int len = getValidLength();
+        if (len != that.getValidLength()) {
+            return false;
+        }
+        return len <= SMALL ? small == that.small : Arrays.equals(large, that.large);
     }
 
     @Override
     public String toString() {
-        return String.format("%06X%02X [%s] %s",
-                             priority << 18 | id,
-                             source,
-                             getLength(),
-                             hexData() + (transmitted ? TX : RX));
+        return appendTo(new StringBuilder(16 + 3 * getLength())).toString();
+    }
+
+    /**
+     * Appends {@link #toString()} to the builder, without formatting each
+     * byte.
+     *
+     * @return the builder
+     */
+    public StringBuilder appendTo(StringBuilder sb) {
+        int len = getLength();
+        appendHex(sb, priority << 18 | id, 6);
+        appendHex(sb, source, 2);
+        sb.append(" [").append(len).append("] ");
+        appendHexData(sb);
+        return sb.append(transmitted ? TX : RX);
     }
 
-    private String hexData() {
-        return Arrays.stream(getData())
-                     .mapToObj(x -> String.format("%02X", x))
-                     .collect(Collectors.joining(" "));
+    /** Appends value as upper case hex of at least digits, like %0nX. */
+    private static void appendHex(StringBuilder sb, int value, int digits) {
+        int top = (31 - Integer.numberOfLeadingZeros(value)) & ~3;
+        for (int shift = Math.max(4 * (digits - 1), top); shift >= 0; shift -= 4) {
+            sb.append(HEX_DIGITS[(value >>> shift) & 0xF]);
+        }
+    }
+
+    private void appendHexData(StringBuilder sb) {
+        int len = getValidLength();
+        for (int i = 0; i < len; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            appendHex(sb, get(i), 2);
+        }
     }
 
     public boolean isComplete() {
-        return data != null;
+        return length >= 0;
     }
 
     /**
@@ -524,12 +974,22 @@ public class Packet {
      * @return a {@link String}
      */
     public String toTimeString() {
+        return appendTimeTo(new StringBuilder(32 + 3 * getLength())).toString();
+    }
+
+    /**
+     * Appends {@link #toTimeString()} to the builder.
+     *
+     * @return the builder
+     */
+    public StringBuilder appendTimeTo(StringBuilder sb) {
         /*
          * Collect data first, because timestamp is dynamic until the data is collected. This will block on the data. We
          * want to report the timestamp of final packet.
          */
-        String dataString = toString();
-        return DateTimeModule.getInstance().getTimeFormatter().format(timestamp) + " " + dataString;
+        getValidLength();
+        DateTimeModule.getInstance().getTimeFormatter().formatTo(getTimestamp(), sb);
+        return appendTo(sb.append(' '));
     }
 
     public String toDateTimeString() {
@@ -542,20 +1002,71 @@ public class Packet {
     }
 
     /**
-     * Vector compatible log record.
+     * Vector compatible log record, on the channel of the packet.
      * 
      * @param start
      */
     public String toVectorString(Temporal start) {
-        final ZoneOffset offset = OffsetDateTime.now().getOffset();
-        getData(); // wait for all data before formatting time
-        return String.format("%4.6f 1  %06X%02Xx %s d %d %s",
-                             Duration.between(start, getTimestamp().toInstant(offset)).toNanos() / 1000000000.0,
-                             priority << 18 | id,
-                             getSource(),
-                             isTransmitted() ? "Tx" : "Rx",
-                             getLength(),
-                             hexData());
+        return toVectorString(start, channel);
+    }
+
+    /**
+     * Vector compatible log record for a frame received on the given channel.
+     */
+    public String toVectorString(Temporal start, int channel) {
+        return appendVectorTo(new StringBuilder(48 + 3 * getLength()), vectorStart(start), channel).toString();
+    }
+
+    /**
+     * The start of a log on the local clock of {@link #getTimestampNanos()},
+     * for {@link #appendVectorTo(StringBuilder, long, int)}. Found once per
+     * log, as the zone offset is costly to look up.
+     */
+    public static long vectorStart(Temporal start) {
+        Instant startInstant = Instant.from(start);
+        return startInstant.getEpochSecond() * NANOS_PER_SECOND + startInstant.getNano()
+                + OffsetDateTime.now().getOffset().getTotalSeconds() * NANOS_PER_SECOND;
+    }
+
+    /**
+     * Appends {@link #toVectorString(Temporal, int)} to the builder, without
+     * a {@link java.util.Formatter}, for a log that started at startNanos.
+     *
+     * @param  startNanos
+     *                        from {@link #vectorStart(Temporal)}
+     * @return            the builder
+     */
+    public StringBuilder appendVectorTo(StringBuilder sb, long startNanos, int channel) {
+        int len = getValidLength(); // wait for all data before formatting time
+        long nanos = timestampNanos - startNanos;
+        if (nanos < 0) {
+            sb.append('-');
+            nanos = -nanos;
+        }
+        // seconds to the microsecond, rounded half up like %4.6f
+        long micros = (nanos + 500) / 1000;
+        sb.append(micros / 1_000_000).append('.');
+        int fraction = (int) (micros % 1_000_000);
+        for (int d = 100_000; d > 0; d /= 10) {
+            sb.append((char) ('0' + fraction / d % 10));
+        }
+        sb.append(' ').append(channel).append("  ");
+        appendHex(sb, priority << 18 | id, 6);
+        appendHex(sb, source, 2);
+        sb.append(transmitted ? "x Tx d " : "x Rx d ").append(len).append(' ');
+        appendHexData(sb);
+        return sb;
+    }
+
+    /** A LocalDateTime and the nanos it was built from. */
+    private static final class Timestamp {
+        private final long nanos;
+        private final LocalDateTime time;
+
+        private Timestamp(long nanos, LocalDateTime time) {
+            this.nanos = nanos;
+            this.time = time;
+        }
     }
 
     static public class PacketException extends RuntimeException {
@@ -569,7 +1080,7 @@ public class Packet {
     private String toSingleDeltaTimeString(Packet sent) {
         return String.format("%s [%.1f ms]",
                              toTimeString(),
-                             Duration.between(sent.getTimestamp(), getTimestamp()).toNanos() / 1000000.0);
+                             nanosSince(sent) / 1000000.0);
     }
 
     public String toDeltaTimeString(Packet sent) {
@@ -0,0 +1,516 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Parses the text forms of packets into a reused frame, without creating
+ * intermediate Strings.
+ *
+ * Each parse method reads one line, from a {@link CharSequence} or from the
+ * ASCII bytes of a {@link ByteBuffer}, and returns false if it is not in the
+ * expected form. After a successful parse, the getters describe the frame and
+ * {@link #toPacket()} creates the {@link Packet}. A parser is not thread safe.
+ */
+public final class PacketParser {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private static final long NANOS_PER_DAY = 86_400L * NANOS_PER_SECOND;
+
+    /** The exact powers of ten for the fast path of Double.parseDouble(). */
+    private static final double[] POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+            1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    /** The forms of text, which each create packets in their own way. */
+    private enum Form {
+        STRING, LIST, VECTOR, LOG
+    }
+
+    /**
+     * The longest line, for a packet of the longest transport protocol. Used
+     * to size the buffers lines are written to and read from.
+     */
+    static final int MAX_LINE = 64 + 3 * 1785;
+
+    private final byte[] data = new byte[1785];
+
+    private CharSequence chars;
+
+    private ByteBuffer bytes;
+
+    private int end;
+
+    private Form form;
+
+    private int header;
+
+    private int length;
+
+    private boolean transmitted;
+
+    private int channel;
+
+    private long timestampNanos;
+
+    /**
+     * Parses {@link Packet#toString()}: the header, an optional [length], the
+     * data bytes and an optional (TX).
+     */
+    public boolean parse(CharSequence line) {
+        return parse(line, 0, line.length());
+    }
+
+    /** Parses {@link Packet#toString()} from line[from, to). */
+    public boolean parse(CharSequence line, int from, int to) {
+        setSource(line, null, to);
+        return parseString(from);
+    }
+
+    /**
+     * Parses a header and data bytes separated by commas or white space, like
+     * {@link Packet#parsePacket(String)}.
+     */
+    public boolean parsePacket(CharSequence line) {
+        setSource(line, null, line.length());
+        form = Form.LIST;
+        transmitted = false;
+        int pos = 0;
+        int e = skipToken(pos);
+        long value = hex(pos, e, 8);
+        if (value < 0) {
+            return false;
+        }
+        header = (int) value;
+        length = 0;
+        for (pos = skipSeparators(e); pos < end; pos = skipSeparators(e)) {
+            e = skipToken(pos);
+            value = hex(pos, e, 8);
+            if (value < 0 || length == data.length) {
+                return false;
+            }
+            data[length++] = (byte) value;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a line of a Vector .asc log written by
+     * {@link Packet#toVectorString(java.time.temporal.Temporal)}, on any
+     * channel.
+     */
+    public boolean parseVector(CharSequence line) {
+        setSource(line, null, line.length());
+        return parseVector(0);
+    }
+
+    /** Parses a line of a Vector .asc log from buffer[from, to). */
+    public boolean parseVector(ByteBuffer buffer, int from, int to) {
+        setSource(null, buffer, to);
+        return parseVector(from);
+    }
+
+    private boolean parseVector(int pos) {
+        form = Form.VECTOR;
+        pos = skipSpaces(pos);
+        int e = skipToken(pos);
+        if (!seconds(pos, e)) {
+            return false;
+        }
+        pos = skipSpaces(e);
+        e = skipToken(pos);
+        long number = decimal(pos, e);
+        if (number < 1 || number > 0xFF) {
+            return false;
+        }
+        channel = (int) number;
+        pos = skipSpaces(e);
+        e = skipToken(pos);
+        long value = e > pos ? hex(pos, e - 1, 8) : -1;
+        if (value < 0) {
+            return false;
+        }
+        header = (int) value;
+        pos = skipSpaces(e);
+        e = skipToken(pos);
+        if (e != pos + 2 || at(pos + 1) != 'x' || (at(pos) != 'R' && at(pos) != 'T')) {
+            return false;
+        }
+        transmitted = at(pos) == 'T';
+        // d
+        pos = skipSpaces(e);
+        e = skipToken(pos);
+        pos = skipSpaces(e);
+        e = skipToken(pos);
+        long dlc = decimal(pos, e);
+        if (dlc < 0 || dlc > data.length) {
+            return false;
+        }
+        length = (int) dlc;
+        for (int i = 0; i < length; i++) {
+            pos = skipSpaces(e);
+            e = skipToken(pos);
+            value = hex(pos, e, 8);
+            if (value < 0) {
+                return false;
+            }
+            data[i] = (byte) value;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a packet logged by the j1939_84 logger, like
+     *
+     * <pre>
+     * 2021-04-23 12:22:43.128 FINE logger method 12:22:43.1281 0CF00400 [8] F1 9F 7D 00 00 00 F6 7D
+     * </pre>
+     *
+     * The timestamp is the date of the record with the time of the packet.
+     */
+    public boolean parseLog(CharSequence line) {
+        setSource(line, null, line.length());
+        form = Form.LOG;
+        int pos = skipSpaces(0);
+        int e = skipToken(pos);
+        if (e - pos != 10 || at(pos + 4) != '-' || at(pos + 7) != '-') {
+            return false;
+        }
+        long year = decimal(pos, pos + 4);
+        long month = decimal(pos + 5, pos + 7);
+        long day = decimal(pos + 8, pos + 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return false;
+        }
+        long date = LocalDate.of((int) year, (int) month, (int) day).toEpochDay() * NANOS_PER_DAY;
+        // the packet follows the second time of day, after the record's own time
+        boolean recordTime = true;
+        for (pos = skipSpaces(e); pos < end; pos = skipSpaces(e)) {
+            e = skipToken(pos);
+            long time = timeOfDay(pos, e);
+            if (time >= 0) {
+                if (!recordTime) {
+                    if (!parseString(e)) {
+                        return false;
+                    }
+                    form = Form.LOG;
+                    timestampNanos = date + time;
+                    return true;
+                }
+                recordTime = false;
+            }
+        }
+        return false;
+    }
+
+    private boolean parseString(int pos) {
+        form = Form.STRING;
+        transmitted = false;
+        length = 0;
+        pos = skipSpaces(pos);
+        int e = skipToken(pos);
+        long value = hex(pos, e, 8);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            return false;
+        }
+        header = (int) value;
+        pos = skipSpaces(e);
+        if (pos == end) {
+            return false;
+        }
+        if (at(pos) == '[') {
+            pos = skipSpaces(skipToken(pos));
+        }
+        for (; pos < end; pos = skipSpaces(e)) {
+            e = skipToken(pos);
+            if (e - pos == 4 && at(pos) == '(' && at(pos + 1) == 'T' && at(pos + 2) == 'X' && at(pos + 3) == ')') {
+                transmitted = true;
+                continue;
+            }
+            value = hex(pos, e, 8);
+            if (value < 0 || length == data.length) {
+                return false;
+            }
+            data[length++] = (byte) value;
+        }
+        return true;
+    }
+
+    private void setSource(CharSequence chars, ByteBuffer bytes, int end) {
+        this.chars = chars;
+        this.bytes = bytes;
+        this.end = end;
+    }
+
+    private char at(int i) {
+        return chars != null ? chars.charAt(i) : (char) (bytes.get(i) & 0xFF);
+    }
+
+    private static boolean isSpace(char c) {
+        return c <= ' ';
+    }
+
+    private int skipSpaces(int pos) {
+        while (pos < end && isSpace(at(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private int skipSeparators(int pos) {
+        while (pos < end && (isSpace(at(pos)) || at(pos) == ',')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /** @return the index after the token at pos */
+    private int skipToken(int pos) {
+        while (pos < end && !isSpace(at(pos)) && (form != Form.LIST || at(pos) != ',')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /** @return the value of 1 to maxDigits hex digits, or -1 */
+    private long hex(int from, int to, int maxDigits) {
+        if (from >= to || to - from > maxDigits) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(at(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    /** @return the value of 1 to 18 decimal digits, or -1 */
+    private long decimal(int from, int to) {
+        if (from >= to || to - from > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = at(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Reads seconds like 12.345678 into {@link #timestampNanos}, as
+     * (long) (Double.parseDouble(s) * 1e9) would.
+     */
+    private boolean seconds(int from, int to) {
+        boolean negative = from < to && at(from) == '-';
+        if (negative) {
+            from++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        for (int i = from; i < to; i++) {
+            char c = at(i);
+            if (c == '.' && scale < 0) {
+                scale = 0;
+            } else if (c >= '0' && c <= '9') {
+                if (digits == 18) {
+                    return false;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else {
+                return false;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        scale = Math.max(scale, 0);
+        long nanos;
+        if (mantissa < 1L << 53 && scale < POWERS.length) {
+            // both are exact doubles, so the quotient is rounded like parseDouble()
+            nanos = (long) (mantissa / POWERS[scale] * 1e9);
+        } else {
+            long divisor = 1;
+            for (int i = 0; i < scale - 9; i++) {
+                divisor *= 10;
+            }
+            nanos = scale <= 9 ? mantissa * (long) POWERS[9 - scale] : mantissa / divisor;
+        }
+        timestampNanos = negative ? -nanos : nanos;
+        return true;
+    }
+
+    /** @return the nanoseconds of a time of day like 12:22:43.1281, or -1 */
+    private long timeOfDay(int from, int to) {
+        if (to - from < 8 || at(from + 2) != ':' || at(from + 5) != ':') {
+            return -1;
+        }
+        long hours = decimal(from, from + 2);
+        long minutes = decimal(from + 3, from + 5);
+        long seconds = decimal(from + 6, from + 8);
+        if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 59) {
+            return -1;
+        }
+        long nanos = ((hours * 60 + minutes) * 60 + seconds) * NANOS_PER_SECOND;
+        if (to > from + 8) {
+            if (at(from + 8) != '.' || to - from - 9 > 9) {
+                return -1;
+            }
+            long fraction = decimal(from + 9, to);
+            if (fraction < 0) {
+                return -1;
+            }
+            for (int i = to - from - 9; i < 9; i++) {
+                fraction *= 10;
+            }
+            nanos += fraction;
+        }
+        return nanos;
+    }
+
+    /** @return the header as it was written: priority, id and source */
+    int getHeader() {
+        return header;
+    }
+
+    public int getPriority() {
+        return form == Form.LIST ? 6 : form == Form.VECTOR ? (header >> 26) & 0x07 : (header & 0xFF000000) >> 26;
+    }
+
+    public int getId() {
+        switch (form) {
+            case LIST:
+                return 0xFFFFFF & (header >> 8);
+            case VECTOR:
+                return (header >> 8) & 0x3FFFF;
+            default:
+                return (header & 0xFFFF00) >> 8;
+        }
+    }
+
+    public int getSource() {
+        return header & 0xFF;
+    }
+
+    public boolean isTransmitted() {
+        return transmitted;
+    }
+
+    /** @return the channel of a Vector line; 1 for the other forms */
+    public int getChannel() {
+        return form == Form.VECTOR ? channel : 1;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /** @return a data byte of the frame */
+    public int get(int i) {
+        if (i >= length) {
+            throw new IndexOutOfBoundsException(i);
+        }
+        return data[i] & 0xFF;
+    }
+
+    /**
+     * @return the time of the frame, in nanoseconds since the start of the log
+     *         for Vector lines and since 1970-01-01T00:00 on the local clock
+     *         for j1939_84 log lines
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * Creates the Packet, as the static parse method of {@link Packet} for the
+     * form would. Vector lines are relative to the start of the log, so use
+     * {@link #toPacket(LocalDateTime)} for them.
+     *
+     * @throws IllegalArgumentException
+     *                                      if the form requires at least 3
+     *                                      data bytes and the frame has less
+     */
+    public Packet toPacket() {
+        return toPacket(null);
+    }
+
+    /**
+     * Creates the Packet of a parsed Vector line, without building a
+     * LocalDateTime.
+     *
+     * @param  startNanos
+     *                        the time the log started, in the nanos of
+     *                        {@link Packet#getTimestampNanos()}
+     */
+    Packet toPacket(long startNanos) {
+        return Packet.fromFrame(startNanos + timestampNanos,
+                                header,
+                                transmitted,
+                                channel,
+                                ByteBuffer.wrap(data),
+                                0,
+                                length);
+    }
+
+    /**
+     * Creates the Packet of a parsed line.
+     *
+     * @param  start
+     *                   the time a Vector log started
+     */
+    public Packet toPacket(LocalDateTime start) {
+        switch (form) {
+            case LIST: {
+                int[] ints = new int[length];
+                for (int i = 0; i < length; i++) {
+                    ints[i] = data[i] & 0xFF;
+                }
+                return Packet.create(getId(), getSource(), ints);
+            }
+            case VECTOR: {
+                int[] ints = new int[length];
+                for (int i = 0; i < length; i++) {
+                    ints[i] = data[i] & 0xFF;
+                }
+                Packet packet = new Packet(start.plusNanos(timestampNanos),
+                                           getPriority(),
+                                           getId(),
+                                           getSource(),
+                                           transmitted,
+                                           ints);
+                return channel == 1 ? packet : packet.withChannel(channel);
+            }
+            case LOG: {
+                LocalDateTime time = LocalDateTime.ofEpochSecond(Math.floorDiv(timestampNanos, NANOS_PER_SECOND),
+                                                                 (int) Math.floorMod(timestampNanos, NANOS_PER_SECOND),
+                                                                 ZoneOffset.UTC);
+                return Packet.create(time,
+                                     getPriority(),
+                                     getId(),
+                                     getSource(),
+                                     transmitted,
+                                     Arrays.copyOf(data, length));
+            }
+            default:
+                return Packet.create(getPriority(), getId(), getSource(), transmitted, Arrays.copyOf(data, length));
+        }
+    }
+}
@@ -4,26 +4,34 @@
 package org.etools.j1939tools.bus;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.etools.j1939tools.bus.RP1210Library.BLOCKING;
 import static org.etools.j1939tools.bus.RP1210Library.BLOCKING_NONE;
 import static org.etools.j1939tools.bus.RP1210Library.CLAIM_BLOCK_UNTIL_DONE;
 import static org.etools.j1939tools.bus.RP1210Library.CMD_ECHO_TRANSMITTED_MESSAGES;
 import static org.etools.j1939tools.bus.RP1210Library.CMD_PROTECT_J1939_ADDRESS;
 import static org.etools.j1939tools.bus.RP1210Library.CMD_SET_ALL_FILTERS_STATES_TO_PASS;
+import static org.etools.j1939tools.bus.RP1210Library.CMD_SET_BLOCK_TIMEOUT;
 import static org.etools.j1939tools.bus.RP1210Library.ECHO_ON;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
 import java.time.Instant;
-import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.util.Arrays;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -42,6 +50,42 @@ public class RP1210Bus implements Bus {
 
     private static final long GIGA = 1000000000;
 
+    /**
+     * Set to true to read from the adapter by polling, for drivers that
+     * misbehave in blocking mode.
+     */
+    public static final String POLLING_PROPERTY_NAME = "RP1210_POLLING";
+
+    /**
+     * How long a blocking read waits for a frame. Sends wait behind the read,
+     * so this is the most a send is delayed on an idle bus.
+     */
+    static final int BLOCK_TIMEOUT_MS = 10;
+
+    /** The most frames read from the adapter per wakeup. */
+    static final int BATCH_SIZE = 64;
+
+    /** The number of raw frames waiting to be decoded before reads wait. */
+    private static final int FRAME_RING_CAPACITY = 1 << 12;
+
+    /** The buffer size for one frame. */
+    private static final int FRAME_SIZE = 32;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * How frames are read from the adapter.
+     */
+    public enum ReceiveMode {
+        /**
+         * Wait in RP1210_ReadMessage for up to {@link #BLOCK_TIMEOUT_MS}, then
+         * read the rest of the frames that are waiting without blocking.
+         */
+        BLOCKING,
+        /** Call RP1210_ReadMessage without blocking, in a loop. */
+        POLLING
+    }
+
     /**
      * The source address for this tool
      */
@@ -99,12 +143,40 @@ public class RP1210Bus implements Bus {
 
     private boolean appPacketize;
 
+    private volatile ReceiveMode receiveMode;
+
+    /** Raw frames read from the adapter, waiting to be decoded. */
+    private final FrameRing frames = new FrameRing(FRAME_RING_CAPACITY, FRAME_SIZE);
+
+    /** Reused by polling reads, which can not read into a direct buffer. */
+    private final byte[] pollBuffer = new byte[FRAME_SIZE];
+
+    /** Number of times frames were published since the decoder last started. */
+    private final AtomicInteger decodeWip = new AtomicInteger();
+
+    /** The time of the last decoded frame, in ns. Only used by the decoder. */
+    private long decodedNanoseconds;
+
+    /** The offset of the system time zone. Only used by the decoder. */
+    private ZoneOffset zoneOffset;
+
+    /** When to look up the offset of the system time zone again, in ns. */
+    private long zoneOffsetEnd;
+
+    /** Frames read in blocking mode. */
+    private volatile long receivedFrames;
+
+    /** CPU time used by the blocking reads, in ns. */
+    private volatile long receiveCpuNanos;
+
     @SuppressFBWarnings(value = "CT_CONSTRUCTOR_THROW", justification = "Not a concern in desktop app.")
     public RP1210Bus(Adapter adapter, String connectionString, int address, boolean appPacketize,
             BiConsumer<ErrorType, String> errorFn) throws BusException {
         this(RP1210Library.load(adapter), Executors.newSingleThreadExecutor(nameThreadFactory("RP1210 decoding")),
                 Executors.newSingleThreadExecutor(nameThreadFactory("RP1210 processing")), new MultiQueue<>(), adapter,
-                connectionString, address, appPacketize, J1939_84.getLogger(), errorFn);
+                connectionString, address, appPacketize,
+                Boolean.getBoolean(POLLING_PROPERTY_NAME) ? ReceiveMode.POLLING : ReceiveMode.BLOCKING,
+                J1939_84.getLogger(), errorFn);
     }
 
     private static ThreadFactory nameThreadFactory(String name) {
@@ -122,7 +194,7 @@ public class RP1210Bus implements Bus {
                         justification = "Not a concern in desktop app.")
     public RP1210Bus(RP1210Library rp1210Library, ExecutorService decodingExecutor, ExecutorService rp1210Executor,
             MultiQueue<Packet> queue, Adapter adapter, String connectionString, int address, boolean appPacketize,
-            Logger logger,
+            ReceiveMode receiveMode, Logger logger,
             BiConsumer<ErrorType, String> errorFn) throws BusException {
         this.rp1210Library = rp1210Library;
         this.decodingExecutor = decodingExecutor;
@@ -134,6 +206,7 @@ public class RP1210Bus implements Bus {
         this.adapter = adapter;
         this.connectionString = connectionString;
         this.appPacketize = appPacketize;
+        this.receiveMode = receiveMode;
 
         start();
     }
@@ -152,8 +225,18 @@ public class RP1210Bus implements Bus {
                             0, 0, CLAIM_BLOCK_UNTIL_DONE });
             sendCommand(CMD_ECHO_TRANSMITTED_MESSAGES, ECHO_ON);
             sendCommand(CMD_SET_ALL_FILTERS_STATES_TO_PASS);
+            if (receiveMode == ReceiveMode.BLOCKING) {
+                // the timeout is the product of the two bytes, in ms
+                short rtn = rp1210Library.RP1210_SendCommand(CMD_SET_BLOCK_TIMEOUT,
+                                                             clientId,
+                                                             new byte[] { BLOCK_TIMEOUT_MS, 1 },
+                                                             (short) 2);
+                if (rtn > 127 || rtn < 0) {
+                    fallBackToPolling(rtn);
+                }
+            }
 
-            schedule(this::poll);
+            schedule(this::receive);
         } catch (Throwable e) {
             try {
                 stop();
@@ -177,6 +260,12 @@ public class RP1210Bus implements Bus {
         } catch (InterruptedException e) {
             logger.warning("Unable to stop rp1210Executor.");
         }
+        if (receivedFrames > 0) {
+            logger.log(Level.INFO,
+                       String.format("RP1210 read %,d frames using %.3f ms CPU per 1000 frames",
+                                     receivedFrames,
+                                     getReceiveCpuNanosPer1000Frames() / 1e6));
+        }
         decodingExecutor.shutdownNow();
         queue.close();
     }
@@ -191,6 +280,20 @@ public class RP1210Bus implements Bus {
         return queue.duplicate(stream, time, unit);
     }
 
+    /**
+     * @return the CPU time used to read 1000 frames from the adapter in
+     *         blocking mode, including the time waiting on an idle bus, in ns.
+     *         0 until a frame is read.
+     */
+    public long getReceiveCpuNanosPer1000Frames() {
+        long frames = receivedFrames;
+        return frames == 0 ? 0 : receiveCpuNanos * 1000 / frames;
+    }
+
+    public ReceiveMode getReceiveMode() {
+        return receiveMode;
+    }
+
     @Override
     public int getAddress() {
         return address;
@@ -223,6 +326,26 @@ public class RP1210Bus implements Bus {
         return queue.stream(timeout, unit);
     }
 
+    @Override
+    public Stream<Packet> read(long timeout, TimeUnit unit, int maxLag, LagPolicy policy) throws BusException {
+        return queue.stream(timeout, unit, maxLag, policy);
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return queue.getDropped();
+    }
+
+    @Override
+    public Stream<Packet> read(FrameFilter filter, long timeout, TimeUnit unit) throws BusException {
+        return queue.stream(filter, timeout, unit);
+    }
+
+    @Override
+    public Flow.Publisher<Packet> publisher(FrameFilter filter) {
+        return queue.publisher(filter);
+    }
+
     /**
      * Reset stream timeout for stream created with bus.read(). To be used in a
      * stream call like peek, map or forEach.
@@ -235,7 +358,8 @@ public class RP1210Bus implements Bus {
     @Override
     public Packet send(Packet tx) throws BusException {
         byte[] data = encode(tx);
-        try (Stream<Packet> stream = read(1000, TimeUnit.MILLISECONDS)) {
+        FrameFilter echo = FrameFilter.id(tx.getId(0xFFFF), 0xFFFF).withSource(tx.getSource());
+        try (Stream<Packet> stream = read(echo, 1000, TimeUnit.MILLISECONDS)) {
             // rp1210 libraries may not be thread safe
             Optional<String> error = schedule(() -> {
                 short rtn = sendRaw(data);
@@ -247,9 +371,7 @@ public class RP1210Bus implements Bus {
             if (error.isPresent()) {
                 throw new BusException(error.get());
             }
-            int id = tx.getId(0xFFFF);
-            int source = tx.getSource();
-            return stream.filter(rx -> rx.isTransmitted() && id == rx.getId(0xFFFF) && rx.getSource() == source)
+            return stream.filter(Packet::isTransmitted)
                     .findFirst()
                     .orElseThrow(() -> new BusException("Failed to send: " + tx));
         } catch (BusException e) {
@@ -269,26 +391,27 @@ public class RP1210Bus implements Bus {
     }
 
     /**
-     * Decodes the given byte array into a {@link Packet}
+     * Decodes the given buffer into a {@link Packet}
      *
      * @param data
-     *            the byte array to decode
+     *            the buffer to decode, from index 0. The position is not
+     *            changed.
      * @param length
      *            the total length of the payload data
      * @return {@link Packet}
      */
-    private Packet decode(byte[] data, int length) {
+    private Packet decode(ByteBuffer data, int length) {
         // only 32 bits used, but to get a u32, use a s64.
-        long timestamp = (0xFF000000L & data[0] << 24) | (0xFF0000L & data[1] << 16) | (0xFF00L & data[2] << 8)
-                | (0xFFL & data[3]);
+        long timestamp = (0xFF000000L & data.get(0) << 24) | (0xFF0000L & data.get(1) << 16)
+                | (0xFF00L & data.get(2) << 8) | (0xFFL & data.get(3));
         timestamp *= timestampWeight;
         // data[4] is echo
-        int echoed = data[4];
-        int pgn = ((data[7] & 0xFF) << 16) | ((data[6] & 0xFF) << 8) | (data[5] & 0xFF);
-        int priority = data[8] & 0x07;
-        int source = data[9] & 0xFF;
+        int echoed = data.get(4);
+        int pgn = ((data.get(7) & 0xFF) << 16) | ((data.get(6) & 0xFF) << 8) | (data.get(5) & 0xFF);
+        int priority = data.get(8) & 0x07;
+        int source = data.get(9) & 0xFF;
         if (pgn < 0xF000) {
-            int destination = data[10];
+            int destination = data.get(10);
             pgn = pgn | (destination & 0xFF);
         }
 
@@ -300,16 +423,18 @@ public class RP1210Bus implements Bus {
         }
         lastTimestamp = timestamp;
 
-        // update application clock offset
+        // application clock offset is updated once per batch
         long nanoseconds = timestamp + timestampStartNanoseconds;
-        DateTimeModule.getInstance().setNanoTime(nanoseconds);
+        decodedNanoseconds = nanoseconds;
 
-        // convert to LocalTime for Packet
-        Instant time = Instant.ofEpochSecond( /* seconds */ nanoseconds / GIGA, /*
-                                                                                 * nanoseconds
-                                                                                 */(nanoseconds % GIGA));
-        return Packet.create(LocalDateTime.ofInstant(time, ZoneId.systemDefault()), priority, pgn, source, echoed != 0,
-                Arrays.copyOfRange(data, 11, length));
+        // convert to the local clock of Packet
+        if (nanoseconds >= zoneOffsetEnd) {
+            zoneOffset = ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochSecond(nanoseconds / GIGA));
+            // look again in a minute, in case of a daylight saving time change
+            zoneOffsetEnd = nanoseconds + 60 * GIGA;
+        }
+        long localNanoseconds = nanoseconds + zoneOffset.getTotalSeconds() * GIGA;
+        return Packet.create(localNanoseconds, priority, pgn, source, echoed != 0, data, 11, length - 11);
     }
 
     /**
@@ -335,17 +460,86 @@ public class RP1210Bus implements Bus {
         return buf;
     }
 
+    private Object receive() {
+        return receiveMode == ReceiveMode.BLOCKING ? receiveBlocking() : poll();
+    }
+
+    /**
+     * Waits up to {@link #BLOCK_TIMEOUT_MS} for a message, and then reads the
+     * messages that are already waiting, up to {@link #BATCH_SIZE}. The
+     * messages are read straight into the frame ring and handed to the decoder
+     * as one chunk.
+     */
+    private Object receiveBlocking() {
+        long cpu = THREADS.getCurrentThreadCpuTime();
+        int count = 0;
+        try {
+            // wait for the decoder instead of overwriting frames
+            frames.awaitCapacity();
+            short rtn = clientId >= 0 ? readMessage(BLOCKING) : 0;
+            while (rtn > 0) {
+                frames.commit(rtn);
+                count++;
+                if (count == BATCH_SIZE || !frames.hasCapacity()) {
+                    break;
+                }
+                rtn = readMessage(BLOCKING_NONE);
+            }
+            publishFrames();
+            if (rtn == -RP1210Library.ERR_BLOCK_NOT_ALLOWED) {
+                fallBackToPolling(rtn);
+            } else if (rtn == -RP1210Library.ERR_RX_QUEUE_FULL) {
+                // RX queue full, remedy is to reread.
+                logger.log(Level.SEVERE, getErrorMessage(rtn));
+            } else if (rtn != -RP1210Library.ERR_COMMAND_TIMED_OUT) {
+                checkReturnCode(rtn);
+            }
+        } catch (BusException e) {
+            restart(e);
+        }
+        if (count > 0) {
+            receivedFrames += count;
+        }
+        receiveCpuNanos += THREADS.getCurrentThreadCpuTime() - cpu;
+        if (clientId >= 0) {
+            schedule(this::receive);
+        }
+        return null;
+    }
+
+    private short readMessage(short blocking) {
+        return rp1210Library.RP1210_ReadMessage(clientId, frames.next(), (short) FRAME_SIZE, blocking);
+    }
+
+    /** Drivers in blocking mode that do not support a timeout or blocking. */
+    private void fallBackToPolling(short rtn) {
+        logger.log(Level.WARNING, "RP1210 blocking read not supported, polling instead: " + getErrorMessage(rtn));
+        receiveMode = ReceiveMode.POLLING;
+    }
+
     /**
      * Checks the {@link RP1210Library} for any incoming messages. Any incoming
-     * messages are decoded and added to the queue
+     * messages are copied to the frame ring and handed to the decoder in
+     * chunks of up to {@link #BATCH_SIZE}.
      */
     private Object poll() {
         try {
+            int count = 0;
             while (clientId >= 0) {
-                byte[] data = new byte[32];
-                short rtn = rp1210Library.RP1210_ReadMessage(clientId, data, (short) data.length, BLOCKING_NONE);
+                if (!frames.hasCapacity()) {
+                    publishFrames();
+                    frames.awaitCapacity();
+                }
+                short rtn = rp1210Library.RP1210_ReadMessage(clientId,
+                                                             pollBuffer,
+                                                             (short) pollBuffer.length,
+                                                             BLOCKING_NONE);
                 if (rtn > 0) {
-                    decodeDataAndQueuePacket(data, rtn);
+                    frames.next().put(0, pollBuffer, 0, rtn);
+                    frames.commit(rtn);
+                    if (++count % BATCH_SIZE == 0) {
+                        publishFrames();
+                    }
                 } else if (rtn == -RP1210Library.ERR_RX_QUEUE_FULL) {
                     // RX queue full, remedy is to reread.
                     logger.log(Level.SEVERE, getErrorMessage(rtn));
@@ -355,36 +549,75 @@ public class RP1210Bus implements Bus {
                 }
             }
         } catch (BusException e) {
-            logger.log(Level.SEVERE, "Failed to read RP1210", e);
-            errorFn.accept(ErrorType.OTHER, "Failed to read RP1210, restarting: " + e.getMessage());
-            try {
-                stop();
-            } catch (Exception e2) {
-            }
-            try {
-                start();
-            } catch (BusException e1) {
-                errorFn.accept(ErrorType.OTHER, "Failed to reconnect RP1210, restarting: " + e.getMessage());
-            }
+            restart(e);
+        } finally {
+            publishFrames();
         }
         if (clientId >= 0) {
-            schedule(this::poll);
+            schedule(this::receive);
         }
         return null;
     }
 
-    private void decodeDataAndQueuePacket(byte[] data, short rtn) {
-        decodingExecutor.submit(() -> {
-            Packet packet = decode(data, rtn);
-            // logger.log(Level.FINE, packet.toTimeString());
-            if (packet.getSource() == getAddress() && !packet.isTransmitted()) {
+    private void restart(BusException e) {
+        logger.log(Level.SEVERE, "Failed to read RP1210", e);
+        errorFn.accept(ErrorType.OTHER, "Failed to read RP1210, restarting: " + e.getMessage());
+        try {
+            stop();
+        } catch (Exception e2) {
+        }
+        try {
+            start();
+        } catch (BusException e1) {
+            errorFn.accept(ErrorType.OTHER, "Failed to reconnect RP1210, restarting: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hand the committed frames to the decoder. The decoder is only submitted
+     * if it is not already running, so there is at most one decoding task per
+     * chunk.
+     */
+    private void publishFrames() {
+        if (frames.publish() && decodeWip.getAndIncrement() == 0) {
+            decodingExecutor.submit(this::decodeFrames);
+        }
+    }
+
+    /**
+     * Decode every published frame, check the batch for an imposter and add it
+     * to the queue in one operation. Runs until no frames were published while
+     * it was running.
+     */
+    private void decodeFrames() {
+        int missed = 1;
+        do {
+            try {
+                List<Packet> packets = new ArrayList<>();
+                frames.drain((frame, length) -> packets.add(decode(frame, length)));
+                if (!packets.isEmpty()) {
+                    DateTimeModule.getInstance().setNanoTime(decodedNanoseconds);
+                    detectImposter(packets);
+                    queue.addAll(packets);
+                }
+            } catch (Throwable t) {
+                logger.log(Level.SEVERE, "Failed to decode RP1210 frames", t);
+            }
+            missed = decodeWip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void detectImposter(List<Packet> packets) {
+        int address = getAddress();
+        for (Packet packet : packets) {
+            if (packet.getSource() == address && !packet.isTransmitted()) {
                 logger.log(Level.WARNING, "Another ECU is using this address: " + packet);
                 errorFn.accept(ErrorType.IMPOSTER, "Another ECU is using this address: " + packet);
 
                 imposterDetected = true;
+                return;
             }
-            queue.add(packet);
-        });
+        }
     }
 
     /**
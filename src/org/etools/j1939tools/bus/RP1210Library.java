@@ -5,6 +5,7 @@ package org.etools.j1939tools.bus;
 
 import com.sun.jna.Library;
 import com.sun.jna.Native;
+import java.nio.ByteBuffer;
 
 /**
  * The interface for a {@link Library} used by a vehicle communications
@@ -328,6 +329,26 @@ public interface RP1210Library extends Library {
      */
     short RP1210_ReadMessage(short nClientID, byte[] fpchAPIMessage, short nBufferSize, short nBlockOnSend);
 
+    /**
+     * Reads a message from the adapter into a direct buffer, so that the
+     * buffer can be reused without copying.
+     *
+     * @param  nClientID
+     *                            the client identifier as returned from RP1210_ClientConnect
+     * @param  fpchAPIMessage
+     *                            the direct buffer that the message will be place into.
+     * @param  nBufferSize
+     *                            the capacity of the supplied message buffer
+     * @param  nBlockOnSend
+     *                            if 0, the command will return immediately if there is no
+     *                            message. If non-zero the method will wait until data is
+     *                            available, the blocking timeout expires or the connection
+     *                            is closed.
+     * @return                0 at no message, less than 192 for message size, greater than 192
+     *                        for error code.
+     */
+    short RP1210_ReadMessage(short nClientID, ByteBuffer fpchAPIMessage, short nBufferSize, short nBlockOnSend);
+
     /**
      * Reads version information about the DLL and the API
      *
@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+import org.etools.j1939_84.J1939_84;
+
+/**
+ * A {@link Bus} that replays a Vector .asc capture, like the logs written by
+ * J1939.startLogger() once they are extracted from their zip.
+ *
+ * The file is memory mapped and each line is parsed when it is replayed, so
+ * captures of any size start at once. Lines are read like
+ * {@link PacketParser#toPacket(LocalDateTime)} reads them, so transmitted
+ * frames are replayed too; lines that are not frames are skipped. Frames are published at the recorded pace, a
+ * multiple of it, or as fast as the streams read them. Packets sent to the bus
+ * are echoed back, like {@link EchoBus}.
+ */
+public class ReplayBus implements Bus {
+    /** Replay as fast as the streams read the packets. */
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    /** Each mapping of the file covers 1 GiB. */
+    private static final int CHUNK_BITS = 30;
+
+    /** The most packets published at once at {@link #MAX_SPEED}. */
+    private static final int BATCH_SIZE = 256;
+
+    private static final long GIGA = 1_000_000_000L;
+
+    /** Parses the lines of one thread, and keeps where the next line starts. */
+    private static final class Frame {
+        final PacketParser parser = new PacketParser();
+        /** A line that continues in the next mapping is copied here to be parsed. */
+        final ByteBuffer line = ByteBuffer.allocate(PacketParser.MAX_LINE);
+        /** The start of the next line. */
+        long next;
+
+        /** @return the time of the frame since the start of the capture */
+        long nanos() {
+            return parser.getTimestampNanos();
+        }
+    }
+
+    private final int address;
+
+    private final String name;
+
+    private final MappedByteBuffer[] chunks;
+
+    private final int chunkBits;
+
+    private final long size;
+
+    /** The time of the start of the capture, in Packet nanoseconds. */
+    private final long startNanos;
+
+    private final MultiQueue<Packet> queue = new MultiQueue<>();
+
+    /** Where to continue playing, or -1 to continue from the last frame. */
+    private final AtomicLong seekTo = new AtomicLong(-1);
+
+    private volatile double speed = 1;
+
+    private volatile boolean closed;
+
+    private Thread thread;
+
+    /**
+     * Constructor
+     *
+     * @param  file
+     *                         the .asc file to replay
+     * @param  start
+     *                         the time the capture started. Timestamps in the
+     *                         file are relative to it.
+     * @param  address
+     *                         the address for this connector on the bus
+     * @throws IOException
+     *                         if the file cannot be read
+     */
+    public ReplayBus(Path file, LocalDateTime start, int address) throws IOException {
+        this(file, start, address, CHUNK_BITS);
+    }
+
+    /**
+     * Constructor exposed for testing
+     *
+     * @param chunkBits
+     *                      the size of each mapping of the file, as a power of
+     *                      two
+     */
+    ReplayBus(Path file, LocalDateTime start, int address, int chunkBits) throws IOException {
+        this.address = address;
+        this.chunkBits = chunkBits;
+        name = file.getFileName().toString();
+        startNanos = Packet.toNanos(start);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            long chunkSize = 1L << chunkBits;
+            chunks = new MappedByteBuffer[(int) ((size + chunkSize - 1) >>> chunkBits)];
+            for (int i = 0; i < chunks.length; i++) {
+                long offset = (long) i << chunkBits;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(chunkSize, size - offset));
+            }
+        }
+    }
+
+    /**
+     * Starts publishing the frames, from the start of the file or the last
+     * {@link #seek(LocalDateTime)}. Open the streams of interest first.
+     *
+     * @return completes with the number of frames published when the end of
+     *         the file is reached or the bus is closed
+     */
+    public synchronized CompletableFuture<Long> start() {
+        if (thread != null) {
+            throw new IllegalStateException("Replay already started.");
+        }
+        CompletableFuture<Long> done = new CompletableFuture<>();
+        thread = new Thread(() -> play(done), "Replay " + name);
+        thread.setDaemon(true);
+        thread.start();
+        return done;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @param speed
+     *                  1 for the recorded pace, N for N times faster or
+     *                  {@link #MAX_SPEED}
+     */
+    public void setSpeed(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        }
+        this.speed = speed;
+    }
+
+    /**
+     * Continues playing from the first frame at or after the given time.
+     *
+     * @return false if there is no such frame
+     */
+    public boolean seek(LocalDateTime time) {
+        long target = Packet.toNanos(time) - startNanos;
+        Frame frame = new Frame();
+        // narrow down with a binary search on file positions, then scan
+        long lo = 0;
+        long hi = size;
+        while (hi - lo > 4096) {
+            long mid = (lo + hi) >>> 1;
+            long p = nextLine(mid);
+            while (p < hi && !parse(p, frame)) {
+                p = frame.next;
+            }
+            if (p >= hi || frame.nanos() >= target) {
+                hi = mid;
+            } else {
+                lo = p;
+            }
+        }
+        long p = lo;
+        while (p < size && !(parse(p, frame) && frame.nanos() >= target)) {
+            p = frame.next;
+        }
+        seekTo.set(p);
+        LockSupport.unpark(getThread());
+        return p < size;
+    }
+
+    private synchronized Thread getThread() {
+        return thread;
+    }
+
+    private void play(CompletableFuture<Long> done) {
+        Frame frame = new Frame();
+        List<Packet> batch = new ArrayList<>(BATCH_SIZE);
+        long began = System.nanoTime();
+        long count = 0;
+        long pos = 0;
+        // wall clock and capture time of the frame the pace is measured from
+        double pacedSpeed = 0;
+        long pacedWall = 0;
+        long pacedFrame = 0;
+        try {
+            while (!closed) {
+                long s = seekTo.getAndSet(-1);
+                if (s >= 0) {
+                    pos = s;
+                    pacedSpeed = 0;
+                }
+                if (pos >= size) {
+                    break;
+                }
+                boolean isFrame = parse(pos, frame);
+                pos = frame.next;
+                if (!isFrame) {
+                    continue;
+                }
+                double sp = speed;
+                if (sp == MAX_SPEED) {
+                    pacedSpeed = 0;
+                    batch.add(frame.parser.toPacket(startNanos));
+                    if (batch.size() == BATCH_SIZE) {
+                        queue.addAll(batch);
+                        count += batch.size();
+                        batch.clear();
+                    }
+                    continue;
+                }
+                if (!batch.isEmpty()) {
+                    queue.addAll(batch);
+                    count += batch.size();
+                    batch.clear();
+                }
+                if (sp != pacedSpeed) {
+                    pacedSpeed = sp;
+                    pacedWall = System.nanoTime();
+                    pacedFrame = frame.nanos();
+                }
+                long due = pacedWall + (long) ((frame.nanos() - pacedFrame) / sp);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0 && !closed && seekTo.get() < 0) {
+                    LockSupport.parkNanos(this, wait);
+                }
+                if (seekTo.get() < 0) {
+                    queue.add(frame.parser.toPacket(startNanos));
+                    count++;
+                }
+            }
+            if (!batch.isEmpty()) {
+                queue.addAll(batch);
+                count += batch.size();
+            }
+            double seconds = (System.nanoTime() - began) / (double) GIGA;
+            J1939_84.getLogger()
+                    .log(Level.INFO,
+                         String.format("Replayed %,d frames of %s in %.3f s (%,.0f frames/s)",
+                                       count,
+                                       name,
+                                       seconds,
+                                       count / Math.max(seconds, 1e-9)));
+            done.complete(count);
+        } catch (Throwable t) {
+            J1939_84.getLogger().log(Level.SEVERE, "Replay of " + name + " failed", t);
+            done.completeExceptionally(t);
+        }
+    }
+
+    private byte get(long pos) {
+        return chunks[(int) (pos >>> chunkBits)].get((int) (pos & ((1L << chunkBits) - 1)));
+    }
+
+    /** @return the start of the line after the one containing pos */
+    private long nextLine(long pos) {
+        while (pos < size && get(pos) != '\n') {
+            pos++;
+        }
+        return Math.min(pos + 1, size);
+    }
+
+    /**
+     * Parses the line starting at pos into the frame, like
+     * {@link PacketParser#parseVector(ByteBuffer, int, int)}. Sets frame.next
+     * even if the line is not a frame.
+     *
+     * @return true if the line is a frame
+     */
+    private boolean parse(long pos, Frame frame) {
+        long next = nextLine(pos);
+        frame.next = next;
+        long end = next > pos && get(next - 1) == '\n' ? next - 1 : next;
+        int chunk = (int) (pos >>> chunkBits);
+        long base = (long) chunk << chunkBits;
+        if (end - base <= chunks[chunk].limit()) {
+            return frame.parser.parseVector(chunks[chunk], (int) (pos - base), (int) (end - base));
+        }
+        // the line continues in the next mapping
+        if (end - pos > frame.line.capacity()) {
+            return false;
+        }
+        int length = (int) (end - pos);
+        for (int i = 0; i < length; i++) {
+            frame.line.put(i, get(pos + i));
+        }
+        return frame.parser.parseVector(frame.line, 0, length);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        queue.close();
+        LockSupport.unpark(getThread());
+    }
+
+    @Override
+    public Stream<Packet> duplicate(Stream<Packet> stream, int time, TimeUnit unit) {
+        return queue.duplicate(stream, time, unit);
+    }
+
+    @Override
+    public int getAddress() {
+        return address;
+    }
+
+    @Override
+    public int getConnectionSpeed() throws BusException {
+        throw new BusException("Could not be determined");
+    }
+
+    @Override
+    public Stream<Packet> read(long timeout, TimeUnit unit) {
+        return queue.stream(timeout, unit);
+    }
+
+    @Override
+    public Stream<Packet> read(long timeout, TimeUnit unit, int maxLag, LagPolicy policy) {
+        return queue.stream(timeout, unit, maxLag, policy);
+    }
+
+    @Override
+    public Stream<Packet> read(FrameFilter filter, long timeout, TimeUnit unit) {
+        return queue.stream(filter, timeout, unit);
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return queue.getDropped();
+    }
+
+    @Override
+    public Flow.Publisher<Packet> publisher(FrameFilter filter) {
+        return queue.publisher(filter);
+    }
+
+    @Override
+    public void resetTimeout(Stream<Packet> stream, int time, TimeUnit unit) {
+        queue.resetTimeout(stream, time, unit);
+    }
+
+    @Override
+    public Packet send(Packet p) {
+        queue.add(p);
+        return p;
+    }
+
+    @Override
+    public boolean imposterDetected() {
+        return false;
+    }
+}
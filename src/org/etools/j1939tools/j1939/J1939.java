@@ -3,17 +3,16 @@
  */
 package org.etools.j1939tools.j1939;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.logging.Level.SEVERE;
 import static org.etools.j1939tools.j1939.packets.AcknowledgmentPacket.Response.BUSY;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -34,8 +33,11 @@ import org.etools.j1939tools.CommunicationsListener;
 import org.etools.j1939tools.bus.Bus;
 import org.etools.j1939tools.bus.BusException;
 import org.etools.j1939tools.bus.BusResult;
+import org.etools.j1939tools.bus.CanLogger;
 import org.etools.j1939tools.bus.EchoBus;
 import org.etools.j1939tools.bus.Either;
+import org.etools.j1939tools.bus.FrameFilter;
+import org.etools.j1939tools.bus.FrameHistory;
 import org.etools.j1939tools.bus.Packet;
 import org.etools.j1939tools.bus.Packet.PacketException;
 import org.etools.j1939tools.bus.RequestResult;
@@ -125,7 +127,15 @@ public class J1939 {
 
     private boolean logDeltaTime;
 
-    private Stream<Packet> loggerStream = Stream.empty();
+    private CanLogger logger;
+
+    private AutoCloseable loggerSubscription;
+
+    private String loggerPrefix;
+
+    private FrameHistory frameHistory;
+
+    private AutoCloseable historySubscription;
 
     public J1939() {
         this(new EchoBus(0xA5));
@@ -288,6 +298,14 @@ public class J1939 {
         return warnings;
     }
 
+    /**
+     * Count of frames that were not logged or processed, because a reader fell
+     * too far behind the bus.
+     */
+    public long getDroppedFrames() {
+        return bus.getDroppedFrames();
+    }
+
     private Predicate<Packet> globalFilter(int pgn) {
         return
         // does the packet have the right ID
@@ -484,9 +502,8 @@ public class J1939 {
         }
 
         int pgn = getPgn(T);
-        try (Stream<Packet> stream = read(timeout, unit)) {
+        try (Stream<Packet> stream = read(FrameFilter.pgn(pgn).withSource(addr), timeout, unit)) {
             return stream
-                         .filter(sourceFilter(addr).and(pgnFilter(pgn)))
                          .findFirst()
                          .map(this::process);
         } catch (BusException e) {
@@ -509,11 +526,7 @@ public class J1939 {
                                                                                   long timeout,
                                                                                   TimeUnit unit) {
         try {
-            Stream<Packet> stream = read(timeout, unit);
-            if (pg >= 0) {
-                stream = stream.filter(pgnFilter(pg));
-            }
-
+            Stream<Packet> stream = pg >= 0 ? read(FrameFilter.pgn(pg), timeout, unit) : read(timeout, unit);
             return stream.map(this::process);
         } catch (BusException e) {
             severe("Error reading packets", e);
@@ -535,12 +548,8 @@ public class J1939 {
                                                                                   long timeout,
                                                                                   TimeUnit unit) {
         try {
-            Stream<Packet> stream = read(timeout, unit);
             int pgn = getPgn(T);
-            if (pgn >= 0) {
-                stream = stream.filter(pgnFilter(pgn));
-            }
-
+            Stream<Packet> stream = pgn >= 0 ? read(FrameFilter.pgn(pgn), timeout, unit) : read(timeout, unit);
             return stream.map(this::process);
         } catch (BusException e) {
             severe("Error reading packets", e);
@@ -554,6 +563,16 @@ public class J1939 {
                   .filter(Packet::isValid);
     }
 
+    /**
+     * Read only the packets that match the filter. The filter is applied by the
+     * bus as packets are queued.
+     */
+    public Stream<Packet> read(FrameFilter filter, long timeout, TimeUnit unit) throws BusException {
+        return bus.read(filter, timeout, unit)
+                  // only return complete and valid packets (not broken TP packets).
+                  .filter(Packet::isValid);
+    }
+
     public <T extends GenericPacket> BusResult<T> requestDS(String title,
                                                             Class<T> clas,
                                                             int address,
@@ -605,15 +624,15 @@ public class J1939 {
         }
 
         try {
-            Stream<Packet> packetStream = read(DS_TIMEOUT, MILLISECONDS);
+            Stream<Packet> packetStream = read(responseFilter(request, pgn), DS_TIMEOUT, MILLISECONDS);
             Packet sent = bus.send(request);
-            LocalDateTime lateTime;
+            long lateTime;
             if (sent != null) {
                 listener.onResult(sent.toTimeString());
-                lateTime = sent.getTimestamp().plus(GLOBAL_WARN_TIMEOUT, ChronoUnit.MILLIS);
+                lateTime = sent.getTimestampNanos() + MILLISECONDS.toNanos(GLOBAL_WARN_TIMEOUT);
             } else {
                 logWarning(listener, FAILED_TO_SEND + request);
-                lateTime = null;
+                lateTime = Long.MAX_VALUE;
             }
             Stream<Either<T, AcknowledgmentPacket>> stream = packetStream.filter(after(sent).and(dsFilter(pgn,
                                                                                                           request.getDestination(),
@@ -625,7 +644,7 @@ public class J1939 {
                 logResponse(listener, sent, pp.getPacket());
                 listener.onResult(pp.toString());
 
-                if (lateTime != null && pp.getPacket().getFragments().get(0).getTimestamp().isAfter(lateTime)) {
+                if (pp.getPacket().getFragments().get(0).getTimestampNanos() > lateTime) {
                     logTiming(listener,
                               LATE_RESPONSE + " " + pp.getPacket().getFragments().get(0).toTimeString() + " to request "
                                       + sent.toTimeString());
@@ -640,6 +659,18 @@ public class J1939 {
         }
     }
 
+    /**
+     * Coarse filter for the responses to a request, to be applied by the bus.
+     * The echo of the request is included for {@link #after(Packet)}.
+     */
+    private FrameFilter responseFilter(Packet request, int pgn) {
+        FrameFilter response = FrameFilter.pgn(pgn).or(FrameFilter.pgn(AcknowledgmentPacket.PGN));
+        if (request.getDestination() != GLOBAL_ADDR) {
+            response = response.withSource(request.getDestination());
+        }
+        return response.or(FrameFilter.id(request.getId(0xFFFF), 0xFFFF).withSource(request.getSource()));
+    }
+
     static private Predicate<Packet> after(Packet sent) {
         return new Predicate<Packet>() {
             // sent == null for TP requests and some unit tests
@@ -809,15 +840,15 @@ public class J1939 {
         }
 
         List<Either<T, AcknowledgmentPacket>> result;
-        try (Stream<Packet> stream = read(timeOut, timeUnit)) {
+        try (Stream<Packet> stream = read(responseFilter(request, pgn), timeOut, timeUnit)) {
             Packet sent = bus.send(request);
-            LocalDateTime lateTime;
+            long lateTime;
             if (sent != null) {
                 listener.onResult(sent.toTimeString());
-                lateTime = sent.getTimestamp().plus(GLOBAL_WARN_TIMEOUT, ChronoUnit.MILLIS);
+                lateTime = sent.getTimestampNanos() + MILLISECONDS.toNanos(GLOBAL_WARN_TIMEOUT);
             } else {
                 logWarning(listener, FAILED_TO_SEND + request);
-                lateTime = null;
+                lateTime = Long.MAX_VALUE;
             }
             List<Packet> lateBam = new ArrayList<>();
             result = stream.filter(after(sent))
@@ -827,8 +858,8 @@ public class J1939 {
                                 * If the first fragment arrived after lateBam, then it
                                 * is late.
                                 */
-                               if (lateTime != null && p.getFragments().size() > 0
-                                       && p.getFragments().get(0).getTimestamp().isAfter(lateTime)
+                               if (p.getFragments().size() > 0
+                                       && p.getFragments().get(0).getTimestampNanos() > lateTime
                                // only record first one
                                        && !lateBam.contains(p)) {
                                    lateBam.add(p);
@@ -890,7 +921,9 @@ public class J1939 {
         try {
             BusResult<DM30ScaledTestResultsPacket> result;
             for (int i = 0; true; i++) {
-                Stream<Packet> packetStream = read(DS_TIMEOUT, MILLISECONDS);
+                Stream<Packet> packetStream = read(responseFilter(request, DM30ScaledTestResultsPacket.PGN),
+                                                   DS_TIMEOUT,
+                                                   MILLISECONDS);
                 Packet sent = bus.send(request);
                 if (sent != null) {
                     listener.onResult(sent.toTimeString());
@@ -948,7 +981,9 @@ public class J1939 {
         try {
             BusResult<DM58RationalityFaultSpData> result;
             for (int i = 0; true; i++) {
-                Stream<Packet> packetStream = read(DS_TIMEOUT, MILLISECONDS);
+                Stream<Packet> packetStream = read(responseFilter(request, DM58RationalityFaultSpData.PGN),
+                                                   DS_TIMEOUT,
+                                                   MILLISECONDS);
                 Packet sent = bus.send(request);
                 if (sent != null) {
                     listener.onResult(sent.toTimeString());
@@ -1012,46 +1047,123 @@ public class J1939 {
         return Optional.of(logFilePath);
     }
 
-    public Stream<Packet> startLogger(String prefix) throws BusException {
-        Instant start = Instant.now();
+    /**
+     * Logs every frame on the raw bus to a new .asc log, compressed in a zip
+     * file as it is written, until {@link #closeLogger()}.
+     *
+     * @param  prefix
+     *                    the prefix of the log file name
+     * @return        the logger, or null if the log cannot be written
+     */
+    public synchronized CanLogger startLogger(String prefix) {
+        closeLogger();
+        loggerPrefix = prefix;
+        openLogger();
+        return logger;
+    }
+
+    private void openLogger() {
+        String prefix = loggerPrefix;
         // do not crash tests that do not include a raw bus.
-        loggerStream = (bus.getRawBus() == null ? bus : bus.getRawBus()).read(Integer.MAX_VALUE, TimeUnit.DAYS);
-        new Thread(() -> {
+        Bus rawBus = bus.getRawBus() == null ? bus : bus.getRawBus();
+        try {
+            final String SUFFIX = ".zip";
+            File file = File.createTempFile(prefix, SUFFIX);
+            setLogFilePath(file.getAbsolutePath());
+            // delete all but last 10 logs
+            Stream.of(file.getParentFile()
+                          .listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(SUFFIX)))
+                  .sorted(Comparator.comparing(f -> -f.lastModified()))
+                  .skip(10)
+                  .forEach(f -> {
+                      if (!f.delete()) {
+                          J1939_84.getLogger().log(Level.INFO, "Failed to delete file " + f.getAbsolutePath());
+                      }
+                  });
+
+            // a logger stalled on the disk drops frames instead of holding up the bus.
+            logger = new CanLogger(file.toPath(), file.getName().replace(SUFFIX, ".asc"), Instant.now()).start();
+            loggerSubscription = rawBus.subscribe(FrameFilter.all(), logger::accept);
+        } catch (Throwable e) {
+            J1939_84.getLogger().log(Level.SEVERE, "Unable to log packets.", e);
+        }
+    }
+
+    /**
+     * Completes the log of the frames so far and moves it to a file, then
+     * continues logging to a new log. The new log is subscribed before the
+     * completed one is closed, so no frames are missed between them.
+     *
+     * @param  target
+     *                    the zip file for the completed log
+     * @return        true if the log was moved to the file
+     */
+    public synchronized boolean finishLog(Path target) {
+        if (logger == null) {
+            return false;
+        }
+        CanLogger finished = logger;
+        AutoCloseable finishedSubscription = loggerSubscription;
+        Path file = Path.of(logFilePath);
+        logger = null;
+        loggerSubscription = null;
+        openLogger();
+        try {
+            finishedSubscription.close();
+            finished.close();
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (Exception e) {
+            J1939_84.getLogger().log(Level.WARNING, "Unable to complete the CAN log.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Keeps the recent frames on the raw bus in memory, until
+     * {@link #closeLogger()}.
+     *
+     * @return the history
+     */
+    public FrameHistory startFrameHistory(Duration preTrigger, long maxBytes, Duration postTrigger) {
+        Bus rawBus = bus.getRawBus() == null ? bus : bus.getRawBus();
+        FrameHistory history = new FrameHistory(preTrigger, maxBytes, postTrigger);
+        if (historySubscription != null) {
             try {
-                final String SUFFIX = ".asc";
-                File file = File.createTempFile(prefix, SUFFIX);
-                setLogFilePath(file.getAbsolutePath());
-                // delete all but last 10 logs
-                Stream.of(file.getParentFile()
-                              .listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(SUFFIX)))
-                      .sorted(Comparator.comparing(f -> -f.lastModified()))
-                      .skip(10)
-                      .forEach(f -> {
-                          if (!f.delete()) {
-                              J1939_84.getLogger().log(Level.INFO, "Failed to delete file " + f.getAbsolutePath());
-                          }
-                      });
-
-                try (PrintWriter out = new PrintWriter(new FileWriter(file, UTF_8))) {
-                    out.println("base hex timestamps absolute");
-                    loggerStream.forEach(p -> {
-                        try {
-                            out.println(p.toVectorString(start));
-                        } catch (Throwable t) {
-                            out.println(t.getMessage());
-                            J1939_84.getLogger().log(Level.WARNING, "Packet Failure", t);
-                        }
-                    });
-                }
-            } catch (Throwable e) {
-                J1939_84.getLogger().log(Level.SEVERE, "Unable to log packets.", e);
+                historySubscription.close();
+            } catch (Exception e) {
+                J1939_84.getLogger().log(Level.WARNING, "Unable to stop frame history.", e);
             }
-        }).start();
-        return loggerStream;
+        }
+        historySubscription = rawBus.subscribe(FrameFilter.all(), history::accept);
+        frameHistory = history;
+        return history;
+    }
+
+    /** @return the recent frames, or null if they are not kept */
+    public FrameHistory getFrameHistory() {
+        return frameHistory;
     }
 
-    public void closeLogger() {
-        loggerStream.close();
+    public synchronized void closeLogger() {
+        try {
+            if (historySubscription != null) {
+                historySubscription.close();
+            }
+            if (loggerSubscription != null) {
+                loggerSubscription.close();
+            }
+            if (logger != null) {
+                logger.close();
+            }
+        } catch (Exception e) {
+            J1939_84.getLogger().log(Level.SEVERE, "Unable to log packets.", e);
+        } finally {
+            historySubscription = null;
+            frameHistory = null;
+            loggerSubscription = null;
+            logger = null;
+        }
     }
 
     public List<Either<GenericPacket, AcknowledgmentPacket>>
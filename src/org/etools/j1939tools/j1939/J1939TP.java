@@ -1,19 +1,26 @@
 package org.etools.j1939tools.j1939;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Predicate;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
@@ -21,9 +28,27 @@ import java.util.stream.Stream;
 import org.etools.j1939tools.bus.Bus;
 import org.etools.j1939tools.bus.BusException;
 import org.etools.j1939tools.bus.EchoBus;
+import org.etools.j1939tools.bus.FrameFilter;
+import org.etools.j1939tools.bus.LagPolicy;
 import org.etools.j1939tools.bus.Packet;
-import org.etools.j1939tools.bus.Packet.PacketException;
+import org.etools.j1939tools.j1939.TimerWheel.Timeout;
 
+/**
+ * The J1939-21 transport protocol over a {@link Bus}. Reading returns whole
+ * messages; the frames of BAM and RTS/CTS sessions are not passed through.
+ *
+ * Received sessions run on a single thread, as state machines keyed by the
+ * source and destination of their frames. Frames are handed to the thread as
+ * they arrive and routed to their session with one lookup, BAM sessions in a
+ * table by source address, so a session only sees its own frames. The
+ * timeouts of the
+ * sessions are kept in a {@link TimerWheel}, so the number of threads does not
+ * grow with the number of sessions.
+ *
+ * Sent sessions run on the same thread: BAMs paced by the timer wheel and
+ * RTS/CTS sessions driven by the CTSs of their destinations, so sessions to
+ * different destinations run at the same time.
+ */
 public class J1939TP implements Bus {
 
     /** Constants from J1939-21 */
@@ -60,27 +85,88 @@ public class J1939TP implements Bus {
         table7 = Collections.unmodifiableMap(err);
     }
 
+    /** The shortest time between the frames of a BAM, in milliseconds. */
+    public static final int MIN_BAM_GAP = 50;
+
+    /** The longest time between the frames of a BAM, in milliseconds. */
+    public static final int MAX_BAM_GAP = 200;
+
+    /** The longest close() waits for the messages being sent. */
+    private static final long CLOSE_TIMEOUT_MS = 60_000;
+
+    /** The resolution of the session timeouts, in milliseconds. */
+    private static final int TICK_MS = 5;
+
+    /** The number of ticks in a turn of the timer wheel, more than T2. */
+    private static final int WHEEL_SIZE = 512;
+
+    /** The longest the session thread parks while no timeout is pending. */
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     /** bus representing CAN bus */
     private final Bus bus;
-    /**
-     * Support up to 255 concurrent TP sessions plus main kickoff thread, but we
-     * only expect there to normally be 5, so shut down idle threads after 1 s.
-     */
-    private final ExecutorService exec = new ThreadPoolExecutor(5 + 1,
-                                                                255 + 1,
-                                                                1L,
-                                                                TimeUnit.SECONDS,
-                                                                new LinkedBlockingQueue<>(),
-                                                                r -> new Thread(r, "J1939TP"));
     /** Application side bus. */
     private final EchoBus inbound;
 
     private final boolean passAll;
 
+    /** Frames and other work for the session thread. */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /** The timeouts of the sessions. Only used on the session thread. */
+    private final TimerWheel timers = new TimerWheel(TICK_MS, TimeUnit.MILLISECONDS, WHEEL_SIZE);
+
     /**
-     * The inbound stream that RTS and BAM announcements will be detected on.
+     * The destination specific sessions being received, by source and
+     * destination address. Only used on the session thread.
      */
-    private final Stream<Packet> stream;
+    private final Map<Integer, Session> sessions = new HashMap<>();
+
+    /**
+     * The BAM sessions being received, by source address. Only used on the
+     * session thread.
+     */
+    private final Session[] broadcasts = new Session[256];
+
+    /**
+     * The messages being broadcast, the one being sent first. Only used on
+     * the session thread.
+     */
+    private final Queue<BamTransfer> broadcastsOut = new ArrayDeque<>();
+
+    /**
+     * The messages being sent with RTS/CTS, by destination. The first of each
+     * queue is being sent; the others wait for it, as only one session
+     * between two addresses may be open. Only used on the session thread.
+     */
+    private final Map<Integer, Queue<RtsTransfer>> connectionsOut = new HashMap<>();
+
+    /**
+     * The single frames being sent, whose echoes are passed through in bus
+     * order, ahead of any response to them.
+     */
+    private final Queue<Packet> echoes = new ConcurrentLinkedQueue<>();
+
+    /** The time between the frames of a BAM, in milliseconds. */
+    private volatile int bamGap = MIN_BAM_GAP;
+
+    /** The thread that runs the sessions. */
+    private final Thread thread;
+
+    /**
+     * Sends the frames of the sessions in order, so that a bus waiting for
+     * the echo of a frame does not hold up the session thread.
+     */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread writerThread = new Thread(r, "J1939TP Writer");
+        writerThread.setDaemon(true);
+        return writerThread;
+    });
+
+    /** The subscription to the frames of the bus. */
+    private final AutoCloseable subscription;
+
+    private volatile boolean closed;
 
     public J1939TP(Bus bus) throws BusException {
         this(bus, bus.getAddress());
@@ -95,31 +181,134 @@ public class J1939TP implements Bus {
     public J1939TP(Bus bus, int address, boolean passAll) throws BusException {
         this.bus = bus;
         this.passAll = passAll;
-        stream = bus.read(9999, TimeUnit.DAYS);
         inbound = new EchoBus(address);
-        // start processing
-        exec.execute(() -> stream.forEach(p -> receive(p)));
+        thread = new Thread(this::run, "J1939TP");
+        thread.setDaemon(true);
+        // subscribe before starting, so no frame sent after construction is missed
+        subscription = bus.subscribe(FrameFilter.all(), p -> execute(() -> receive(p)));
+        thread.start();
     }
 
     static private String getAbortError(int code) {
         return table7.getOrDefault(code, "Unknown");
     }
 
-    /** We do not care about interruptions. */
-    static private void sleep(int duration) {
-        try {
-            Thread.sleep(duration);
-        } catch (InterruptedException e) {
+    private static int key(int source, int destination) {
+        return source << 8 | destination;
+    }
+
+    /** @return the time between the frames of a BAM, in milliseconds */
+    public int getBamGap() {
+        return bamGap;
+    }
+
+    /**
+     * @param millis
+     *                   the time between the frames of a BAM, from
+     *                   {@link #MIN_BAM_GAP} to {@link #MAX_BAM_GAP}
+     */
+    public void setBamGap(int millis) {
+        if (millis < MIN_BAM_GAP || millis > MAX_BAM_GAP) {
+            throw new IllegalArgumentException("BAM gap must be " + MIN_BAM_GAP + " to " + MAX_BAM_GAP + " ms: "
+                    + millis);
         }
+        bamGap = millis;
     }
 
+    /**
+     * Closes the bus once the messages already being sent are sent.
+     */
     @Override
     public void close() {
-        exec.shutdownNow();
-        stream.close();
+        if (!closed && Thread.currentThread() != thread) {
+            CompletableFuture<Void> sent = new CompletableFuture<>();
+            execute(() -> {
+                List<CompletableFuture<Packet>> pending = new ArrayList<>();
+                broadcastsOut.forEach(t -> pending.add(t.done));
+                connectionsOut.values().forEach(q -> q.forEach(t -> pending.add(t.done)));
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+                                 .whenComplete((v, t) -> sent.complete(null));
+            });
+            try {
+                sent.get(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                error("Failed to finish broadcasts", e);
+            }
+        }
+        closed = true;
+        try {
+            subscription.close();
+        } catch (Exception e) {
+            error("Failed to close subscription", e);
+        }
+        LockSupport.unpark(thread);
+        writer.shutdownNow();
         bus.close();
     }
 
+    /** Runs the task on the session thread. */
+    private void execute(Runnable task) {
+        tasks.add(task);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Sends a frame on the writer thread, after the frames already written.
+     *
+     * @return completes with the echo of the frame, or exceptionally if it
+     *         could not be sent
+     */
+    private CompletableFuture<Packet> write(Packet frame) {
+        CompletableFuture<Packet> sent = new CompletableFuture<>();
+        try {
+            writer.execute(() -> {
+                try {
+                    sent.complete(bus.send(frame));
+                } catch (Throwable t) {
+                    sent.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            sent.completeExceptionally(new BusException("Closed"));
+        }
+        return sent;
+    }
+
+    /** The session thread. */
+    private void run() {
+        while (!closed) {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    error("Failed to run TP task", t);
+                }
+            }
+            try {
+                timers.advance();
+            } catch (Throwable t) {
+                error("Failed to run TP timeout", t);
+            }
+            if (tasks.isEmpty()) {
+                LockSupport.parkNanos(this, Math.min(timers.nanosToNextTick(), IDLE_NANOS));
+            }
+        }
+        BamTransfer transfer;
+        while ((transfer = broadcastsOut.poll()) != null) {
+            transfer.done.completeExceptionally(new BusException("Closed"));
+        }
+        connectionsOut.values()
+                      .forEach(q -> q.forEach(t -> t.done.completeExceptionally(new BusException("Closed"))));
+        // nothing will complete the sessions that are left
+        new ArrayList<>(sessions.values()).forEach(Session::fail);
+        for (Session session : broadcasts) {
+            if (session != null) {
+                session.fail();
+            }
+        }
+    }
+
     /**
      * @param stream
      *                   base stream originally returned from bus.read().
@@ -144,6 +333,26 @@ public class J1939TP implements Bus {
         return inbound.read(timeout, unit);
     }
 
+    @Override
+    public Stream<Packet> read(long timeout, TimeUnit unit, int maxLag, LagPolicy policy) throws BusException {
+        return inbound.read(timeout, unit, maxLag, policy);
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return bus.getDroppedFrames() + inbound.getDroppedFrames();
+    }
+
+    @Override
+    public Stream<Packet> read(FrameFilter filter, long timeout, TimeUnit unit) throws BusException {
+        return inbound.read(filter, timeout, unit);
+    }
+
+    @Override
+    public Flow.Publisher<Packet> publisher(FrameFilter filter) {
+        return inbound.publisher(filter);
+    }
+
     @Override
     public void resetTimeout(Stream<Packet> stream, int time, TimeUnit unit) {
         bus.resetTimeout(stream, time, unit);
@@ -151,19 +360,55 @@ public class J1939TP implements Bus {
 
     @Override
     public Packet send(Packet packet) throws BusException {
-        Packet sent;
         if (packet.getLength() <= 8) {
-            sent = bus.send(packet);
+            return sendFrame(packet);
         } else if (packet.getPgn() >= 0xF000) {
-            sent = sendBam(packet);
-        } else {
-            sent = sendDestinationSpecific(packet.getDestination(), packet);
+            await(sendBam(packet), packet);
+            // Don't bother finding echo. It's hard and not useful for TP sends.
+            return null;
         }
+        Packet sent = sendDestinationSpecific(packet.getDestination(), packet);
         if (sent != null)
             inbound.send(sent);
         return sent;
     }
 
+    /**
+     * Sends a single frame. Its echo is passed through by receive, so that it
+     * is read before any response to it. A bus that does not echo has the
+     * sent frame passed through instead, once the frames received before it
+     * returned have been.
+     */
+    private Packet sendFrame(Packet packet) throws BusException {
+        if (passAll) {
+            // every frame is passed through, the echo included
+            return bus.send(packet);
+        }
+        echoes.add(packet);
+        Packet sent = null;
+        try {
+            sent = bus.send(packet);
+        } finally {
+            Packet echo = sent;
+            execute(() -> {
+                if (echoes.removeIf(p -> p == packet) && echo != null) {
+                    inbound.send(echo);
+                }
+            });
+        }
+        return sent;
+    }
+
+    /** @return true if the frame is the echo of one being sent */
+    private boolean isEcho(Packet frame) {
+        for (Packet p : echoes) {
+            if (p.equals(frame)) {
+                return echoes.remove(p);
+            }
+        }
+        return false;
+    }
+
     /** Record an error, which is more than just a warning. */
     private void error(String msg, Throwable e) {
         logger.log(Level.SEVERE, msg, e);
@@ -176,6 +421,7 @@ public class J1939TP implements Bus {
         }
     }
 
+    /** Handles a frame from the bus, on the session thread. */
     private void receive(Packet packet) {
         // System.err.println(this + " J1939TP receive: " + packet);
         // ignore the packet if it is from this
@@ -186,337 +432,689 @@ public class J1939TP implements Bus {
             if (packet.getSource() != getAddress()) {
                 switch (packet.getPgn()) {
                     case CM: // TP connection management
-                        switch (packet.get(0)) {
-                            case CM_RTS: { // Request to send
-                                if (packet.getDestination() == getAddress()) {
-                                    exec.execute(() -> {
-                                        try {
-                                            receiveDestinationSpecific(packet);
-                                        } catch (BusException e) {
-                                            error("Failed to receive destination specific TP:" + packet, e);
-                                        }
-                                    });
-                                }
-                                return;
-                            }
-                            case CM_BAM: {
-                                /*
-                                 * Duplicate the current stream. Opening a new stream starts
-                                 * from "now" and may miss packets already queued up in
-                                 * stream. This is not needed for DA, because DA has a CTS.
-                                 * Timeout is reset inside receiveBam to account for time
-                                 * spent starting this thread.
-                                 */
-                                Stream<Packet> bamStream = bus.duplicate(stream, T2, TimeUnit.MILLISECONDS);
-                                exec.execute(() -> {
-                                    try {
-                                        receiveBam(packet, bamStream);
-                                    } catch (Throwable t) {
-                                        error("Failed to process packet:" + packet, t);
-                                    } finally {
-                                        bamStream.close();
-                                    }
-                                });
-                                return;
-                            }
-                            case CM_ConnAbort:
-                                // handled in receive calls
-                                return;
+                        if (receiveControl(packet)) {
+                            return;
                         }
                         break;
-                    case DT: // data
+                    case DT: { // data
+                        Session session = session(packet.getSource(), packet.getDestination());
+                        if (session != null) {
+                            session.data(packet);
+                        }
                         return;
+                    }
                 }
                 // everything else, pass through
                 if (!passAll)
                     inbound.send(packet);
+            } else if (!passAll && isEcho(packet)) {
+                inbound.send(packet);
             }
         } catch (Throwable t) {
             error("Failed to process packet:" + packet, t);
         }
     }
 
-    private void receiveBam(Packet bam, Stream<Packet> stream) {
-        fine("rx BAM", bam);
+    /**
+     * Handles a TP.CM frame.
+     *
+     * @return false if the frame is not part of a received session and is
+     *         passed through
+     */
+    private boolean receiveControl(Packet packet) {
+        int control = packet.get(0);
+        int source = packet.getSource();
+        int destination = packet.getDestination();
+        Session session = session(source, destination);
+        RtsTransfer transfer = destination == getAddress() ? transferTo(source) : null;
+        switch (control) {
+            case CM_RTS: // Request to send
+                if (destination == getAddress()) {
+                    if (session != null) {
+                        // a new session between the same addresses replaces the old one
+                        session.abort(packet);
+                    }
+                    new RtsSession(packet).start();
+                }
+                return true;
+            case CM_BAM:
+                if (session != null) {
+                    session.abort(packet);
+                }
+                new BamSession(packet).start();
+                return true;
+            case CM_ConnAbort:
+                if (session != null && packet.get24(5) == session.pgn) {
+                    session.abort(packet);
+                } else if (transfer != null) {
+                    transfer.control(packet);
+                }
+                return true;
+            case CM_CTS:
+            case CM_EndOfMessageACK:
+                if (transfer != null) {
+                    transfer.control(packet);
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
 
-        int numberOfPackets = bam.get(3);
+    /** @return the message being sent to the address with RTS/CTS, or null */
+    private RtsTransfer transferTo(int destination) {
+        Queue<RtsTransfer> queue = connectionsOut.get(destination);
+        return queue == null ? null : queue.peek();
+    }
 
-        byte[] data = new byte[bam.get16(1)];
-        BitSet received = new BitSet(numberOfPackets + 1);
-        int dataId = DT | bam.getDestination();
-        int controlId = CM | bam.getId(0xFF);
+    /** @return the session being received between the addresses, or null */
+    private Session session(int source, int destination) {
+        return destination == 0xFF ? broadcasts[source] : sessions.get(key(source, destination));
+    }
 
-        int pgn = bam.get24(5);
-        int source = bam.getSource();
-        int packetId = pgn < 0xF000 ? pgn | bam.getDestination() : pgn;
-        Packet packet = createEmptyPacket(packetId, source);
-        packet.setFragments(new ArrayList<>());
-        packet.getFragments().add(bam);
-        packet.setTimestamp(bam.getTimestamp());
-        synchronized (packet) {
+    /**
+     * A session being received. Runs on the session thread, driven by its
+     * frames and its timeout.
+     */
+    private abstract class Session {
+        final Packet announcement;
+        final int source;
+        final int destination;
+        final int pgn;
+        final int numberOfPackets;
+        /** Becomes the data of the message, without another copy. */
+        final byte[] data;
+        final BitSet received;
+        /** The message, passed on as soon as it is announced. */
+        final Packet packet;
+        Timeout timeout;
+
+        Session(Packet announcement) {
+            this.announcement = announcement;
+            source = announcement.getSource();
+            destination = announcement.getDestination();
+            pgn = announcement.get24(5);
+            numberOfPackets = announcement.get(3);
+            data = new byte[announcement.get16(1)];
+            received = new BitSet(numberOfPackets + 1);
+            int id = pgn < 0xF000 ? pgn | destination : pgn;
+            packet = createEmptyPacket(id, source);
+            packet.setFragments(new ArrayList<>());
+            packet.getFragments().add(announcement);
+        }
+
+        void start() {
+            if (destination == 0xFF) {
+                broadcasts[source] = this;
+            } else {
+                sessions.put(key(source, destination), this);
+            }
             inbound.send(packet);
+        }
 
-            bus.resetTimeout(stream, T2, TimeUnit.MILLISECONDS);
-            if (stream
-                      .filter(p -> {
-                          int id = p.getId(0xFFFF);
-                          return p.getSource() == source && (id == dataId || id == controlId);
-                      })
-                      .peek(p -> bus.resetTimeout(stream, T1, TimeUnit.MILLISECONDS))
-                      .map(p -> {
-                          if (p.getId(0xFFFF) == controlId) {
-                              packet.fail();
-                              warn("BAM canceled or aborted: " + bam + " -> " + p);
-                              return true;
-                          }
-                          fine("rx DT", p);
-                          packet.getFragments().add(p);
-                          received.set(p.get(0));
-                          int offset = (p.get(0) - 1) * 7;
-                          System.arraycopy(p.getBytes(), 1, data, offset, Math.min(offset + 7, data.length) - offset);
-                          packet.setTimestamp(p.getTimestamp());
-                          return received.cardinality() == numberOfPackets;
-                      })
-                      .filter(b -> b)
-                      .findFirst()
-                      .orElse(false)
-                    && received.cardinality() == numberOfPackets) {
-                packet.setData(data);
+        /** Adds the data of a TP.DT frame. */
+        void add(Packet dt) {
+            packet.getFragments().add(dt);
+            int sequence = dt.get(0);
+            if (sequence < 1 || sequence > numberOfPackets) {
+                return;
+            }
+            received.set(sequence);
+            int offset = (sequence - 1) * 7;
+            dt.getBytes(1, data, offset, Math.min(offset + 7, data.length) - offset);
+            packet.setTimestampNanos(dt.getTimestampNanos());
+        }
+
+        /** Restarts the timeout. */
+        void expireAfter(int millis) {
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            timeout = timers.schedule(this::expired, millis, TimeUnit.MILLISECONDS);
+        }
+
+        /** Ends the session, with the data or a failure. */
+        void end() {
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            if (destination == 0xFF) {
+                if (broadcasts[source] == this) {
+                    broadcasts[source] = null;
+                }
             } else {
-                warn("BAM missing DT %d != %d %s",
-                     received.cardinality(),
-                     numberOfPackets,
-                     packet.getFragments());
-                packet.fail();
+                sessions.remove(key(source, destination), this);
             }
         }
+
+        void fail() {
+            end();
+            packet.fail();
+        }
+
+        abstract void data(Packet dt);
+
+        abstract void expired();
+
+        abstract void abort(Packet control);
     }
 
-    private Packet createEmptyPacket(int id, int source) {
-        return new Packet(LocalDateTime.now(), 7, id, source, false, (int[]) null);
+    /** A broadcast session. */
+    private class BamSession extends Session {
+        BamSession(Packet bam) {
+            super(bam);
+            packet.setTimestampNanos(bam.getTimestampNanos());
+        }
+
+        @Override
+        void start() {
+            fine("rx BAM", announcement);
+            super.start();
+            expireAfter(T2);
+        }
+
+        @Override
+        void data(Packet dt) {
+            fine("rx DT", dt);
+            add(dt);
+            if (received.cardinality() == numberOfPackets) {
+                end();
+                packet.adoptData(data);
+            } else {
+                expireAfter(T1);
+            }
+        }
+
+        @Override
+        void expired() {
+            warn("BAM missing DT %d != %d %s",
+                 received.cardinality(),
+                 numberOfPackets,
+                 packet.getFragments());
+            fail();
+        }
+
+        @Override
+        void abort(Packet control) {
+            warn("BAM canceled or aborted: " + announcement + " -> " + control);
+            fail();
+        }
     }
 
-    public void receiveDestinationSpecific(Packet rts) throws BusException {
-        fine("rx RTS", rts);
-        int numberOfPackets = rts.get(3);
-        int maxResponsePackets = rts.get(4);
-
-        byte[] data = new byte[rts.get16(1)];
-        BitSet received = new BitSet(numberOfPackets + 1);
-        int receivedNone = 0;
-        int lastCardinality = -1;
-        int cardinality;
-
-        int pgn = rts.get24(5);
-        int source = rts.getSource();
-        int id = pgn < 0xF000 ? pgn | rts.getDestination() : pgn;
-        Packet packet = createEmptyPacket(id, source);
-        packet.setFragments(new ArrayList<>());
-        packet.getFragments().add(rts);
-        synchronized (packet) {
-            inbound.send(packet);
-            while ((cardinality = received.cardinality()) < numberOfPackets) {
-                if (cardinality == lastCardinality) {
-                    if (receivedNone++ > 3) {
-                        packet.fail();
-                        throw new BusException("Failed to receive DT");
-                    }
-                } else {
-                    lastCardinality = cardinality;
-                    receivedNone = 0;
-                }
-                int nextPacket = received.nextClearBit(1);
-                int packetCount = received.nextSetBit(nextPacket) - nextPacket;
-                if (packetCount < 0) {
-                    packetCount = numberOfPackets - nextPacket + 1;
-                }
-                if (packetCount > maxResponsePackets) {
-                    packetCount = maxResponsePackets;
-                }
-                try (Stream<Packet> dataStream = bus.read(T2, TimeUnit.MILLISECONDS);) {
-                    Stream<Packet> stream = dataStream
-                                                      .filter(p -> p.getSource() == source)
-                                                      .peek(p -> {
-                                                          if (p.getId(0xFFFF) == (CM | rts.getId(0xFF))) {
-                                                              if (p.get(0) == CM_ConnAbort) {
-                                                                  warn(getAbortError(p.get(1)), p);
-                                                              }
-                                                              warn("TP canceled", p);
-                                                              packet.fail();
-                                                              throw new PacketException("TP canceled");
-                                                          }
-                                                      })
-                                                      // only consider DT packet that are part of this
-                                                      // connection
-                                                      .filter(p -> p.getId(0xFFFF) == (DT | rts.getId(0xFF)))
-                                                      // After every TP.DT, reset timeout to T1 from now.
-                                                      .peek(p -> bus.resetTimeout(dataStream,
-                                                                                  T1,
-                                                                                  TimeUnit.MILLISECONDS))
-                                                      .limit(packetCount);
-                    Packet cts = createPacket(CM | source,
-                                              getAddress(),
-                                              CM_CTS,
-                                              packetCount,
-                                              nextPacket,
-                                              0xFF,
-                                              0xFF,
-                                              rts.get(5),
-                                              rts.get(6),
-                                              rts.get(7));
-                    fine("tx CTS", cts);
-                    packet.getFragments().add(bus.send(cts));
-                    stream.forEach(p -> {
-                        packet.getFragments().add(p);
-                        fine("rx DT", rts);
-                        received.set(p.get(0));
-                        packet.setTimestamp(p.getTimestamp());
-                        int offset = (p.get(0) - 1) * 7;
-                        System.arraycopy(p.getBytes(), 1, data, offset, Math.min(offset + 7, data.length) - offset);
-                    });
-                } catch (PacketException e) {
-                    // TP failed.
-                    packet.fail();
+    /** A destination specific session, paced by the CTSs of this. */
+    private class RtsSession extends Session {
+        private final int maxResponsePackets;
+        private int receivedNone;
+        private int lastCardinality = -1;
+        /** The DTs left in the window of the last CTS. */
+        private int window;
+
+        RtsSession(Packet rts) {
+            super(rts);
+            maxResponsePackets = rts.get(4);
+        }
+
+        @Override
+        void start() {
+            fine("rx RTS", announcement);
+            super.start();
+            requestWindow();
+        }
+
+        /** Sends the next CTS, or the EOM once all the data is received. */
+        private void requestWindow() {
+            int cardinality = received.cardinality();
+            if (cardinality == numberOfPackets) {
+                complete();
+                return;
+            }
+            if (cardinality == lastCardinality) {
+                if (receivedNone++ > 3) {
+                    fail();
+                    error("Failed to receive destination specific TP:" + packet,
+                          new BusException("Failed to receive DT"));
                     return;
                 }
+            } else {
+                lastCardinality = cardinality;
+                receivedNone = 0;
+            }
+            int nextPacket = received.nextClearBit(1);
+            int packetCount = received.nextSetBit(nextPacket) - nextPacket;
+            if (packetCount < 0) {
+                packetCount = numberOfPackets - nextPacket + 1;
             }
+            if (packetCount > maxResponsePackets) {
+                packetCount = maxResponsePackets;
+            }
+            window = packetCount;
+            Packet cts = createPacket(CM | source,
+                                      getAddress(),
+                                      CM_CTS,
+                                      packetCount,
+                                      nextPacket,
+                                      0xFF,
+                                      0xFF,
+                                      announcement.get(5),
+                                      announcement.get(6),
+                                      announcement.get(7));
+            fine("tx CTS", cts);
+            expireAfter(T2);
+            sendFrame(cts, null);
+        }
+
+        private void complete() {
             Packet eom = createPacket(CM | source,
                                       getAddress(),
                                       CM_EndOfMessageACK,
-                                      rts.get(1),
-                                      rts.get(2),
-                                      rts.get(3),
+                                      announcement.get(1),
+                                      announcement.get(2),
+                                      announcement.get(3),
                                       0xFF,
-                                      rts.get(5),
-                                      rts.get(6),
-                                      rts.get(7));
+                                      announcement.get(5),
+                                      announcement.get(6),
+                                      announcement.get(7));
             fine("tx EOM", eom);
-            packet.getFragments().add(bus.send(eom));
-
-            // signal done collecting packet data
-            packet.setData(data);
-        }
-    }
-
-    private Packet sendBam(Packet packet) throws BusException {
-        int pgn = packet.getPgn();
-        int packetsToSend = packet.getLength() / 7 + 1;
-        int sourceAddress = getAddress();
-        Packet bam = createPacket(CM | 0xFF,
-                                  sourceAddress,
-                                  CM_BAM,
-                                  packet.getLength(),
-                                  packet.getLength() >> 8,
-                                  packetsToSend,
-                                  0xFF,
-                                  0xFF & pgn,
-                                  0xFF & (pgn >> 8),
-                                  (0b111 & (pgn >> 16)));
-        fine("tx BAM", bam);
-
-        bus.send(bam);
-        // send data
-        int id = DT | 0xFF;
-        for (int i = 0; i < packetsToSend; i++) {
-            byte[] buf = new byte[8];
-
-            int end = Math.min(packet.getLength() - i * 7, 7);
-            System.arraycopy(packet.getBytes(),
-                             i * 7,
-                             buf,
-                             1,
-                             end);
-            Arrays.fill(buf, end + 1, buf.length, (byte) 0xFF);
-            buf[0] = (byte) (i + 1);
-            sleep(50);
-            Packet dp = createPacket(id, sourceAddress, buf);
+            end();
+            // signal done collecting packet data, once the EOM is sent
+            sendFrame(eom, () -> packet.adoptData(data));
+        }
+
+        @Override
+        void data(Packet dt) {
+            fine("rx DT", dt);
+            add(dt);
+            if (--window <= 0) {
+                requestWindow();
+            } else {
+                // After every TP.DT, reset timeout to T1 from now.
+                expireAfter(T1);
+            }
+        }
+
+        @Override
+        void expired() {
+            requestWindow();
+        }
+
+        @Override
+        void abort(Packet control) {
+            if (control.get(0) == CM_ConnAbort) {
+                warn(getAbortError(control.get(1)), control);
+            }
+            warn("TP canceled", control);
+            fail();
+        }
+
+        /**
+         * Sends a frame of the session, in its place among the fragments. Once
+         * it is sent, the frame is replaced by its echo and then is run on
+         * the session thread.
+         */
+        private void sendFrame(Packet frame, Runnable then) {
+            List<Packet> fragments = packet.getFragments();
+            int index = fragments.size();
+            fragments.add(frame);
+            write(frame).whenComplete((echo, t) -> execute(() -> {
+                if (t != null) {
+                    error("Failed to send " + frame, t);
+                } else if (echo != null) {
+                    fragments.set(index, echo);
+                }
+                if (then != null) {
+                    then.run();
+                }
+            }));
+        }
+    }
+
+    private Packet createEmptyPacket(int id, int source) {
+        return new Packet(LocalDateTime.now(), 7, id, source, false, (int[]) null);
+    }
+
+    /**
+     * Broadcasts a message with BAM without waiting for it. The DT frames are
+     * sent {@link #getBamGap()} after the frame before them is written. The
+     * messages of this are sent one after another; those of other senders
+     * interleave with them.
+     * {@link #send(Packet)} waits for the message instead.
+     *
+     * @param  packet
+     *                    the message, more than 8 bytes long
+     * @return        completes with the message when the last DT frame is
+     *                sent, or exceptionally if it could not be sent
+     */
+    public CompletableFuture<Packet> sendBam(Packet packet) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new BusException("Closed"));
+        }
+        BamTransfer transfer = new BamTransfer(packet);
+        execute(() -> {
+            broadcastsOut.add(transfer);
+            if (broadcastsOut.size() == 1) {
+                transfer.start();
+            }
+        });
+        return transfer.done;
+    }
+
+    /**
+     * A message being broadcast. Runs on the session thread, one DT frame per
+     * timeout after the last frame is written.
+     */
+    private class BamTransfer {
+        final Packet packet;
+        final ByteBuffer frames;
+        final int packetsToSend;
+        final CompletableFuture<Packet> done = new CompletableFuture<>();
+        /** The sequence number of the next DT. */
+        int sequence = 1;
+
+        BamTransfer(Packet packet) {
+            this.packet = packet;
+            frames = frames(packet, (byte) 0xFF);
+            packetsToSend = frames.capacity() / 8;
+        }
+
+        void start() {
+            int pgn = packet.getPgn();
+            int length = packet.getLength();
+            Packet bam = createPacket(CM | 0xFF,
+                                      getAddress(),
+                                      CM_BAM,
+                                      length,
+                                      length >> 8,
+                                      packetsToSend,
+                                      0xFF,
+                                      0xFF & pgn,
+                                      0xFF & (pgn >> 8),
+                                      (0b111 & (pgn >> 16)));
+            fine("tx BAM", bam);
+            send(bam, () -> timers.schedule(this::sendData, bamGap, TimeUnit.MILLISECONDS));
+        }
+
+        void sendData() {
+            Packet dp = createFrame(DT | 0xFF, frames, sequence);
 
             fine("tx DT.DP", dp);
-            bus.send(dp);
+            send(dp, () -> {
+                if (sequence++ < packetsToSend) {
+                    timers.schedule(this::sendData, bamGap, TimeUnit.MILLISECONDS);
+                } else {
+                    // Don't bother finding echo. It's hard and not useful for TP sends.
+                    finish(null);
+                }
+            });
+        }
+
+        /** Sends the frame, then runs the next step on the session thread. */
+        private void send(Packet frame, Runnable next) {
+            write(frame).whenComplete((echo, t) -> execute(() -> {
+                if (t == null) {
+                    next.run();
+                } else {
+                    finish(t);
+                }
+            }));
         }
+
+        /** Completes this and starts the next message, after the gap. */
+        private void finish(Throwable failure) {
+            if (failure == null) {
+                done.complete(packet);
+            } else {
+                done.completeExceptionally(failure);
+            }
+            broadcastsOut.remove();
+            BamTransfer next = broadcastsOut.peek();
+            if (next != null) {
+                timers.schedule(next::start, bamGap, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Sends a message with RTS/CTS, waiting until it is acknowledged.
+     *
+     * @see #sendDestinationSpecificAsync(int, Packet)
+     */
+    public Packet sendDestinationSpecific(int destinationAddress, Packet packet) throws BusException {
+        await(sendDestinationSpecificAsync(destinationAddress, packet), packet);
         // Don't bother finding echo. It's hard and not useful for TP sends.
         return null;
     }
 
-    public Packet sendDestinationSpecific(int destinationAddress, Packet packet) throws BusException {
-        int pgn = packet.getPgn();
-        Predicate<Packet> controlMessageFilter = p -> //
-        p.getSource() == destinationAddress
-                && p.getId(0xFFFF) == (CM | packet.getSource());
-
-        // send RTS
-        int totalPacketsToSend = packet.getLength() / 7 + 1;
-        Packet rts = createPacket(CM | destinationAddress,
-                                  getAddress(),
-                                  CM_RTS,
-                                  packet.getLength(),
-                                  packet.getLength() >> 8,
-                                  totalPacketsToSend,
-                                  0xFF,
-                                  0xFF & pgn,
-                                  0xFF & (pgn >> 8),
-                                  0xFF & (pgn >> 16));
-        fine("tx RTS", rts);
-
-        Stream<Packet> ctsStream = bus.read(T3, TimeUnit.MILLISECONDS)
-                                      .filter(controlMessageFilter);
-        bus.send(rts);
-
-        // wait for CTS
-        Optional<Packet> ctsOptional = ctsStream.findFirst();
-        while (ctsOptional.map(p -> p.get(0) == CM_CTS).orElse(false)) {
-            Packet cts = ctsOptional.get();
-            fine("rx CTS", cts);
+    /** Waits for a message to be sent, throwing the reason it was not. */
+    private static void await(CompletableFuture<Packet> sending, Packet packet) throws BusException {
+        try {
+            sending.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BusException) {
+                throw (BusException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new BusException("Failed to send " + packet, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusException("Interrupted sending " + packet, e);
+        }
+    }
+
+    /**
+     * Sends a message with RTS/CTS without waiting for it. The session is run
+     * by the session thread, driven by the CTSs of the destination, so
+     * sessions to different destinations run at the same time. Only one
+     * session to a destination is open at a time; the others wait for it.
+     *
+     * @param  destinationAddress
+     *                                the address to send the message to
+     * @param  packet
+     *                                the message, more than 8 bytes long
+     * @return                    completes with the message when the
+     *                            destination acknowledges it, or exceptionally
+     *                            with a {@link CtsBusException} or
+     *                            {@link EomBusException} if it does not
+     */
+    public CompletableFuture<Packet> sendDestinationSpecificAsync(int destinationAddress, Packet packet) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new BusException("Closed"));
+        }
+        RtsTransfer transfer = new RtsTransfer(destinationAddress, packet);
+        execute(() -> {
+            Queue<RtsTransfer> queue = connectionsOut.computeIfAbsent(destinationAddress, k -> new ArrayDeque<>());
+            queue.add(transfer);
+            if (queue.size() == 1) {
+                transfer.step(transfer::start);
+            }
+        });
+        return transfer.done;
+    }
+
+    /**
+     * A message being sent with RTS/CTS. Runs on the session thread, driven
+     * by the control frames of the destination and its timeout.
+     */
+    private class RtsTransfer {
+        final int destination;
+        final Packet packet;
+        final int pgn;
+        final ByteBuffer frames;
+        final int totalPacketsToSend;
+        final CompletableFuture<Packet> done = new CompletableFuture<>();
+        Timeout timeout;
+        /** Counts the CTSs, so that the DTs of an earlier window stop. */
+        int windows;
+        /** Set once the last DT is written, until the next CTS. */
+        boolean eomDue;
+
+        RtsTransfer(int destination, Packet packet) {
+            this.destination = destination;
+            this.packet = packet;
+            pgn = packet.getPgn();
+            frames = frames(packet, (byte) 0x00);
+            totalPacketsToSend = frames.capacity() / 8;
+        }
+
+        void start() {
+            int length = packet.getLength();
+            Packet rts = createPacket(CM | destination,
+                                      getAddress(),
+                                      CM_RTS,
+                                      length,
+                                      length >> 8,
+                                      totalPacketsToSend,
+                                      0xFF,
+                                      0xFF & pgn,
+                                      0xFF & (pgn >> 8),
+                                      0xFF & (pgn >> 16));
+            fine("tx RTS", rts);
+            // wait for CTS
+            expireAfter(T3);
+            send(rts);
+        }
+
+        /** Handles a TP.CM frame from the destination. */
+        void control(Packet control) {
+            step(() -> receive(control));
+        }
 
-            int packetsToSend = Math.min(cts.get(1), totalPacketsToSend);
-            if (packetsToSend == 0) {
+        private void receive(Packet control) {
+            switch (control.get(0)) {
+                case CM_CTS:
+                    cts(control);
+                    break;
+                case CM_EndOfMessageACK:
+                    fine("rx EOM", control);
+                    finish(null);
+                    break;
+                case CM_ConnAbort:
+                    fine("rx Abort", control);
+                    // FAIL
+                    warn("Abort received: " + getAbortError(control.get(1)));
+                    finish(null);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void cts(Packet cts) {
+            fine("rx CTS", cts);
+            // stop the DTs of the last window
+            windows++;
+            eomDue = false;
+            if (cts.get(1) == 0) {
                 if ((cts.get64() & 0x0000FFFFFFFFFFFFL) != 0x0000FFFFFFFFFFFFL) {
                     warn("TP.CM_CTS \"hold the connection open\" should be: %04X  %s",
                          0x0000FFFFFFFFFFFFL,
                          cts.toString());
                 }
                 // wait for CTS
-                ctsOptional = bus.read(T4, TimeUnit.MILLISECONDS).filter(controlMessageFilter).findFirst();
-            } else {
-                int offset = cts.get(2);
-                if (cts.get16(3) != 0xFFFF) {
-                    warn("TP.CM_CTS bytes 4-5 should be FFFF: %04X  %s", cts.get16(3), cts.toString());
-                }
-                if (cts.get24(5) != pgn) {
-                    warn("TP.CM_CTS bytes 6-8 should be the PGN: %04X  %s", cts.get24(5), cts.toString());
-                }
-                // send data
-                for (int i = 0; i < packetsToSend; i++) {
-                    byte[] buf = new byte[8];
-                    System.arraycopy(packet.getBytes(),
-                                     (i + offset - 1) * 7,
-                                     buf,
-                                     1,
-                                     Math.min(packet.getLength() - i * 7, 7));
-                    buf[0] = (byte) (i + 1);
-                    Packet dp = createPacket(DT | destinationAddress, getAddress(), buf);
-
-                    fine("tx DP", dp);
-                    bus.send(dp);
+                expireAfter(T4);
+                return;
+            }
+            int offset = cts.get(2);
+            if (cts.get16(3) != 0xFFFF) {
+                warn("TP.CM_CTS bytes 4-5 should be FFFF: %04X  %s", cts.get16(3), cts.toString());
+            }
+            if (cts.get24(5) != pgn) {
+                warn("TP.CM_CTS bytes 6-8 should be the PGN: %04X  %s", cts.get24(5), cts.toString());
+            }
+            // wait for CTS or EOM, from before the data is sent
+            expireAfter(T3);
+            // send data
+            int packetsToSend = Math.max(0, Math.min(cts.get(1), totalPacketsToSend + 1 - offset));
+            sendData(windows, offset, offset + packetsToSend);
+        }
+
+        /**
+         * Sends the DTs of a window from the sequence number up to the end,
+         * each once the one before it is written, so that the window does not
+         * crowd out the frames of the other sessions.
+         */
+        private void sendData(int window, int sequence, int end) {
+            if (window != windows || done.isDone()) {
+                return;
+            }
+            if (sequence > totalPacketsToSend) {
+                eomDue = true;
+            }
+            if (sequence >= end) {
+                // wait for CTS or EOM, from the last DT
+                expireAfter(T3);
+                return;
+            }
+            Packet dp = createFrame(DT | destination, frames, sequence);
+            fine("tx DP", dp);
+            write(dp).whenComplete((echo, t) -> execute(() -> step(() -> {
+                if (t != null) {
+                    finish(t);
+                } else {
+                    sendData(window, sequence + 1, end);
                 }
-                // wait for CTS or EOM
-                ctsOptional = bus.read(T3, TimeUnit.MILLISECONDS).filter(controlMessageFilter).findFirst();
+            })));
+        }
+
+        private void expireAfter(int millis) {
+            if (timeout != null) {
+                timeout.cancel();
             }
+            timeout = timers.schedule(() -> step(this::expired), millis, TimeUnit.MILLISECONDS);
         }
-        ctsOptional.ifPresent(eom -> fine("rx EOM", eom));
 
-        if (ctsOptional.map(p -> p.get(0) == CM_ConnAbort).orElse(false)) {
-            // FAIL
-            warn("Abort received: " + getAbortError(ctsOptional.get().get(1)));
-        } else if (ctsOptional.map(p -> p.get(0) != CM_EndOfMessageACK).orElse(true)) {
-            // verify EOM
-            warn((ctsOptional.isPresent() ? "CTS" : "EOM") + " not received.");
-            throw ctsOptional.map(p -> (BusException) new EomBusException())
-                             .orElse(new CtsBusException());
+        /** Runs a step of the session, failing the message if it throws. */
+        private void step(Runnable step) {
+            try {
+                step.run();
+            } catch (Throwable t) {
+                finish(t);
+            }
         }
 
-        // Don't bother finding echo. It's hard and not useful for TP sends.
-        return null;
+        private void expired() {
+            if (eomDue) {
+                warn("EOM not received.");
+                finish(new EomBusException());
+            } else {
+                warn("CTS not received.");
+                finish(new CtsBusException());
+            }
+        }
+
+        /** Sends the frame, failing the message if it cannot be sent. */
+        private void send(Packet frame) {
+            write(frame).whenComplete((echo, t) -> {
+                if (t != null) {
+                    execute(() -> finish(t));
+                }
+            });
+        }
+
+        /** Completes this and starts the next session to the destination. */
+        private void finish(Throwable failure) {
+            if (done.isDone()) {
+                return;
+            }
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            if (failure == null) {
+                done.complete(packet);
+            } else {
+                done.completeExceptionally(failure);
+            }
+            Queue<RtsTransfer> queue = connectionsOut.get(destination);
+            queue.remove();
+            RtsTransfer next = queue.peek();
+            if (next == null) {
+                connectionsOut.remove(destination);
+            } else {
+                next.step(next::start);
+            }
+        }
     }
 
     private Packet createPacket(int id,
@@ -529,6 +1127,36 @@ public class J1939TP implements Bus {
         return Packet.create(7, id, source, false, buf);
     }
 
+    /**
+     * Lays a message out as the TP.DT frames that carry it, in one buffer of
+     * 8 bytes per frame: the sequence number, then 7 data bytes, the last
+     * frame padded. Each frame is read straight from the buffer.
+     */
+    private static ByteBuffer frames(Packet packet, byte padding) {
+        int length = packet.getLength();
+        int count = (length + 6) / 7;
+        byte[] frames = new byte[count * 8];
+        for (int i = 0; i < count; i++) {
+            frames[i * 8] = (byte) (i + 1);
+            packet.getBytes(i * 7, frames, i * 8 + 1, Math.min(7, length - i * 7));
+        }
+        // pad the last frame
+        Arrays.fill(frames, count + length, frames.length, padding);
+        return ByteBuffer.wrap(frames);
+    }
+
+    /** @return the TP.DT frame of the sequence number, from {@link #frames} */
+    private Packet createFrame(int id, ByteBuffer frames, int sequence) {
+        return Packet.create(Packet.toNanos(LocalDateTime.now()),
+                             7,
+                             id,
+                             getAddress(),
+                             false,
+                             frames,
+                             (sequence - 1) * 8,
+                             8);
+    }
+
     public void warn(String msg, Object... a) {
         logger.warning(String.format(msg, a));
     }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.j1939;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A hashed timer wheel. Timeouts are kept in a ring of buckets, one per tick,
+ * each a doubly linked list, so scheduling and cancelling a timeout is O(1) no
+ * matter how many are pending. Timeouts more than one turn of the wheel away
+ * stay in their bucket until the wheel comes around to their tick.
+ *
+ * A timeout runs on the first {@link #advance()} after its tick, so it runs at
+ * most one tick late. Not thread safe; the timer wheel is owned by one thread.
+ */
+class TimerWheel {
+
+    /** A scheduled task. */
+    final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private Timeout previous;
+        private Timeout next;
+        private boolean pending = true;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /** Stops the task from running, if it has not already. */
+        void cancel() {
+            if (pending) {
+                unlink(this);
+            }
+        }
+
+        boolean isPending() {
+            return pending;
+        }
+    }
+
+    private final LongSupplier clock;
+
+    private final long tickNanos;
+
+    private final long startNanos;
+
+    private final Timeout[] buckets;
+
+    private final int mask;
+
+    /** The next tick to expire. */
+    private long tick;
+
+    private int size;
+
+    /**
+     * Constructor
+     *
+     * @param tick
+     *                      the duration of each tick
+     * @param unit
+     *                      the {@link TimeUnit} of the tick
+     * @param wheelSize
+     *                      the number of ticks in a turn of the wheel, a power
+     *                      of two
+     */
+    TimerWheel(long tick, TimeUnit unit, int wheelSize) {
+        this(tick, unit, wheelSize, System::nanoTime);
+    }
+
+    /**
+     * Constructor exposed for testing
+     *
+     * @param clock
+     *                  the time in nanoseconds
+     */
+    TimerWheel(long tick, TimeUnit unit, int wheelSize, LongSupplier clock) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+        }
+        this.clock = clock;
+        tickNanos = unit.toNanos(tick);
+        startNanos = clock.getAsLong();
+        buckets = new Timeout[wheelSize];
+        mask = wheelSize - 1;
+    }
+
+    /**
+     * Schedules a task to run once the delay has passed.
+     *
+     * @return the timeout, to cancel the task
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long due = clock.getAsLong() - startNanos + unit.toNanos(delay);
+        // round up, so the task never runs early
+        Timeout timeout = new Timeout(task, Math.max(tick, (due + tickNanos - 1) / tickNanos));
+        int b = (int) (timeout.deadline & mask);
+        timeout.next = buckets[b];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        buckets[b] = timeout;
+        size++;
+        return timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.previous == null) {
+            buckets[(int) (timeout.deadline & mask)] = timeout.next;
+        } else {
+            timeout.previous.next = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.pending = false;
+        size--;
+    }
+
+    /**
+     * Runs the tasks of every tick that has passed. Tasks may schedule other
+     * tasks; a task scheduled for a tick that has passed runs on the next
+     * call.
+     *
+     * @return the number of tasks run
+     */
+    int advance() {
+        long now = (clock.getAsLong() - startNanos) / tickNanos;
+        int count = 0;
+        List<Timeout> expired = new ArrayList<>();
+        while (tick <= now && size > 0) {
+            for (Timeout t = buckets[(int) (tick & mask)]; t != null;) {
+                Timeout next = t.next;
+                if (t.deadline <= tick) {
+                    unlink(t);
+                    expired.add(t);
+                }
+                t = next;
+            }
+            tick++;
+            // run after the tick, so tasks they schedule are not missed
+            for (Timeout t : expired) {
+                t.task.run();
+                count++;
+            }
+            expired.clear();
+        }
+        if (size == 0) {
+            tick = Math.max(tick, now + 1);
+        }
+        return count;
+    }
+
+    /**
+     * @return the nanoseconds until the next tick with a timeout could expire,
+     *         or Long.MAX_VALUE if there are none
+     */
+    long nanosToNextTick() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, startNanos + tick * tickNanos - clock.getAsLong());
+    }
+
+    /** @return the number of pending timeouts */
+    int size() {
+        return size;
+    }
+}
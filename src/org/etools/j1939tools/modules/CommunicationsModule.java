@@ -461,8 +461,8 @@ public class CommunicationsModule extends FunctionalModule {
                                                     (address, packet) -> address)))
                                                                                    .values()
                                                                                    .stream()
-                                                                                   .sorted(Comparator.comparing(o -> o.getPacket()
-                                                                                                                      .getTimestamp()))
+                                                                                   .sorted(Comparator.comparingLong(o -> o.getPacket()
+                                                                                                                          .getTimestampNanos()))
                                                                                    .peek(p -> listener.onResult(p.getPacket()
                                                                                                                  .toTimeString()
                                                                                            + NL + p + NL))
@@ -481,8 +481,8 @@ public class CommunicationsModule extends FunctionalModule {
     public <T extends GenericPacket> List<T> request(Class<T> clazz, CommunicationsListener listener) {
         return (List<T>) request(getPg(clazz, listener), listener).getPackets()
                                                                   .stream()
-                                                                  .sorted(Comparator.comparing((o) -> o.getPacket()
-                                                                                                       .getTimestamp()))
+                                                                  .sorted(Comparator.comparingLong((o) -> o.getPacket()
+                                                                                                           .getTimestampNanos()))
                                                                   .collect(Collectors.toList());
     }
 